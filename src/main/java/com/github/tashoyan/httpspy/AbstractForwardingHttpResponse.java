@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response that forwards all properties to another response.
+ * <p>
+ * Subclasses override {@link #select } to decide which response to send.
+ */
+abstract class AbstractForwardingHttpResponse implements HttpResponse {
+
+    /**
+     * Gets the response to forward properties to.
+     * 
+     * @return Response. Never returns null.
+     */
+    protected abstract HttpResponse delegate();
+
+    @Override
+    public int getStatusCode() {
+        return delegate().getStatusCode();
+    }
+
+    @Override
+    public String getBody() {
+        return delegate().getBody();
+    }
+
+    @Override
+    public ByteBuffer getBodyBuffer() {
+        return delegate().getBodyBuffer();
+    }
+
+    @Override
+    public StreamingBody getStreamingBody() {
+        return delegate().getStreamingBody();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+        return delegate().getHeaders();
+    }
+
+    @Override
+    public long getDelayMillis() {
+        return delegate().getDelayMillis();
+    }
+
+    @Override
+    public LatencyDistribution getDelayDistribution() {
+        return delegate().getDelayDistribution();
+    }
+
+    @Override
+    public long sampleDelayNanos() {
+        return delegate().sampleDelayNanos();
+    }
+
+    @Override
+    public LatencyHistogram getAppliedDelays() {
+        return delegate().getAppliedDelays();
+    }
+
+    @Override
+    public TransportFault getFault() {
+        return delegate().getFault();
+    }
+}
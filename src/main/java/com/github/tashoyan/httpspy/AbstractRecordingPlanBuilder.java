@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Collection;
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Builder for {@link RecordingPlan}.
+ * <p>
+ * User may {@link #expect } some requests in {@link #compose }, exactly like with
+ * {@link AbstractStubPlanBuilder}; all other requests are forwarded to the
+ * upstream server and recorded by the {@link ProxyRecorder}. A builder without
+ * expectations makes HTTP Spy forward all requests:
+ * 
+ * <pre>
+ * ProxyRecorder recorder = new ProxyRecorder(&quot;http://localhost:8080&quot;);
+ * httpSpy.testPlan(new AbstractRecordingPlanBuilder(recorder) {
+ * 
+ *     public void compose() {
+ *     }
+ * });
+ * // SUT executes requests...
+ * recorder.save(stubFile);
+ * </pre>
+ */
+@NotThreadSafe
+public abstract class AbstractRecordingPlanBuilder extends AbstractStubPlanBuilder {
+
+    private final ProxyRecorder recorder;
+
+    /**
+     * Creates new builder.
+     * 
+     * @param recorder Recorder to forward unmatched requests.
+     * @throws NullPointerException recorder is null.
+     */
+    protected AbstractRecordingPlanBuilder(ProxyRecorder recorder) {
+        Validate.notNull(recorder, "recorder must not be null");
+        this.recorder = recorder;
+    }
+
+    @Override
+    protected StubPlan createStubPlan(
+            Collection<RequestExpectation> requestExpectations,
+            Collection<HttpResponse> responses, StubPlanOptions options) {
+        return new RecordingPlan(requestExpectations, responses, options, recorder);
+    }
+}
@@ -33,6 +33,8 @@ public abstract class AbstractSequencePlanBuilder
     private final List<HttpResponse> responses = new ArrayList<>(
             DEFAULT_REQUESTS_NUMBER);
 
+    private IncrementalVerifier incrementalVerifier;
+
     /**
      * {@inheritDoc }
      * <p>
@@ -48,9 +50,7 @@ public abstract class AbstractSequencePlanBuilder
         Validate.notNull(requestExpectationBuilder,
                 "requestExpectationBuilder must not be null");
         RequestExpectation requestExpectation = requestExpectationBuilder.build();
-        ResponseBuilder responseBuilder =
-                requestExpectationBuilder.getResponseBuilder();
-        HttpResponse response = responseBuilder.build();
+        HttpResponse response = requestExpectationBuilder.buildResponse();
         requestExpectations.add(requestExpectation);
         responses.add(response);
     }
@@ -71,19 +71,33 @@ public abstract class AbstractSequencePlanBuilder
         Validate.notNull(requestExpectationBuilder,
                 "requestExpectationBuilder must not be null");
         RequestExpectation requestExpectation = requestExpectationBuilder.build();
-        ResponseBuilder responseBuilder =
-                requestExpectationBuilder.getResponseBuilder();
-        HttpResponse response = responseBuilder.build();
+        HttpResponse response = requestExpectationBuilder.buildResponse();
         for (int i = 0; i < times; i++) {
             requestExpectations.add(requestExpectation);
             responses.add(response);
         }
     }
 
+    /**
+     * Check actual requests at arrival time.
+     * <p>
+     * User can invoke this method inside his implementation of {@link #compose }
+     * to detect mismatches during the test, without waiting for the
+     * verification step. User keeps the reference to the verifier to poll or
+     * block on its failure flag.
+     * 
+     * @param verifier Verifier to check actual requests.
+     * @throws NullPointerException verifier is null.
+     */
+    public void verifyIncrementally(IncrementalVerifier verifier) {
+        Validate.notNull(verifier, "verifier must not be null");
+        this.incrementalVerifier = verifier;
+    }
+
     @Override
     public SequencePlan build() {
         this.compose();
-        return new SequencePlan(requestExpectations, responses);
+        return new SequencePlan(requestExpectations, responses, incrementalVerifier);
     }
 
     /**
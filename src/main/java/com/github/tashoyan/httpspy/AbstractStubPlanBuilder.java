@@ -15,6 +15,7 @@
  */
 package com.github.tashoyan.httpspy;
 
+import java.util.Collection;
 import java.util.Deque;
 import java.util.LinkedList;
 import net.jcip.annotations.NotThreadSafe;
@@ -36,14 +37,26 @@ public abstract class AbstractStubPlanBuilder
 
     private final Deque<HttpResponse> responses = new LinkedList<>();
 
+    private final StubPlanOptions options = new StubPlanOptions();
+
+    /**
+     * Gets optional features of the test plan being composed.
+     * <p>
+     * User can invoke this method inside {@link #compose } to enable optional
+     * features.
+     * 
+     * @return Options of the test plan. Never returns null.
+     */
+    public StubPlanOptions options() {
+        return options;
+    }
+
     @Override
     public void expect(RequestExpectationBuilder requestExpectationBuilder) {
         Validate.notNull(requestExpectationBuilder,
                 "requestExpectationBuilder must not be null");
         RequestExpectation requestExpectation = requestExpectationBuilder.build();
-        ResponseBuilder responseBuilder =
-                requestExpectationBuilder.getResponseBuilder();
-        HttpResponse response = responseBuilder.build();
+        HttpResponse response = requestExpectationBuilder.buildResponse();
         requestExpectations.addFirst(requestExpectation);
         responses.addFirst(response);
     }
@@ -51,7 +64,26 @@ public abstract class AbstractStubPlanBuilder
     @Override
     public StubPlan build() {
         this.compose();
-        return new StubPlan(requestExpectations, responses);
+        return createStubPlan(requestExpectations, responses, options);
+    }
+
+    /**
+     * Creates the test plan from the composed request expectations and
+     * responses.
+     * <p>
+     * This implementation creates {@link StubPlan}. Subclasses may override it
+     * to create a subclass of {@link StubPlan}.
+     * 
+     * @param requestExpectations Request expectations in the order of
+     * evaluation.
+     * @param responses Responses for the request expectations.
+     * @param options Optional features of the test plan.
+     * @return New test plan. Never returns null.
+     */
+    protected StubPlan createStubPlan(
+            Collection<RequestExpectation> requestExpectations,
+            Collection<HttpResponse> responses, StubPlanOptions options) {
+        return new StubPlan(requestExpectations, responses, options);
     }
 
     /**
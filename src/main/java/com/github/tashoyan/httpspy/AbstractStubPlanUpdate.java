@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Batch of changes to request expectations of a running {@link StubPlan}.
+ * <p>
+ * User implements {@link #compose } the same way as for
+ * {@link AbstractStubPlanBuilder}, but instead of {@code expect} invokes
+ * {@link #add }, {@link #remove } and {@link #replace }. Request expectations are
+ * identified by ids, see {@link StubPlan#getExpectationIds }. Example:
+ * 
+ * <pre>
+ * stubPlan.update(new AbstractStubPlanUpdate() {
+ * 
+ *     &#064;Override
+ *     public void compose() {
+ *         add(&quot;login&quot;,
+ *                 request().withPath(equalTo(&quot;/login&quot;)).andResponse(
+ *                         response().withStatus(200)));
+ *         remove(&quot;0&quot;);
+ *     }
+ * });
+ * </pre>
+ * <p>
+ * The test plan applies all changes of the batch atomically: servicing threads
+ * see either none or all of them. If a change is invalid, then none of the
+ * changes is applied.
+ */
+@NotThreadSafe
+public abstract class AbstractStubPlanUpdate {
+
+    private final List<Change> changes = new ArrayList<>();
+
+    /**
+     * Kind of change.
+     */
+    enum ChangeType {
+        ADD, REMOVE, REPLACE
+    }
+
+    /**
+     * Change of a request expectation.
+     */
+    @Immutable
+    static final class Change {
+
+        private final ChangeType type;
+
+        private final String id;
+
+        private final RequestExpectation expectation;
+
+        private final HttpResponse response;
+
+        Change(ChangeType type, String id, RequestExpectation expectation,
+                HttpResponse response) {
+            this.type = type;
+            this.id = id;
+            this.expectation = expectation;
+            this.response = response;
+        }
+
+        ChangeType getType() {
+            return type;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        RequestExpectation getExpectation() {
+            return expectation;
+        }
+
+        HttpResponse getResponse() {
+            return response;
+        }
+    }
+
+    /**
+     * Creates new request expectation builder.
+     * 
+     * @return Request expectation builder.
+     */
+    public RequestExpectationBuilder request() {
+        return new DefaultRequestExpectationBuilder();
+    }
+
+    /**
+     * Creates new response builder.
+     * 
+     * @return Response builder.
+     */
+    public ResponseBuilder response() {
+        return new DefaultResponseBuilder();
+    }
+
+    private void addChange(ChangeType type, String id,
+            RequestExpectationBuilder requestExpectationBuilder) {
+        Validate.notBlank(id, "id must not be blank");
+        Validate.notNull(requestExpectationBuilder,
+                "requestExpectationBuilder must not be null");
+        changes.add(new Change(type, id, requestExpectationBuilder.build(),
+                requestExpectationBuilder.buildResponse()));
+    }
+
+    /**
+     * Adds a request expectation with the highest priority: the test plan will
+     * evaluate it first. This is consistent with
+     * {@link AbstractStubPlanBuilder}, where the latest expectation is
+     * evaluated first.
+     * 
+     * @param id Id of the new request expectation. Must be unique within the
+     * test plan.
+     * @param requestExpectationBuilder Request expectation with a response.
+     * @throws NullPointerException id is null, requestExpectationBuilder is
+     * null.
+     * @throws IllegalArgumentException id is empty or blank.
+     */
+    public void add(String id, RequestExpectationBuilder requestExpectationBuilder) {
+        addChange(ChangeType.ADD, id, requestExpectationBuilder);
+    }
+
+    /**
+     * Replaces a request expectation and its response, keeping the order of
+     * evaluation. Statistics of the replaced expectation is discarded.
+     * 
+     * @param id Id of an existing request expectation.
+     * @param requestExpectationBuilder New request expectation with a response.
+     * @throws NullPointerException id is null, requestExpectationBuilder is
+     * null.
+     * @throws IllegalArgumentException id is empty or blank.
+     */
+    public void replace(String id, RequestExpectationBuilder requestExpectationBuilder) {
+        addChange(ChangeType.REPLACE, id, requestExpectationBuilder);
+    }
+
+    /**
+     * Removes a request expectation.
+     * 
+     * @param id Id of an existing request expectation.
+     * @throws NullPointerException id is null.
+     * @throws IllegalArgumentException id is empty or blank.
+     */
+    public void remove(String id) {
+        Validate.notBlank(id, "id must not be blank");
+        changes.add(new Change(ChangeType.REMOVE, id, null, null));
+    }
+
+    /**
+     * Composes the batch of changes.
+     * <p>
+     * User has to implement this method and invoke {@link #add },
+     * {@link #remove } and {@link #replace } inside.
+     */
+    public abstract void compose();
+
+    /**
+     * Composes the batch and gets the changes.
+     * 
+     * @return Unmodifiable list of changes in the order of invocation.
+     */
+    List<Change> build() {
+        changes.clear();
+        compose();
+        return Collections.unmodifiableList(new ArrayList<>(changes));
+    }
+}
@@ -15,11 +15,10 @@
  */
 package com.github.tashoyan.httpspy;
 
-import com.github.tashoyan.httpspy.matcher.JsonEqualMatcher;
 import com.github.tashoyan.httpspy.matcher.XmlEqualMatcher;
+import java.util.regex.Pattern;
 import net.jcip.annotations.NotThreadSafe;
 import org.apache.commons.lang3.StringUtils;
-import org.hamcrest.CoreMatchers;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.hamcrest.TypeSafeMatcher;
@@ -63,22 +62,29 @@ public abstract class AbstractTestPlanBuilder<T extends TestPlan>
 
     /**
      * Creates {equal to JSON} value expectation.
+     * <p>
+     * Request expectations with {@code equal to JSON} body are indexed by
+     * {@link StubPlan}, see {@link #equalTo }.
      * 
      * @param value Expected JSON value. Null or empty values is allowed.
      * @return Value expectation object that means equality to some JSON.
      */
     public static ValueExpectation equalToJson(String value) {
-        return () -> new JsonEqualMatcher(value);
+        return new EqualToJsonValueExpectation(value);
     }
 
     /**
      * Creates {@code equal to} value expectations.
+     * <p>
+     * Request expectations with {@code equal to} method, path and body are
+     * indexed by {@link StubPlan}, so prefer this expectation over
+     * {@link #equalToIgnoreCase } or {@link #matching } whenever possible.
      * 
      * @param value Expected value.
      * @return Value expectation object that means equality to the given value.
      */
     public static ValueExpectation equalTo(String value) {
-        return () -> CoreMatchers.equalTo(value);
+        return new EqualToValueExpectation(value);
     }
 
     /**
@@ -104,6 +110,25 @@ public abstract class AbstractTestPlanBuilder<T extends TestPlan>
         };
     }
 
+    /**
+     * Creates {@code matches regular expression} value expectation.
+     * <p>
+     * The whole value must match the regular expression. Prefer this
+     * expectation over {@link #matching } with a pattern matcher:
+     * {@link StubPlan} checks the body and the path of a request against all
+     * such expectations in one pass and evaluates only the regular expressions
+     * that may match.
+     * 
+     * @param regex Regular expression.
+     * @return Value expectation object that means matching to the given regular
+     * expression.
+     * @throws NullPointerException regex is null.
+     * @throws java.util.regex.PatternSyntaxException regex is invalid.
+     */
+    public static ValueExpectation matchingRegex(String regex) {
+        return new RegexValueExpectation(Pattern.compile(regex));
+    }
+
     /**
      * Creates {@code matches} value expectation.
      * 
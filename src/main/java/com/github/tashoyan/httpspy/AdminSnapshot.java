@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import com.github.tashoyan.httpspy.SpyStatistics.Stage;
+import java.util.Collections;
+import java.util.List;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Snapshot of the state of a spy server, rendered as JSON for the admin
+ * endpoint.
+ * <p>
+ * Counters and histograms are aggregated when the snapshot is created. Recent
+ * unmatched requests are taken from the test plan only when their number or the
+ * test plan has changed since the previous snapshot; otherwise the previous
+ * ones are kept. Unmatched requests are rendered, and explained with near
+ * misses, only on demand, as the journal is.
+ */
+@Immutable
+@ThreadSafe
+final class AdminSnapshot {
+
+    /**
+     * Maximum number of recent unmatched requests in the snapshot.
+     */
+    static final int MAX_UNMATCHED_REQUESTS = 100;
+
+    /**
+     * Maximum number of most recent unmatched requests explained with near
+     * misses in the snapshot.
+     */
+    static final int MAX_EXPLAINED_REQUESTS = 10;
+
+    /**
+     * Number of near misses per explained unmatched request.
+     */
+    static final int EXPLAINED_NEAR_MISSES = 3;
+
+    /**
+     * Maximum number of characters of an unmatched request body in the
+     * snapshot; a longer body is truncated.
+     */
+    static final int MAX_BODY_LENGTH = 1024;
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final long nanos;
+
+    private final long requestsNumber;
+
+    private final double requestsPerSecond;
+
+    private final String metricsJson;
+
+    private final StubPlan stubPlan;
+
+    private final long unmatchedRequestsNumber;
+
+    private final List<HttpRequest> unmatchedRequests;
+
+    private final List<SpyJournal.Entry> journal;
+
+    private AdminSnapshot(CamelJettyHttpSpy spy, AdminSnapshot previous) {
+        SpyStatistics statistics = spy.getStatistics();
+        this.nanos = System.nanoTime();
+        this.requestsNumber = statistics.getRequestsNumber();
+        this.requestsPerSecond = previous == null
+                ? 0
+                : (requestsNumber - previous.requestsNumber)
+                        * NANOS_PER_SECOND / (nanos - previous.nanos);
+        this.journal = statistics.getJournal().getEntries();
+        TestPlan plan = spy.getTestPlan();
+        this.stubPlan = plan instanceof StubPlan
+                ? (StubPlan) plan
+                : null;
+        this.unmatchedRequestsNumber = stubPlan == null
+                ? 0
+                : stubPlan.getUnmatchedRequestsNumber();
+        this.unmatchedRequests =
+                previous != null
+                        && previous.stubPlan == stubPlan
+                        && previous.unmatchedRequestsNumber == unmatchedRequestsNumber
+                        ? previous.unmatchedRequests
+                        : getRecentUnmatchedRequests(stubPlan);
+        this.metricsJson = createMetrics(spy).toString();
+    }
+
+    /**
+     * Creates new snapshot.
+     * 
+     * @param spy Spy server.
+     * @param previous Previous snapshot to calculate request rate. May be null.
+     * @return New snapshot.
+     */
+    static AdminSnapshot create(CamelJettyHttpSpy spy, AdminSnapshot previous) {
+        return new AdminSnapshot(spy, previous);
+    }
+
+    private static List<HttpRequest> getRecentUnmatchedRequests(StubPlan stubPlan) {
+        return stubPlan == null
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(stubPlan
+                        .getRecentUnmatchedRequests(MAX_UNMATCHED_REQUESTS));
+    }
+
+    private JSONObject createMetrics(CamelJettyHttpSpy spy) {
+        SpyStatistics statistics = spy.getStatistics();
+        JSONObject latencies = new JSONObject();
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage.name(), createLatency(statistics.getLatency(stage)));
+        }
+        JSONArray hits = new JSONArray();
+        if (stubPlan != null) {
+            for (long hitsNumber : stubPlan.getHitsNumbers()) {
+                hits.put(hitsNumber);
+            }
+        }
+        return new JSONObject().put("timestampMillis", System.currentTimeMillis())
+                .put("requestsNumber", requestsNumber)
+                .put("requestsPerSecond", requestsPerSecond)
+                .put("inFlightRequestsNumber", statistics.getInFlightRequestsNumber())
+                .put("unmatchedRequestsNumber", unmatchedRequestsNumber)
+                .put("expectationHits", hits).put("latencyNanos", latencies);
+    }
+
+    private static JSONObject createLatency(LatencyHistogram histogram) {
+        JSONObject percentiles = new JSONObject();
+        for (double percentile : PERCENTILES) {
+            percentiles.put(String.valueOf(percentile),
+                    histogram.getValueAtPercentile(percentile));
+        }
+        return new JSONObject().put("count", histogram.getCount())
+                .put("mean", histogram.getMean()).put("max", histogram.getMax())
+                .put("percentiles", percentiles);
+    }
+
+    private static JSONObject createUnmatched(HttpRequest request) {
+        JSONObject json =
+                new JSONObject().put("method", request.getMethod())
+                        .put("path", request.getPath())
+                        .put("headers", request.getHeaders());
+        RequestBody body = request.getRequestBody();
+        if (body.isSpilled()) {
+            json.put("bodyFile", body.getFile().toString());
+        } else {
+            String content = body.asString();
+            json.put("body", StringUtils.left(content, MAX_BODY_LENGTH)).put(
+                    "bodyLength", content.length());
+        }
+        return json;
+    }
+
+    private static JSONArray createNearMisses(StubPlan stubPlan, HttpRequest request) {
+        JSONArray nearMisses = new JSONArray();
+        stubPlan.getNearMisses(request, EXPLAINED_NEAR_MISSES).forEach(
+                nearMiss -> nearMisses.put(new JSONObject()
+                        .put("id", nearMiss.getExpectationId())
+                        .put("passedNumber", nearMiss.getPassedNumber())
+                        .put("matchersNumber", nearMiss.getMatchersNumber())
+                        .put("mismatch", nearMiss.getMismatchDescription())));
+        return nearMisses;
+    }
+
+    /**
+     * Gets the rate of requests between the previous snapshot and this one.
+     * 
+     * @return Requests per second.
+     */
+    double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * Gets counters and latency histograms.
+     * 
+     * @return JSON object.
+     */
+    String getMetricsJson() {
+        return metricsJson;
+    }
+
+    /**
+     * Gets recent unmatched requests.
+     * <p>
+     * Bodies are truncated to {@link #MAX_BODY_LENGTH} characters. The most
+     * recent requests are explained with near misses, which are evaluated by
+     * this call against the current request expectations.
+     * 
+     * @return JSON array, the most recent request last.
+     */
+    String getUnmatchedJson() {
+        JSONArray unmatched = new JSONArray();
+        for (int i = 0; i < unmatchedRequests.size(); i++) {
+            HttpRequest request = unmatchedRequests.get(i);
+            JSONObject json = createUnmatched(request);
+            if (unmatchedRequests.size()
+                    - i <= MAX_EXPLAINED_REQUESTS) {
+                json.put("nearMisses", createNearMisses(stubPlan, request));
+            }
+            unmatched.put(json);
+        }
+        return unmatched.toString();
+    }
+
+    /**
+     * Gets a page of the journal, the most recent entry first.
+     * 
+     * @param page Page number, starting from zero.
+     * @param pageSize Number of entries in a page.
+     * @return JSON object with the entries of the page.
+     */
+    String getJournalJson(int page, int pageSize) {
+        int from = (int) Math.min((long) page
+                * pageSize, journal.size());
+        int to = Math.min(from
+                + pageSize, journal.size());
+        JSONArray entries = new JSONArray();
+        journal.subList(from, to).forEach(
+                entry -> entries.put(new JSONObject()
+                        .put("sequence", entry.getSequence())
+                        .put("timestampMillis", entry.getTimestampMillis())
+                        .put("method", entry.getMethod()).put("path", entry.getPath())
+                        .put("statusCode", entry.getStatusCode())
+                        .put("latencyNanos", entry.getLatencyNanos())));
+        return new JSONObject().put("page", page).put("pageSize", pageSize)
+                .put("total", journal.size()).put("entries", entries).toString();
+    }
+}
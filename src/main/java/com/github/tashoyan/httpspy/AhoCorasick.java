@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Aho-Corasick automaton to find which of many literals occur in a text.
+ * <p>
+ * The automaton scans the text once, regardless of the number of literals.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe. The
+ * automaton is not modified after it is built.
+ */
+@Immutable
+@ThreadSafe
+final class AhoCorasick {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Node root = new Node();
+
+    private final int literalsNumber;
+
+    /**
+     * State of the automaton.
+     */
+    private static final class Node {
+
+        private final Map<Character, Node> next = new HashMap<>();
+
+        private final List<Integer> literals = new ArrayList<>();
+
+        private Node fail;
+    }
+
+    /**
+     * Builds new automaton.
+     * 
+     * @param literals Literals to find. Literal index in the list is its id.
+     * @throws NullPointerException literals is null, a literal is null.
+     * @throws IllegalArgumentException A literal is empty.
+     */
+    AhoCorasick(List<String> literals) {
+        Validate.noNullElements(literals, "literals must not contain null");
+        this.literalsNumber = literals.size();
+        for (int id = 0; id < literals.size(); id++) {
+            String literal = literals.get(id);
+            Validate.notEmpty(literal, "literal must not be empty");
+            Node node = root;
+            for (int i = 0; i < literal.length(); i++) {
+                node = node.next.computeIfAbsent(literal.charAt(i), c -> new Node());
+            }
+            node.literals.add(id);
+        }
+        buildFailLinks();
+    }
+
+    private void buildFailLinks() {
+        Queue<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        root.next.values().forEach(child -> {
+            child.fail = root;
+            queue.add(child);
+        });
+        while (!queue.isEmpty()) {
+            Node node = queue.remove();
+            node.next.forEach((c, child) -> {
+                Node fail = node.fail;
+                while (fail != root
+                        && !fail.next.containsKey(c)) {
+                    fail = fail.fail;
+                }
+                Node failNext = fail.next.get(c);
+                child.fail = failNext == null
+                        ? root
+                        : failNext;
+                child.literals.addAll(child.fail.literals);
+                queue.add(child);
+            });
+        }
+    }
+
+    /**
+     * Finds literals occurring in a text.
+     * 
+     * @param text Text to scan.
+     * @return Ids of literals occurring in the text.
+     */
+    BitSet find(CharSequence text) {
+        BitSet found = new BitSet(literalsNumber);
+        Node node = root;
+        for (int i = 0; i < text.length(); i++) {
+            node = step(node, text.charAt(i), found);
+        }
+        return found;
+    }
+
+    /**
+     * Finds literals occurring in a text read from a stream of characters. The
+     * text is not kept in memory.
+     * 
+     * @param text Text to scan. The reader is not closed.
+     * @return Ids of literals occurring in the text.
+     * @throws IOException Cannot read the text.
+     */
+    BitSet find(Reader text) throws IOException {
+        BitSet found = new BitSet(literalsNumber);
+        Node node = root;
+        char[] buffer = new char[BUFFER_SIZE];
+        int read = text.read(buffer);
+        while (read >= 0) {
+            for (int i = 0; i < read; i++) {
+                node = step(node, buffer[i], found);
+            }
+            read = text.read(buffer);
+        }
+        return found;
+    }
+
+    private Node step(Node node, char c, BitSet found) {
+        Node current = node;
+        Node next = current.next.get(c);
+        while (next == null
+                && current != root) {
+            current = current.fail;
+            next = current.next.get(c);
+        }
+        Node state = next == null
+                ? root
+                : next;
+        state.literals.forEach(found::set);
+        return state;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * 64-bit hash of a request body.
+ * <p>
+ * The hash is FNV-1a over the characters of the body. It is fast to compute and
+ * has much less collisions than {@link String#hashCode}, so test plans can use
+ * it to find request expectations by the body. Where a collision must not go
+ * unnoticed, compare {@link #digest digests} instead: a digest adds the length
+ * of the body and a second, independent hash.
+ */
+@Immutable
+@ThreadSafe
+final class BodyHash {
+
+    /**
+     * Hash of the null body.
+     */
+    static final long NULL_HASH = 0;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long SECOND_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Digest of a body: its length and two independent 64-bit hashes. Two
+     * different bodies have equal digests only if both hashes collide for
+     * bodies of the same length.
+     */
+    @Immutable
+    static final class Digest {
+
+        private final long hash;
+
+        private final long secondHash;
+
+        private final long length;
+
+        private Digest(long hash, long secondHash, long length) {
+            this.hash = hash;
+            this.secondHash = secondHash;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Digest)) {
+                return false;
+            }
+            Digest other = (Digest) obj;
+            return hash == other.hash
+                    && secondHash == other.secondHash && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(hash);
+        }
+    }
+
+    private static final Digest NULL_DIGEST = new Digest(NULL_HASH, 0, -1);
+
+    private BodyHash() {
+    }
+
+    /**
+     * Calculates the hash of a body.
+     * 
+     * @param body Body, may be null.
+     * @return Hash of the body.
+     */
+    static long of(String body) {
+        if (body == null) {
+            return NULL_HASH;
+        }
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < body.length(); i++) {
+            hash = (hash ^ body.charAt(i))
+                    * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Calculates the hash of a request body. A spilled body is read from its
+     * file as a stream of characters.
+     * 
+     * @param body Request body.
+     * @return Hash of the body, the same as of the body as a string.
+     * @throws UncheckedIOException Cannot read the file.
+     */
+    static long of(RequestBody body) {
+        if (!body.isSpilled()) {
+            return of(body.asString());
+        }
+        long hash = FNV_OFFSET_BASIS;
+        char[] buffer = new char[BUFFER_SIZE];
+        try (Reader reader = body.openReader()) {
+            int read = reader.read(buffer);
+            while (read >= 0) {
+                for (int i = 0; i < read; i++) {
+                    hash = (hash ^ buffer[i])
+                            * FNV_PRIME;
+                }
+                read = reader.read(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read request body from "
+                    + body.getFile(), e);
+        }
+        return hash;
+    }
+
+    /**
+     * Calculates the digest of a request body in one pass. A spilled body is
+     * read from its file as a stream of characters.
+     * 
+     * @param body Request body.
+     * @return Digest of the body. The null body has a digest different from the
+     * one of the empty body.
+     * @throws UncheckedIOException Cannot read the file.
+     */
+    static Digest digest(RequestBody body) {
+        if (!body.isSpilled()
+                && body.asString() == null) {
+            return NULL_DIGEST;
+        }
+        long hash = FNV_OFFSET_BASIS;
+        long secondHash = 0;
+        long length = 0;
+        char[] buffer = new char[BUFFER_SIZE];
+        try (Reader reader = body.openReader()) {
+            int read = reader.read(buffer);
+            while (read >= 0) {
+                for (int i = 0; i < read; i++) {
+                    hash = (hash ^ buffer[i])
+                            * FNV_PRIME;
+                    secondHash = secondHash
+                            * SECOND_MULTIPLIER + buffer[i];
+                }
+                length += read;
+                read = reader.read(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read request body from "
+                    + body.getFile(), e);
+        }
+        return new Digest(hash, secondHash, length);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reader of request bodies with bounded memory.
+ * <p>
+ * A body is buffered in memory up to the memory threshold. A larger body is
+ * written to a temporary file, so a huge upload does not exhaust the heap; see
+ * {@link RequestBody}. Temporary files are kept in a directory of this instance
+ * and are deleted by {@link #clean() }.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe. Reading bodies takes no
+ * locks, except for creating the directory of temporary files once.
+ */
+@ThreadSafe
+final class BodySpill {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String DIRECTORY_PREFIX = "httpspy-bodies";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BodySpill.class);
+
+    private volatile long memoryThreshold;
+
+    @GuardedBy("this")
+    private Path directory;
+
+    /**
+     * Creates new instance.
+     * 
+     * @param memoryThreshold Maximum size in bytes of a body kept in memory.
+     * @throws IllegalArgumentException memoryThreshold is negative.
+     */
+    BodySpill(long memoryThreshold) {
+        setMemoryThreshold(memoryThreshold);
+    }
+
+    /**
+     * Sets the memory threshold for bodies read afterwards.
+     * 
+     * @param memoryThreshold Maximum size in bytes of a body kept in memory.
+     * @throws IllegalArgumentException memoryThreshold is negative.
+     */
+    void setMemoryThreshold(long memoryThreshold) {
+        Validate.isTrue(memoryThreshold >= 0, "memoryThreshold must be >= 0");
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * Gets the memory threshold.
+     * 
+     * @return Maximum size in bytes of a body kept in memory.
+     */
+    long getMemoryThreshold() {
+        return memoryThreshold;
+    }
+
+    /**
+     * Reads a body.
+     * 
+     * @param input Stream of body bytes, not closed by this method.
+     * @param charset Character encoding of the body.
+     * @return Body kept in memory if it is not larger than the memory
+     * threshold, otherwise body spilled to a temporary file.
+     * @throws IOException Cannot read the stream or write the file.
+     */
+    RequestBody read(InputStream input, Charset charset) throws IOException {
+        long threshold = memoryThreshold;
+        ByteArrayOutputStream buffer =
+                new ByteArrayOutputStream((int) Math.min(threshold + 1, BUFFER_SIZE));
+        byte[] chunk = new byte[BUFFER_SIZE];
+        int read = input.read(chunk);
+        while (read >= 0
+                && buffer.size()
+                        + read <= threshold) {
+            buffer.write(chunk, 0, read);
+            read = input.read(chunk);
+        }
+        if (read < 0) {
+            return RequestBody.of(new String(buffer.toByteArray(), charset));
+        }
+        Path file = Files.createTempFile(getDirectory(), "body", ".tmp");
+        try (OutputStream output = Files.newOutputStream(file)) {
+            buffer.writeTo(output);
+            output.write(chunk, 0, read);
+            read = input.read(chunk);
+            while (read >= 0) {
+                output.write(chunk, 0, read);
+                read = input.read(chunk);
+            }
+        }
+        LOGGER.debug("Request body is spilled to {}", file);
+        return RequestBody.ofFile(file, charset);
+    }
+
+    /**
+     * Copies a spilled body to a temporary file of this instance, so the copy
+     * outlives the original file.
+     * 
+     * @param body Spilled body.
+     * @return Body spilled to the copy.
+     * @throws IOException Cannot copy the file.
+     */
+    RequestBody copy(RequestBody body) throws IOException {
+        Path file = Files.createTempFile(getDirectory(), "body", ".tmp");
+        Files.copy(body.getFile(), file, StandardCopyOption.REPLACE_EXISTING);
+        return RequestBody.ofFile(file, body.getCharset());
+    }
+
+    private synchronized Path getDirectory() throws IOException {
+        if (directory == null) {
+            directory = Files.createTempDirectory(DIRECTORY_PREFIX);
+        }
+        return directory;
+    }
+
+    /**
+     * Deletes the temporary files of spilled bodies. Requests referring to
+     * these files must not be used afterwards.
+     */
+    synchronized void clean() {
+        if (directory == null) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot delete spilled request bodies in {}", directory, e);
+        }
+        directory = null;
+    }
+}
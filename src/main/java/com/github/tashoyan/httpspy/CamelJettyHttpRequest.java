@@ -16,10 +16,9 @@
 package com.github.tashoyan.httpspy;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
@@ -27,14 +26,18 @@ import net.jcip.annotations.Immutable;
 import net.jcip.annotations.ThreadSafe;
 import org.apache.camel.Exchange;
 import org.apache.camel.http.common.HttpMessage;
-import org.apache.commons.collections4.CollectionUtils;
+import org.apache.camel.util.IOHelper;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 /**
  * Implementation of {@link HttpRequest} to use with {@link CamelJettyHttpSpy}.
  * <p>
- * This implementation is immutable and contains immutable fields.
+ * This implementation is immutable and contains immutable fields. Headers are
+ * kept in the compact form of {@link HttpHeaders}, their names are
+ * case-insensitive. A large body may be spilled to a file, see
+ * {@link RequestBody}. Query and form parameters are parsed on first access and
+ * cached; parsing twice in concurrent threads is harmless.
  * <p>
  * TODO test.
  */
@@ -42,17 +45,21 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 @ThreadSafe
 public class CamelJettyHttpRequest implements HttpRequest {
 
-    private static final int USUAL_HEADERS_NUMBER = 10;
-
-    private static final int USUAL_HEADER_VALUES = 1;
-
     private final String method;
 
     private final String path;
 
-    private final String body;
+    private final RequestBody body;
+
+    private final HttpHeaders headers;
+
+    private final String queryString;
 
-    private final Map<String, List<String>> headers;
+    private final String remoteAddress;
+
+    private volatile Map<String, List<String>> queryParameters;
+
+    private volatile Map<String, List<String>> formParameters;
 
     /**
      * Create new request from Exchange.
@@ -64,6 +71,11 @@ public class CamelJettyHttpRequest implements HttpRequest {
      * @throws IOException Cannot read HTTP request body.
      */
     public CamelJettyHttpRequest(Exchange exchange) throws IOException {
+        this(exchange, null);
+    }
+
+    private CamelJettyHttpRequest(Exchange exchange, BodySpill bodySpill)
+            throws IOException {
         Validate.notNull(exchange, "Exchange must not be null");
         HttpMessage httpMessage = exchange.getIn(HttpMessage.class);
         if (httpMessage == null) {
@@ -74,28 +86,114 @@ public class CamelJettyHttpRequest implements HttpRequest {
         // String.class);
         // this.path = httpMessage.getHeader(Exchange.HTTP_METHOD,
         // String.class);
-        this.body = httpMessage.getBody(String.class);
+        this.body = readBody(httpMessage, bodySpill);
         HttpServletRequest request = httpMessage.getRequest();
         this.method = request.getMethod();
         this.path = request.getPathInfo();
+        this.queryString = request.getQueryString();
+        this.remoteAddress = request.getRemoteAddr();
         // this.body =
         // IOUtils.toString(request.getInputStream(), Charset.defaultCharset());
-        this.headers = Collections.unmodifiableMap(extractHeaders(request));
+        this.headers = extractHeaders(request);
+    }
+
+    /**
+     * Create new request from its properties, for example when loading a
+     * previously recorded request.
+     * 
+     * @param method HTTP method.
+     * @param path HTTP path.
+     * @param body Body.
+     * @param headers Headers. If null, then headers will be set to empty map.
+     */
+    public CamelJettyHttpRequest(String method, String path, String body,
+            Map<String, List<String>> headers) {
+        this(method, path, null, body, headers);
+    }
+
+    /**
+     * Create new request from its properties, including query string.
+     * 
+     * @param method HTTP method.
+     * @param path HTTP path.
+     * @param queryString Query string without leading {@code ?}, or null if
+     * none.
+     * @param body Body.
+     * @param headers Headers. If null, then headers will be set to empty map.
+     */
+    public CamelJettyHttpRequest(String method, String path, String queryString,
+            String body, Map<String, List<String>> headers) {
+        this(method, path, queryString, RequestBody.of(body), headers);
+    }
+
+    private CamelJettyHttpRequest(String method, String path, String queryString,
+            RequestBody body, Map<String, List<String>> headers) {
+        this.method = method;
+        this.queryString = queryString;
+        this.remoteAddress = null;
+        this.path = path;
+        this.body = body;
+        this.headers = HttpHeaders.of(headers);
+    }
+
+    /**
+     * Creates new request from its properties, with a body possibly spilled to
+     * a file.
+     * 
+     * @param method HTTP method.
+     * @param path HTTP path.
+     * @param queryString Query string without leading {@code ?}, or null if
+     * none.
+     * @param body Body.
+     * @param headers Headers. If null, then headers will be set to empty map.
+     * @return New request.
+     * @throws NullPointerException body is null.
+     */
+    static CamelJettyHttpRequest of(String method, String path, String queryString,
+            RequestBody body, Map<String, List<String>> headers) {
+        Validate.notNull(body, "body must not be null");
+        return new CamelJettyHttpRequest(method, path, queryString, body, headers);
+    }
+
+    /**
+     * Reads new request from Exchange, spilling a large body to a file.
+     * 
+     * @param exchange Exchange object.
+     * @param bodySpill Reader of bodies with bounded memory. If null, then the
+     * body is kept in memory.
+     * @return Request.
+     * @throws NullPointerException Exchange is null.
+     * @throws IllegalArgumentException Exchange does not contain HTTP In
+     * message.
+     * @throws IOException Cannot read HTTP request body.
+     */
+    static CamelJettyHttpRequest read(Exchange exchange, BodySpill bodySpill)
+            throws IOException {
+        return new CamelJettyHttpRequest(exchange, bodySpill);
+    }
+
+    private static RequestBody readBody(HttpMessage httpMessage, BodySpill bodySpill)
+            throws IOException {
+        if (bodySpill == null
+                || httpMessage.getBody() == null) {
+            return RequestBody.of(httpMessage.getBody(String.class));
+        }
+        InputStream input = httpMessage.getBody(InputStream.class);
+        return bodySpill.read(input, Charset.forName(IOHelper.getCharsetName(
+                httpMessage.getExchange(), true)));
     }
 
-    private Map<String, List<String>> extractHeaders(HttpServletRequest request) {
-        Map<String, List<String>> requestHeaders = new HashMap<>(USUAL_HEADERS_NUMBER);
+    private static HttpHeaders extractHeaders(HttpServletRequest request) {
+        HttpHeaders.Builder requestHeaders = new HttpHeaders.Builder();
         Enumeration<String> headerNames = request.getHeaderNames();
         while (headerNames.hasMoreElements()) {
             String headerName = headerNames.nextElement();
             Enumeration<String> headerValues = request.getHeaders(headerName);
             while (headerValues.hasMoreElements()) {
-                String headerValue = headerValues.nextElement();
-                requestHeaders.computeIfAbsent(headerName,
-                        key -> new ArrayList<>(USUAL_HEADER_VALUES)).add(headerValue);
+                requestHeaders.add(headerName, headerValues.nextElement());
             }
         }
-        return requestHeaders;
+        return requestHeaders.build();
     }
 
     @Override
@@ -110,24 +208,63 @@ public class CamelJettyHttpRequest implements HttpRequest {
 
     @Override
     public String getBody() {
+        return body.asString();
+    }
+
+    @Override
+    public RequestBody getRequestBody() {
         return body;
     }
 
     @Override
     public Map<String, List<String>> getHeaders() {
-        return headers;
+        return headers.asMap();
     }
 
     @Override
     public List<String> getHeaderValues(String name) {
-        List<String> values = headers.get(name);
-        return CollectionUtils.isEmpty(values)
-                ? null
-                : Collections.unmodifiableList(values);
+        return headers.getValues(name);
+    }
+
+    @Override
+    public HttpHeaders getHttpHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public Map<String, List<String>> getQueryParameters() {
+        Map<String, List<String>> parameters = queryParameters;
+        if (parameters == null) {
+            parameters = UrlEncodedParameters.parse(queryString);
+            queryParameters = parameters;
+        }
+        return parameters;
+    }
+
+    @Override
+    public Map<String, List<String>> getFormParameters() {
+        Map<String, List<String>> parameters = formParameters;
+        if (parameters == null) {
+            parameters = UrlEncodedParameters.parseForm(this);
+            formParameters = parameters;
+        }
+        return parameters;
     }
 
     @Override
     public String toString() {
-        return ToStringBuilder.reflectionToString(this);
+        return new ToStringBuilder(this).append("method", method).append("path", path)
+                .append("queryString", queryString).append("body", body)
+                .append("headers", headers).toString();
     }
 }
@@ -15,6 +15,7 @@
  */
 package com.github.tashoyan.httpspy;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -28,7 +29,9 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 /**
  * Implementation of {@link HttpResponse} to use with {@link CamelJettyHttpSpy}.
  * <p>
- * This implementation is immutable and contains immutable fields.
+ * This implementation is immutable and contains immutable fields, except the
+ * thread safe statistics of applied delays. A binary body is kept in a
+ * read-only buffer; senders read its duplicates.
  * <p>
  * TODO test.
  * <p>
@@ -42,10 +45,20 @@ public class CamelJettyHttpResponse implements HttpResponse {
 
     private final String body;
 
+    private final ByteBuffer bodyBuffer;
+
+    private final StreamingBody streamingBody;
+
     private final Map<String, List<String>> headers;
 
     private final long delayMillis;
 
+    private final LatencyDistribution delayDistribution;
+
+    private final LatencyHistogram appliedDelays;
+
+    private final TransportFault fault;
+
     /**
      * Create new instance of response.
      * 
@@ -62,10 +75,54 @@ public class CamelJettyHttpResponse implements HttpResponse {
      */
     protected CamelJettyHttpResponse(int statusCode, String body,
             Map<String, List<String>> headers, long delayMillis) {
+        this(statusCode, body, null, null, headers, delayMillis, null);
+    }
+
+    /**
+     * Create new instance of response with string, binary or streaming body.
+     * 
+     * @param statusCode Response status code.
+     * @param body Response body, ignored if bodyBuffer or streamingBody is not
+     * null.
+     * @param bodyBuffer Binary response body, may be null. The bytes from the
+     * position to the limit are sent; the buffer must not be modified
+     * afterwards. Ignored if streamingBody is not null.
+     * @param streamingBody Streaming response body, may be null.
+     * @param headers Response headers. If null, then headers will be set to
+     * empty map.
+     * @param delayMillis Delay in milliseconds before sending the response,
+     * ignored if delayDistribution is not null.
+     * @param delayDistribution Distribution of delays before sending the
+     * response, may be null.
+     * @throws NullPointerException header name is null, list of header values
+     * is null, a header value is null.
+     * @throws IllegalArgumentException header name is empty or blank, list of
+     * header values is empty.
+     * @throws IllegalArgumentException delayMillis is negative.
+     */
+    protected CamelJettyHttpResponse(int statusCode, String body,
+            ByteBuffer bodyBuffer, StreamingBody streamingBody,
+            Map<String, List<String>> headers, long delayMillis,
+            LatencyDistribution delayDistribution) {
         Validate.isTrue(delayMillis >= 0, "delayMillis must be >= 0");
         this.statusCode = statusCode;
-        this.body = body;
-        this.delayMillis = delayMillis;
+        this.streamingBody = streamingBody;
+        this.bodyBuffer = bodyBuffer == null
+                || streamingBody != null
+                ? null
+                : bodyBuffer.asReadOnlyBuffer();
+        this.body = bodyBuffer == null
+                && streamingBody == null
+                ? body
+                : null;
+        this.delayDistribution = delayDistribution;
+        this.delayMillis = delayDistribution == null
+                ? delayMillis
+                : 0;
+        this.appliedDelays = delayDistribution == null
+                ? null
+                : new LatencyHistogram();
+        this.fault = null;
         if (MapUtils.isEmpty(headers)) {
             this.headers = Collections.emptyMap();
         } else {
@@ -82,6 +139,29 @@ public class CamelJettyHttpResponse implements HttpResponse {
         }
     }
 
+    private CamelJettyHttpResponse(CamelJettyHttpResponse response,
+            TransportFault fault) {
+        this.statusCode = response.statusCode;
+        this.body = response.body;
+        this.bodyBuffer = response.bodyBuffer;
+        this.streamingBody = response.streamingBody;
+        this.headers = response.headers;
+        this.delayMillis = response.delayMillis;
+        this.delayDistribution = response.delayDistribution;
+        this.appliedDelays = response.appliedDelays;
+        this.fault = fault;
+    }
+
+    /**
+     * Creates a copy of this response that injects a transport fault.
+     * 
+     * @param transportFault Transport fault, or null for none.
+     * @return New response.
+     */
+    CamelJettyHttpResponse withFault(TransportFault transportFault) {
+        return new CamelJettyHttpResponse(this, transportFault);
+    }
+
     @Override
     public int getStatusCode() {
         return statusCode;
@@ -92,6 +172,16 @@ public class CamelJettyHttpResponse implements HttpResponse {
         return body;
     }
 
+    @Override
+    public ByteBuffer getBodyBuffer() {
+        return bodyBuffer;
+    }
+
+    @Override
+    public StreamingBody getStreamingBody() {
+        return streamingBody;
+    }
+
     @Override
     public Map<String, List<String>> getHeaders() {
         return headers;
@@ -102,6 +192,31 @@ public class CamelJettyHttpResponse implements HttpResponse {
         return delayMillis;
     }
 
+    @Override
+    public LatencyDistribution getDelayDistribution() {
+        return delayDistribution;
+    }
+
+    @Override
+    public long sampleDelayNanos() {
+        if (delayDistribution == null) {
+            return 0;
+        }
+        long delayNanos = delayDistribution.sampleNanos();
+        appliedDelays.record(delayNanos);
+        return delayNanos;
+    }
+
+    @Override
+    public LatencyHistogram getAppliedDelays() {
+        return appliedDelays;
+    }
+
+    @Override
+    public TransportFault getFault() {
+        return fault;
+    }
+
     @Override
     public String toString() {
         return ToStringBuilder.reflectionToString(this);
@@ -15,17 +15,22 @@
  */
 package com.github.tashoyan.httpspy;
 
+import com.github.tashoyan.httpspy.SpyStatistics.Stage;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
+import javax.management.ObjectName;
 import net.jcip.annotations.NotThreadSafe;
 import org.apache.camel.CamelContext;
 import org.apache.camel.Exchange;
 import org.apache.camel.Message;
 import org.apache.camel.Processor;
 import org.apache.camel.builder.RouteBuilder;
-import org.apache.camel.component.jetty9.JettyHttpComponent9;
 import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.SynchronizationAdapter;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
@@ -51,6 +56,20 @@ public class CamelJettyHttpSpy implements HttpSpy {
      */
     protected static final int DEFAULT_SERVICE_THREADS_NUMBER = 1;
 
+    /**
+     * HTTP path of the admin endpoint, reserved on every spy server.
+     * 
+     * @see #getAdminPath()
+     */
+    protected static final String ADMIN_PATH = "/httpspy-admin/";
+
+    /**
+     * Default memory threshold for request bodies, in bytes.
+     * 
+     * @see #getBodyMemoryThreshold()
+     */
+    protected static final long DEFAULT_BODY_MEMORY_THRESHOLD = 1024 * 1024;
+
     private static final int JETTY_INTERNAL_THREADS_NUMBER = 8;
 
     private static final String PATH_SEPARATOR = "/";
@@ -59,6 +78,8 @@ public class CamelJettyHttpSpy implements HttpSpy {
 
     private static final String SPY_ROUTE_NAME = "spy-server-consumer";
 
+    private static final String ADMIN_ROUTE_NAME = "spy-server-admin";
+
     private static final Logger LOGGER = LoggerFactory
             .getLogger(CamelJettyHttpSpy.class);
 
@@ -76,6 +97,12 @@ public class CamelJettyHttpSpy implements HttpSpy {
 
     private final AtomicReference<TestPlan> testPlan = new AtomicReference<>();
 
+    private final SpyStatistics statistics = new SpyStatistics();
+
+    private final BodySpill bodySpill = new BodySpill(DEFAULT_BODY_MEMORY_THRESHOLD);
+
+    private CamelJettyHttpSpyMonitor monitor;
+
     /**
      * Creates new instance of spy server running on default host
      * {@link #DEFAULT_HOSTNAME}.
@@ -87,6 +114,7 @@ public class CamelJettyHttpSpy implements HttpSpy {
      * {@code /path/to/service/}.
      * @throws IllegalArgumentException port is negative.
      * @throws IllegalArgumentException path contains illegal characters.
+     * @throws IllegalArgumentException path is reserved for the admin endpoint.
      */
     public CamelJettyHttpSpy(int port, String path) {
         this(DEFAULT_HOSTNAME, port, path);
@@ -108,6 +136,7 @@ public class CamelJettyHttpSpy implements HttpSpy {
      * @throws IllegalArgumentException hostname is empty or blank.
      * @throws IllegalArgumentException port is negative.
      * @throws IllegalArgumentException path contains illegal characters.
+     * @throws IllegalArgumentException path is reserved for the admin endpoint.
      */
     public CamelJettyHttpSpy(String hostname, int port, String path) {
         Validate.notBlank(hostname, "hostname must not be blank");
@@ -135,6 +164,11 @@ public class CamelJettyHttpSpy implements HttpSpy {
             normalizedPath = normalizedPath
                     + PATH_SEPARATOR;
         }
+        if (normalizedPath.startsWith(ADMIN_PATH)) {
+            throw new IllegalArgumentException(
+                    "HTTP path is reserved for admin endpoint: "
+                            + path);
+        }
         return normalizedPath;
     }
 
@@ -191,6 +225,32 @@ public class CamelJettyHttpSpy implements HttpSpy {
         return serviceThreadsNumber;
     }
 
+    /**
+     * Sets the memory threshold for request bodies.
+     * <p>
+     * A request body larger than the threshold is not kept in memory: it is
+     * written to a temporary file, and the request refers to this file, see
+     * {@link RequestBody}. Temporary files are deleted by {@link #reset() }. The
+     * threshold applies to requests received afterwards.
+     * 
+     * @param bodyMemoryThreshold Maximum size in bytes of a request body kept
+     * in memory.
+     * @throws IllegalArgumentException bodyMemoryThreshold is negative.
+     */
+    public void setBodyMemoryThreshold(long bodyMemoryThreshold) {
+        bodySpill.setMemoryThreshold(bodyMemoryThreshold);
+    }
+
+    /**
+     * Gets the memory threshold for request bodies.
+     * 
+     * @return Maximum size in bytes of a request body kept in memory, by
+     * default {@link #DEFAULT_BODY_MEMORY_THRESHOLD}.
+     */
+    public long getBodyMemoryThreshold() {
+        return bodySpill.getMemoryThreshold();
+    }
+
     @Override
     public HttpSpy testPlan(TestPlanBuilder testPlanBuilder) {
         Validate.notNull(testPlanBuilder, "testPlanBuilder must not be null");
@@ -219,22 +279,29 @@ public class CamelJettyHttpSpy implements HttpSpy {
                     getServiceThreadsNumber(), getRealJettyThreadsNumber(),
                     getHostname(), getPort(), getPath());
             camelContext.start();
-            JettyHttpComponent9 jettyComponent =
-                    camelContext.getComponent("jetty", JettyHttpComponent9.class);
-            jettyComponent.setMinThreads(getRealJettyThreadsNumber());
-            jettyComponent.setMaxThreads(getRealJettyThreadsNumber());
+            monitor = new CamelJettyHttpSpyMonitor(this);
+            SpyJettyComponent.configure(camelContext, monitor.getThreadPool());
             camelContext.addRoutes(new RouteBuilder(camelContext) {
 
                 @Override
                 public void configure() {
                     from(
-                            "jetty:http://"
-                                    + getHostname() + ":" + getPort() + getPath()
-                                    + "?sendServerVersion=false" + "&chunked=false"
-                                    + "&disableStreamCache=true").process(
+                            SpyJettyComponent.createSpyEndpoint(camelContext,
+                                    "jetty:http://"
+                                            + getHostname() + ":" + getPort()
+                                            + getPath() + "?sendServerVersion=false"
+                                            + "&chunked=false"
+                                            + "&disableStreamCache=true")).process(
                             createSpyProcessor()).setId(SPY_ROUTE_NAME);
+                    from(
+                            "jetty:http://"
+                                    + getHostname() + ":" + getPort() + getAdminPath()
+                                    + "?sendServerVersion=false"
+                                    + "&matchOnUriPrefix=true").process(
+                            monitor.createAdminProcessor()).setId(ADMIN_ROUTE_NAME);
                 }
             });
+            monitor.start();
             LOGGER.info("HTTP Spy is running: {} servicing threads on {}:{}{}",
                     getServiceThreadsNumber(), getHostname(), getPort(), getPath());
         } catch (Exception e) {
@@ -242,6 +309,44 @@ public class CamelJettyHttpSpy implements HttpSpy {
         }
     }
 
+    /**
+     * Gets HTTP path of the admin endpoint.
+     * <p>
+     * The admin endpoint runs on the same host and port as the spy server and
+     * serves JSON documents with the state of the spy server:
+     * <ul>
+     * <li>{@code metrics}: counters and latency histograms, see
+     * {@link #getStatistics() }</li>
+     * <li>{@code unmatched}: recent unmatched requests</li>
+     * <li>{@code journal?page=0&pageSize=100}: journal of recent requests, the
+     * most recent first, see {@link SpyJournal}</li>
+     * <li>{@code stubs}: ids of request expectations of a {@link StubPlan};
+     * {@code POST} of a JSON document adds, replaces and removes request
+     * expectations, see {@link StubPlan#update }</li>
+     * </ul>
+     * Documents are refreshed once a second in the background, so frequent
+     * scraping of the admin endpoint does not slow down the spy server.
+     * 
+     * @return Admin path, for example {@code /httpspy-admin/}.
+     */
+    public String getAdminPath() {
+        return ADMIN_PATH;
+    }
+
+    /**
+     * Gets the name of the MBean registered for this spy server.
+     * <p>
+     * The spy server registers {@link HttpSpyMXBean} in the platform MBean
+     * server when started and unregisters it when stopped.
+     * 
+     * @return MBean name or null if the spy server is not running.
+     */
+    public ObjectName getMBeanName() {
+        return monitor == null
+                ? null
+                : monitor.getObjectName();
+    }
+
     /**
      * Creates Camel Processor that will be used to record actual requests and
      * send responses back.
@@ -250,22 +355,119 @@ public class CamelJettyHttpSpy implements HttpSpy {
      * @throws IllegalStateException Test plan is not set.
      */
     protected Processor createSpyProcessor() {
-        Processor processor = exchange -> {
-            if (testPlan.get() == null) {
-                throw new IllegalStateException("Test plan is not set");
+        Processor processor =
+                exchange -> {
+                    SpyCompletion completion = new SpyCompletion();
+                    exchange.addOnCompletion(completion);
+                    exchange.setProperty(SpyHttpBinding.SENT_LISTENER_PROPERTY,
+                            completion);
+                    TestPlan plan = testPlan.get();
+                    if (plan == null) {
+                        throw new IllegalStateException("Test plan is not set");
+                    }
+                    HttpRequest actualRequest =
+                            CamelJettyHttpRequest.read(exchange, bodySpill);
+                    long parsedNanos = System.nanoTime();
+                    statistics.record(Stage.REQUEST_PARSING, parsedNanos
+                            - completion.startNanos);
+                    LOGGER.debug("Received actual request: {}", actualRequest);
+                    HttpResponse response =
+                            plan.getResponse(actualRequest).select(actualRequest);
+                    statistics.record(Stage.MATCHING, System.nanoTime()
+                            - parsedNanos);
+                    try {
+                        LOGGER.debug("Sending response: {}", response);
+                        sendResponseInExchange(response, exchange);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                    completion.processed(actualRequest, response);
+                };
+        return processor;
+    }
+
+    /**
+     * Tracks a request until the response is sent.
+     * <p>
+     * A response written in the servicing thread is sent when the exchange is
+     * done. A response written asynchronously, because it is delayed or shaped,
+     * is sent later: the writer notifies this completion, see
+     * {@link SpyHttpBinding#SENT_LISTENER_PROPERTY}. The time waited for the
+     * delay and the shaping is excluded from the latencies.
+     */
+    private final class SpyCompletion extends SynchronizationAdapter
+            implements LongConsumer {
+
+        private final long startNanos = System.nanoTime();
+
+        private long processedNanos;
+
+        private HttpRequest request;
+
+        private HttpResponse response;
+
+        SpyCompletion() {
+            statistics.requestStarted();
+        }
+
+        void processed(HttpRequest actualRequest, HttpResponse sentResponse) {
+            processedNanos = System.nanoTime();
+            request = actualRequest;
+            response = sentResponse;
+        }
+
+        @Override
+        public void onDone(Exchange exchange) {
+            if (exchange.getProperty(SpyHttpBinding.SENT_LISTENER_PROPERTY) != null) {
+                accept(0);
             }
-            HttpRequest actualRequest = new CamelJettyHttpRequest(exchange);
-            LOGGER.debug("Received actual request: {}", actualRequest);
-            HttpResponse response = testPlan.get().getResponse(actualRequest);
-            try {
-                LOGGER.debug("Sending response: {}", response);
-                sendResponseInExchange(response, exchange);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw e;
+        }
+
+        /**
+         * Records the response as sent.
+         * 
+         * @param waitedNanos Nanoseconds waited for the delay and the shaping
+         * of the response.
+         */
+        @Override
+        public void accept(long waitedNanos) {
+            statistics.requestCompleted();
+            if (response != null) {
+                long sentNanos = System.nanoTime();
+                statistics.record(Stage.RESPONSE_SENDING, sentNanos
+                        - processedNanos - waitedNanos);
+                long totalNanos = sentNanos
+                        - startNanos - waitedNanos;
+                statistics.record(Stage.TOTAL, totalNanos);
+                statistics.getJournal().record(request, response, totalNanos);
             }
-        };
-        return processor;
+        }
+    }
+
+    /**
+     * Gets the statistics of this spy server.
+     * <p>
+     * The statistics is collected during the whole life of the spy server and
+     * is not cleared by {@link #reset }.
+     * 
+     * @return Statistics. Never returns null.
+     */
+    public SpyStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Gets the current test plan.
+     * <p>
+     * Test code can use it to query the test plan while the spy server is
+     * running, for example to get {@link StubPlan#getMatchingLatency matching
+     * statistics}.
+     * 
+     * @return Test plan or null if not set.
+     */
+    public TestPlan getTestPlan() {
+        return testPlan.get();
     }
 
     /**
@@ -276,30 +478,53 @@ public class CamelJettyHttpSpy implements HttpSpy {
      * If the response has multiple headers with the same name, then this method
      * follows RFC 2616, Section 4.2 Message Headers: combine all values into
      * one string of comma-separated values.
+     * <p>
+     * This implementation records the time spent before the delay as
+     * {@link Stage#RESPONSE_BUILDING} in {@link #getStatistics() statistics}.
+     * <p>
+     * Neither a fixed delay nor a delay sampled from a
+     * {@link HttpResponse#getDelayDistribution() distribution} is waited in the
+     * calling thread: the body is streamed after the delay by a shared timer,
+     * without holding the servicing thread.
      * 
      * @param response The response to send.
      * @param exchange Send the response as Out message within this exchange
      * object. Out message allows to drop all headers came with In message.
      * @throws NullPointerException response is null, exchange is null.
-     * @throws InterruptedException Interrupted while waiting the delay,
-     * specified for the response.
+     * @throws InterruptedException Not thrown by this implementation, which
+     * does not wait; may be thrown by overriding implementations.
      * @see HttpResponse#getDelayMillis()
      */
     protected void sendResponseInExchange(HttpResponse response, Exchange exchange)
             throws InterruptedException {
         Validate.notNull(response, "response must not be null");
         Validate.notNull(exchange, "exchange must not be null");
+        long startNanos = System.nanoTime();
         Message message = exchange.getOut();
         message.setHeader(Exchange.HTTP_RESPONSE_CODE, response.getStatusCode());
         message.setHeader(Exchange.HTTP_CHARACTER_ENCODING, Charset.defaultCharset()
                 .name());
-        message.setBody(response.getBody(), String.class);
+        ByteBuffer bodyBuffer = response.getBodyBuffer();
+        long delayNanos = response.getDelayDistribution() == null
+                ? TimeUnit.MILLISECONDS.toNanos(response.getDelayMillis())
+                : response.sampleDelayNanos();
+        if (delayNanos > 0
+                || response.getStreamingBody() != null) {
+            message.setBody(StreamingBody.of(response));
+        } else if (bodyBuffer != null) {
+            message.setBody(bodyBuffer.duplicate());
+        } else {
+            message.setBody(response.getBody(), String.class);
+        }
+        exchange.setProperty(SpyHttpBinding.DELAY_NANOS_PROPERTY, delayNanos);
+        exchange.setProperty(SpyHttpBinding.FAULT_PROPERTY, response.getFault());
         response.getHeaders()
                 .entrySet()
                 .forEach(
                         entry -> message.setHeader(entry.getKey(), entry.getValue()
                                 .stream().collect(Collectors.joining(","))));
-        Thread.sleep(response.getDelayMillis());
+        statistics.record(Stage.RESPONSE_BUILDING, System.nanoTime()
+                - startNanos);
     }
 
     @Override
@@ -313,6 +538,7 @@ public class CamelJettyHttpSpy implements HttpSpy {
     @Override
     public void reset() {
         testPlan.set(null);
+        bodySpill.clean();
     }
 
     @Override
@@ -321,8 +547,16 @@ public class CamelJettyHttpSpy implements HttpSpy {
         try {
             LOGGER.debug("Stopping HTTP Spy on host {}, port {}, path {}",
                     getHostname(), getPort(), getPath());
-            camelContext.stop();
+            try {
+                if (monitor != null) {
+                    monitor.stop();
+                }
+            } finally {
+                monitor = null;
+                camelContext.stop();
+            }
             camelContext.removeRoute(SPY_ROUTE_NAME);
+            camelContext.removeRoute(ADMIN_ROUTE_NAME);
             LOGGER.info("HTTP Spy is stopped");
         } catch (Exception e) {
             throw new RuntimeException("Exception while shutting down Camel context",
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.Processor;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpStatus;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Monitor of a running {@link CamelJettyHttpSpy}: implementation of
+ * {@link HttpSpyMXBean} and the processor of the admin endpoint.
+ * <p>
+ * The monitor owns the thread pool of the underlying Jetty server, so it can
+ * report the queue size and the number of busy threads. A new instance is
+ * created each time the spy server starts.
+ * <p>
+ * JMX attributes are read from counters maintained by the spy server and its
+ * test plan. The admin endpoint serves an {@link AdminSnapshot} refreshed once
+ * a second by a background thread, so scraping the endpoint does not affect
+ * servicing threads beyond rendering the requested document. The admin endpoint
+ * provides the following resources:
+ * <ul>
+ * <li>{@code metrics}: counters and latency histograms</li>
+ * <li>{@code unmatched}: recent unmatched requests with truncated bodies, the
+ * most recent ones with the closest request expectations, see
+ * {@link StubPlan#getNearMisses }</li>
+ * <li>{@code journal?page=0&pageSize=100}: journal of recent requests, the most
+ * recent first</li>
+ * <li>{@code stubs}: ids of request expectations of a {@link StubPlan};
+ * {@code POST} changes request expectations, see {@link JsonStubPlanUpdate}</li>
+ * </ul>
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe. The snapshot is
+ * published through a volatile field.
+ */
+@ThreadSafe
+final class CamelJettyHttpSpyMonitor implements HttpSpyMXBean {
+
+    /**
+     * Interval between refreshes of the admin snapshot.
+     */
+    static final long SNAPSHOT_INTERVAL_MILLIS = 1000;
+
+    private static final String DOMAIN = "com.github.tashoyan.httpspy";
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final String JSON_CONTENT_TYPE = "application/json";
+
+    private static final String METRICS = "metrics";
+
+    private static final String UNMATCHED = "unmatched";
+
+    private static final String JOURNAL = "journal";
+
+    private static final String STUBS = "stubs";
+
+    private static final String ERROR = "error";
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(CamelJettyHttpSpyMonitor.class);
+
+    private final CamelJettyHttpSpy spy;
+
+    private final QueuedThreadPool threadPool;
+
+    private final ObjectName objectName;
+
+    private final ScheduledExecutorService snapshotExecutor;
+
+    private volatile AdminSnapshot snapshot;
+
+    private boolean isRegistered;
+
+    CamelJettyHttpSpyMonitor(CamelJettyHttpSpy spy) throws JMException {
+        this.spy = spy;
+        this.threadPool =
+                new QueuedThreadPool(spy.getRealJettyThreadsNumber(),
+                        spy.getRealJettyThreadsNumber());
+        this.objectName = new ObjectName(DOMAIN
+                + ":type=HttpSpy,name=" + ObjectName.quote(getUrl()));
+        this.snapshot = AdminSnapshot.create(spy, null);
+        this.snapshotExecutor =
+                Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "httpspy-admin-snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Gets the thread pool to use in the underlying Jetty server.
+     * 
+     * @return Thread pool.
+     */
+    QueuedThreadPool getThreadPool() {
+        return threadPool;
+    }
+
+    /**
+     * Gets the name of this MXBean, unique for the URL of the spy server.
+     * 
+     * @return Name, for example
+     * {@code com.github.tashoyan.httpspy:type=HttpSpy,name="http://localhost:8080/path/"}
+     * .
+     */
+    ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Registers this MXBean in the platform MBean server and starts refreshing
+     * the admin snapshot.
+     * 
+     * @throws JMException Cannot register.
+     */
+    void start() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        isRegistered = true;
+        snapshotExecutor.scheduleWithFixedDelay(this::refreshSnapshot,
+                SNAPSHOT_INTERVAL_MILLIS, SNAPSHOT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Unregisters this MXBean from the platform MBean server and stops
+     * refreshing the admin snapshot. If {@link #start() } failed before
+     * registering this MXBean, then there is nothing to unregister; an MXBean
+     * registered with the same name by another spy server is left intact.
+     * 
+     * @throws JMException Cannot unregister.
+     */
+    void stop() throws JMException {
+        snapshotExecutor.shutdownNow();
+        if (isRegistered) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            isRegistered = false;
+        }
+    }
+
+    private void refreshSnapshot() {
+        try {
+            snapshot = AdminSnapshot.create(spy, snapshot);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Cannot refresh admin snapshot", e);
+        }
+    }
+
+    /**
+     * Creates the processor of the admin endpoint.
+     * <p>
+     * The processor expects the requested resource in
+     * {@link Exchange#HTTP_PATH} header and the query parameters in headers of
+     * the same name.
+     * 
+     * @return Processor.
+     */
+    Processor createAdminProcessor() {
+        return exchange -> {
+            String resource =
+                    StringUtils.strip(
+                            exchange.getIn().getHeader(Exchange.HTTP_PATH,
+                                    String.class), "/");
+            AdminSnapshot current = snapshot;
+            Message message = exchange.getOut();
+            message.setHeader(Exchange.CONTENT_TYPE, JSON_CONTENT_TYPE);
+            message.setHeader(Exchange.HTTP_RESPONSE_CODE, HttpStatus.SC_OK);
+            if (METRICS.equals(resource)) {
+                message.setBody(current.getMetricsJson());
+            } else if (UNMATCHED.equals(resource)) {
+                message.setBody(current.getUnmatchedJson());
+            } else if (STUBS.equals(resource)) {
+                serveStubs(exchange, message);
+            } else if (JOURNAL.equals(resource)) {
+                int page = Math.max(0, getQueryParameter(exchange, "page", 0));
+                int pageSize =
+                        Math.min(MAX_PAGE_SIZE, Math.max(
+                                1,
+                                getQueryParameter(exchange, "pageSize",
+                                        DEFAULT_PAGE_SIZE)));
+                message.setBody(current.getJournalJson(page, pageSize));
+            } else {
+                message.setHeader(Exchange.HTTP_RESPONSE_CODE, HttpStatus.SC_NOT_FOUND);
+                message.setBody(new JSONObject().put(
+                        "resources",
+                        new JSONArray().put(METRICS).put(UNMATCHED).put(JOURNAL)
+                                .put(STUBS)).toString());
+            }
+        };
+    }
+
+    private void serveStubs(Exchange exchange, Message message) {
+        TestPlan plan = spy.getTestPlan();
+        String method = exchange.getIn().getHeader(Exchange.HTTP_METHOD, String.class);
+        if (!(plan instanceof StubPlan)) {
+            message.setHeader(Exchange.HTTP_RESPONSE_CODE, HttpStatus.SC_CONFLICT);
+            message.setBody(new JSONObject().put(ERROR,
+                    "Test plan does not support updates: "
+                            + plan).toString());
+        } else if ("POST".equals(method)) {
+            try {
+                ((StubPlan) plan).update(new JsonStubPlanUpdate(StringUtils
+                        .defaultString(exchange.getIn().getBody(String.class))));
+                message.setBody(createStubIds((StubPlan) plan));
+            } catch (JSONException | IllegalArgumentException e) {
+                message.setHeader(Exchange.HTTP_RESPONSE_CODE,
+                        HttpStatus.SC_BAD_REQUEST);
+                message.setBody(new JSONObject().put(ERROR, e.getMessage()).toString());
+            }
+        } else {
+            message.setBody(createStubIds((StubPlan) plan));
+        }
+    }
+
+    private static String createStubIds(StubPlan stubPlan) {
+        return new JSONObject().put("ids", stubPlan.getExpectationIds()).toString();
+    }
+
+    private static int getQueryParameter(Exchange exchange, String name,
+            int defaultValue) {
+        Integer value = exchange.getIn().getHeader(name, Integer.class);
+        return value == null
+                ? defaultValue
+                : value;
+    }
+
+    @Override
+    public String getUrl() {
+        return "http://"
+                + spy.getHostname() + ":" + spy.getPort() + spy.getPath();
+    }
+
+    @Override
+    public long getRequestsNumber() {
+        return spy.getStatistics().getRequestsNumber();
+    }
+
+    @Override
+    public double getRequestsPerSecond() {
+        return snapshot.getRequestsPerSecond();
+    }
+
+    @Override
+    public long getInFlightRequestsNumber() {
+        return spy.getStatistics().getInFlightRequestsNumber();
+    }
+
+    @Override
+    public long getUnmatchedRequestsNumber() {
+        TestPlan plan = spy.getTestPlan();
+        return plan instanceof StubPlan
+                ? ((StubPlan) plan).getUnmatchedRequestsNumber()
+                : 0;
+    }
+
+    @Override
+    public long[] getExpectationHits() {
+        TestPlan plan = spy.getTestPlan();
+        return plan instanceof StubPlan
+                ? ((StubPlan) plan).getHitsNumbers()
+                : new long[0];
+    }
+
+    @Override
+    public int getQueueSize() {
+        return threadPool.getQueueSize();
+    }
+
+    @Override
+    public int getServiceThreadsNumber() {
+        return spy.getServiceThreadsNumber();
+    }
+
+    @Override
+    public int getServerThreadsNumber() {
+        return threadPool.getMaxThreads();
+    }
+
+    @Override
+    public int getBusyThreadsNumber() {
+        return threadPool.getBusyThreads();
+    }
+}
@@ -15,9 +15,18 @@
  */
 package com.github.tashoyan.httpspy;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 import net.jcip.annotations.Immutable;
 import net.jcip.annotations.ThreadSafe;
 import org.apache.commons.lang3.Validate;
+import org.hamcrest.CoreMatchers;
 import org.hamcrest.Matcher;
 
 /**
@@ -29,6 +38,26 @@ public class DefaultRequestExpectation implements RequestExpectation {
 
     private final Matcher<HttpRequest> requestMatcher;
 
+    private final List<Matcher<? super HttpRequest>> subMatchers;
+
+    private final String expectedMethod;
+
+    private final String expectedPath;
+
+    private final String expectedBody;
+
+    private final String expectedJsonBody;
+
+    private final Set<String> referencedHeaders;
+
+    private final Set<String> jsonPaths;
+
+    private final Pattern expectedPathPattern;
+
+    private final Pattern expectedBodyPattern;
+
+    private final Map<String, String> expectedQueryParameters;
+
     /**
      * Constructs new instance of request expectation.
      * 
@@ -37,12 +66,160 @@ public class DefaultRequestExpectation implements RequestExpectation {
      * @throws NullPointerException requestMatcher is null.
      */
     protected DefaultRequestExpectation(Matcher<HttpRequest> requestMatcher) {
+        this(requestMatcher, null, null);
+    }
+
+    /**
+     * Constructs new instance of request expectation with constant method and
+     * path.
+     * 
+     * @param requestMatcher Request matcher to check an actual request against
+     * this expectation. The matcher must check the method and path as well.
+     * @param expectedMethod Expected method or null if not constant.
+     * @param expectedPath Expected path or null if not constant.
+     * @throws NullPointerException requestMatcher is null.
+     */
+    protected DefaultRequestExpectation(Matcher<HttpRequest> requestMatcher,
+            String expectedMethod, String expectedPath) {
         Validate.notNull(requestMatcher, "requestMatcher must not be null");
         this.requestMatcher = requestMatcher;
+        this.subMatchers = Collections.singletonList(requestMatcher);
+        this.expectedMethod = expectedMethod;
+        this.expectedPath = expectedPath;
+        this.expectedBody = null;
+        this.expectedJsonBody = null;
+        this.referencedHeaders = null;
+        this.jsonPaths = Collections.emptySet();
+        this.expectedPathPattern = null;
+        this.expectedBodyPattern = null;
+        this.expectedQueryParameters = Collections.emptyMap();
+    }
+
+    /**
+     * Constructs new instance of request expectation that matches requests
+     * matching all of the given matchers.
+     * 
+     * @param subMatchers Matchers, for example one per request attribute. The
+     * matchers must check the method, path and body as well.
+     * @param expectedMethod Expected method or null if not constant.
+     * @param expectedPath Expected path or null if not constant.
+     * @param expectedBody Expected body or null if not constant.
+     * @param expectedJsonBody Expected JSON body or null if not constant.
+     * @param referencedHeaders Names of headers checked by the matchers or null
+     * if the matchers may check any header.
+     * @param jsonPaths JSON paths in the body checked by the matchers.
+     * @throws NullPointerException subMatchers is null, a matcher is null,
+     * jsonPaths is null.
+     */
+    protected DefaultRequestExpectation(
+            List<Matcher<? super HttpRequest>> subMatchers, String expectedMethod,
+            String expectedPath, String expectedBody, String expectedJsonBody,
+            Set<String> referencedHeaders, Set<String> jsonPaths) {
+        Validate.notNull(jsonPaths, "jsonPaths must not be null");
+        Validate.noNullElements(subMatchers, "subMatchers must not contain null");
+        this.subMatchers = Collections.unmodifiableList(new ArrayList<>(subMatchers));
+        this.requestMatcher = CoreMatchers.allOf(this.subMatchers);
+        this.expectedMethod = expectedMethod;
+        this.expectedPath = expectedPath;
+        this.expectedBody = expectedBody;
+        this.expectedJsonBody = expectedJsonBody;
+        this.referencedHeaders = referencedHeaders == null
+                ? null
+                : Collections.unmodifiableSet(new HashSet<>(referencedHeaders));
+        this.jsonPaths = Collections.unmodifiableSet(new HashSet<>(jsonPaths));
+        this.expectedPathPattern = null;
+        this.expectedBodyPattern = null;
+        this.expectedQueryParameters = Collections.emptyMap();
+    }
+
+    /**
+     * Constructs a copy of a request expectation that additionally requires the
+     * path and the body to match regular expressions and query parameters to
+     * have constant values.
+     * 
+     * @param requestExpectation Request expectation to copy. Its matchers must
+     * check the path, the body and the query parameters as well.
+     * @param expectedPathPattern Regular expression of the path or null if
+     * none.
+     * @param expectedBodyPattern Regular expression of the body or null if
+     * none.
+     * @param expectedQueryParameters Expected constant values of query
+     * parameters.
+     * @throws NullPointerException requestExpectation is null,
+     * expectedQueryParameters is null.
+     */
+    protected DefaultRequestExpectation(DefaultRequestExpectation requestExpectation,
+            Pattern expectedPathPattern, Pattern expectedBodyPattern,
+            Map<String, String> expectedQueryParameters) {
+        Validate.notNull(requestExpectation, "requestExpectation must not be null");
+        Validate.notNull(expectedQueryParameters,
+                "expectedQueryParameters must not be null");
+        this.requestMatcher = requestExpectation.requestMatcher;
+        this.subMatchers = requestExpectation.subMatchers;
+        this.expectedMethod = requestExpectation.expectedMethod;
+        this.expectedPath = requestExpectation.expectedPath;
+        this.expectedBody = requestExpectation.expectedBody;
+        this.expectedJsonBody = requestExpectation.expectedJsonBody;
+        this.referencedHeaders = requestExpectation.referencedHeaders;
+        this.jsonPaths = requestExpectation.jsonPaths;
+        this.expectedPathPattern = expectedPathPattern;
+        this.expectedBodyPattern = expectedBodyPattern;
+        this.expectedQueryParameters =
+                Collections.unmodifiableMap(new HashMap<>(expectedQueryParameters));
     }
 
     @Override
     public Matcher<HttpRequest> getRequestMatcher() {
         return requestMatcher;
     }
+
+    @Override
+    public List<Matcher<? super HttpRequest>> getSubMatchers() {
+        return subMatchers;
+    }
+
+    @Override
+    public String getExpectedMethod() {
+        return expectedMethod;
+    }
+
+    @Override
+    public String getExpectedPath() {
+        return expectedPath;
+    }
+
+    @Override
+    public String getExpectedBody() {
+        return expectedBody;
+    }
+
+    @Override
+    public String getExpectedJsonBody() {
+        return expectedJsonBody;
+    }
+
+    @Override
+    public Set<String> getReferencedHeaders() {
+        return referencedHeaders;
+    }
+
+    @Override
+    public Set<String> getJsonPaths() {
+        return jsonPaths;
+    }
+
+    @Override
+    public Pattern getExpectedPathPattern() {
+        return expectedPathPattern;
+    }
+
+    @Override
+    public Pattern getExpectedBodyPattern() {
+        return expectedBodyPattern;
+    }
+
+    @Override
+    public Map<String, String> getExpectedQueryParameters() {
+        return expectedQueryParameters;
+    }
 }
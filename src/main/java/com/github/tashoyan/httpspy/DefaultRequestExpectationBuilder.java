@@ -17,13 +17,17 @@ package com.github.tashoyan.httpspy;
 
 import com.github.tashoyan.httpspy.matcher.HttpRequestHeaderMatcher;
 import com.github.tashoyan.httpspy.matcher.HttpRequestMatcher;
+import com.github.tashoyan.httpspy.matcher.HttpRequestParameterMatcher;
 import com.github.tashoyan.httpspy.matcher.StrictHeadersMatcher;
 import com.github.tashoyan.httpspy.matcher.WithoutHeaderRequestMatcher;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 import net.jcip.annotations.NotThreadSafe;
 import org.apache.commons.lang3.Validate;
 import org.hamcrest.CoreMatchers;
@@ -45,10 +49,32 @@ public class DefaultRequestExpectationBuilder implements RequestExpectationBuild
 
     private final Set<String> specifiedHeaders;
 
+    private final Set<String> referencedHeaders;
+
+    private final Set<String> jsonPaths;
+
+    private final Map<String, String> expectedQueryParameters;
+
     private boolean isStrictHeaders;
 
+    private boolean isAnyHeaderReferenced;
+
+    private String expectedMethod;
+
+    private String expectedPath;
+
+    private String expectedBody;
+
+    private String expectedJsonBody;
+
+    private Pattern expectedPathPattern;
+
+    private Pattern expectedBodyPattern;
+
     private ResponseBuilder responseBuilder;
 
+    private RateLimit rateLimit;
+
     /**
      * Creates new builder instance.
      * <p>
@@ -58,6 +84,9 @@ public class DefaultRequestExpectationBuilder implements RequestExpectationBuild
     protected DefaultRequestExpectationBuilder() {
         requestMatchers = new ArrayList<>(USUAL_SPECIFIED_MATCHERS_NUMBER);
         specifiedHeaders = new HashSet<>(USUAL_SPECIFIED_HEADERS_NUMBER);
+        referencedHeaders = new HashSet<>(USUAL_SPECIFIED_HEADERS_NUMBER);
+        jsonPaths = new HashSet<>();
+        expectedQueryParameters = new HashMap<>();
         responseBuilder = new DefaultResponseBuilder();
     }
 
@@ -66,7 +95,18 @@ public class DefaultRequestExpectationBuilder implements RequestExpectationBuild
         if (isStrictHeaders) {
             requestMatchers.add(new StrictHeadersMatcher(specifiedHeaders));
         }
-        return new DefaultRequestExpectation(CoreMatchers.allOf(requestMatchers));
+        DefaultRequestExpectation requestExpectation =
+                new DefaultRequestExpectation(requestMatchers, expectedMethod,
+                        expectedPath, expectedBody, expectedJsonBody, isStrictHeaders
+                                || isAnyHeaderReferenced
+                                ? null
+                                : referencedHeaders, jsonPaths);
+        return expectedPathPattern == null
+                && expectedBodyPattern == null && expectedQueryParameters.isEmpty()
+                ? requestExpectation
+                : new DefaultRequestExpectation(requestExpectation,
+                        expectedPathPattern, expectedBodyPattern,
+                        expectedQueryParameters);
     }
 
     @Override
@@ -74,10 +114,22 @@ public class DefaultRequestExpectationBuilder implements RequestExpectationBuild
         return responseBuilder;
     }
 
+    @Override
+    public HttpResponse buildResponse() {
+        HttpResponse response = responseBuilder.build();
+        return rateLimit == null
+                ? response
+                : RateLimitedHttpResponse.limit(response, rateLimit);
+    }
+
     /**
      * Sets expectation on the value of a request attribute.
      * <p>
      * Adds a {@link Matcher} that verifies the given request attribute.
+     * <p>
+     * The attribute provider may read any header of the request, so the
+     * expectation {@link RequestExpectation#getReferencedHeaders references}
+     * all headers.
      * 
      * @param attributeProvider Provider of a request attribute, takes the
      * request on input.
@@ -89,6 +141,13 @@ public class DefaultRequestExpectationBuilder implements RequestExpectationBuild
     protected RequestExpectationBuilder withRequestAttribute(
             Function<HttpRequest, Object> attributeProvider, String matcherName,
             ValueExpectation valueExpectation) {
+        isAnyHeaderReferenced = true;
+        return withAttribute(attributeProvider, matcherName, valueExpectation);
+    }
+
+    private RequestExpectationBuilder withAttribute(
+            Function<HttpRequest, Object> attributeProvider, String matcherName,
+            ValueExpectation valueExpectation) {
         requestMatchers.add(new HttpRequestMatcher(attributeProvider,
                 valueExpectation, matcherName));
         return this;
@@ -97,28 +156,94 @@ public class DefaultRequestExpectationBuilder implements RequestExpectationBuild
     @Override
     public RequestExpectationBuilder withMethod(ValueExpectation valueExpectation) {
         assertValueExpectationNotNull(valueExpectation);
-        return withRequestAttribute(httpRequest -> httpRequest.getMethod(), "method",
+        if (valueExpectation instanceof EqualToValueExpectation) {
+            expectedMethod = ((EqualToValueExpectation) valueExpectation).getValue();
+        }
+        return withAttribute(httpRequest -> httpRequest.getMethod(), "method",
                 valueExpectation);
     }
 
     @Override
     public RequestExpectationBuilder withPath(ValueExpectation valueExpectation) {
         assertValueExpectationNotNull(valueExpectation);
-        return withRequestAttribute(httpRequest -> httpRequest.getPath(), "path",
+        if (valueExpectation instanceof EqualToValueExpectation) {
+            expectedPath = ((EqualToValueExpectation) valueExpectation).getValue();
+        } else if (valueExpectation instanceof RegexValueExpectation) {
+            expectedPathPattern =
+                    ((RegexValueExpectation) valueExpectation).getPattern();
+        }
+        return withAttribute(httpRequest -> httpRequest.getPath(), "path",
                 valueExpectation);
     }
 
     @Override
     public RequestExpectationBuilder withBody(ValueExpectation valueExpectation) {
         assertValueExpectationNotNull(valueExpectation);
-        return withRequestAttribute(httpRequest -> httpRequest.getBody(), "body",
+        if (valueExpectation instanceof EqualToValueExpectation) {
+            expectedBody = ((EqualToValueExpectation) valueExpectation).getValue();
+        } else if (valueExpectation instanceof EqualToJsonValueExpectation) {
+            expectedJsonBody =
+                    ((EqualToJsonValueExpectation) valueExpectation).getValue();
+        } else if (valueExpectation instanceof RegexValueExpectation) {
+            expectedBodyPattern =
+                    ((RegexValueExpectation) valueExpectation).getPattern();
+        } else if (valueExpectation instanceof EqualToBodyValueExpectation) {
+            return withAttribute(httpRequest -> httpRequest.getRequestBody(), "body",
+                    valueExpectation);
+        }
+        return withAttribute(httpRequest -> httpRequest.getBody(), "body",
                 valueExpectation);
     }
 
+    @Override
+    public RequestExpectationBuilder withJsonPath(String jsonPath,
+            ValueExpectation valueExpectation) {
+        assertValueExpectationNotNull(valueExpectation);
+        Function<HttpRequest, Object> attributeProvider =
+                PreparedRequest.jsonPathValueProvider(jsonPath);
+        jsonPaths.add(jsonPath);
+        return withAttribute(attributeProvider, "JSON path "
+                + jsonPath, valueExpectation);
+    }
+
+    @Override
+    public RequestExpectationBuilder withXPath(String expression,
+            ValueExpectation valueExpectation) {
+        assertValueExpectationNotNull(valueExpectation);
+        return withAttribute(PreparedRequest.xpathValueProvider(expression), "XPath "
+                + expression, valueExpectation);
+    }
+
+    @Override
+    public RequestExpectationBuilder withQueryParam(String parameterName,
+            ValueExpectation valueExpectation) {
+        assertValueExpectationNotNull(valueExpectation);
+        requestMatchers.add(new HttpRequestParameterMatcher(
+                HttpRequest::getQueryParameters, "query parameter", parameterName,
+                valueExpectation));
+        if (valueExpectation instanceof EqualToValueExpectation) {
+            expectedQueryParameters.putIfAbsent(parameterName,
+                    ((EqualToValueExpectation) valueExpectation).getValue());
+        }
+        return this;
+    }
+
+    @Override
+    public RequestExpectationBuilder withFormParam(String parameterName,
+            ValueExpectation valueExpectation) {
+        assertValueExpectationNotNull(valueExpectation);
+        requestMatchers.add(new HttpRequestParameterMatcher(
+                HttpRequest::getFormParameters, "form parameter", parameterName,
+                valueExpectation));
+        referencedHeaders.add(UrlEncodedParameters.CONTENT_TYPE_HEADER);
+        return this;
+    }
+
     @Override
     public RequestExpectationBuilder withHeader(String headerName) {
         assertHeaderNameNotBlank(headerName);
         specifiedHeaders.add(headerName);
+        referencedHeaders.add(headerName);
         requestMatchers.add(new HttpRequestHeaderMatcher(headerName,
                 () -> CoreMatchers.any(String.class)));
         return this;
@@ -130,6 +255,7 @@ public class DefaultRequestExpectationBuilder implements RequestExpectationBuild
         assertValueExpectationNotNull(valueExpectation);
         assertHeaderNameNotBlank(headerName);
         specifiedHeaders.add(headerName);
+        referencedHeaders.add(headerName);
         requestMatchers
                 .add(new HttpRequestHeaderMatcher(headerName, valueExpectation));
         return this;
@@ -143,16 +269,16 @@ public class DefaultRequestExpectationBuilder implements RequestExpectationBuild
                 + valueIndex);
         assertValueExpectationNotNull(valueExpectation);
         specifiedHeaders.add(headerName);
-        return withRequestAttribute(
-                httpRequest -> httpRequest.getHeaderValues(headerName).get(valueIndex),
-                "header "
-                        + headerName + " - value index " + valueIndex,
-                valueExpectation);
+        referencedHeaders.add(headerName);
+        return withAttribute(httpRequest -> httpRequest.getHeaderValues(headerName)
+                .get(valueIndex), "header "
+                + headerName + " - value index " + valueIndex, valueExpectation);
     }
 
     @Override
     public RequestExpectationBuilder withoutHeader(String headerName) {
         assertHeaderNameNotBlank(headerName);
+        referencedHeaders.add(headerName);
         requestMatchers.add(new WithoutHeaderRequestMatcher(headerName));
         return this;
     }
@@ -170,6 +296,13 @@ public class DefaultRequestExpectationBuilder implements RequestExpectationBuild
         return this;
     }
 
+    @Override
+    public RequestExpectationBuilder withRateLimit(RateLimit rateLimit) {
+        Validate.notNull(rateLimit, "rateLimit must not be null");
+        this.rateLimit = rateLimit;
+        return this;
+    }
+
     private void assertValueExpectationNotNull(ValueExpectation valueExpectation) {
         Validate.notNull(valueExpectation, "valueExpectation must not be null");
     }
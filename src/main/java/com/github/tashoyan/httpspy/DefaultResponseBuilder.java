@@ -15,11 +15,22 @@
  */
 package com.github.tashoyan.httpspy;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import javax.servlet.http.HttpServletResponse;
 import net.jcip.annotations.NotThreadSafe;
 import org.apache.commons.lang3.Validate;
@@ -36,14 +47,39 @@ public class DefaultResponseBuilder implements ResponseBuilder {
 
     private static final int USUAL_HEADER_VALUES = 1;
 
+    /**
+     * Size of a region of a large file mapped into memory.
+     */
+    private static final long FILE_REGION_SIZE = 1024L * 1024 * 1024;
+
     private int statusCode;
 
     private String body;
 
+    private ByteBuffer bodyBuffer;
+
+    private List<ByteBuffer> fileRegions;
+
+    private Supplier<? extends Iterator<ByteBuffer>> chunks;
+
+    private long chunkDelayNanos;
+
+    private ShapingProfile shaping;
+
     private Map<String, List<String>> headers;
 
     private long delayMillis;
 
+    private LatencyDistribution delayDistribution;
+
+    private TransportFault fault;
+
+    private int weight;
+
+    private final List<ResponseBuilder> alternatives = new ArrayList<>();
+
+    private final List<Integer> alternativeWeights = new ArrayList<>();
+
     /**
      * Creates new builder instance.
      * <p>
@@ -52,13 +88,42 @@ public class DefaultResponseBuilder implements ResponseBuilder {
     protected DefaultResponseBuilder() {
         statusCode = HttpServletResponse.SC_OK;
         body = "";
+        shaping = ShapingProfile.NONE;
         headers = new HashMap<>(USUAL_HEADERS_NUMBER);
         delayMillis = 0;
+        weight = 1;
     }
 
     @Override
     public HttpResponse build() {
-        return new CamelJettyHttpResponse(statusCode, body, headers, delayMillis);
+        HttpResponse response =
+                new CamelJettyHttpResponse(statusCode, body, bodyBuffer,
+                        buildStreamingBody(), headers, delayMillis, delayDistribution)
+                        .withFault(fault);
+        if (alternatives.isEmpty()) {
+            return response;
+        }
+        List<HttpResponse> responses = new ArrayList<>(alternatives.size() + 1);
+        List<Integer> weights = new ArrayList<>(alternatives.size() + 1);
+        responses.add(response);
+        weights.add(weight);
+        alternatives.forEach(alternative -> responses.add(alternative.build()));
+        weights.addAll(alternativeWeights);
+        return new WeightedHttpResponse(responses, weights);
+    }
+
+    private StreamingBody buildStreamingBody() {
+        StreamingBody streamingBody = null;
+        if (chunks != null) {
+            streamingBody = new StreamingBody(chunks, chunkDelayNanos, shaping, -1);
+        } else if (fileRegions != null) {
+            streamingBody = StreamingBody.of(fileRegions, shaping);
+        } else if (shaping.isShaping()) {
+            streamingBody = bodyBuffer == null
+                    ? StreamingBody.of(body, shaping)
+                    : StreamingBody.of(bodyBuffer, shaping);
+        }
+        return streamingBody;
     }
 
     @Override
@@ -71,6 +136,84 @@ public class DefaultResponseBuilder implements ResponseBuilder {
     @Override
     public ResponseBuilder withBody(String body) {
         this.body = body;
+        this.bodyBuffer = null;
+        this.fileRegions = null;
+        this.chunks = null;
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder withBody(ByteBuffer body) {
+        Validate.notNull(body, "body must not be null");
+        this.bodyBuffer = body.slice();
+        this.fileRegions = null;
+        this.chunks = null;
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder withBodyFromFile(Path file) {
+        Validate.notNull(file, "file must not be null");
+        try (FileChannel channel = FileChannel.open(file)) {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                this.bodyBuffer = channel.map(MapMode.READ_ONLY, 0, size);
+                this.fileRegions = null;
+            } else {
+                List<ByteBuffer> regions = new ArrayList<>();
+                for (long position = 0; position < size; position += FILE_REGION_SIZE) {
+                    regions.add(channel.map(MapMode.READ_ONLY, position,
+                            Math.min(FILE_REGION_SIZE, size
+                                    - position)));
+                }
+                this.bodyBuffer = null;
+                this.fileRegions = regions;
+            }
+            this.chunks = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map response body from "
+                    + file, e);
+        }
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder withChunkedBody(
+            Supplier<? extends Iterator<ByteBuffer>> chunks) {
+        Validate.notNull(chunks, "chunks must not be null");
+        this.chunks = chunks;
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder withChunkedBody(String... chunks) {
+        Validate.noNullElements(chunks, "chunks must not be null or contain null");
+        List<ByteBuffer> buffers =
+                Arrays.stream(chunks)
+                        .map(chunk -> ByteBuffer.wrap(
+                                chunk.getBytes(Charset.defaultCharset()))
+                                .asReadOnlyBuffer()).collect(Collectors.toList());
+        return withChunkedBody(buffers::iterator);
+    }
+
+    @Override
+    public ResponseBuilder withChunkDelay(TimeUnit timeUnit, long delay) {
+        Validate.notNull(timeUnit, "timeUnit must not be null");
+        Validate.isTrue(delay >= 0, "delay must not be negative");
+        chunkDelayNanos = timeUnit.toNanos(delay);
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder withBytesPerSecond(long bytesPerSecond) {
+        shaping = shaping.withBytesPerSecond(bytesPerSecond);
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder withShaping(ShapingProfile shaping) {
+        Validate.notNull(shaping, "shaping must not be null");
+        this.shaping = shaping;
         return this;
     }
 
@@ -88,6 +231,39 @@ public class DefaultResponseBuilder implements ResponseBuilder {
         Validate.notNull(timeUnit, "timeUnit must not be null");
         Validate.isTrue(delay >= 0, "delay must not be negative");
         delayMillis = timeUnit.toMillis(delay);
+        delayDistribution = null;
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder withFault(TransportFault fault) {
+        Validate.notNull(fault, "fault must not be null");
+        this.fault = fault;
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder withWeight(int weight) {
+        Validate.isTrue(weight > 0, "weight must be positive");
+        this.weight = weight;
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder or(int weight, ResponseBuilder alternative) {
+        Validate.isTrue(weight > 0, "weight must be positive");
+        Validate.notNull(alternative, "alternative must not be null");
+        Validate.isTrue(alternative != this, "alternative must not be this builder");
+        alternatives.add(alternative);
+        alternativeWeights.add(weight);
+        return this;
+    }
+
+    @Override
+    public ResponseBuilder withDelay(LatencyDistribution delayDistribution) {
+        Validate.notNull(delayDistribution, "delayDistribution must not be null");
+        this.delayDistribution = delayDistribution;
+        delayMillis = 0;
         return this;
     }
 }
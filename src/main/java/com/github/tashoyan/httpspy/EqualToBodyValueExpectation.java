@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+
+/**
+ * Expectation that a request body is equal to a constant body, possibly spilled
+ * to a file.
+ * <p>
+ * Unlike {@link EqualToValueExpectation}, the expected body is not kept as a
+ * string: both bodies are compared as streams of characters, so a large
+ * recorded body is played back without reading it into memory. The matcher
+ * accepts a {@link RequestBody} or a string.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+final class EqualToBodyValueExpectation implements ValueExpectation {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final RequestBody body;
+
+    private final Matcher<String> matcher;
+
+    /**
+     * Creates new value expectation.
+     * 
+     * @param body Expected body.
+     * @throws NullPointerException body is null.
+     */
+    EqualToBodyValueExpectation(RequestBody body) {
+        Validate.notNull(body, "body must not be null");
+        this.body = body;
+        this.matcher = new BaseMatcher<String>() {
+
+            @Override
+            public boolean matches(Object item) {
+                if (item instanceof RequestBody) {
+                    return contentEquals(body, (RequestBody) item);
+                }
+                return item instanceof String
+                        && contentEquals(body, RequestBody.of((String) item));
+            }
+
+            @Override
+            public void describeTo(Description description) {
+                description.appendText("body equal to ").appendValue(body);
+            }
+        };
+    }
+
+    /**
+     * Gets the expected body.
+     * 
+     * @return Expected body.
+     */
+    RequestBody getBody() {
+        return body;
+    }
+
+    @Override
+    public Matcher<String> getMatcher() {
+        return matcher;
+    }
+
+    private static boolean contentEquals(RequestBody expected, RequestBody actual) {
+        char[] expectedBuffer = new char[BUFFER_SIZE];
+        char[] actualBuffer = new char[BUFFER_SIZE];
+        try (Reader expectedReader = expected.openReader();
+                Reader actualReader = actual.openReader()) {
+            int expectedRead = read(expectedReader, expectedBuffer);
+            int actualRead = read(actualReader, actualBuffer);
+            while (expectedRead == actualRead
+                    && expectedRead > 0) {
+                for (int i = 0; i < expectedRead; i++) {
+                    if (expectedBuffer[i] != actualBuffer[i]) {
+                        return false;
+                    }
+                }
+                expectedRead = read(expectedReader, expectedBuffer);
+                actualRead = read(actualReader, actualBuffer);
+            }
+            return expectedRead == actualRead;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot compare request bodies", e);
+        }
+    }
+
+    /**
+     * Fills the buffer unless the end of the stream is reached, so the bodies
+     * are compared in aligned chunks.
+     * 
+     * @return Number of characters read, 0 at the end of the stream.
+     */
+    private static int read(Reader reader, char[] buffer) throws IOException {
+        int total = 0;
+        int read = 0;
+        while (read >= 0
+                && total < buffer.length) {
+            read = reader.read(buffer, total, buffer.length
+                    - total);
+            total += Math.max(read, 0);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import com.github.tashoyan.httpspy.matcher.JsonEqualMatcher;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.hamcrest.Matcher;
+
+/**
+ * Expectation that a string attribute is equal to a constant JSON value.
+ * <p>
+ * Unlike an arbitrary {@link ValueExpectation}, this one exposes the expected
+ * value. Test plans use it to index request expectations by a {@link JsonHash
+ * canonical hash} of the expected JSON.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+public class EqualToJsonValueExpectation implements ValueExpectation {
+
+    private final String value;
+
+    private final Matcher<String> matcher;
+
+    /**
+     * Creates new value expectation.
+     * 
+     * @param value Expected JSON value. Null is allowed.
+     */
+    public EqualToJsonValueExpectation(String value) {
+        this.value = value;
+        this.matcher = new JsonEqualMatcher(value);
+    }
+
+    /**
+     * Gets the expected JSON value.
+     * 
+     * @return Expected value, may be null.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public Matcher<String> getMatcher() {
+        return matcher;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Arrays;
+import java.util.Collection;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Set of header names represented as a bitset over ids of header names.
+ * <p>
+ * Header names are numbered when a set is created from specified names, which
+ * happens when a test plan is built. The set of names of an actual request is
+ * created from existing ids only: a request name without an id is not in any
+ * specified set, so the set of the request is marked incomplete and is not the
+ * same as any other set. Comparing two sets costs a few word comparisons.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+public final class HeaderNameSet {
+
+    private final long[] words;
+
+    private final boolean complete;
+
+    private HeaderNameSet(long[] words, boolean complete) {
+        int length = words.length;
+        while (length > 0
+                && words[length - 1] == 0) {
+            length--;
+        }
+        this.words = Arrays.copyOf(words, length);
+        this.complete = complete;
+    }
+
+    /**
+     * Creates a set of specified header names, assigning ids to new names.
+     * 
+     * @param names Header names in any case.
+     * @return Set of header names. If no more ids are available for a new name,
+     * then the set is incomplete.
+     * @throws NullPointerException names is null, a name is null.
+     */
+    public static HeaderNameSet of(Collection<String> names) {
+        Validate.notNull(names, "names must not be null");
+        long[] words = new long[1];
+        boolean complete = true;
+        for (String name : names) {
+            int id = HeaderNames.id(HeaderNames.canonical(name));
+            if (id == HeaderNames.NO_ID) {
+                complete = false;
+            } else {
+                words = set(words, id);
+            }
+        }
+        return new HeaderNameSet(words, complete);
+    }
+
+    /**
+     * Creates a set of header names of an actual request.
+     * 
+     * @param canonicalNames Canonical header names, see
+     * {@link HeaderNames#canonical }.
+     * @return Set of header names, incomplete if a name has no id.
+     */
+    static HeaderNameSet ofExisting(String[] canonicalNames) {
+        long[] words = new long[1];
+        boolean complete = true;
+        for (String name : canonicalNames) {
+            int id = HeaderNames.existingId(name);
+            if (id == HeaderNames.NO_ID) {
+                complete = false;
+            } else {
+                words = set(words, id);
+            }
+        }
+        return new HeaderNameSet(words, complete);
+    }
+
+    private static long[] set(long[] words, int id) {
+        int word = id
+                / Long.SIZE;
+        long[] result = word < words.length
+                ? words
+                : Arrays.copyOf(words, word + 1);
+        result[word] |= 1L << id
+                % Long.SIZE;
+        return result;
+    }
+
+    /**
+     * Checks whether all names of this set have ids.
+     * 
+     * @return True if the set is complete.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Checks whether this set has the same names as another set.
+     * 
+     * @param other Another set.
+     * @return True if both sets are complete and have the same names.
+     * @throws NullPointerException other is null.
+     */
+    public boolean sameNames(HeaderNameSet other) {
+        return complete
+                && other.complete && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("words", words)
+                .append("complete", complete).toString();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Registry of canonical header names.
+ * <p>
+ * HTTP header names are case-insensitive. The canonical form of a name is its
+ * lower case form. Canonical names are interned: the same name in any case maps
+ * to the same string instance, so repeated names of incoming requests do not
+ * allocate new strings. The registry remembers at most {@link #MAX_NAMES}
+ * distinct spellings; beyond that limit, canonical names are computed without
+ * interning.
+ * <p>
+ * Canonical names are also numbered with small integer ids, so sets of header
+ * names can be represented as bitsets, see {@link HeaderNameSet}. At most
+ * {@link #MAX_IDS} names get ids.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe.
+ */
+@ThreadSafe
+final class HeaderNames {
+
+    /**
+     * Maximum number of remembered spellings of header names.
+     */
+    static final int MAX_NAMES = 4096;
+
+    /**
+     * Maximum number of header names with ids.
+     */
+    static final int MAX_IDS = 1024;
+
+    /**
+     * Id returned for a name when no more ids are available.
+     */
+    static final int NO_ID = -1;
+
+    private static final int HASH_MULTIPLIER = 31;
+
+    private static final int HASH_SHIFT = 16;
+
+    private static final ConcurrentMap<String, String> CANONICAL_NAMES =
+            new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, Integer> IDS =
+            new ConcurrentHashMap<>();
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private HeaderNames() {
+    }
+
+    /**
+     * Gets the canonical form of a header name.
+     * 
+     * @param name Header name in any case.
+     * @return Interned lower case name.
+     */
+    static String canonical(String name) {
+        String canonicalName = CANONICAL_NAMES.get(name);
+        if (canonicalName != null) {
+            return canonicalName;
+        }
+        String lowerCaseName = name.toLowerCase(Locale.ROOT);
+        if (CANONICAL_NAMES.size() >= MAX_NAMES) {
+            return lowerCaseName;
+        }
+        canonicalName = CANONICAL_NAMES.computeIfAbsent(lowerCaseName, key -> key);
+        CANONICAL_NAMES.putIfAbsent(name, canonicalName);
+        return canonicalName;
+    }
+
+    /**
+     * Gets the id of a header name, assigning a new id to a new name.
+     * 
+     * @param canonicalName Canonical name, see {@link #canonical }.
+     * @return Id from 0 to {@link #MAX_IDS} - 1, or {@link #NO_ID} if the name
+     * is new and no more ids are available.
+     */
+    static int id(String canonicalName) {
+        Integer id = IDS.get(canonicalName);
+        if (id == null
+                && NEXT_ID.get() < MAX_IDS) {
+            id = IDS.computeIfAbsent(canonicalName, key -> {
+                int newId = NEXT_ID.getAndIncrement();
+                return newId < MAX_IDS
+                        ? Integer.valueOf(newId)
+                        : null;
+            });
+        }
+        return id == null
+                ? NO_ID
+                : id;
+    }
+
+    /**
+     * Gets the id of a header name without assigning a new id.
+     * 
+     * @param canonicalName Canonical name, see {@link #canonical }.
+     * @return Id of the name, or {@link #NO_ID} if the name has no id.
+     */
+    static int existingId(String canonicalName) {
+        Integer id = IDS.get(canonicalName);
+        return id == null
+                ? NO_ID
+                : id;
+    }
+
+    /**
+     * Computes the hash code of a header name, ignoring its case.
+     * 
+     * @param name Header name in any case.
+     * @return Hash code equal for all spellings of the name.
+     */
+    static int hash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = HASH_MULTIPLIER
+                    * hash + Character.toLowerCase(name.charAt(i));
+        }
+        return hash
+                ^ hash >>> HASH_SHIFT;
+    }
+}
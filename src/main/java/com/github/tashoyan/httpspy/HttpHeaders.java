@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Headers of an HTTP request with case-insensitive names.
+ * <p>
+ * Headers are stored in flat arrays: canonical (interned lower case) names,
+ * names as sent by the client, and values of all headers one after another. A
+ * small open addressing table maps names to their positions, so a header is
+ * looked up in constant time in any case without allocating a lower case copy
+ * of the name. Headers with names differing only in case are merged into one
+ * header; the name of its first occurrence is kept as sent by the client.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe. The map
+ * view and the set of names are created on first access and cached; creating
+ * them twice in concurrent threads is harmless.
+ */
+@Immutable
+@ThreadSafe
+public final class HttpHeaders {
+
+    /**
+     * Headers of a request without headers.
+     */
+    public static final HttpHeaders EMPTY = new Builder().build();
+
+    private final String[] names;
+
+    private final String[] originalNames;
+
+    private final int[] valueOffsets;
+
+    private final String[] values;
+
+    private final int[] slots;
+
+    private volatile Map<String, List<String>> map;
+
+    private volatile HeaderNameSet nameSet;
+
+    private HttpHeaders(Builder builder) {
+        int size = builder.namesNumber;
+        names = Arrays.copyOf(builder.names, size);
+        originalNames = Arrays.copyOf(builder.originalNames, size);
+        valueOffsets = new int[size + 1];
+        for (int i = 0; i < builder.valuesNumber; i++) {
+            valueOffsets[builder.valueNames[i] + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            valueOffsets[i + 1] += valueOffsets[i];
+        }
+        values = new String[builder.valuesNumber];
+        int[] positions = Arrays.copyOf(valueOffsets, size);
+        for (int i = 0; i < builder.valuesNumber; i++) {
+            values[positions[builder.valueNames[i]]++] = builder.values[i];
+        }
+        slots = new int[Integer.highestOneBit(size * 2 + 1) * 2];
+        for (int i = 0; i < size; i++) {
+            int slot = HeaderNames.hash(names[i])
+                    & slots.length - 1;
+            while (slots[slot] != 0) {
+                slot = slot
+                        + 1 & slots.length - 1;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Creates headers from a map.
+     * 
+     * @param headers Map from header names to header values. Null means no
+     * headers.
+     * @return Headers.
+     * @throws NullPointerException header name is null.
+     */
+    public static HttpHeaders of(Map<String, List<String>> headers) {
+        if (headers == null
+                || headers.isEmpty()) {
+            return EMPTY;
+        }
+        Builder builder = new Builder();
+        headers.forEach((name, headerValues) -> headerValues.forEach(value -> builder
+                .add(name, value)));
+        return builder.build();
+    }
+
+    /**
+     * Gets the number of headers.
+     * 
+     * @return Number of headers with distinct names.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Gets the canonical name of a header.
+     * 
+     * @param index Index of the header, from 0 to {@link #size() } - 1.
+     * @return Lower case name of the header.
+     * @throws ArrayIndexOutOfBoundsException index is out of range.
+     */
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Checks whether a header is present.
+     * 
+     * @param name Header name in any case.
+     * @return True if there is a header with this name.
+     * @throws NullPointerException name is null.
+     */
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Gets all values of a header.
+     * 
+     * @param name Header name in any case.
+     * @return Immutable list of header values. Null if no such header.
+     * @throws NullPointerException name is null.
+     */
+    public List<String> getValues(String name) {
+        int index = indexOf(name);
+        return index < 0
+                ? null
+                : new ValueList(valueOffsets[index], valueOffsets[index + 1]);
+    }
+
+    /**
+     * Gets the headers as a map.
+     * 
+     * @return Immutable map from header names, as sent by the client, to header
+     * values. The map looks up names ignoring case.
+     */
+    public Map<String, List<String>> asMap() {
+        Map<String, List<String>> headersMap = map;
+        if (headersMap == null) {
+            Map<String, List<String>> newMap =
+                    new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < names.length; i++) {
+                newMap.put(originalNames[i], new ValueList(valueOffsets[i],
+                        valueOffsets[i + 1]));
+            }
+            headersMap = Collections.unmodifiableMap(newMap);
+            map = headersMap;
+        }
+        return headersMap;
+    }
+
+    /**
+     * Gets the set of header names, to compare with specified sets of names in
+     * a few word comparisons.
+     * 
+     * @return Set of header names.
+     */
+    public HeaderNameSet getNameSet() {
+        HeaderNameSet headerNameSet = nameSet;
+        if (headerNameSet == null) {
+            headerNameSet = HeaderNameSet.ofExisting(names);
+            nameSet = headerNameSet;
+        }
+        return headerNameSet;
+    }
+
+    private int indexOf(String name) {
+        Validate.notNull(name, "name must not be null");
+        int slot = HeaderNames.hash(name)
+                & slots.length - 1;
+        while (slots[slot] != 0) {
+            String candidate = names[slots[slot] - 1];
+            if (candidate.equalsIgnoreCase(name)) {
+                return slots[slot] - 1;
+            }
+            slot = slot
+                    + 1 & slots.length - 1;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+
+    /**
+     * Immutable view of the values of one header.
+     */
+    private final class ValueList extends AbstractList<String> implements RandomAccess {
+
+        private final int from;
+
+        private final int to;
+
+        ValueList(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0
+                    || index >= to
+                            - from) {
+                throw new IndexOutOfBoundsException("index: "
+                        + index);
+            }
+            return values[from
+                    + index];
+        }
+
+        @Override
+        public int size() {
+            return to
+                    - from;
+        }
+    }
+
+    /**
+     * Builder of {@link HttpHeaders}.
+     * <p>
+     * <b>Concurrency notes.</b> This class is not thread safe.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+
+        private static final int USUAL_HEADERS_NUMBER = 16;
+
+        private String[] names = new String[USUAL_HEADERS_NUMBER];
+
+        private String[] originalNames = new String[USUAL_HEADERS_NUMBER];
+
+        private int namesNumber;
+
+        private int[] valueNames = new int[USUAL_HEADERS_NUMBER];
+
+        private String[] values = new String[USUAL_HEADERS_NUMBER];
+
+        private int valuesNumber;
+
+        /**
+         * Adds a header value.
+         * 
+         * @param name Header name in any case.
+         * @param value Header value.
+         * @return This builder.
+         * @throws NullPointerException name is null.
+         */
+        public Builder add(String name, String value) {
+            Validate.notNull(name, "name must not be null");
+            String canonicalName = HeaderNames.canonical(name);
+            int nameIndex = 0;
+            while (nameIndex < namesNumber
+                    && !names[nameIndex].equals(canonicalName)) {
+                nameIndex++;
+            }
+            if (nameIndex == namesNumber) {
+                if (namesNumber == names.length) {
+                    names = Arrays.copyOf(names, namesNumber * 2);
+                    originalNames = Arrays.copyOf(originalNames, namesNumber * 2);
+                }
+                names[namesNumber] = canonicalName;
+                originalNames[namesNumber] = name;
+                namesNumber++;
+            }
+            if (valuesNumber == values.length) {
+                valueNames = Arrays.copyOf(valueNames, valuesNumber * 2);
+                values = Arrays.copyOf(values, valuesNumber * 2);
+            }
+            valueNames[valuesNumber] = nameIndex;
+            values[valuesNumber] = value;
+            valuesNumber++;
+            return this;
+        }
+
+        /**
+         * Builds headers.
+         * 
+         * @return Headers with all added values.
+         */
+        public HttpHeaders build() {
+            return new HttpHeaders(this);
+        }
+    }
+}
@@ -54,6 +54,19 @@ public interface HttpRequest {
      */
     String getBody();
 
+    /**
+     * Gets body, possibly spilled to a file.
+     * <p>
+     * Matchers able to read the body as a stream use this method, so a large
+     * body spilled to a file is not read into memory as a whole. The default
+     * implementation wraps {@link #getBody() }.
+     * 
+     * @return Body of this request. Never returns null.
+     */
+    default RequestBody getRequestBody() {
+        return RequestBody.of(getBody());
+    }
+
     /**
      * Gets headers.
      * 
@@ -69,4 +82,64 @@ public interface HttpRequest {
      * @return List of header values. Null if no such header in the request.
      */
     List<String> getHeaderValues(String name);
+
+    /**
+     * Gets headers with case-insensitive names.
+     * <p>
+     * Matchers of headers use this method to look up headers. The default
+     * implementation copies {@link #getHeaders() }; implementations are
+     * encouraged to store headers in this form.
+     * 
+     * @return Headers of this request. Never returns null.
+     */
+    default HttpHeaders getHttpHeaders() {
+        return HttpHeaders.of(getHeaders());
+    }
+
+    /**
+     * Gets query string.
+     * 
+     * @return Query string of this request without leading {@code ?}, as sent
+     * by the client. Null if the request has no query string.
+     */
+    default String getQueryString() {
+        return null;
+    }
+
+    /**
+     * Gets query parameters.
+     * <p>
+     * Implementations may parse the query string lazily, once per request.
+     * 
+     * @return Immutable map from decoded parameter names to their decoded
+     * values, a parameter may have one or many values. Never returns null,
+     * returns empty map if no query parameters.
+     */
+    default Map<String, List<String>> getQueryParameters() {
+        return UrlEncodedParameters.parse(getQueryString());
+    }
+
+    /**
+     * Gets form parameters.
+     * <p>
+     * Implementations may parse the body lazily, once per request.
+     * 
+     * @return Immutable map from decoded parameter names to their decoded
+     * values, if the body has {@code application/x-www-form-urlencoded} content
+     * type. Never returns null, returns empty map if the body has another
+     * content type.
+     */
+    default Map<String, List<String>> getFormParameters() {
+        return UrlEncodedParameters.parseForm(this);
+    }
+
+    /**
+     * Gets address of the client.
+     * 
+     * @return IP address of the client or of the last proxy that sent the
+     * request. Null if unknown, for example for a recorded request.
+     */
+    default String getRemoteAddress() {
+        return null;
+    }
 }
@@ -15,6 +15,7 @@
  */
 package com.github.tashoyan.httpspy;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import net.jcip.annotations.ThreadSafe;
@@ -43,10 +44,33 @@ public interface HttpResponse {
     /**
      * Gets body.
      * 
-     * @return Body of this response.
+     * @return Body of this response. Null if the body is binary, see
+     * {@link #getBodyBuffer() }, or streaming, see {@link #getStreamingBody() }.
      */
     String getBody();
 
+    /**
+     * Gets binary body.
+     * 
+     * @return Read-only buffer with the body bytes from its position to its
+     * limit, or null if the body is a string. Callers should read a
+     * {@link ByteBuffer#duplicate() duplicate} of the buffer, so concurrent
+     * responses do not interfere.
+     */
+    default ByteBuffer getBodyBuffer() {
+        return null;
+    }
+
+    /**
+     * Gets streaming body.
+     * 
+     * @return Body sent in chunks with pacing, or null if the body is sent at
+     * once.
+     */
+    default StreamingBody getStreamingBody() {
+        return null;
+    }
+
     /**
      * Gets headers.
      * 
@@ -63,4 +87,63 @@ public interface HttpResponse {
      * delay.
      */
     long getDelayMillis();
+
+    /**
+     * Gets distribution of delays before sending the response.
+     * <p>
+     * Instead of the fixed {@link #getDelayMillis() delay}, each response
+     * samples its delay from the distribution.
+     * 
+     * @return Distribution of delays, or null if the delay is fixed.
+     */
+    default LatencyDistribution getDelayDistribution() {
+        return null;
+    }
+
+    /**
+     * Samples the delay for sending this response once from the
+     * {@link #getDelayDistribution() distribution} and records it in the
+     * {@link #getAppliedDelays() applied delays}.
+     * 
+     * @return Delay in nanoseconds, zero if the response has no distribution of
+     * delays.
+     */
+    default long sampleDelayNanos() {
+        return 0;
+    }
+
+    /**
+     * Gets statistics of the delays sampled for this response.
+     * 
+     * @return Histogram of delays in nanoseconds, or null if the response has
+     * no distribution of delays.
+     */
+    default LatencyHistogram getAppliedDelays() {
+        return null;
+    }
+
+    /**
+     * Gets transport fault injected instead of a well-formed response.
+     * 
+     * @return Transport fault, or null if the response is sent normally.
+     */
+    default TransportFault getFault() {
+        return null;
+    }
+
+    /**
+     * Selects the response to send for one actual request.
+     * <p>
+     * A set of alternative responses selects one of them, see
+     * {@link ResponseBuilder#or }; a rate limited response selects the
+     * {@code 429 Too Many Requests} response beyond the limit, see
+     * {@link RequestExpectationBuilder#withRateLimit }.
+     * 
+     * @param actualRequest Actual request.
+     * @return Response to send. Never returns null. This implementation returns
+     * this response.
+     */
+    default HttpResponse select(HttpRequest actualRequest) {
+        return this;
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+/**
+ * JMX management interface of a running spy server.
+ * <p>
+ * Allows to watch the spy server from JConsole or another JMX client during
+ * long-running tests. {@link CamelJettyHttpSpy} registers an MXBean per
+ * instance in the platform MBean server when started and unregisters it when
+ * stopped, see {@link CamelJettyHttpSpy#getMBeanName() }.
+ */
+public interface HttpSpyMXBean {
+
+    /**
+     * Gets the URL of the spy server.
+     * 
+     * @return URL, for example {@code http://localhost:8080/path/}.
+     */
+    String getUrl();
+
+    /**
+     * Gets the number of requests received since the spy server started.
+     * 
+     * @return Number of requests.
+     */
+    long getRequestsNumber();
+
+    /**
+     * Gets the rate of requests.
+     * <p>
+     * The rate is calculated once a second in the background.
+     * 
+     * @return Requests per second.
+     */
+    double getRequestsPerSecond();
+
+    /**
+     * Gets the number of requests being serviced right now.
+     * 
+     * @return Number of requests in flight.
+     */
+    long getInFlightRequestsNumber();
+
+    /**
+     * Gets the number of requests unmatched with all request expectations.
+     * 
+     * @return Number of unmatched requests. Zero if the test plan is not a
+     * {@link StubPlan}.
+     */
+    long getUnmatchedRequestsNumber();
+
+    /**
+     * Gets the number of requests matched with each request expectation.
+     * 
+     * @return Numbers of hits in the order of evaluation of request
+     * expectations, see {@link StubPlan#getHitsNumber }. Empty if the test plan
+     * is not a {@link StubPlan}.
+     */
+    long[] getExpectationHits();
+
+    /**
+     * Gets the number of requests waiting for a free thread.
+     * 
+     * @return Queue size.
+     */
+    int getQueueSize();
+
+    /**
+     * Gets the configured number of threads servicing requests.
+     * 
+     * @return Number of threads.
+     * @see HttpSpy#getServiceThreadsNumber()
+     */
+    int getServiceThreadsNumber();
+
+    /**
+     * Gets the total number of threads of the underlying server, including
+     * internal threads.
+     * 
+     * @return Number of threads.
+     */
+    int getServerThreadsNumber();
+
+    /**
+     * Gets the number of busy threads of the underlying server, including
+     * internal threads.
+     * 
+     * @return Number of busy threads.
+     */
+    int getBusyThreadsNumber();
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.StringDescription;
+
+/**
+ * Verifier that checks actual requests against request expectations as soon as
+ * the requests arrive.
+ * <p>
+ * Normally a test plan verifies all actual requests after the test is done, see
+ * {@link TestPlan#verify()}. For long tests, like performance tests with
+ * thousands of requests, it is desirable to detect a mismatch as early as
+ * possible. An incremental verifier checks each actual request in a separate
+ * verification thread, so the servicing threads of HTTP Spy send responses
+ * without waiting for the check.
+ * <p>
+ * The verifier records the first {@code maxViolations} violations. If the
+ * verifier is {@code fail fast}, then the first violation trips a flag that
+ * tests can poll with {@link #isFailed()} or block on with
+ * {@link #awaitFailure }. The test plan reports recorded violations during the
+ * verification.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe. Servicing threads submit
+ * checks, the verification thread records violations, the test thread reads
+ * them.
+ * 
+ * @see AbstractSequencePlanBuilder#verifyIncrementally
+ */
+@ThreadSafe
+public class IncrementalVerifier {
+
+    /**
+     * Default maximum number of violations to record.
+     */
+    public static final int DEFAULT_MAX_VIOLATIONS = 10;
+
+    private static final long IDLE_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final int maxViolations;
+
+    private final boolean isFailFast;
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong violationsNumber = new AtomicLong();
+
+    @GuardedBy("violations")
+    private final List<String> violations;
+
+    private final CountDownLatch failure = new CountDownLatch(1);
+
+    /**
+     * Creates new fail fast verifier that records up to
+     * {@link #DEFAULT_MAX_VIOLATIONS} violations.
+     */
+    public IncrementalVerifier() {
+        this(DEFAULT_MAX_VIOLATIONS, true);
+    }
+
+    /**
+     * Creates new verifier.
+     * 
+     * @param maxViolations Maximum number of violations to record. Further
+     * violations are only counted.
+     * @param isFailFast Whether the first violation trips the failure flag.
+     * @throws IllegalArgumentException maxViolations is not positive.
+     */
+    public IncrementalVerifier(int maxViolations, boolean isFailFast) {
+        Validate.isTrue(maxViolations > 0, "maxViolations must be > 0");
+        this.maxViolations = maxViolations;
+        this.isFailFast = isFailFast;
+        this.violations = new ArrayList<>(maxViolations);
+        this.executor =
+                new ThreadPoolExecutor(1, 1, IDLE_THREAD_KEEP_ALIVE_SECONDS,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                            Thread thread = new Thread(runnable, "httpspy-verifier");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedules a check of an actual request against its request expectation.
+     * 
+     * @param index Index of the request in the sequence of actual requests.
+     * @param requestMatcher Matcher of the request expectation.
+     * @param actualRequest Actual request.
+     */
+    void check(int index, Matcher<HttpRequest> requestMatcher,
+            HttpRequest actualRequest) {
+        executor.execute(() -> verify(index, requestMatcher, actualRequest));
+    }
+
+    /**
+     * Schedules a report of an actual request not expected at all.
+     * 
+     * @param index Index of the request in the sequence of actual requests.
+     * @param expectedRequestsNumber Number of expected requests.
+     * @param actualRequest Actual request.
+     */
+    void reportUnexpected(int index, int expectedRequestsNumber,
+            HttpRequest actualRequest) {
+        executor.execute(() -> recordViolation(() -> "Request #"
+                + index + " is not expected, expected requests: "
+                + expectedRequestsNumber + "; actual request: " + actualRequest));
+    }
+
+    /**
+     * Gets the reason of a request mismatch, as reported by the test plan.
+     * 
+     * @param index Index of the request.
+     * @return Reason text.
+     */
+    static String requestMismatchReason(int index) {
+        return "Request #"
+                + index + " should match expectation";
+    }
+
+    /**
+     * Checks an actual request in the verification thread.
+     * <p>
+     * A matcher that throws an exception is a violation as well: otherwise the
+     * exception would only kill the verification task, and the request would be
+     * left unchecked.
+     */
+    private void verify(int index, Matcher<HttpRequest> requestMatcher,
+            HttpRequest actualRequest) {
+        boolean isMatching;
+        try {
+            isMatching = requestMatcher.matches(actualRequest);
+        } catch (RuntimeException e) {
+            recordViolation(() -> describeExpectation(index, requestMatcher)
+                    .appendText("matcher failed with ").appendText(e.toString())
+                    .appendText(" on ").appendValue(actualRequest).toString());
+            return;
+        }
+        if (!isMatching) {
+            recordViolation(() -> {
+                Description description = describeExpectation(index, requestMatcher);
+                requestMatcher.describeMismatch(actualRequest, description);
+                return description.toString();
+            });
+        }
+    }
+
+    private static Description describeExpectation(int index,
+            Matcher<HttpRequest> requestMatcher) {
+        return new StringDescription().appendText(requestMismatchReason(index))
+                .appendText("\nExpected: ").appendDescriptionOf(requestMatcher)
+                .appendText("\n     but: ");
+    }
+
+    private void recordViolation(Supplier<String> messageSupplier) {
+        long number = violationsNumber.incrementAndGet();
+        if (number <= maxViolations) {
+            String message = messageSupplier.get();
+            synchronized (violations) {
+                violations.add(message);
+            }
+        }
+        if (isFailFast) {
+            failure.countDown();
+        }
+    }
+
+    /**
+     * Waits until all scheduled checks are done.
+     * 
+     * @throws InterruptedException Interrupted while waiting.
+     */
+    public void awaitChecks() throws InterruptedException {
+        try {
+            executor.submit(() -> {
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unexpected failure of verifier", e);
+        }
+    }
+
+    /**
+     * Checks whether the failure flag is tripped.
+     * 
+     * @return {@code true} if this verifier is fail fast and there is at least
+     * one violation.
+     */
+    public boolean isFailed() {
+        return failure.getCount() == 0;
+    }
+
+    /**
+     * Waits until the failure flag is tripped.
+     * 
+     * @param timeout Maximum time to wait.
+     * @param timeUnit Time unit of the timeout.
+     * @return {@code true} if the flag is tripped, {@code false} if the timeout
+     * elapsed.
+     * @throws InterruptedException Interrupted while waiting.
+     * @throws IllegalStateException This verifier is not fail fast.
+     */
+    public boolean awaitFailure(long timeout, TimeUnit timeUnit)
+            throws InterruptedException {
+        if (!isFailFast) {
+            throw new IllegalStateException("Verifier is not fail fast");
+        }
+        return failure.await(timeout, timeUnit);
+    }
+
+    /**
+     * Gets the number of violations detected so far.
+     * 
+     * @return Number of violations, including the ones not recorded.
+     */
+    public long getViolationsNumber() {
+        return violationsNumber.get();
+    }
+
+    /**
+     * Gets the violations recorded so far.
+     * 
+     * @return Descriptions of the first violations, not more than
+     * {@code maxViolations}.
+     */
+    public List<String> getViolations() {
+        synchronized (violations) {
+            return Collections.unmodifiableList(new ArrayList<>(violations));
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.Reader;
+import java.util.Iterator;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.skyscreamer.jsonassert.JSONParser;
+
+/**
+ * Canonical 64-bit hash of a JSON document.
+ * <p>
+ * Documents equal in terms of {@link AbstractTestPlanBuilder#equalToJson } have
+ * the same hash: the hash does not depend on the order of object fields and
+ * array elements, and numbers are compared by their values, so {@code 1} and
+ * {@code 1.0} have the same hash.
+ */
+@Immutable
+@ThreadSafe
+final class JsonHash {
+
+    private static final long OBJECT_SEED = 0x9e3779b97f4a7c15L;
+
+    private static final long ARRAY_SEED = 0xc2b2ae3d27d4eb4fL;
+
+    private static final long NULL_HASH = 0x165667b19e3779f9L;
+
+    private static final long TRUE_HASH = 0x27d4eb2f165667c5L;
+
+    private static final long FALSE_HASH = 0x85ebca77c2b2ae63L;
+
+    private static final long MIX_MULTIPLIER_1 = 0xff51afd7ed558ccdL;
+
+    private static final long MIX_MULTIPLIER_2 = 0xc4ceb9fe1a85ec53L;
+
+    private static final int MIX_SHIFT = 33;
+
+    private JsonHash() {
+    }
+
+    /**
+     * Calculates the hash of a JSON document.
+     * 
+     * @param json JSON object or array.
+     * @return Hash of the document.
+     * @throws JSONException The document is not a JSON object or array.
+     */
+    static long of(String json) throws JSONException {
+        Object document = json == null
+                ? null
+                : JSONParser.parseJSON(json);
+        if (!(document instanceof JSONObject)
+                && !(document instanceof JSONArray)) {
+            throw new JSONException("Not a JSON object or array: "
+                    + json);
+        }
+        return hash(document);
+    }
+
+    /**
+     * Calculates the hash of a JSON document read from a stream of characters.
+     * The document is parsed directly from the stream, without reading it into
+     * a string.
+     * 
+     * @param json JSON object or array. The reader is not closed.
+     * @return Hash of the document, the same as of the document as a string.
+     * @throws JSONException The document is not a JSON object or array or
+     * cannot be read.
+     */
+    static long of(Reader json) throws JSONException {
+        Object document = new JSONTokener(json).nextValue();
+        if (!(document instanceof JSONObject)
+                && !(document instanceof JSONArray)) {
+            throw new JSONException("Not a JSON object or array");
+        }
+        return hash(document);
+    }
+
+    private static long hash(Object value) throws JSONException {
+        long hash;
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            hash = OBJECT_SEED;
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                hash += mix(BodyHash.of(key)
+                        ^ mix(hash(object.get(key))));
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            hash = ARRAY_SEED;
+            for (int i = 0; i < array.length(); i++) {
+                hash += mix(hash(array.get(i)));
+            }
+        } else if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            hash = Double.doubleToLongBits(number == 0
+                    ? 0
+                    : number);
+        } else if (value instanceof Boolean) {
+            hash = (Boolean) value
+                    ? TRUE_HASH
+                    : FALSE_HASH;
+        } else if (JSONObject.NULL.equals(value)) {
+            hash = NULL_HASH;
+        } else {
+            hash = BodyHash.of(value.toString());
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Finalization step of MurmurHash3: spreads the bits of the value, so sums
+     * of hashes do not collide for similar documents.
+     */
+    private static long mix(long value) {
+        long mixed = value;
+        mixed ^= mixed >>> MIX_SHIFT;
+        mixed *= MIX_MULTIPLIER_1;
+        mixed ^= mixed >>> MIX_SHIFT;
+        mixed *= MIX_MULTIPLIER_2;
+        mixed ^= mixed >>> MIX_SHIFT;
+        return mixed;
+    }
+}
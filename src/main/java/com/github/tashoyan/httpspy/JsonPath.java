@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Path to a value inside a JSON document.
+ * <p>
+ * Supported is the subset of the JsonPath syntax that addresses a single value:
+ * the root {@code $} followed by field names ({@code .name} or {@code ['name']}
+ * ) and array indices ({@code [0]}), for example {@code $.order.items[0].id}.
+ * Wildcards, filters and recursive descent are not supported.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+final class JsonPath {
+
+    private static final char ROOT = '$';
+
+    private final String expression;
+
+    /**
+     * Field names as strings and array indices as integers.
+     */
+    private final List<Object> segments;
+
+    /**
+     * Parses a path.
+     * 
+     * @param expression Path expression.
+     * @throws NullPointerException expression is null.
+     * @throws IllegalArgumentException expression is not a supported JSON path.
+     */
+    JsonPath(String expression) {
+        Validate.notNull(expression, "expression must not be null");
+        this.expression = expression;
+        this.segments = Collections.unmodifiableList(parse(expression));
+    }
+
+    private static List<Object> parse(String expression) {
+        Validate.isTrue(!expression.isEmpty()
+                && expression.charAt(0) == ROOT, "JSON path must start with $: %s",
+                expression);
+        List<Object> segments = new ArrayList<>();
+        int i = 1;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            int end;
+            if (c == '.') {
+                end = findNameEnd(expression, i + 1);
+                Validate.isTrue(end > i + 1, "Empty field name in JSON path: %s",
+                        expression);
+                segments.add(expression.substring(i + 1, end));
+            } else if (c == '[') {
+                end = expression.indexOf(']', i) + 1;
+                Validate.isTrue(end > i, "Unclosed bracket in JSON path: %s",
+                        expression);
+                segments.add(parseBracket(expression,
+                        expression.substring(i + 1, end - 1)));
+            } else {
+                throw new IllegalArgumentException("Unexpected character '"
+                        + c + "' in JSON path: " + expression);
+            }
+            i = end;
+        }
+        return segments;
+    }
+
+    private static int findNameEnd(String expression, int start) {
+        int end = start;
+        while (end < expression.length()
+                && expression.charAt(end) != '.' && expression.charAt(end) != '[') {
+            end++;
+        }
+        return end;
+    }
+
+    private static Object parseBracket(String expression, String content) {
+        if (content.length() >= 2
+                && content.charAt(0) == '\''
+                && content.charAt(content.length() - 1) == '\'') {
+            return content.substring(1, content.length() - 1);
+        }
+        try {
+            int index = Integer.parseInt(content);
+            Validate.isTrue(index >= 0, "Negative array index in JSON path: %s",
+                    expression);
+            return index;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unsupported segment ["
+                    + content + "] in JSON path: " + expression, e);
+        }
+    }
+
+    /**
+     * Gets the segments of the path after the root.
+     * 
+     * @return Field names as {@link String strings} and array indices as
+     * {@link Integer integers}.
+     */
+    List<Object> getSegments() {
+        return segments;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof JsonPath
+                && segments.equals(((JsonPath) obj).segments);
+    }
+
+    @Override
+    public int hashCode() {
+        return segments.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import net.jcip.annotations.NotThreadSafe;
+import org.json.JSONException;
+
+/**
+ * Streaming resolver of {@link JsonPath JSON paths}.
+ * <p>
+ * The scanner resolves many paths in one pass over a JSON document without
+ * building its object model. It descends only into the values on the way to the
+ * requested paths, skips other values by counting brackets and stops as soon as
+ * all paths are resolved. Besides the document itself, the scanner keeps only
+ * the state proportional to the length of the requested paths.
+ * <p>
+ * A string value resolves to its unescaped content; any other value resolves to
+ * its JSON text, for example {@code 42}, {@code true}, {@code null} or
+ * {@code "id":1} .
+ * <p>
+ * <b>Concurrency notes.</b> This class is not thread safe. Use {@link #resolve }
+ * to scan a document in the calling thread.
+ */
+@NotThreadSafe
+final class JsonPathScanner {
+
+    private static final int UNICODE_ESCAPE_LENGTH = 4;
+
+    private static final int HEX_RADIX = 16;
+
+    /**
+     * Escape characters, other than {@code u}, that stand for other characters.
+     */
+    private static final String ESCAPES = "bfnrt";
+
+    /**
+     * Characters standing for {@link #ESCAPES} at the same index.
+     */
+    private static final String ESCAPED = "\b\f\n\r\t";
+
+    private final String json;
+
+    private final Map<JsonPath, String> values = new HashMap<>();
+
+    private int remaining;
+
+    private int pos;
+
+    private JsonPathScanner(String json, int remaining) {
+        this.json = json;
+        this.remaining = remaining;
+    }
+
+    /**
+     * Resolves paths in a JSON document.
+     * 
+     * @param json JSON document, may be null.
+     * @param paths Paths to resolve.
+     * @return Values of the paths found in the document. The map does not
+     * contain the paths not found. If the document is null or malformed on the
+     * way to the paths, the map is empty.
+     */
+    static Map<JsonPath, String> resolve(String json, Collection<JsonPath> paths) {
+        if (json == null
+                || paths.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Node root = new Node();
+        paths.forEach(path -> root.add(path));
+        JsonPathScanner scanner = new JsonPathScanner(json, root.countPaths());
+        try {
+            scanner.scanValue(root);
+        } catch (JSONException | IndexOutOfBoundsException | NumberFormatException e) {
+            return Collections.emptyMap();
+        }
+        return scanner.values;
+    }
+
+    private boolean isDone() {
+        return remaining == 0;
+    }
+
+    private void scanValue(Node node) {
+        skipWhitespace();
+        int start = pos;
+        char c = json.charAt(pos);
+        if (node.children.isEmpty()) {
+            skipValue();
+        } else if (c == '{') {
+            scanObject(node);
+        } else if (c == '[') {
+            scanArray(node);
+        } else {
+            skipValue();
+        }
+        if (node.path != null
+                && values.putIfAbsent(node.path, c == '"'
+                        ? unescape(start + 1, pos - 1)
+                        : json.substring(start, pos)) == null) {
+            remaining--;
+        }
+    }
+
+    private void scanObject(Node node) {
+        pos++;
+        skipWhitespace();
+        boolean isEnd = json.charAt(pos) == '}';
+        if (isEnd) {
+            pos++;
+        }
+        while (!isEnd
+                && !isDone()) {
+            skipWhitespace();
+            int keyStart = pos;
+            skipString();
+            String key = unescape(keyStart + 1, pos - 1);
+            skipWhitespace();
+            expect(':');
+            scanElement(node.children.get(key));
+            isEnd = isDone()
+                    || endOfContainer('}');
+        }
+    }
+
+    private void scanArray(Node node) {
+        pos++;
+        skipWhitespace();
+        boolean isEnd = json.charAt(pos) == ']';
+        if (isEnd) {
+            pos++;
+        }
+        for (int index = 0; !isEnd
+                && !isDone(); index++) {
+            scanElement(node.children.get(index));
+            isEnd = isDone()
+                    || endOfContainer(']');
+        }
+    }
+
+    private void scanElement(Node child) {
+        if (child == null) {
+            skipValue();
+        } else {
+            scanValue(child);
+        }
+    }
+
+    /**
+     * Reads the end of an element. Not called once all paths are resolved: the
+     * scan unwinds from the middle of the containers without reading their
+     * rest.
+     * 
+     * @return True if the container ended, false if there are more elements.
+     */
+    private boolean endOfContainer(char end) {
+        skipWhitespace();
+        char c = json.charAt(pos++);
+        if (c == end) {
+            return true;
+        }
+        if (c != ',') {
+            throw new JSONException("Expected ',' or '"
+                    + end + "' at " + (pos - 1));
+        }
+        return false;
+    }
+
+    private void skipValue() {
+        skipWhitespace();
+        char c = json.charAt(pos);
+        if (c == '"') {
+            skipString();
+        } else if (c == '{'
+                || c == '[') {
+            skipContainer();
+        } else {
+            while (pos < json.length()
+                    && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+                pos++;
+            }
+        }
+    }
+
+    private void skipContainer() {
+        int depth = 0;
+        do {
+            char c = json.charAt(pos);
+            if (c == '"') {
+                skipString();
+            } else {
+                if (c == '{'
+                        || c == '[') {
+                    depth++;
+                } else if (c == '}'
+                        || c == ']') {
+                    depth--;
+                }
+                pos++;
+            }
+        } while (depth > 0);
+    }
+
+    private void skipString() {
+        expect('"');
+        char c = json.charAt(pos++);
+        while (c != '"') {
+            if (c == '\\') {
+                pos++;
+            }
+            c = json.charAt(pos++);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void expect(char expected) {
+        if (json.charAt(pos) != expected) {
+            throw new JSONException("Expected '"
+                    + expected + "' at " + pos);
+        }
+        pos++;
+    }
+
+    private String unescape(int start, int end) {
+        int escape = json.indexOf('\\', start);
+        if (escape < 0
+                || escape >= end) {
+            return json.substring(start, end);
+        }
+        StringBuilder unescaped = new StringBuilder(end
+                - start);
+        int i = start;
+        while (i < end) {
+            char c = json.charAt(i++);
+            if (c == '\\') {
+                c = json.charAt(i++);
+                if (c == 'u') {
+                    c = (char) Integer.parseInt(json.substring(i, i
+                            + UNICODE_ESCAPE_LENGTH), HEX_RADIX);
+                    i += UNICODE_ESCAPE_LENGTH;
+                } else if (ESCAPES.indexOf(c) >= 0) {
+                    c = ESCAPED.charAt(ESCAPES.indexOf(c));
+                }
+            }
+            unescaped.append(c);
+        }
+        return unescaped.toString();
+    }
+
+    /**
+     * Node of the tree of requested paths.
+     */
+    private static final class Node {
+
+        private final Map<Object, Node> children = new HashMap<>();
+
+        private JsonPath path;
+
+        void add(JsonPath jsonPath) {
+            Node node = this;
+            for (Object segment : jsonPath.getSegments()) {
+                node = node.children.computeIfAbsent(segment, key -> new Node());
+            }
+            node.path = jsonPath;
+        }
+
+        int countPaths() {
+            int count = path == null
+                    ? 0
+                    : 1;
+            for (Node child : children.values()) {
+                count += child.countPaths();
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import net.jcip.annotations.NotThreadSafe;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Batch of changes to a {@link StubPlan} received as a JSON document by the
+ * admin endpoint.
+ * <p>
+ * The document lists changes by kind; they are applied in the order: remove,
+ * replace, add.
+ * 
+ * <pre>
+ * {
+ *   "remove": ["0"],
+ *   "replace": [{"id": "1", "request": {...}, "response": {...}}],
+ *   "add": [{"id": "login", "request": {...}, "response": {...}}]
+ * }
+ * </pre>
+ * 
+ * Requests and responses have the same format as in the stub file of
+ * {@link RecordedStubPlanBuilder}. Each specified request property is expected
+ * to be equal to the specified value; unspecified properties are not checked. A
+ * binary response body is specified encoded with Base64 as {@code "bodyBase64"}
+ * . Request bodies are specified as text only: a request with
+ * {@code "bodyBase64"} or {@code "bodyFile"} is rejected, so the update is not
+ * applied with the body silently unchecked.
+ */
+@NotThreadSafe
+class JsonStubPlanUpdate extends AbstractStubPlanUpdate {
+
+    private static final String BODY = "body";
+
+    private static final String BODY_BASE64 = "bodyBase64";
+
+    private static final String BODY_FILE = "bodyFile";
+
+    private static final String HEADERS = "headers";
+
+    private static final String ID = "id";
+
+    private final JSONObject document;
+
+    /**
+     * Creates new batch of changes.
+     * 
+     * @param json JSON document.
+     * @throws JSONException Invalid JSON document.
+     */
+    JsonStubPlanUpdate(String json) {
+        this.document = new JSONObject(json);
+    }
+
+    @Override
+    public void compose() {
+        JSONArray removed = document.optJSONArray("remove");
+        if (removed != null) {
+            for (int i = 0; i < removed.length(); i++) {
+                remove(removed.getString(i));
+            }
+        }
+        JSONArray replaced = document.optJSONArray("replace");
+        if (replaced != null) {
+            for (int i = 0; i < replaced.length(); i++) {
+                JSONObject stub = replaced.getJSONObject(i);
+                replace(stub.getString(ID), toRequestExpectationBuilder(stub));
+            }
+        }
+        JSONArray added = document.optJSONArray("add");
+        if (added != null) {
+            for (int i = 0; i < added.length(); i++) {
+                JSONObject stub = added.getJSONObject(i);
+                add(stub.getString(ID), toRequestExpectationBuilder(stub));
+            }
+        }
+    }
+
+    private RequestExpectationBuilder toRequestExpectationBuilder(JSONObject stub) {
+        JSONObject jsonRequest = stub.getJSONObject("request");
+        RequestExpectationBuilder requestBuilder = request();
+        if (jsonRequest.has("method")) {
+            requestBuilder.withMethod(AbstractTestPlanBuilder.equalTo(jsonRequest
+                    .getString("method")));
+        }
+        if (jsonRequest.has("path")) {
+            requestBuilder.withPath(AbstractTestPlanBuilder.equalTo(jsonRequest
+                    .getString("path")));
+        }
+        if (jsonRequest.has(BODY_BASE64)
+                || jsonRequest.has(BODY_FILE)) {
+            throw new IllegalArgumentException("Request body must be specified as "
+                    + BODY + " in stub update: " + jsonRequest);
+        }
+        if (jsonRequest.has(BODY)) {
+            requestBuilder.withBody(AbstractTestPlanBuilder.equalTo(jsonRequest
+                    .getString(BODY)));
+        }
+        RecordedStubPlanBuilder.toHeaders(jsonRequest.optJSONObject(HEADERS)).forEach(
+                (headerName, headerValues) -> {
+                    for (int i = 0; i < headerValues.size(); i++) {
+                        requestBuilder.withHeader(headerName, i,
+                                AbstractTestPlanBuilder.equalTo(headerValues.get(i)));
+                    }
+                });
+        JSONObject jsonResponse = stub.getJSONObject("response");
+        ResponseBuilder responseBuilder =
+                response().withStatus(jsonResponse.getInt("status"));
+        if (jsonResponse.has(BODY_BASE64)) {
+            responseBuilder.withBody(ByteBuffer.wrap(Base64.getDecoder().decode(
+                    jsonResponse.getString(BODY_BASE64))));
+        } else {
+            responseBuilder.withBody(jsonResponse.optString(BODY, null));
+        }
+        Map<String, List<String>> responseHeaders =
+                RecordedStubPlanBuilder.toHeaders(jsonResponse.optJSONObject(HEADERS));
+        responseHeaders.forEach((headerName, headerValues) -> headerValues
+                .forEach(headerValue -> responseBuilder.withHeader(headerName,
+                        headerValue)));
+        return requestBuilder.andResponse(responseBuilder);
+    }
+}
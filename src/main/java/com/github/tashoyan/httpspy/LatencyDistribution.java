@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Distribution of response delays.
+ * <p>
+ * Each response samples its delay from the distribution, so the spy server can
+ * reproduce the long tail of a real upstream: a percentile table, a log-normal
+ * distribution or a histogram recorded from real traffic. Sampled delays are
+ * capped at {@link LatencyHistogram#MAX_TRACKABLE_VALUE} nanoseconds.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe. Samples
+ * are drawn from {@link ThreadLocalRandom}, so concurrent servicing threads do
+ * not contend.
+ */
+@Immutable
+@ThreadSafe
+public final class LatencyDistribution {
+
+    private static final double MAX_PERCENTILE = 100.0;
+
+    private static final int HISTOGRAM_POINTS = 1000;
+
+    private static final String TIME_UNIT_NOT_NULL = "timeUnit must not be null";
+
+    private static final String NANOS = " ns";
+
+    private final ToLongFunction<ThreadLocalRandom> sampler;
+
+    private final String description;
+
+    private LatencyDistribution(ToLongFunction<ThreadLocalRandom> sampler,
+            String description) {
+        this.sampler = sampler;
+        this.description = description;
+    }
+
+    /**
+     * Creates a distribution with a single value.
+     * 
+     * @param timeUnit Time unit for delay.
+     * @param delay Delay.
+     * @return Distribution.
+     * @throws NullPointerException timeUnit is null.
+     * @throws IllegalArgumentException delay is negative.
+     */
+    public static LatencyDistribution constant(TimeUnit timeUnit, long delay) {
+        Validate.notNull(timeUnit, TIME_UNIT_NOT_NULL);
+        Validate.isTrue(delay >= 0, "delay must not be negative");
+        long delayNanos = timeUnit.toNanos(delay);
+        return new LatencyDistribution(random -> delayNanos, "constant "
+                + delayNanos + NANOS);
+    }
+
+    /**
+     * Creates a distribution from a percentile table.
+     * <p>
+     * Delays between the specified percentiles are interpolated linearly.
+     * Delays below the lowest percentile equal its delay, delays above the
+     * highest percentile equal its delay. For example, the table
+     * {@code 50 -> 10, 99 -> 200, 100 -> 1000} in milliseconds gives a median
+     * of 10 ms and a tail up to one second.
+     * 
+     * @param timeUnit Time unit for delays.
+     * @param delays Delays by percentiles in the range {@code [0, 100]}. Delays
+     * must not decrease with percentiles.
+     * @return Distribution.
+     * @throws NullPointerException timeUnit is null, delays is null, a
+     * percentile or delay is null.
+     * @throws IllegalArgumentException delays is empty, a percentile is out of
+     * range, a delay is negative or less than the delay of a lower percentile.
+     */
+    public static LatencyDistribution percentiles(TimeUnit timeUnit,
+            Map<Double, Long> delays) {
+        Validate.notNull(timeUnit, TIME_UNIT_NOT_NULL);
+        Validate.notEmpty(delays, "delays must not be null or empty");
+        SortedMap<Double, Long> sorted = new TreeMap<>(delays);
+        double[] percentiles = new double[sorted.size()];
+        long[] delayNanos = new long[sorted.size()];
+        int i = 0;
+        for (Map.Entry<Double, Long> entry : sorted.entrySet()) {
+            Validate.inclusiveBetween(0, MAX_PERCENTILE, entry.getKey(),
+                    "percentile must be in [0, 100]");
+            Validate.notNull(entry.getValue(), "delay must not be null");
+            Validate.isTrue(entry.getValue() >= 0, "delay must not be negative");
+            percentiles[i] = entry.getKey();
+            delayNanos[i] = timeUnit.toNanos(entry.getValue());
+            Validate.isTrue(i == 0
+                    || delayNanos[i] >= delayNanos[i - 1],
+                    "delays must not decrease with percentiles");
+            i++;
+        }
+        return new LatencyDistribution(random -> interpolate(percentiles, delayNanos,
+                random.nextDouble()
+                        * MAX_PERCENTILE), "percentiles "
+                + Arrays.toString(percentiles) + " -> " + Arrays.toString(delayNanos)
+                + NANOS);
+    }
+
+    /**
+     * Creates a log-normal distribution.
+     * <p>
+     * A delay is {@code median * exp(sigma * z)}, where {@code z} is a standard
+     * normal random value. The larger sigma is, the longer the tail: with sigma
+     * 1 the 99th percentile is about ten times the median.
+     * 
+     * @param timeUnit Time unit for median.
+     * @param median Median delay.
+     * @param sigma Standard deviation of the logarithm of delays.
+     * @return Distribution.
+     * @throws NullPointerException timeUnit is null.
+     * @throws IllegalArgumentException median is not positive, sigma is
+     * negative.
+     */
+    public static LatencyDistribution logNormal(TimeUnit timeUnit, double median,
+            double sigma) {
+        Validate.notNull(timeUnit, TIME_UNIT_NOT_NULL);
+        Validate.isTrue(median > 0, "median must be positive");
+        Validate.isTrue(sigma >= 0, "sigma must not be negative");
+        double medianNanos = median
+                * timeUnit.toNanos(1);
+        return new LatencyDistribution(random -> (long) (medianNanos * Math.exp(sigma
+                * random.nextGaussian())), "log-normal, median "
+                + medianNanos + NANOS + ", sigma " + sigma);
+    }
+
+    /**
+     * Creates a distribution that reproduces a recorded histogram.
+     * <p>
+     * The histogram is copied as a percentile table with a step of 0.1
+     * percentile, so it may continue recording afterwards.
+     * 
+     * @param histogram Histogram of delays in nanoseconds, for example
+     * {@link SpyStatistics#getLatency latency} recorded by another spy server.
+     * @return Distribution.
+     * @throws NullPointerException histogram is null.
+     * @throws IllegalArgumentException histogram is empty.
+     */
+    public static LatencyDistribution of(LatencyHistogram histogram) {
+        Validate.notNull(histogram, "histogram must not be null");
+        Validate.isTrue(histogram.getCount() > 0, "histogram must not be empty");
+        double[] percentiles = new double[HISTOGRAM_POINTS + 1];
+        long[] delayNanos = new long[HISTOGRAM_POINTS + 1];
+        for (int i = 0; i <= HISTOGRAM_POINTS; i++) {
+            percentiles[i] = MAX_PERCENTILE
+                    * i / HISTOGRAM_POINTS;
+            delayNanos[i] =
+                    Math.max(histogram.getValueAtPercentile(percentiles[i]), i == 0
+                            ? 0
+                            : delayNanos[i - 1]);
+        }
+        return new LatencyDistribution(random -> interpolate(percentiles, delayNanos,
+                random.nextDouble()
+                        * MAX_PERCENTILE), "histogram, median "
+                + delayNanos[HISTOGRAM_POINTS / 2] + NANOS);
+    }
+
+    private static long interpolate(double[] percentiles, long[] delayNanos,
+            double percentile) {
+        int index = Arrays.binarySearch(percentiles, percentile);
+        if (index >= 0) {
+            return delayNanos[index];
+        }
+        int upper = -index - 1;
+        if (upper == 0
+                || upper == percentiles.length) {
+            return delayNanos[Math.max(upper - 1, 0)];
+        }
+        int lower = upper - 1;
+        double fraction = (percentile - percentiles[lower])
+                / (percentiles[upper] - percentiles[lower]);
+        return delayNanos[lower]
+                + (long) (fraction * (delayNanos[upper] - delayNanos[lower]));
+    }
+
+    /**
+     * Samples a delay.
+     * 
+     * @return Delay in nanoseconds, not negative.
+     */
+    public long sampleNanos() {
+        long delayNanos = sampler.applyAsLong(ThreadLocalRandom.current());
+        return Math.max(0, Math.min(delayNanos, LatencyHistogram.MAX_TRACKABLE_VALUE));
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("description", description).toString();
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Histogram of latency values with fixed memory footprint.
+ * <p>
+ * The histogram follows the idea of <a
+ * href="http://hdrhistogram.org/">HdrHistogram</a>: values are counted in
+ * buckets of exponentially growing width, each power of two is split into
+ * {@code 2^precisionBits} linear sub-buckets. Thus the relative error of a
+ * reported value is not greater than {@code 2^-precisionBits}, while the number
+ * of buckets is fixed and small. Values greater than
+ * {@link #MAX_TRACKABLE_VALUE} are counted as this value.
+ * <p>
+ * Values are usually nanoseconds, but the histogram does not depend on the
+ * unit.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe and lock free. Servicing
+ * threads record values concurrently, the test thread reads statistics at any
+ * time. Statistics read concurrently with recording reflect some but not
+ * necessarily all values being recorded.
+ */
+@ThreadSafe
+public class LatencyHistogram {
+
+    /**
+     * Default precision: relative error of reported values is about 3%.
+     */
+    public static final int DEFAULT_PRECISION_BITS = 5;
+
+    private static final int MAX_TRACKABLE_BITS = 40;
+
+    /**
+     * Maximum value tracked precisely: about 18 minutes in nanoseconds.
+     */
+    public static final long MAX_TRACKABLE_VALUE = (1L << MAX_TRACKABLE_BITS) - 1;
+
+    private static final double MAX_PERCENTILE = 100.0;
+
+    private static final int MAX_PRECISION_BITS = 10;
+
+    private final int precisionBits;
+
+    private final AtomicLongArray counts;
+
+    private final LongAdder totalCount = new LongAdder();
+
+    private final LongAdder totalSum = new LongAdder();
+
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Creates new histogram with default precision
+     * {@link #DEFAULT_PRECISION_BITS}.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * Creates new histogram.
+     * 
+     * @param precisionBits Number of bits of precision: each power of two is
+     * split into {@code 2^precisionBits} buckets. The memory footprint is
+     * proportional to {@code 2^precisionBits}.
+     * @throws IllegalArgumentException precisionBits is not in the range
+     * {@code [1, 10]}.
+     */
+    public LatencyHistogram(int precisionBits) {
+        Validate.inclusiveBetween(1, MAX_PRECISION_BITS, precisionBits,
+                "precisionBits must be in [1, 10]");
+        this.precisionBits = precisionBits;
+        this.counts = new AtomicLongArray(bucketIndex(MAX_TRACKABLE_VALUE) + 1);
+    }
+
+    private int bucketIndex(long value) {
+        long clamped = Math.min(value, MAX_TRACKABLE_VALUE);
+        int highestBit = Long.SIZE
+                - 1 - Long.numberOfLeadingZeros(clamped);
+        if (highestBit < precisionBits) {
+            return (int) clamped;
+        }
+        int shift = highestBit
+                - precisionBits;
+        return ((shift + 1) << precisionBits)
+                + (int) ((clamped >>> shift) - (1L << precisionBits));
+    }
+
+    private long bucketHighestValue(int index) {
+        int subBuckets = 1 << precisionBits;
+        if (index < subBuckets) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        long lowestValue = ((long) subBuckets + (index & (subBuckets - 1))) << shift;
+        return lowestValue
+                + (1L << shift) - 1;
+    }
+
+    /**
+     * Records a value.
+     * 
+     * @param value Value to record. Negative values are counted as zero.
+     */
+    public void record(long value) {
+        long nonNegative = Math.max(value, 0);
+        counts.incrementAndGet(bucketIndex(nonNegative));
+        totalCount.increment();
+        totalSum.add(nonNegative);
+        long max = maxValue.get();
+        while (nonNegative > max
+                && !maxValue.compareAndSet(max, nonNegative)) {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * Gets the number of recorded values.
+     * 
+     * @return Number of values.
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Gets the maximum recorded value.
+     * 
+     * @return Maximum value, zero if no values recorded.
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * Gets the mean of recorded values.
+     * 
+     * @return Mean value, zero if no values recorded.
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0
+                ? 0
+                : (double) totalSum.sum()
+                        / count;
+    }
+
+    /**
+     * Gets the value at a percentile.
+     * <p>
+     * The reported value is the highest value equivalent to the recorded ones
+     * within the precision of the histogram, so it never underestimates the
+     * latency.
+     * 
+     * @param percentile Percentile in the range {@code [0, 100]}, for example
+     * {@code 99.9}.
+     * @return The value such that the given percentage of recorded values are
+     * not greater than it. Zero if no values recorded.
+     * @throws IllegalArgumentException percentile is not in the range
+     * {@code [0, 100]}.
+     */
+    public long getValueAtPercentile(double percentile) {
+        Validate.inclusiveBetween(0, MAX_PERCENTILE, percentile,
+                "percentile must be in [0, 100]");
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        long rank = Math.max(1, (long) Math.ceil(total
+                * percentile / MAX_PERCENTILE));
+        long accumulated = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            accumulated += counts.get(i);
+            if (accumulated >= rank) {
+                return Math.min(bucketHighestValue(i), maxValue.get());
+            }
+        }
+        return 0;
+    }
+}
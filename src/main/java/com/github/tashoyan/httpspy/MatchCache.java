@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import com.github.tashoyan.httpspy.StubPlanSnapshot.Entry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Cache of matching results of a {@link StubPlan}, see
+ * {@link StubPlanOptions#withMatchCache }.
+ * <p>
+ * The cache maps a fingerprint of an actual request to the first matching
+ * entry, or to nothing if the request is unmatched. The fingerprint consists of
+ * the method, the path with the query string, the values of the headers
+ * referenced by request expectations and the {@link BodyHash#digest digest} of
+ * the body: its length and two independent hashes, so a collision of one hash
+ * does not make different bodies share an entry. Requests with the same
+ * fingerprint match the same entry provided that all matchers are
+ * deterministic.
+ * <p>
+ * The cache is bounded: it is divided into segments, each segment evicts the
+ * least recently used fingerprint when full.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe. Servicing threads lock
+ * only the segment of the fingerprint, so they rarely contend.
+ */
+@ThreadSafe
+final class MatchCache {
+
+    private static final int SEGMENTS_NUMBER = 16;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final List<String> referencedHeaders;
+
+    private final List<Map<Fingerprint, Optional<Entry>>> segments;
+
+    /**
+     * Fingerprint of an actual request.
+     */
+    @Immutable
+    private static final class Fingerprint {
+
+        private final String method;
+
+        private final String path;
+
+        private final BodyHash.Digest bodyDigest;
+
+        private final Object headers;
+
+        private final int hashCode;
+
+        Fingerprint(String method, String path, BodyHash.Digest bodyDigest,
+                Object headers) {
+            this.method = method;
+            this.path = path;
+            this.bodyDigest = bodyDigest;
+            this.headers = headers;
+            this.hashCode = Objects.hash(method, path, bodyDigest, headers);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) obj;
+            return bodyDigest.equals(other.bodyDigest)
+                    && Objects.equals(method, other.method)
+                    && Objects.equals(path, other.path)
+                    && Objects.equals(headers, other.headers);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Segment of the cache: a map that evicts the least recently used
+     * fingerprint when full.
+     */
+    private static final class Segment
+            extends LinkedHashMap<Fingerprint, Optional<Entry>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(maxSize, LOAD_FACTOR, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<Fingerprint, Optional<Entry>> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    /**
+     * Creates new cache.
+     * 
+     * @param maxSize Maximum number of cached fingerprints.
+     * @param referencedHeaders Names of headers referenced by request
+     * expectations, or null if an expectation may reference any header.
+     * @throws IllegalArgumentException maxSize is not positive.
+     */
+    MatchCache(int maxSize, Set<String> referencedHeaders) {
+        Validate.isTrue(maxSize > 0, "maxSize must be > 0");
+        this.referencedHeaders = referencedHeaders == null
+                ? null
+                : new ArrayList<>(referencedHeaders);
+        int segmentSize = (maxSize
+                + SEGMENTS_NUMBER - 1)
+                / SEGMENTS_NUMBER;
+        List<Map<Fingerprint, Optional<Entry>>> newSegments =
+                new ArrayList<>(SEGMENTS_NUMBER);
+        for (int i = 0; i < SEGMENTS_NUMBER; i++) {
+            newSegments.add(Collections.synchronizedMap(new Segment(segmentSize)));
+        }
+        this.segments = Collections.unmodifiableList(newSegments);
+    }
+
+    /**
+     * Looks up an actual request.
+     * 
+     * @param actualRequest Actual request.
+     * @return Lookup to get the cached entry and to store a new one.
+     */
+    Lookup lookup(HttpRequest actualRequest) {
+        Object headers;
+        if (referencedHeaders == null) {
+            headers = actualRequest.getHeaders();
+        } else {
+            List<List<String>> values = new ArrayList<>(referencedHeaders.size());
+            HttpHeaders actualHeaders = actualRequest.getHttpHeaders();
+            referencedHeaders
+                    .forEach(name -> values.add(actualHeaders.getValues(name)));
+            headers = values;
+        }
+        String path = actualRequest.getQueryString() == null
+                ? actualRequest.getPath()
+                : actualRequest.getPath()
+                        + '?' + actualRequest.getQueryString();
+        Fingerprint fingerprint =
+                new Fingerprint(actualRequest.getMethod(), path,
+                        BodyHash.digest(actualRequest.getRequestBody()), headers);
+        return new Lookup(fingerprint, segments.get(Math.floorMod(
+                fingerprint.hashCode(), SEGMENTS_NUMBER)));
+    }
+
+    /**
+     * Result of looking up an actual request in the cache.
+     */
+    static final class Lookup {
+
+        private final Fingerprint fingerprint;
+
+        private final Map<Fingerprint, Optional<Entry>> segment;
+
+        private Lookup(Fingerprint fingerprint,
+                Map<Fingerprint, Optional<Entry>> segment) {
+            this.fingerprint = fingerprint;
+            this.segment = segment;
+        }
+
+        /**
+         * Gets the cached matching result.
+         * 
+         * @return Null if not cached, empty if the request is cached as
+         * unmatched, otherwise the first matching entry.
+         */
+        Optional<Entry> get() {
+            return segment.get(fingerprint);
+        }
+
+        /**
+         * Caches the matching result.
+         * 
+         * @param entry The first matching entry or null if the request is
+         * unmatched.
+         */
+        void put(Entry entry) {
+            segment.put(fingerprint, Optional.ofNullable(entry));
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.List;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.StringDescription;
+
+/**
+ * Request expectation that an unmatched request came close to.
+ * <p>
+ * A near miss tells how many matchers of the expectation passed for the
+ * request, see {@link RequestExpectation#getSubMatchers }, and describes the
+ * mismatch of the others. {@link StubPlan#getNearMisses } ranks expectations by
+ * the number of passed matchers.
+ * <p>
+ * Near misses are computed on demand, never when servicing a request.
+ */
+@Immutable
+@ThreadSafe
+public final class NearMiss {
+
+    private final String expectationId;
+
+    private final int passedNumber;
+
+    private final int matchersNumber;
+
+    private final String mismatchDescription;
+
+    private NearMiss(String expectationId, int passedNumber, int matchersNumber,
+            String mismatchDescription) {
+        this.expectationId = expectationId;
+        this.passedNumber = passedNumber;
+        this.matchersNumber = matchersNumber;
+        this.mismatchDescription = mismatchDescription;
+    }
+
+    /**
+     * Evaluates all matchers of a request expectation against a request.
+     * <p>
+     * Unlike {@link RequestExpectation#getRequestMatcher() the request matcher}
+     * this does not stop at the first failed matcher.
+     * 
+     * @param expectationId Id of the request expectation.
+     * @param expectation Request expectation.
+     * @param actualRequest Actual request.
+     * @return New near miss.
+     * @throws NullPointerException expectation is null, actualRequest is null.
+     */
+    static NearMiss evaluate(String expectationId, RequestExpectation expectation,
+            HttpRequest actualRequest) {
+        Validate.notNull(expectation, "expectation must not be null");
+        Validate.notNull(actualRequest, "actualRequest must not be null");
+        List<Matcher<? super HttpRequest>> matchers = expectation.getSubMatchers();
+        Description description = new StringDescription();
+        int passedNumber = 0;
+        for (Matcher<? super HttpRequest> matcher : matchers) {
+            if (matches(matcher, actualRequest)) {
+                passedNumber++;
+            } else {
+                describeMismatch(matcher, actualRequest, description);
+            }
+        }
+        return new NearMiss(expectationId, passedNumber, matchers.size(),
+                description.toString());
+    }
+
+    private static boolean matches(Matcher<? super HttpRequest> matcher,
+            HttpRequest actualRequest) {
+        try {
+            return matcher.matches(actualRequest);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void describeMismatch(Matcher<? super HttpRequest> matcher,
+            HttpRequest actualRequest, Description description) {
+        description.appendText("\n    expected ").appendDescriptionOf(matcher)
+                .appendText(" but ");
+        try {
+            matcher.describeMismatch(actualRequest, description);
+        } catch (RuntimeException e) {
+            description.appendText("failed with ").appendValue(e);
+        }
+    }
+
+    /**
+     * Gets the id of the request expectation, see
+     * {@link StubPlan#getExpectationIds }.
+     * 
+     * @return Request expectation id.
+     */
+    public String getExpectationId() {
+        return expectationId;
+    }
+
+    /**
+     * Gets the number of matchers passed for the request.
+     * 
+     * @return Number of passed matchers.
+     */
+    public int getPassedNumber() {
+        return passedNumber;
+    }
+
+    /**
+     * Gets the number of matchers of the request expectation.
+     * 
+     * @return Number of matchers.
+     */
+    public int getMatchersNumber() {
+        return matchersNumber;
+    }
+
+    /**
+     * Describes the matchers that did not pass for the request.
+     * 
+     * @return Mismatch description, one matcher per line.
+     */
+    public String getMismatchDescription() {
+        return mismatchDescription;
+    }
+
+    @Override
+    public String toString() {
+        return "expectation "
+                + expectationId + ": " + passedNumber + " of " + matchersNumber
+                + " matchers passed" + mismatchDescription;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import net.jcip.annotations.NotThreadSafe;
+import org.w3c.dom.Document;
+
+/**
+ * Actual request that parses its body once for all request expectations of a
+ * test plan.
+ * <p>
+ * Test plans wrap an actual request into this object before evaluating their
+ * expectations against it. The first {@link #getJsonPathValue JSON path lookup}
+ * scans the body once with {@link JsonPathScanner} for all paths of the plan;
+ * later lookups, made by the matchers of other expectations, reuse the result.
+ * Likewise, the first {@link #getXPathValue XPath evaluation} parses the body
+ * into an XML document, and all XPath expressions are evaluated against this
+ * document.
+ * <p>
+ * The body is read at most once: a spilled body is read from its file on the
+ * first {@link #getBody() } call, and all body matchers and JSON path lookups
+ * share the result.
+ * <p>
+ * <b>Concurrency notes.</b> This class is not thread safe. An instance is used
+ * by the thread evaluating the expectations against the request.
+ */
+@NotThreadSafe
+final class PreparedRequest implements HttpRequest {
+
+    private final HttpRequest request;
+
+    private final Set<JsonPath> jsonPaths;
+
+    private boolean isBodyRead;
+
+    private String body;
+
+    private Map<JsonPath, String> jsonPathValues;
+
+    private boolean isXmlParsed;
+
+    private Document xmlDocument;
+
+    /**
+     * Creates new request.
+     * 
+     * @param request Actual request.
+     * @param jsonPaths JSON paths of all expectations of the test plan.
+     */
+    PreparedRequest(HttpRequest request, Set<JsonPath> jsonPaths) {
+        this.request = request;
+        this.jsonPaths = jsonPaths;
+    }
+
+    /**
+     * Creates a provider of the value of a JSON path in the body of a request.
+     * 
+     * @param jsonPath JSON path.
+     * @return Provider of the value, see {@link #getJsonPathValue }.
+     * @throws NullPointerException jsonPath is null.
+     * @throws IllegalArgumentException jsonPath is not a supported JSON path.
+     */
+    static Function<HttpRequest, Object> jsonPathValueProvider(String jsonPath) {
+        JsonPath path = new JsonPath(jsonPath);
+        return httpRequest -> getJsonPathValue(httpRequest, path);
+    }
+
+    /**
+     * Creates a provider of the value of an XPath expression on the body of a
+     * request.
+     * 
+     * @param expression XPath expression.
+     * @return Provider of the value, see {@link #getXPathValue }.
+     * @throws NullPointerException expression is null.
+     * @throws IllegalArgumentException expression is not a valid XPath
+     * expression.
+     */
+    static Function<HttpRequest, Object> xpathValueProvider(String expression) {
+        XPathQuery query = new XPathQuery(expression);
+        return httpRequest -> getXPathValue(httpRequest, query);
+    }
+
+    /**
+     * Gets the value of a JSON path in the body of a request.
+     * 
+     * @param request Actual request.
+     * @param jsonPath JSON path.
+     * @return Value as described in {@link JsonPathScanner} or null if the body
+     * is not a JSON document or does not have the path.
+     */
+    static String getJsonPathValue(HttpRequest request, JsonPath jsonPath) {
+        if (request instanceof PreparedRequest) {
+            return ((PreparedRequest) request).getJsonPathValue(jsonPath);
+        }
+        return JsonPathScanner.resolve(request.getBody(),
+                Collections.singleton(jsonPath)).get(jsonPath);
+    }
+
+    private String getJsonPathValue(JsonPath jsonPath) {
+        if (!jsonPaths.contains(jsonPath)) {
+            return JsonPathScanner.resolve(getBody(), Collections.singleton(jsonPath))
+                    .get(jsonPath);
+        }
+        if (jsonPathValues == null) {
+            jsonPathValues = JsonPathScanner.resolve(getBody(), jsonPaths);
+        }
+        return jsonPathValues.get(jsonPath);
+    }
+
+    /**
+     * Evaluates an XPath expression against the body of a request.
+     * 
+     * @param request Actual request.
+     * @param query XPath expression.
+     * @return Value as described in {@link XPathQuery#evaluate } or null if the
+     * body is not an XML document.
+     */
+    static String getXPathValue(HttpRequest request, XPathQuery query) {
+        Document document = request instanceof PreparedRequest
+                ? ((PreparedRequest) request).getXmlDocument()
+                : XmlDocuments.parse(request.getRequestBody());
+        return document == null
+                ? null
+                : query.evaluate(document);
+    }
+
+    private Document getXmlDocument() {
+        if (!isXmlParsed) {
+            xmlDocument = XmlDocuments.parse(getRequestBody());
+            isXmlParsed = true;
+        }
+        return xmlDocument;
+    }
+
+    @Override
+    public String getMethod() {
+        return request.getMethod();
+    }
+
+    @Override
+    public String getPath() {
+        return request.getPath();
+    }
+
+    @Override
+    public String getBody() {
+        if (!isBodyRead) {
+            body = request.getBody();
+            isBodyRead = true;
+        }
+        return body;
+    }
+
+    @Override
+    public RequestBody getRequestBody() {
+        return request.getRequestBody();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+        return request.getHeaders();
+    }
+
+    @Override
+    public List<String> getHeaderValues(String name) {
+        return request.getHeaderValues(name);
+    }
+
+    @Override
+    public HttpHeaders getHttpHeaders() {
+        return request.getHttpHeaders();
+    }
+
+    @Override
+    public String getQueryString() {
+        return request.getQueryString();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return request.getRemoteAddress();
+    }
+
+    @Override
+    public Map<String, List<String>> getQueryParameters() {
+        return request.getQueryParameters();
+    }
+
+    @Override
+    public Map<String, List<String>> getFormParameters() {
+        return request.getFormParameters();
+    }
+
+    @Override
+    public String toString() {
+        return request.toString();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recorder of requests and responses exchanged with an upstream HTTP server.
+ * <p>
+ * The recorder forwards actual requests to the upstream server and records each
+ * request together with the response of the upstream server. To make HTTP Spy a
+ * recording proxy, set a test plan built by
+ * {@link AbstractRecordingPlanBuilder}: all requests unmatched with its
+ * expectations are forwarded with the recorder. The upstream server may be a
+ * local process started by the test.
+ * <p>
+ * Later, the recordings may be played back without the upstream server: see
+ * {@link #playbackPlan()} and {@link #save }.
+ * <p>
+ * The recorder uses a pooled connection manager, so connections to the upstream
+ * server are reused between requests. Request bodies are streamed to the
+ * upstream server; a spilled request body is sent from its file. The recorder
+ * keeps a copy of the file, because HTTP Spy deletes spilled bodies on reset,
+ * and the copy is played back without reading it into memory. The response body
+ * of the upstream server is recorded as bytes, without decoding, so binary
+ * payloads are played back intact; it is kept in memory for playback. The
+ * recorder has to be closed to free the connections and delete the copies of
+ * spilled request bodies.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe: servicing threads of
+ * HTTP Spy forward requests concurrently.
+ */
+@ThreadSafe
+public class ProxyRecorder implements Closeable {
+
+    /**
+     * Default maximum number of connections to the upstream server.
+     */
+    protected static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    private static final Set<String> NOT_FORWARDED_HEADERS = new TreeSet<>(
+            String.CASE_INSENSITIVE_ORDER);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyRecorder.class);
+    static {
+        NOT_FORWARDED_HEADERS.addAll(Arrays.asList("Connection", "Keep-Alive",
+                "Proxy-Connection", "Transfer-Encoding", "TE", "Trailer", "Upgrade",
+                "Host", "Content-Length", "Date", "Server"));
+    }
+
+    private final String upstreamUrl;
+
+    private final CloseableHttpClient httpClient;
+
+    private final Queue<Pair<HttpRequest, HttpResponse>> recordings =
+            new ConcurrentLinkedQueue<>();
+
+    private final BodySpill recordedBodies = new BodySpill(0);
+
+    /**
+     * Creates new recorder with default maximum number of connections
+     * {@link #DEFAULT_MAX_CONNECTIONS}.
+     * 
+     * @param upstreamUrl URL of the upstream server, for example
+     * {@code http://localhost:8080}. The path of an actual request is appended
+     * to this URL.
+     * @throws NullPointerException upstreamUrl is null.
+     * @throws IllegalArgumentException upstreamUrl is empty or blank.
+     */
+    public ProxyRecorder(String upstreamUrl) {
+        this(upstreamUrl, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Creates new recorder.
+     * 
+     * @param upstreamUrl URL of the upstream server, for example
+     * {@code http://localhost:8080}. The path of an actual request is appended
+     * to this URL.
+     * @param maxConnections Maximum number of pooled connections to the
+     * upstream server. Should be not less than the number of servicing threads
+     * in HTTP Spy.
+     * @throws NullPointerException upstreamUrl is null.
+     * @throws IllegalArgumentException upstreamUrl is empty or blank.
+     * @throws IllegalArgumentException maxConnections is not positive.
+     */
+    public ProxyRecorder(String upstreamUrl, int maxConnections) {
+        Validate.notBlank(upstreamUrl, "upstreamUrl must not be blank");
+        Validate.isTrue(maxConnections > 0, "maxConnections must be > 0");
+        this.upstreamUrl = StringUtils.removeEnd(upstreamUrl, "/");
+        PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        this.httpClient =
+                HttpClients.custom().setConnectionManager(connectionManager)
+                        .disableRedirectHandling().disableCookieManagement()
+                        .disableAutomaticRetries().build();
+    }
+
+    /**
+     * Gets URL of the upstream server.
+     * 
+     * @return Upstream URL without trailing slash.
+     */
+    public String getUpstreamUrl() {
+        return upstreamUrl;
+    }
+
+    /**
+     * Forwards an actual request to the upstream server and records the request
+     * together with the upstream response.
+     * 
+     * @param actualRequest Actual request.
+     * @return Response of the upstream server. Never returns null.
+     * @throws NullPointerException actualRequest is null.
+     * @throws IOException Failed to exchange with the upstream server. Nothing
+     * is recorded in this case.
+     */
+    public HttpResponse forward(HttpRequest actualRequest) throws IOException {
+        Validate.notNull(actualRequest, "actualRequest must not be null");
+        RequestBuilder requestBuilder =
+                RequestBuilder.create(actualRequest.getMethod()).setUri(
+                        upstreamUrl
+                                + StringUtils.defaultString(actualRequest.getPath())
+                                + (actualRequest.getQueryString() == null
+                                        ? ""
+                                        : "?"
+                                                + actualRequest.getQueryString()));
+        actualRequest.getHeaders().forEach(
+                (headerName, headerValues) -> {
+                    if (!NOT_FORWARDED_HEADERS.contains(headerName)) {
+                        headerValues.forEach(headerValue -> requestBuilder.addHeader(
+                                headerName, headerValue));
+                    }
+                });
+        RequestBody body = actualRequest.getRequestBody();
+        if (body.isSpilled()) {
+            requestBuilder.setEntity(new FileEntity(body.getFile().toFile()));
+        } else if (StringUtils.isNotEmpty(body.asString())) {
+            requestBuilder.setEntity(new StringEntity(body.asString(), Charset
+                    .defaultCharset()));
+        }
+        LOGGER.debug("Forwarding request to {}: {}", upstreamUrl, actualRequest);
+        try (CloseableHttpResponse upstreamResponse =
+                httpClient.execute(requestBuilder.build())) {
+            HttpResponse response = toHttpResponse(upstreamResponse);
+            recordings.add(Pair.of(toRecordedRequest(actualRequest), response));
+            return response;
+        }
+    }
+
+    private HttpRequest toRecordedRequest(HttpRequest actualRequest)
+            throws IOException {
+        RequestBody body = actualRequest.getRequestBody();
+        if (!body.isSpilled()) {
+            return actualRequest;
+        }
+        return CamelJettyHttpRequest.of(actualRequest.getMethod(),
+                actualRequest.getPath(), actualRequest.getQueryString(),
+                recordedBodies.copy(body), actualRequest.getHeaders());
+    }
+
+    private HttpResponse toHttpResponse(CloseableHttpResponse upstreamResponse)
+            throws IOException {
+        Map<String, List<String>> headers = new HashMap<>();
+        for (Header header : upstreamResponse.getAllHeaders()) {
+            if (!NOT_FORWARDED_HEADERS.contains(header.getName())) {
+                headers.computeIfAbsent(header.getName(), key -> new ArrayList<>())
+                        .add(header.getValue());
+            }
+        }
+        HttpEntity entity = upstreamResponse.getEntity();
+        ByteBuffer body = ByteBuffer.wrap(entity == null
+                ? new byte[0]
+                : EntityUtils.toByteArray(entity));
+        return new CamelJettyHttpResponse(upstreamResponse.getStatusLine()
+                .getStatusCode(), null, body, null, headers, 0, null);
+    }
+
+    /**
+     * Gets recorded requests and responses.
+     * 
+     * @return Snapshot of recorded pairs of actual requests and upstream
+     * responses, in the order the responses were received.
+     */
+    public List<Pair<HttpRequest, HttpResponse>> getRecordings() {
+        return new ArrayList<>(recordings);
+    }
+
+    /**
+     * Creates a test plan builder that plays the recordings back without the
+     * upstream server.
+     * 
+     * @return Builder of an indexed {@link StubPlan} with a request expectation
+     * for each recorded request.
+     * @see RecordedStubPlanBuilder
+     */
+    public RecordedStubPlanBuilder playbackPlan() {
+        return new RecordedStubPlanBuilder(getRecordings());
+    }
+
+    /**
+     * Saves the recordings to a stub file.
+     * 
+     * @param file Stub file to write.
+     * @throws NullPointerException file is null.
+     * @throws IOException Failed to write the file.
+     * @see RecordedStubPlanBuilder#fromFile
+     */
+    public void save(Path file) throws IOException {
+        playbackPlan().save(file);
+    }
+
+    /**
+     * Closes connections to the upstream server and deletes the copies of
+     * spilled request bodies. Recordings with such bodies, including playback
+     * plans, must not be used afterwards; save them before closing.
+     */
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+        recordedBodies.clean();
+    }
+}
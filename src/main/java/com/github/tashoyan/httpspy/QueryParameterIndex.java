@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Index of request expectations by constant values of query parameters.
+ * <p>
+ * Each expectation is indexed by one of its
+ * {@link RequestExpectation#getExpectedQueryParameters() constant query
+ * parameters}: the one with the most distinct constant values among the indexed
+ * expectations, as it is likely the most selective. For an actual request, the
+ * index looks up each value of each indexed parameter and provides the
+ * expectations with the same value.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe once {@link #build built}
+ * . Expectations are added in a single thread before that.
+ */
+@ThreadSafe
+final class QueryParameterIndex {
+
+    private final Map<String, Map<String, int[]>> positions;
+
+    private QueryParameterIndex(Map<String, Map<String, int[]>> positions) {
+        this.positions = positions;
+    }
+
+    /**
+     * Selects the positions that may match query parameters.
+     * 
+     * @param queryParameters Query parameters of an actual request.
+     * @return Positions in ascending order.
+     */
+    int[] select(Map<String, List<String>> queryParameters) {
+        IntStream.Builder selected = IntStream.builder();
+        positions.forEach((name, byValue) -> {
+            List<String> values = queryParameters.get(name);
+            if (values != null) {
+                values.stream()
+                        .map(byValue::get)
+                        .filter(valuePositions -> valuePositions != null)
+                        .forEach(
+                                valuePositions -> IntStream.of(valuePositions)
+                                        .forEach(selected::add));
+            }
+        });
+        return selected.build().distinct().sorted().toArray();
+    }
+
+    /**
+     * Builder of the index.
+     */
+    @NotThreadSafe
+    static final class Builder {
+
+        private final List<Integer> positions = new ArrayList<>();
+
+        private final List<Map<String, String>> parameters = new ArrayList<>();
+
+        /**
+         * Adds an expectation.
+         * 
+         * @param position Position of the expectation.
+         * @param expectedParameters Constant query parameters of the
+         * expectation, not empty.
+         */
+        void add(int position, Map<String, String> expectedParameters) {
+            positions.add(position);
+            parameters.add(expectedParameters);
+        }
+
+        /**
+         * Builds the index.
+         * 
+         * @return Index or null if no expectations added.
+         */
+        QueryParameterIndex build() {
+            if (positions.isEmpty()) {
+                return null;
+            }
+            Map<String, Set<String>> distinctValues = new HashMap<>();
+            parameters.forEach(expected -> expected
+                    .forEach((name, value) -> distinctValues.computeIfAbsent(name,
+                            key -> new HashSet<>()).add(value)));
+            Map<String, Map<String, List<Integer>>> byName = new HashMap<>();
+            for (int i = 0; i < positions.size(); i++) {
+                Map<String, String> expected = parameters.get(i);
+                String name =
+                        expected.keySet()
+                                .stream()
+                                .max((name1, name2) -> {
+                                    int bySelectivity =
+                                            Integer.compare(distinctValues.get(name1)
+                                                    .size(), distinctValues.get(name2)
+                                                    .size());
+                                    return bySelectivity == 0
+                                            ? name2.compareTo(name1)
+                                            : bySelectivity;
+                                }).get();
+                byName.computeIfAbsent(name, key -> new HashMap<>())
+                        .computeIfAbsent(expected.get(name), key -> new ArrayList<>())
+                        .add(positions.get(i));
+            }
+            Map<String, Map<String, int[]>> index = new HashMap<>(byName.size());
+            byName.forEach((name, byValue) -> {
+                Map<String, int[]> valuePositions = new HashMap<>(byValue.size());
+                byValue.forEach((value, list) -> valuePositions.put(value, list
+                        .stream().mapToInt(Integer::intValue).toArray()));
+                index.put(name, valuePositions);
+            });
+            return new QueryParameterIndex(Collections.unmodifiableMap(index));
+        }
+    }
+}
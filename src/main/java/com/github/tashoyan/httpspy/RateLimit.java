@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.List;
+import java.util.function.Function;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Rate limit policy of a request expectation, see
+ * {@link RequestExpectationBuilder#withRateLimit }.
+ * <p>
+ * Matched requests are grouped by a key, such as the client address, the value
+ * of an API key header or the path. Each key has a token bucket that allows the
+ * specified number of requests per second, with bursts up to the bucket
+ * capacity. A request beyond the limit gets {@code 429 Too Many Requests} with
+ * {@code Retry-After} telling the number of seconds until the bucket has a
+ * token again. Start from a factory method and specify the burst if needed:
+ * 
+ * <pre>
+ * RateLimit.perHeader(&quot;X-Api-Key&quot;, 100).withBurst(20)
+ * </pre>
+ * <p>
+ * The number of tracked keys is bounded, see {@link #withMaxKeys }, so keys of
+ * high cardinality do not leak memory.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+public final class RateLimit {
+
+    /**
+     * Default maximum number of tracked keys.
+     */
+    public static final int DEFAULT_MAX_KEYS = 10000;
+
+    private static final String NO_KEY = "";
+
+    private final Function<HttpRequest, String> key;
+
+    private final String keyDescription;
+
+    private final long permitsPerSecond;
+
+    private final int burst;
+
+    private final int maxKeys;
+
+    private RateLimit(Function<HttpRequest, String> key, String keyDescription,
+            long permitsPerSecond, int burst, int maxKeys) {
+        Validate.isTrue(permitsPerSecond > 0, "permitsPerSecond must be positive");
+        this.key = key;
+        this.keyDescription = keyDescription;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Creates a limit shared by all matched requests.
+     * 
+     * @param permitsPerSecond Allowed number of requests per second.
+     * @return Rate limit with the burst of one second of requests.
+     * @throws IllegalArgumentException permitsPerSecond is not positive.
+     */
+    public static RateLimit global(long permitsPerSecond) {
+        return create(request -> NO_KEY, "global", permitsPerSecond);
+    }
+
+    /**
+     * Creates a limit per client address, see
+     * {@link HttpRequest#getRemoteAddress }.
+     * 
+     * @param permitsPerSecond Allowed number of requests per second for each
+     * client.
+     * @return Rate limit with the burst of one second of requests.
+     * @throws IllegalArgumentException permitsPerSecond is not positive.
+     */
+    public static RateLimit perClientAddress(long permitsPerSecond) {
+        return create(HttpRequest::getRemoteAddress, "client address",
+                permitsPerSecond);
+    }
+
+    /**
+     * Creates a limit per value of a header, such as an API key. Requests
+     * without the header share one bucket.
+     * 
+     * @param headerName Header name, case-insensitive.
+     * @param permitsPerSecond Allowed number of requests per second for each
+     * value.
+     * @return Rate limit with the burst of one second of requests.
+     * @throws NullPointerException headerName is null.
+     * @throws IllegalArgumentException headerName is empty or blank,
+     * permitsPerSecond is not positive.
+     */
+    public static RateLimit perHeader(String headerName, long permitsPerSecond) {
+        Validate.notBlank(headerName, "headerName must not be blank");
+        return create(request -> {
+            List<String> values = request.getHttpHeaders().getValues(headerName);
+            return values == null
+                    ? NO_KEY
+                    : String.join(",", values);
+        }, "header "
+                + headerName, permitsPerSecond);
+    }
+
+    /**
+     * Creates a limit per path.
+     * 
+     * @param permitsPerSecond Allowed number of requests per second for each
+     * path.
+     * @return Rate limit with the burst of one second of requests.
+     * @throws IllegalArgumentException permitsPerSecond is not positive.
+     */
+    public static RateLimit perPath(long permitsPerSecond) {
+        return create(HttpRequest::getPath, "path", permitsPerSecond);
+    }
+
+    private static RateLimit create(Function<HttpRequest, String> key,
+            String keyDescription, long permitsPerSecond) {
+        return new RateLimit(key, keyDescription, permitsPerSecond, (int) Math.min(
+                Integer.MAX_VALUE, permitsPerSecond), DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * Creates a limit with the specified burst.
+     * 
+     * @param burst Capacity of a bucket: the number of requests allowed at once
+     * after a pause.
+     * @return New rate limit.
+     * @throws IllegalArgumentException burst is not positive.
+     */
+    public RateLimit withBurst(int burst) {
+        Validate.isTrue(burst > 0, "burst must be positive");
+        return new RateLimit(key, keyDescription, permitsPerSecond, burst, maxKeys);
+    }
+
+    /**
+     * Creates a limit with the specified maximum number of tracked keys.
+     * <p>
+     * When the number is exceeded, buckets of idle keys are evicted first; such
+     * buckets are full, so evicting them does not change the limit. If still
+     * exceeded, arbitrary buckets are evicted: their keys get a full bucket
+     * again.
+     * 
+     * @param maxKeys Maximum number of keys.
+     * @return New rate limit.
+     * @throws IllegalArgumentException maxKeys is not positive.
+     */
+    public RateLimit withMaxKeys(int maxKeys) {
+        Validate.isTrue(maxKeys > 0, "maxKeys must be positive");
+        return new RateLimit(key, keyDescription, permitsPerSecond, burst, maxKeys);
+    }
+
+    /**
+     * Gets the allowed number of requests per second for each key.
+     * 
+     * @return Permits per second.
+     */
+    public long getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Gets the capacity of a bucket.
+     * 
+     * @return Burst.
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Gets the maximum number of tracked keys.
+     * 
+     * @return Maximum number of keys.
+     */
+    public int getMaxKeys() {
+        return maxKeys;
+    }
+
+    /**
+     * Gets the key of a request.
+     * 
+     * @param request Actual request.
+     * @return Key, never null.
+     */
+    String getKey(HttpRequest request) {
+        String requestKey = key.apply(request);
+        return requestKey == null
+                ? NO_KEY
+                : requestKey;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("key", keyDescription)
+                .append("permitsPerSecond", permitsPerSecond).append("burst", burst)
+                .append("maxKeys", maxKeys).toString();
+    }
+}
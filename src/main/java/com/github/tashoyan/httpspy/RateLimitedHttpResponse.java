@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Response of a request expectation with a {@link RateLimit}.
+ * <p>
+ * Within the limit, {@link #select } selects the response of the expectation.
+ * Beyond the limit, it selects {@code 429 Too Many Requests} with the
+ * {@code Retry-After} header: the number of seconds, rounded up, until the
+ * bucket of the request key has a token again.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe: the state of the rate
+ * limit is kept in {@link RateLimiter}.
+ */
+@ThreadSafe
+final class RateLimitedHttpResponse extends AbstractForwardingHttpResponse {
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final HttpResponse response;
+
+    private final RateLimiter rateLimiter;
+
+    private RateLimitedHttpResponse(HttpResponse response, RateLimit rateLimit) {
+        Validate.notNull(response, "response must not be null");
+        this.response = response;
+        this.rateLimiter = new RateLimiter(rateLimit);
+    }
+
+    /**
+     * Creates new rate limited response with empty buckets.
+     * 
+     * @param response Response within the limit.
+     * @param rateLimit Rate limit.
+     * @return Rate limited response.
+     * @throws NullPointerException response is null, rateLimit is null.
+     */
+    static HttpResponse limit(HttpResponse response, RateLimit rateLimit) {
+        return new RateLimitedHttpResponse(response, rateLimit);
+    }
+
+    @Override
+    protected HttpResponse delegate() {
+        return response;
+    }
+
+    @Override
+    public HttpResponse select(HttpRequest actualRequest) {
+        long waitNanos = rateLimiter.acquire(actualRequest);
+        if (waitNanos == 0) {
+            return response.select(actualRequest);
+        }
+        long retryAfterSeconds = (waitNanos
+                + NANOS_PER_SECOND - 1)
+                / NANOS_PER_SECOND;
+        return new CamelJettyHttpResponse(SC_TOO_MANY_REQUESTS, "Too many requests",
+                Collections.singletonMap("Retry-After",
+                        Collections.singletonList(String.valueOf(retryAfterSeconds))),
+                0);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("response", response)
+                .append("rateLimiter", rateLimiter).toString();
+    }
+}
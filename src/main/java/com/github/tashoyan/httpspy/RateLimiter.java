@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Token buckets of a {@link RateLimit}, one bucket per key.
+ * <p>
+ * A bucket is kept as a single number: the time when the bucket becomes full
+ * again. Each permit moves this time forward by the interval between permits; a
+ * request is rejected if this time is further than the burst allows. This is
+ * the token bucket algorithm without a separate counter of tokens, so a bucket
+ * is updated with a single compare-and-set.
+ * <p>
+ * Buckets are kept in a concurrent map. When the map grows over the maximum
+ * number of keys, one thread evicts the full buckets, which are equivalent to
+ * absent ones, and then arbitrary buckets down to three quarters of the
+ * maximum.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe and lock free for keys
+ * already tracked. A request that takes a bucket being evicted at the same time
+ * may pass without being counted.
+ */
+@ThreadSafe
+final class RateLimiter {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int EVICTION_NUMERATOR = 3;
+
+    private static final int EVICTION_DENOMINATOR = 4;
+
+    private final int maxKeys;
+
+    private final RateLimit rateLimit;
+
+    private final long intervalNanos;
+
+    private final long toleranceNanos;
+
+    private final ConcurrentMap<String, AtomicLong> buckets =
+            new ConcurrentHashMap<>();
+
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    /**
+     * Creates new rate limiter with empty buckets.
+     * 
+     * @param rateLimit Rate limit policy.
+     * @throws NullPointerException rateLimit is null.
+     */
+    RateLimiter(RateLimit rateLimit) {
+        Validate.notNull(rateLimit, "rateLimit must not be null");
+        this.rateLimit = rateLimit;
+        this.maxKeys = rateLimit.getMaxKeys();
+        this.intervalNanos = Math.max(1, NANOS_PER_SECOND
+                / rateLimit.getPermitsPerSecond());
+        this.toleranceNanos = intervalNanos
+                * (rateLimit.getBurst() - 1);
+    }
+
+    /**
+     * Takes a permit for a request, if available.
+     * 
+     * @param request Actual request.
+     * @return Zero if the permit is taken, otherwise the time in nanoseconds
+     * until a permit is available.
+     */
+    long acquire(HttpRequest request) {
+        AtomicLong bucket = getBucket(rateLimit.getKey(request));
+        while (true) {
+            long nowNanos = System.nanoTime();
+            long fullNanos = bucket.get();
+            long startNanos = fullNanos
+                    - nowNanos < 0
+                    ? nowNanos
+                    : fullNanos;
+            long waitNanos = startNanos
+                    - nowNanos - toleranceNanos;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (bucket.compareAndSet(fullNanos, startNanos
+                    + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    private AtomicLong getBucket(String key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket =
+                    buckets.computeIfAbsent(key,
+                            k -> new AtomicLong(System.nanoTime()));
+            if (buckets.size() > maxKeys
+                    && evicting.compareAndSet(false, true)) {
+                try {
+                    evict();
+                } finally {
+                    evicting.set(false);
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private void evict() {
+        long nowNanos = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.get()
+                - nowNanos <= 0);
+        int targetSize = (int) ((long) maxKeys
+                * EVICTION_NUMERATOR / EVICTION_DENOMINATOR);
+        Iterator<AtomicLong> iterator = buckets.values().iterator();
+        while (buckets.size() > targetSize
+                && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("rateLimit", rateLimit)
+                .append("keysNumber", buckets.size()).toString();
+    }
+}
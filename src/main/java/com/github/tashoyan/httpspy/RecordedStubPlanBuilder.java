@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builder for {@link StubPlan} that plays back recorded requests and responses.
+ * <p>
+ * For each recorded request, the builder expects a request with the same
+ * method, path, query parameters and body, and responds with the recorded
+ * response. Method and path are matched {@link AbstractTestPlanBuilder#equalTo
+ * exactly }, so the resulting plan is indexed and serves thousands of
+ * recordings without evaluating all of them on every request. If several
+ * recordings have the same request, then the latest recorded response is played
+ * back.
+ * <p>
+ * Recordings come from {@link ProxyRecorder} or from a stub file, see
+ * {@link #fromFile } and {@link #save }. The stub file is a JSON document:
+ * 
+ * <pre>
+ * {"recordings": [
+ *   {"request": {"method": "GET", "path": "/x", "query": "a=1",
+ *                "body": "", "headers": {"h": ["v"]}},
+ *    "response": {"status": 200, "body": "Fine", "headers": {"h": ["v"]}}}
+ * ]}
+ * </pre>
+ * <p>
+ * A binary response body, not a text in the default character encoding, is
+ * saved encoded with Base64 as {@code "bodyBase64"} instead of {@code "body"}.
+ * A request body {@link RequestBody spilled} to a file is neither read into
+ * memory for playback nor inlined into the stub file: it is copied to the
+ * directory {@code <stub file name>.bodies} next to the stub file and saved as
+ * {@code "bodyFile"}, the path relative to the stub file directory, with
+ * {@code "bodyCharset"}.
+ */
+@NotThreadSafe
+public class RecordedStubPlanBuilder extends AbstractStubPlanBuilder {
+
+    private static final String RECORDINGS = "recordings";
+
+    private static final String REQUEST = "request";
+
+    private static final String RESPONSE = "response";
+
+    private static final String METHOD = "method";
+
+    private static final String PATH = "path";
+
+    private static final String QUERY = "query";
+
+    private static final String STATUS = "status";
+
+    private static final String BODY = "body";
+
+    private static final String BODY_BASE64 = "bodyBase64";
+
+    private static final String BODY_FILE = "bodyFile";
+
+    private static final String BODY_CHARSET = "bodyCharset";
+
+    private static final String BODIES_SUFFIX = ".bodies";
+
+    private static final String HEADERS = "headers";
+
+    private final List<Pair<HttpRequest, HttpResponse>> recordings;
+
+    /**
+     * Creates new builder.
+     * 
+     * @param recordings Recorded pairs of requests and responses, in the order
+     * of recording.
+     * @throws NullPointerException recordings is null.
+     */
+    public RecordedStubPlanBuilder(List<Pair<HttpRequest, HttpResponse>> recordings) {
+        Validate.notNull(recordings, "recordings must not be null");
+        this.recordings = Collections.unmodifiableList(new ArrayList<>(recordings));
+    }
+
+    /**
+     * Creates new builder from a stub file.
+     * 
+     * @param file Stub file previously written by {@link #save }.
+     * @return New builder. Never returns null.
+     * @throws NullPointerException file is null.
+     * @throws IOException Failed to read the file.
+     * @throws IllegalArgumentException The file has invalid format.
+     */
+    public static RecordedStubPlanBuilder fromFile(Path file) throws IOException {
+        Validate.notNull(file, "file must not be null");
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        try {
+            JSONArray jsonRecordings =
+                    new JSONObject(content).getJSONArray(RECORDINGS);
+            List<Pair<HttpRequest, HttpResponse>> recordings =
+                    new ArrayList<>(jsonRecordings.length());
+            for (int i = 0; i < jsonRecordings.length(); i++) {
+                JSONObject jsonRecording = jsonRecordings.getJSONObject(i);
+                recordings.add(new ImmutablePair<>(toRequest(
+                        jsonRecording.getJSONObject(REQUEST), file),
+                        toResponse(jsonRecording.getJSONObject(RESPONSE))));
+            }
+            return new RecordedStubPlanBuilder(recordings);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid stub file: "
+                    + file, e);
+        }
+    }
+
+    private static HttpRequest toRequest(JSONObject jsonRequest, Path file) {
+        String bodyFile = jsonRequest.optString(BODY_FILE, null);
+        RequestBody body =
+                bodyFile == null
+                        ? RequestBody.of(jsonRequest.optString(BODY, null))
+                        : RequestBody.ofFile(file.resolveSibling(bodyFile),
+                                Charset.forName(jsonRequest.getString(BODY_CHARSET)));
+        return CamelJettyHttpRequest.of(jsonRequest.getString(METHOD),
+                jsonRequest.getString(PATH), jsonRequest.optString(QUERY, null), body,
+                toHeaders(jsonRequest.optJSONObject(HEADERS)));
+    }
+
+    private static HttpResponse toResponse(JSONObject jsonResponse) {
+        String bodyBase64 = jsonResponse.optString(BODY_BASE64, null);
+        return new CamelJettyHttpResponse(jsonResponse.getInt(STATUS),
+                jsonResponse.optString(BODY, null), bodyBase64 == null
+                        ? null
+                        : ByteBuffer.wrap(Base64.getDecoder().decode(bodyBase64)),
+                null, toHeaders(jsonResponse.optJSONObject(HEADERS)), 0, null);
+    }
+
+    /**
+     * Converts JSON representation of headers, as in the stub file.
+     * 
+     * @param jsonHeaders JSON object with header names as keys and JSON arrays
+     * of header values as values. May be null.
+     * @return New map of headers, empty if jsonHeaders is null.
+     * @throws JSONException Invalid JSON representation.
+     */
+    static Map<String, List<String>> toHeaders(JSONObject jsonHeaders) {
+        Map<String, List<String>> headers = new HashMap<>();
+        if (jsonHeaders == null) {
+            return headers;
+        }
+        for (String headerName : jsonHeaders.keySet()) {
+            JSONArray jsonValues = jsonHeaders.getJSONArray(headerName);
+            List<String> values = new ArrayList<>(jsonValues.length());
+            for (int i = 0; i < jsonValues.length(); i++) {
+                values.add(jsonValues.getString(i));
+            }
+            headers.put(headerName, values);
+        }
+        return headers;
+    }
+
+    /**
+     * Saves the recordings to a stub file.
+     * 
+     * @param file Stub file to write. If the file exists, it is overwritten.
+     * Spilled request bodies are copied to the directory {@code <file
+     * name>.bodies} next to the file.
+     * @throws NullPointerException file is null.
+     * @throws IOException Failed to write the file.
+     */
+    public void save(Path file) throws IOException {
+        Validate.notNull(file, "file must not be null");
+        JSONArray jsonRecordings = new JSONArray();
+        for (int i = 0; i < recordings.size(); i++) {
+            HttpRequest request = recordings.get(i).getLeft();
+            HttpResponse response = recordings.get(i).getRight();
+            JSONObject jsonRequest =
+                    new JSONObject().put(METHOD, request.getMethod())
+                            .put(PATH, request.getPath())
+                            .put(QUERY, request.getQueryString())
+                            .put(HEADERS, request.getHeaders());
+            putBody(jsonRequest, request.getRequestBody(), file, i);
+            JSONObject jsonResponse =
+                    new JSONObject().put(STATUS, response.getStatusCode()).put(
+                            HEADERS, response.getHeaders());
+            putBody(jsonResponse, response);
+            jsonRecordings.put(new JSONObject().put(REQUEST, jsonRequest).put(
+                    RESPONSE, jsonResponse));
+        }
+        Files.write(file, new JSONObject().put(RECORDINGS, jsonRecordings).toString()
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void putBody(JSONObject jsonRequest, RequestBody body, Path file,
+            int index) throws IOException {
+        if (body.isSpilled()) {
+            String directory = file.getFileName()
+                    + BODIES_SUFFIX;
+            String bodyFile = directory
+                    + "/request-" + index + ".body";
+            Files.createDirectories(file.resolveSibling(directory));
+            Files.copy(body.getFile(), file.resolveSibling(bodyFile),
+                    StandardCopyOption.REPLACE_EXISTING);
+            jsonRequest.put(BODY_FILE, bodyFile).put(BODY_CHARSET,
+                    body.getCharset().name());
+        } else {
+            jsonRequest.put(BODY, body.asString());
+        }
+    }
+
+    private static void putBody(JSONObject jsonResponse, HttpResponse response) {
+        ByteBuffer bodyBuffer = response.getBodyBuffer();
+        String text = bodyBuffer == null
+                ? response.getBody()
+                : decode(bodyBuffer);
+        if (text == null
+                && bodyBuffer != null) {
+            byte[] bytes = new byte[bodyBuffer.remaining()];
+            bodyBuffer.duplicate().get(bytes);
+            jsonResponse.put(BODY_BASE64, Base64.getEncoder().encodeToString(bytes));
+        } else {
+            jsonResponse.put(BODY, text);
+        }
+    }
+
+    /**
+     * @return Text or null if the bytes are not a text in the default character
+     * encoding.
+     */
+    private static String decode(ByteBuffer bytes) {
+        try {
+            return Charset.defaultCharset().newDecoder().decode(bytes.duplicate())
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the recordings to play back.
+     * 
+     * @return Unmodifiable list of recorded pairs of requests and responses.
+     */
+    public List<Pair<HttpRequest, HttpResponse>> getRecordings() {
+        return recordings;
+    }
+
+    @Override
+    public void compose() {
+        recordings.forEach(recording -> {
+            HttpRequest request = recording.getLeft();
+            HttpResponse response = recording.getRight();
+            ResponseBuilder responseBuilder =
+                    response().withStatus(response.getStatusCode());
+            if (response.getBodyBuffer() == null) {
+                responseBuilder.withBody(response.getBody());
+            } else {
+                responseBuilder.withBody(response.getBodyBuffer());
+            }
+            response.getHeaders().forEach(
+                    (headerName, headerValues) -> headerValues
+                            .forEach(headerValue -> responseBuilder.withHeader(
+                                    headerName, headerValue)));
+            RequestExpectationBuilder requestBuilder =
+                    request().withMethod(equalTo(request.getMethod()))
+                            .withPath(equalTo(request.getPath()))
+                            .withBody(toBodyExpectation(request.getRequestBody()));
+            request.getQueryParameters().forEach(
+                    (name, values) -> values.forEach(value -> requestBuilder
+                            .withQueryParam(name, equalTo(value))));
+            expect(requestBuilder.andResponse(responseBuilder));
+        });
+    }
+
+    /**
+     * @return Expectation of an equal body. A spilled body is compared with its
+     * file as a stream, not read into memory.
+     */
+    private static ValueExpectation toBodyExpectation(RequestBody body) {
+        return body.isSpilled()
+                ? new EqualToBodyValueExpectation(body)
+                : equalTo(body.asString());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test plan that makes HTTP Spy a recording proxy.
+ * <p>
+ * The plan provides responses for the matching request expectations, exactly
+ * like {@link StubPlan} does. Unmatched requests are forwarded to an upstream
+ * server with {@link ProxyRecorder}, and the upstream response is sent back to
+ * the system under test. Forwarded requests are not reported as unmatched by
+ * the verification, unless the exchange with the upstream server fails: in this
+ * case the plan responds with {@code Bad gateway} status code.
+ * <p>
+ * The plan may have no request expectations at all, then HTTP Spy forwards all
+ * requests.
+ */
+@ThreadSafe
+public class RecordingPlan extends StubPlan {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordingPlan.class);
+
+    private final ProxyRecorder recorder;
+
+    /**
+     * Creates new test plan.
+     * 
+     * @param requestExpectations The ordered collection of request
+     * expectations. May be empty.
+     * @param responses The ordered collection of responses on actual requests.
+     * May be empty.
+     * @param recorder Recorder to forward unmatched requests.
+     * @throws NullPointerException requestExpectations is null, responses is
+     * null, recorder is null.
+     * @throws IllegalArgumentException requestExpectations.size !=
+     * responses.size.
+     */
+    public RecordingPlan(Collection<RequestExpectation> requestExpectations,
+            Collection<HttpResponse> responses, ProxyRecorder recorder) {
+        this(requestExpectations, responses, new StubPlanOptions(), recorder);
+    }
+
+    /**
+     * Creates new test plan with optional features.
+     * 
+     * @param requestExpectations The ordered collection of request
+     * expectations. May be empty.
+     * @param responses The ordered collection of responses on actual requests.
+     * May be empty.
+     * @param options Optional features of the test plan.
+     * @param recorder Recorder to forward unmatched requests.
+     * @throws NullPointerException requestExpectations is null, responses is
+     * null, options is null, recorder is null.
+     * @throws IllegalArgumentException requestExpectations.size !=
+     * responses.size.
+     */
+    public RecordingPlan(Collection<RequestExpectation> requestExpectations,
+            Collection<HttpResponse> responses, StubPlanOptions options,
+            ProxyRecorder recorder) {
+        super(requestExpectations, responses, options, true);
+        Validate.notNull(recorder, "recorder must not be null");
+        this.recorder = recorder;
+    }
+
+    /**
+     * {@inheritDoc }
+     * <p>
+     * This implementation does not record anything: the request is going to be
+     * forwarded to the upstream server.
+     */
+    @Override
+    protected void recordUnmatchedRequest(HttpRequest actualRequest) {
+        Validate.notNull(actualRequest, "actualRequest must not be null");
+    }
+
+    /**
+     * {@inheritDoc }
+     * <p>
+     * This implementation forwards the request to the upstream server and
+     * returns the upstream response. If the exchange with the upstream server
+     * fails, then the request is recorded as unmatched and this method returns
+     * a response with {@code Bad gateway} status code.
+     */
+    @Override
+    protected HttpResponse createUnmatchedRequestResponse(HttpRequest actualRequest) {
+        Validate.notNull(actualRequest, "actualRequest must not be null");
+        try {
+            return recorder.forward(actualRequest);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot forward request to upstream {}",
+                    recorder.getUpstreamUrl(), e);
+            super.recordUnmatchedRequest(actualRequest);
+            return new CamelJettyHttpResponse(HttpStatus.SC_BAD_GATEWAY,
+                    "Cannot forward request to upstream "
+                            + recorder.getUpstreamUrl() + ": " + e,
+                    Collections.emptyMap(), 0);
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Prefilter for many regular expressions applied to the same text.
+ * <p>
+ * For each regular expression, the prefilter extracts a literal that any
+ * matching text must contain, see {@link #getRequiredLiteral }. It scans the
+ * text once with an {@link AhoCorasick} automaton of all literals and selects
+ * only the regular expressions whose literal occurs in the text. The selected
+ * regular expressions still have to be verified by their matchers. Regular
+ * expressions without a required literal are always selected.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+final class RegexPrefilter {
+
+    private static final int UNSUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE
+            | Pattern.UNICODE_CASE | Pattern.COMMENTS | Pattern.LITERAL
+            | Pattern.CANON_EQ;
+
+    private static final String QUANTIFIERS = "?*{";
+
+    private static final String RUN_BREAKERS = ".^$+";
+
+    private static final String BRACED_ESCAPES = "xpPN";
+
+    private static final int UNICODE_ESCAPE_DIGITS = 4;
+
+    private static final int OCTAL_ESCAPE_DIGITS = 3;
+
+    private final int[] unfiltered;
+
+    private final int[][] positionsByLiteral;
+
+    private final AhoCorasick automaton;
+
+    /**
+     * Creates new prefilter.
+     * 
+     * @param positions Positions of request expectations.
+     * @param patterns Regular expressions of the request expectations at the
+     * same index.
+     * @throws IllegalArgumentException positions and patterns have different
+     * size.
+     */
+    RegexPrefilter(List<Integer> positions, List<Pattern> patterns) {
+        Validate.isTrue(positions.size() == patterns.size(),
+                "positions and patterns must have the same size");
+        List<Integer> withoutLiteral = new ArrayList<>();
+        Map<String, List<Integer>> byLiteral = new HashMap<>();
+        for (int i = 0; i < positions.size(); i++) {
+            String literal = getRequiredLiteral(patterns.get(i));
+            if (literal == null) {
+                withoutLiteral.add(positions.get(i));
+            } else {
+                byLiteral.computeIfAbsent(literal, key -> new ArrayList<>()).add(
+                        positions.get(i));
+            }
+        }
+        this.unfiltered =
+                withoutLiteral.stream().mapToInt(Integer::intValue).toArray();
+        List<String> literals = new ArrayList<>(byLiteral.keySet());
+        this.positionsByLiteral = new int[literals.size()][];
+        for (int id = 0; id < literals.size(); id++) {
+            positionsByLiteral[id] =
+                    byLiteral.get(literals.get(id)).stream()
+                            .mapToInt(Integer::intValue).toArray();
+        }
+        this.automaton = new AhoCorasick(literals);
+    }
+
+    /**
+     * Selects the regular expressions that may match a text.
+     * 
+     * @param text Text, may be null. Null never matches.
+     * @return Positions of request expectations in ascending order.
+     */
+    int[] select(String text) {
+        if (text == null) {
+            return new int[0];
+        }
+        return select(automaton.find(text));
+    }
+
+    /**
+     * Selects the regular expressions that may match a request body. A spilled
+     * body is scanned from its file as a stream of characters.
+     * 
+     * @param body Request body.
+     * @return Positions of request expectations in ascending order.
+     * @throws UncheckedIOException Cannot read the file.
+     */
+    int[] select(RequestBody body) {
+        if (!body.isSpilled()) {
+            return select(body.asString());
+        }
+        try (Reader reader = body.openReader()) {
+            return select(automaton.find(reader));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read request body from "
+                    + body.getFile(), e);
+        }
+    }
+
+    private int[] select(BitSet found) {
+        int size = unfiltered.length;
+        for (int id = found.nextSetBit(0); id >= 0; id = found.nextSetBit(id + 1)) {
+            size += positionsByLiteral[id].length;
+        }
+        int[] selected = Arrays.copyOf(unfiltered, size);
+        int offset = unfiltered.length;
+        for (int id = found.nextSetBit(0); id >= 0; id = found.nextSetBit(id + 1)) {
+            System.arraycopy(positionsByLiteral[id], 0, selected, offset,
+                    positionsByLiteral[id].length);
+            offset += positionsByLiteral[id].length;
+        }
+        Arrays.sort(selected);
+        return selected;
+    }
+
+    /**
+     * Extracts the longest literal that any text matching a regular expression
+     * must contain.
+     * <p>
+     * The extraction is conservative: it considers only the literal characters
+     * outside of groups and character classes, and gives up on alternation at
+     * the top level, embedded flags, quotation and case insensitive matching.
+     * 
+     * @param pattern Regular expression.
+     * @return Literal or null if not found.
+     */
+    static String getRequiredLiteral(Pattern pattern) {
+        String regex = pattern.pattern();
+        if ((pattern.flags() & UNSUPPORTED_FLAGS) != 0
+                || regex.contains("(?") || regex.contains("\\Q")) {
+            return null;
+        }
+        LiteralScanner scanner = new LiteralScanner(regex);
+        return scanner.scan()
+                ? scanner.getLongest()
+                : null;
+    }
+
+    /**
+     * Scanner of the literal characters of a regular expression.
+     */
+    private static final class LiteralScanner {
+
+        private final String regex;
+
+        private final StringBuilder run = new StringBuilder();
+
+        private String longest = "";
+
+        private int depth;
+
+        private int i;
+
+        LiteralScanner(String regex) {
+            this.regex = regex;
+        }
+
+        /**
+         * @return False if the regular expression has no required literals.
+         */
+        boolean scan() {
+            boolean isSupported = true;
+            for (i = 0; i < regex.length()
+                    && isSupported; i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    scanEscape();
+                } else if (c == '[') {
+                    breakRun();
+                    skipCharacterClass();
+                } else if (c == '(') {
+                    breakRun();
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (depth == 0) {
+                    isSupported = scanTopLevel(c);
+                }
+            }
+            breakRun();
+            return isSupported
+                    && !longest.isEmpty();
+        }
+
+        /**
+         * @return False if the character is a top level alternation.
+         */
+        private boolean scanTopLevel(char c) {
+            if (c == '|') {
+                return false;
+            }
+            if (QUANTIFIERS.indexOf(c) >= 0) {
+                dropLast();
+                skipBoundedQuantifier(c);
+            } else if (RUN_BREAKERS.indexOf(c) >= 0) {
+                breakRun();
+            } else {
+                run.append(c);
+            }
+            return true;
+        }
+
+        String getLongest() {
+            return longest;
+        }
+
+        private void scanEscape() {
+            i++;
+            if (i < regex.length()
+                    && depth == 0 && !Character.isLetterOrDigit(regex.charAt(i))) {
+                run.append(regex.charAt(i));
+            } else {
+                breakRun();
+                skipEscapeSequence();
+            }
+        }
+
+        /**
+         * Skips the rest of an escape sequence starting with a letter or digit,
+         * like a Unicode, hexadecimal or octal character, a character property
+         * or a back reference, so that its characters are not taken for
+         * literals.
+         */
+        private void skipEscapeSequence() {
+            if (i >= regex.length()) {
+                return;
+            }
+            char c = regex.charAt(i);
+            if (c == 'u') {
+                i += UNICODE_ESCAPE_DIGITS;
+            } else if (BRACED_ESCAPES.indexOf(c) >= 0) {
+                skipBracedOrChars(c == 'x'
+                        ? 2
+                        : 1);
+            } else if (c == 'c') {
+                i++;
+            } else if (c == 'k') {
+                skipTo('>');
+            } else if (c == '0') {
+                skipDigits(OCTAL_ESCAPE_DIGITS);
+            } else if (Character.isDigit(c)) {
+                skipDigits(Integer.MAX_VALUE);
+            }
+            i = Math.min(i, regex.length() - 1);
+        }
+
+        private void skipBracedOrChars(int chars) {
+            if (i + 1 < regex.length()
+                    && regex.charAt(i + 1) == '{') {
+                skipTo('}');
+            } else {
+                i += chars;
+            }
+        }
+
+        private void skipTo(char end) {
+            int found = regex.indexOf(end, i);
+            i = found < 0
+                    ? regex.length()
+                    : found;
+        }
+
+        private void skipDigits(int max) {
+            for (int n = 0; n < max
+                    && i + 1 < regex.length()
+                    && Character.isDigit(regex.charAt(i + 1)); n++) {
+                i++;
+            }
+        }
+
+        private void skipCharacterClass() {
+            int classDepth = 1;
+            i++;
+            if (i < regex.length()
+                    && regex.charAt(i) == '^') {
+                i++;
+            }
+            if (i < regex.length()
+                    && regex.charAt(i) == ']') {
+                i++;
+            }
+            for (; i < regex.length()
+                    && classDepth > 0; i++) {
+                char c = regex.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '[') {
+                    classDepth++;
+                } else if (c == ']') {
+                    classDepth--;
+                }
+            }
+            i--;
+        }
+
+        private void skipBoundedQuantifier(char c) {
+            if (c == '{') {
+                int end = regex.indexOf('}', i);
+                i = end < 0
+                        ? regex.length()
+                        : end;
+            }
+        }
+
+        /**
+         * The last literal character is optional: drops it and breaks the run.
+         */
+        private void dropLast() {
+            if (run.length() > 0) {
+                run.setLength(run.length() - 1);
+            }
+            breakRun();
+        }
+
+        private void breakRun() {
+            if (run.length() > longest.length()) {
+                longest = run.toString();
+            }
+            run.setLength(0);
+        }
+    }
+}
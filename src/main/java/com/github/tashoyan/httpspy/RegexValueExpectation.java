@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.regex.Pattern;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeMatcher;
+
+/**
+ * Expectation that a string attribute matches a regular expression.
+ * <p>
+ * The whole attribute value must match, as with
+ * {@link java.util.regex.Matcher#matches}. Unlike
+ * {@link AbstractTestPlanBuilder#matching } with an arbitrary matcher, this
+ * expectation exposes the regular expression. Test plans use it to select the
+ * request expectations that may match a request in one pass over the request,
+ * see {@link RegexPrefilter}.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+public class RegexValueExpectation implements ValueExpectation {
+
+    private final Pattern pattern;
+
+    private final Matcher<String> matcher;
+
+    /**
+     * Creates new value expectation.
+     * 
+     * @param pattern Regular expression.
+     * @throws NullPointerException pattern is null.
+     */
+    public RegexValueExpectation(Pattern pattern) {
+        Validate.notNull(pattern, "pattern must not be null");
+        this.pattern = pattern;
+        this.matcher = new TypeSafeMatcher<String>() {
+
+            @Override
+            protected boolean matchesSafely(String actualValue) {
+                return pattern.matcher(actualValue).matches();
+            }
+
+            @Override
+            public void describeTo(Description description) {
+                description.appendText("a string matching the pattern ").appendValue(
+                        pattern);
+            }
+        };
+    }
+
+    /**
+     * Gets the regular expression.
+     * 
+     * @return Regular expression.
+     */
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public Matcher<String> getMatcher() {
+        return matcher;
+    }
+}
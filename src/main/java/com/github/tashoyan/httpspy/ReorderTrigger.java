@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Decides when a {@link StubPlan} should reorder its request expectations in
+ * the adaptive ordering mode, see {@link StubPlanOptions#withAdaptiveOrdering }.
+ * <p>
+ * A reordering is due every fixed number of matched requests. At most one
+ * reordering is pending at a time, so a burst of requests does not pile up
+ * background tasks.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe and lock free.
+ */
+@ThreadSafe
+final class ReorderTrigger {
+
+    private final int interval;
+
+    private final AtomicLong matchedNumber = new AtomicLong();
+
+    private final AtomicBoolean isPending = new AtomicBoolean();
+
+    /**
+     * Creates new trigger.
+     * 
+     * @param interval Number of matched requests between reorderings.
+     * @throws IllegalArgumentException interval is not positive.
+     */
+    ReorderTrigger(int interval) {
+        Validate.isTrue(interval > 0, "interval must be > 0");
+        this.interval = interval;
+    }
+
+    /**
+     * Counts a matched request.
+     * 
+     * @return True if a reordering is due; the caller must run it and then call
+     * {@link #reordered }.
+     */
+    boolean matched() {
+        return matchedNumber.incrementAndGet()
+                % interval == 0
+                && isPending.compareAndSet(false, true);
+    }
+
+    /**
+     * Marks the pending reordering as started, so the next one can be
+     * triggered.
+     */
+    void reordered() {
+        isPending.set(false);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Body of an HTTP request, kept in memory or spilled to a file.
+ * <p>
+ * Small bodies are kept in memory as strings. A body larger than the memory
+ * threshold of the spy server is spilled to a temporary file, and the request
+ * refers to this file only: matchers read the body through
+ * {@link #openReader() }, {@link #openStream() } or a memory-mapped view
+ * {@link #map() }. Getting the body {@link #asString() as a string} reads the
+ * whole file into memory each time and should be avoided for spilled bodies.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+public final class RequestBody {
+
+    private static final RequestBody NO_BODY = new RequestBody(null, null,
+            Charset.defaultCharset());
+
+    private final String content;
+
+    private final Path file;
+
+    private final Charset charset;
+
+    private RequestBody(String content, Path file, Charset charset) {
+        this.content = content;
+        this.file = file;
+        this.charset = charset;
+    }
+
+    /**
+     * Creates a body kept in memory.
+     * 
+     * @param content Body content, may be null.
+     * @return Body.
+     */
+    public static RequestBody of(String content) {
+        return content == null
+                ? NO_BODY
+                : new RequestBody(content, null, Charset.defaultCharset());
+    }
+
+    /**
+     * Creates a body spilled to a file.
+     * 
+     * @param file File with the body content.
+     * @param charset Character encoding of the body.
+     * @return Body.
+     * @throws NullPointerException file is null, charset is null.
+     */
+    public static RequestBody ofFile(Path file, Charset charset) {
+        Validate.notNull(file, "file must not be null");
+        Validate.notNull(charset, "charset must not be null");
+        return new RequestBody(null, file, charset);
+    }
+
+    /**
+     * Checks whether the body is spilled to a file.
+     * 
+     * @return True if the body is in a file.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Gets the file with the body.
+     * 
+     * @return File with the body or null if the body is kept in memory.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the character encoding of the body.
+     * 
+     * @return Character encoding.
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Gets the body as a string. For a spilled body, reads the whole file.
+     * 
+     * @return Body content or null if no body.
+     * @throws UncheckedIOException Cannot read the file.
+     */
+    public String asString() {
+        if (file == null) {
+            return content;
+        }
+        try {
+            return new String(Files.readAllBytes(file), charset);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read request body from "
+                    + file, e);
+        }
+    }
+
+    /**
+     * Opens a stream of the body bytes.
+     * 
+     * @return Stream to be closed by the caller. Empty stream if no body.
+     * @throws IOException Cannot open the file.
+     */
+    public InputStream openStream() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file);
+        }
+        return new ByteArrayInputStream(content == null
+                ? new byte[0]
+                : content.getBytes(charset));
+    }
+
+    /**
+     * Opens a reader of the body characters.
+     * 
+     * @return Reader to be closed by the caller. Empty reader if no body.
+     * @throws IOException Cannot open the file.
+     */
+    public Reader openReader() throws IOException {
+        if (file != null) {
+            return new InputStreamReader(Files.newInputStream(file), charset);
+        }
+        return new StringReader(content == null
+                ? ""
+                : content);
+    }
+
+    /**
+     * Gets a read-only view of the body bytes. A spilled body is mapped into
+     * memory, so its pages are loaded by the operating system on access and do
+     * not count against the heap.
+     * 
+     * @return Read-only buffer with the body bytes.
+     * @throws IOException Cannot map the file.
+     * @throws IllegalStateException The file is larger than 2 GB.
+     */
+    public ByteBuffer map() throws IOException {
+        if (file == null) {
+            return ByteBuffer.wrap(content == null
+                    ? new byte[0]
+                    : content.getBytes(charset)).asReadOnlyBuffer();
+        }
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Request body is too large to map: "
+                        + file);
+            }
+            return channel.map(MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file == null
+                ? String.valueOf(content)
+                : new ToStringBuilder(this).append("file", file).toString();
+    }
+}
@@ -15,6 +15,11 @@
  */
 package com.github.tashoyan.httpspy;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 import net.jcip.annotations.ThreadSafe;
 import org.hamcrest.Matcher;
 
@@ -43,4 +48,147 @@ public interface RequestExpectation {
      * @return Matcher for actual requests. Should never return null.
      */
     Matcher<HttpRequest> getRequestMatcher();
+
+    /**
+     * Gets the matchers that together make {@link #getRequestMatcher() the
+     * request matcher}, for example one matcher per request attribute.
+     * <p>
+     * Test plans use them to explain why a request did not match, see
+     * {@link NearMiss}. They are never used to service requests.
+     * 
+     * @return Matchers; by default the request matcher alone.
+     */
+    default List<Matcher<? super HttpRequest>> getSubMatchers() {
+        return Collections.singletonList(getRequestMatcher());
+    }
+
+    /**
+     * Gets the HTTP method that an actual request must have to match this
+     * expectation.
+     * <p>
+     * Test plans may use this value to skip the expectation for requests with
+     * other methods without evaluating {@link #getRequestMatcher() the matcher}.
+     * 
+     * @return Expected method or null if the expectation does not require a
+     * constant method.
+     */
+    default String getExpectedMethod() {
+        return null;
+    }
+
+    /**
+     * Gets the HTTP path that an actual request must have to match this
+     * expectation.
+     * <p>
+     * Test plans may use this value to skip the expectation for requests with
+     * other paths without evaluating {@link #getRequestMatcher() the matcher}.
+     * 
+     * @return Expected path or null if the expectation does not require a
+     * constant path.
+     */
+    default String getExpectedPath() {
+        return null;
+    }
+
+    /**
+     * Gets the body that an actual request must have to match this expectation.
+     * <p>
+     * Test plans may use this value to skip the expectation for requests with
+     * other bodies without evaluating {@link #getRequestMatcher() the matcher},
+     * or to find out that two expectations never match the same request.
+     * 
+     * @return Expected body or null if the expectation does not require a
+     * constant body.
+     */
+    default String getExpectedBody() {
+        return null;
+    }
+
+    /**
+     * Gets the JSON document that the body of an actual request must be equal
+     * to, see {@link AbstractTestPlanBuilder#equalToJson }, to match this
+     * expectation.
+     * <p>
+     * Test plans may use this value to skip the expectation for requests with
+     * other bodies without evaluating {@link #getRequestMatcher() the matcher}.
+     * 
+     * @return Expected JSON body or null if the expectation does not require a
+     * constant JSON body.
+     */
+    default String getExpectedJsonBody() {
+        return null;
+    }
+
+    /**
+     * Gets the regular expression that the path of an actual request must
+     * match, see {@link AbstractTestPlanBuilder#matchingRegex }, to match this
+     * expectation.
+     * <p>
+     * Test plans may check the path against the regular expressions of many
+     * expectations in one pass and skip the expectations that cannot match
+     * without evaluating {@link #getRequestMatcher() the matcher}.
+     * 
+     * @return Regular expression or null if the expectation does not require
+     * the path to match a regular expression.
+     */
+    default Pattern getExpectedPathPattern() {
+        return null;
+    }
+
+    /**
+     * Gets the regular expression that the body of an actual request must
+     * match, see {@link AbstractTestPlanBuilder#matchingRegex }, to match this
+     * expectation.
+     * <p>
+     * Test plans may check the body against the regular expressions of many
+     * expectations in one pass and skip the expectations that cannot match
+     * without evaluating {@link #getRequestMatcher() the matcher}.
+     * 
+     * @return Regular expression or null if the expectation does not require
+     * the body to match a regular expression.
+     */
+    default Pattern getExpectedBodyPattern() {
+        return null;
+    }
+
+    /**
+     * Gets the constant values that query parameters of an actual request must
+     * have to match this expectation.
+     * <p>
+     * Test plans may use these values to skip the expectation for requests
+     * without such parameter values, without evaluating
+     * {@link #getRequestMatcher() the matcher}. A request matches if any of the
+     * values of the parameter is equal to the expected one.
+     * 
+     * @return Map from parameter names to expected values, empty if the
+     * expectation does not require constant parameter values.
+     */
+    default Map<String, String> getExpectedQueryParameters() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Gets the JSON paths in the body that the matcher of this expectation
+     * checks, see {@link RequestExpectationBuilder#withJsonPath }.
+     * <p>
+     * Test plans may resolve the JSON paths of all expectations in one pass
+     * over the body of an actual request.
+     * 
+     * @return JSON path expressions, empty if the matcher checks none.
+     */
+    default Set<String> getJsonPaths() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Gets the names of headers that the matcher of this expectation checks.
+     * <p>
+     * Test plans may use them to find out that two requests differing only in
+     * other headers match the same expectations.
+     * 
+     * @return Header names or null if the matcher may check any header.
+     */
+    default Set<String> getReferencedHeaders() {
+        return null;
+    }
 }
@@ -47,6 +47,20 @@ public interface RequestExpectationBuilder {
      */
     ResponseBuilder getResponseBuilder();
 
+    /**
+     * Builds the response to provide on the actual request.
+     * <p>
+     * Test plan builders call this method once per request expectation, so the
+     * state of the rate limit, if any, is shared by all requests matched with
+     * the expectation.
+     * 
+     * @return Response built by the {@link #getResponseBuilder() response
+     * builder}, rate limited if a {@link #withRateLimit rate limit} is set.
+     */
+    default HttpResponse buildResponse() {
+        return getResponseBuilder().build();
+    }
+
     /**
      * Specifies expected request method.
      * 
@@ -74,6 +88,89 @@ public interface RequestExpectationBuilder {
      */
     RequestExpectationBuilder withBody(ValueExpectation valueExpectation);
 
+    /**
+     * Specifies expected value at a JSON path in the request body.
+     * <p>
+     * The path addresses a single value, for example
+     * {@code $.order.items[0].id}: field names ({@code .name} or
+     * {@code ['name']}) and array indices ({@code [0]}) after the root
+     * {@code $}. A string value is checked by its content, any other value by
+     * its JSON text, for example {@code 42} or {@code "id":1} . If the body is
+     * not a JSON document or does not have the path, then the value is null.
+     * <p>
+     * The body is not parsed into a document: test plans resolve the JSON paths
+     * of all their expectations in one streaming pass over the body.
+     * 
+     * @param jsonPath JSON path.
+     * @param valueExpectation Expected value.
+     * @return This object.
+     * @throws NullPointerException jsonPath is null, valueExpectation is null.
+     * @throws IllegalArgumentException jsonPath is not a supported JSON path.
+     */
+    RequestExpectationBuilder withJsonPath(String jsonPath,
+            ValueExpectation valueExpectation);
+
+    /**
+     * Specifies expected value of an XPath expression on the request body.
+     * <p>
+     * The expression is evaluated to a string, as of the XPath {@code string()}
+     * function: for example, the text content of the first selected element, or
+     * empty string if no element is selected. If the body is not an XML
+     * document, then the value is null. The body is parsed namespace aware; to
+     * select elements regardless of their namespaces, use {@code local-name()},
+     * for example {@code //*[local-name()='orderId']}.
+     * <p>
+     * The expression is compiled once. Test plans parse the body of a request
+     * once for all XPath expectations.
+     * 
+     * @param expression XPath expression.
+     * @param valueExpectation Expected value.
+     * @return This object.
+     * @throws NullPointerException expression is null, valueExpectation is
+     * null.
+     * @throws IllegalArgumentException expression is not a valid XPath
+     * expression.
+     */
+    RequestExpectationBuilder withXPath(String expression,
+            ValueExpectation valueExpectation);
+
+    /**
+     * Specifies expected query parameter with its value.
+     * <p>
+     * The request matches if any value of the parameter matches. Names and
+     * values are compared URL decoded. If the value is expected to be
+     * {@link AbstractTestPlanBuilder#equalTo equal to} a constant, test plans
+     * may use the parameter to find the expectation without evaluating
+     * expectations for other values.
+     * 
+     * @param parameterName Parameter name.
+     * @param valueExpectation Expected parameter value.
+     * @return This object.
+     * @throws NullPointerException parameterName is null, valueExpectation is
+     * null.
+     * @throws IllegalArgumentException parameterName is empty.
+     */
+    RequestExpectationBuilder withQueryParam(String parameterName,
+            ValueExpectation valueExpectation);
+
+    /**
+     * Specifies expected form parameter with its value.
+     * <p>
+     * Form parameters are the parameters in a body of
+     * {@code application/x-www-form-urlencoded} content type. The request
+     * matches if any value of the parameter matches. Names and values are
+     * compared URL decoded.
+     * 
+     * @param parameterName Parameter name.
+     * @param valueExpectation Expected parameter value.
+     * @return This object.
+     * @throws NullPointerException parameterName is null, valueExpectation is
+     * null.
+     * @throws IllegalArgumentException parameterName is empty.
+     */
+    RequestExpectationBuilder withFormParam(String parameterName,
+            ValueExpectation valueExpectation);
+
     /**
      * Specifies expected request header without any expectations on its value.
      * 
@@ -142,4 +239,14 @@ public interface RequestExpectationBuilder {
      * @throws NullPointerException responseBuilder is null.
      */
     RequestExpectationBuilder andResponse(ResponseBuilder responseBuilder);
+
+    /**
+     * Specifies rate limit of the response: matched requests beyond the limit
+     * get {@code 429 Too Many Requests} with {@code Retry-After}.
+     * 
+     * @param rateLimit Rate limit.
+     * @return This object.
+     * @throws NullPointerException rateLimit is null.
+     */
+    RequestExpectationBuilder withRateLimit(RateLimit rateLimit);
 }
@@ -15,7 +15,12 @@
  */
 package com.github.tashoyan.httpspy;
 
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import net.jcip.annotations.NotThreadSafe;
 
 /**
@@ -56,6 +61,104 @@ public interface ResponseBuilder {
      */
     ResponseBuilder withBody(String body);
 
+    /**
+     * Specifies binary response body.
+     * <p>
+     * The bytes from the position to the limit of the buffer are sent as is,
+     * without encoding. The buffer is not copied: it must not be modified
+     * afterwards. A direct or memory-mapped buffer is written to the network
+     * without copying it into the heap.
+     * 
+     * @param body Response body.
+     * @return This object.
+     * @throws NullPointerException body is null.
+     */
+    ResponseBuilder withBody(ByteBuffer body);
+
+    /**
+     * Specifies response body as the content of a file.
+     * <p>
+     * The file is mapped into memory once, and every response is written from
+     * the mapped buffer, so large downloads do not take heap space. A file
+     * larger than 2 GB is mapped by regions and streamed region after region,
+     * with the content length known. The file must not be modified while
+     * responses are sent.
+     * 
+     * @param file File with response body.
+     * @return This object.
+     * @throws NullPointerException file is null.
+     * @throws UncheckedIOException Cannot map the file.
+     */
+    ResponseBuilder withBodyFromFile(Path file);
+
+    /**
+     * Specifies response body streamed in chunks.
+     * <p>
+     * The body is sent with chunked transfer encoding; each chunk is flushed to
+     * the client as soon as it is written. Use {@link #withChunkDelay } and
+     * {@link #withBytesPerSecond } to emulate a slow producer. Streaming does
+     * not hold a servicing thread while waiting for the next chunk.
+     * 
+     * @param chunks Supplier of a new iterator over chunks for each response.
+     * The bytes from the position to the limit of each chunk are sent.
+     * @return This object.
+     * @throws NullPointerException chunks is null.
+     */
+    ResponseBuilder withChunkedBody(Supplier<? extends Iterator<ByteBuffer>> chunks);
+
+    /**
+     * Specifies response body streamed in chunks of text.
+     * 
+     * @param chunks Chunks, encoded with the default character encoding.
+     * @return This object.
+     * @throws NullPointerException chunks is null, a chunk is null.
+     * @see #withChunkedBody(Supplier)
+     */
+    ResponseBuilder withChunkedBody(String... chunks);
+
+    /**
+     * Specifies delay between chunks of a {@link #withChunkedBody chunked body}
+     * .
+     * 
+     * @param timeUnit Time unit for delay.
+     * @param delay Delay before sending each chunk after the first one.
+     * @return This object.
+     * @throws NullPointerException timeUnit is null.
+     * @throws IllegalArgumentException delay is negative.
+     */
+    ResponseBuilder withChunkDelay(TimeUnit timeUnit, long delay);
+
+    /**
+     * Specifies target rate of sending the body. A chunk is sent when the bytes
+     * already sent fit in the rate; a body that is not {@link #withChunkedBody
+     * chunked} is sent in small chunks.
+     * <p>
+     * This is a shortcut to set the throughput limit of the
+     * {@link #withShaping shaping profile}.
+     * 
+     * @param bytesPerSecond Bytes per second, zero for no limit.
+     * @return This object.
+     * @throws IllegalArgumentException bytesPerSecond is negative.
+     */
+    ResponseBuilder withBytesPerSecond(long bytesPerSecond);
+
+    /**
+     * Specifies shaping profile of the response: time to first byte, throughput
+     * limit and jitter.
+     * <p>
+     * Like a {@link #withDelay delay}, shaping holds no servicing thread: waits
+     * are driven by a shared timer and the body is written over the
+     * non-blocking output, so one spy server shapes many thousands of
+     * concurrent responses. A shaped body that is not {@link #withChunkedBody
+     * chunked} is sent with its content length.
+     * 
+     * @param shaping Shaping profile, {@link ShapingProfile#NONE} to send the
+     * response at once.
+     * @return This object.
+     * @throws NullPointerException shaping is null.
+     */
+    ResponseBuilder withShaping(ShapingProfile shaping);
+
     /**
      * Specifies response header.
      * 
@@ -70,6 +173,10 @@ public interface ResponseBuilder {
 
     /**
      * Specifies response delay.
+     * <p>
+     * The delay is enforced by a shared timer: the servicing thread does not
+     * wait, so many concurrent delayed responses do not exhaust the servicing
+     * threads.
      * 
      * @param timeUnit Time unit for delay.
      * @param delay Delay before sending response.
@@ -78,4 +185,67 @@ public interface ResponseBuilder {
      * @throws IllegalArgumentException delay is negative.
      */
     ResponseBuilder withDelay(TimeUnit timeUnit, long delay);
+
+    /**
+     * Specifies distribution of response delays.
+     * <p>
+     * Each response samples its delay from the distribution. Like a fixed
+     * delay, it is enforced by a shared timer rather than by a sleeping
+     * servicing thread, so long tails do not exhaust the servicing threads.
+     * Sampled delays are recorded per expectation, see
+     * {@link StubPlan#getAppliedDelays }.
+     * 
+     * @param delayDistribution Distribution of delays.
+     * @return This object.
+     * @throws NullPointerException delayDistribution is null.
+     */
+    ResponseBuilder withDelay(LatencyDistribution delayDistribution);
+
+    /**
+     * Specifies transport fault injected instead of the response.
+     * <p>
+     * The status, headers and body are used only as far as the fault sends
+     * them, see {@link TransportFault}. Combine with {@link #or } to inject
+     * faults into a fraction of responses.
+     * 
+     * @param fault Transport fault.
+     * @return This object.
+     * @throws NullPointerException fault is null.
+     */
+    ResponseBuilder withFault(TransportFault fault);
+
+    /**
+     * Specifies weight of this response among its {@link #or alternatives}. The
+     * default weight is 1.
+     * 
+     * @param weight Weight.
+     * @return This object.
+     * @throws IllegalArgumentException weight is not positive.
+     */
+    ResponseBuilder withWeight(int weight);
+
+    /**
+     * Adds an alternative response.
+     * <p>
+     * Each actual request gets this response or one of its alternatives,
+     * selected at random with probability proportional to their weights. For
+     * example, 97% success, 2% unavailable and 1% delayed:
+     * 
+     * <pre>
+     * response().withWeight(97).or(2, response().withStatus(503))
+     *         .or(1, response().withDelay(TimeUnit.SECONDS, 5))
+     * </pre>
+     * <p>
+     * Selection is lock free, so it does not limit the throughput of the spy
+     * server.
+     * 
+     * @param weight Weight of the alternative.
+     * @param alternative Builder of the alternative response. It is built when
+     * this builder is built.
+     * @return This object.
+     * @throws IllegalArgumentException weight is not positive, alternative is
+     * this builder.
+     * @throws NullPointerException alternative is null.
+     */
+    ResponseBuilder or(int weight, ResponseBuilder alternative);
 }
@@ -18,7 +18,9 @@ package com.github.tashoyan.httpspy;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.IntStream;
 import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.http.HttpStatus;
 import org.hamcrest.Matcher;
@@ -42,18 +44,29 @@ import org.hamcrest.MatcherAssert;
  * thread in HTTP Spy. Therefore, {@code SequencePlan} can be used only with the
  * number of servicing threads set to {@code 1}.
  * <p>
+ * For long sequences, the test plan can check each actual request at arrival
+ * time with an {@link IncrementalVerifier}, so a test can detect a mismatch
+ * without waiting for the verification step.
+ * <p>
  * <b>Concurrency notes.</b> As far as {@code SequencePlan} can be used only
  * with one servicing thread, it is not thread safe.
  */
 @NotThreadSafe
 public class SequencePlan implements TestPlan {
 
+    /**
+     * Minimal number of requests to verify in parallel.
+     */
+    protected static final int PARALLEL_VERIFICATION_MIN_REQUESTS = 1000;
+
     private final List<RequestExpectation> requestExpectations;
 
     private final List<HttpResponse> responses;
 
     private final List<HttpRequest> actualRequests;
 
+    private final IncrementalVerifier incrementalVerifier;
+
     /**
      * Creates new instance of the test plan.
      * 
@@ -66,6 +79,24 @@ public class SequencePlan implements TestPlan {
      */
     public SequencePlan(List<RequestExpectation> requestExpectations,
             List<HttpResponse> responses) {
+        this(requestExpectations, responses, null);
+    }
+
+    /**
+     * Creates new instance of the test plan that checks actual requests at
+     * arrival time.
+     * 
+     * @param requestExpectations The list of request expectations.
+     * @param responses The list of responses on actual requests.
+     * @param incrementalVerifier Verifier to check actual requests at arrival
+     * time. If null, then actual requests are checked only by {@link #verify}.
+     * @throws NullPointerException requestExpectations is null, responses is
+     * null.
+     * @throws IllegalArgumentException requestExpectations is empty, responses
+     * is empty, requestExpectations.size != responses.size.
+     */
+    public SequencePlan(List<RequestExpectation> requestExpectations,
+            List<HttpResponse> responses, IncrementalVerifier incrementalVerifier) {
         Validate.notEmpty(requestExpectations,
                 "requestExpectations must not be null or empty");
         Validate.notEmpty(responses, "requestExpectations must not be null or empty");
@@ -75,12 +106,23 @@ public class SequencePlan implements TestPlan {
                 Collections.unmodifiableList(new ArrayList<>(requestExpectations));
         this.responses = new ArrayList<>(responses);
         this.actualRequests = new ArrayList<>(requestExpectations.size());
+        this.incrementalVerifier = incrementalVerifier;
     }
 
     @Override
     public HttpResponse getResponse(HttpRequest actualRequest) {
         Validate.notNull(actualRequest, "actualRequest must not be null");
+        int index = actualRequests.size();
         actualRequests.add(actualRequest);
+        if (incrementalVerifier != null) {
+            if (index < requestExpectations.size()) {
+                incrementalVerifier.check(index, requestExpectations.get(index)
+                        .getRequestMatcher(), actualRequest);
+            } else {
+                incrementalVerifier.reportUnexpected(index,
+                        requestExpectations.size(), actualRequest);
+            }
+        }
         if (!responses.isEmpty()) {
             return responses.remove(0);
         } else {
@@ -110,8 +152,63 @@ public class SequencePlan implements TestPlan {
                 Collections.emptyMap(), 0);
     }
 
+    /**
+     * {@inheritDoc }
+     * <p>
+     * Long sequences of actual requests, starting from
+     * {@link #PARALLEL_VERIFICATION_MIN_REQUESTS} requests, are verified in
+     * parallel in the common {@link java.util.concurrent.ForkJoinPool}, so
+     * matchers of request expectations have to be thread safe. The result is
+     * the same as for sequential verification: the failure reports the
+     * mismatching request with the lowest index.
+     * <p>
+     * If the test plan has an {@link IncrementalVerifier}, then this method
+     * waits for pending checks and reports the recorded violations instead of
+     * checking all actual requests again.
+     */
     @Override
     public void verify() {
+        if (incrementalVerifier != null) {
+            verifyIncrementally();
+            return;
+        }
+        verifyRequestsNumber();
+        IntStream indices = IntStream.range(0, requestExpectations.size());
+        if (requestExpectations.size() >= PARALLEL_VERIFICATION_MIN_REQUESTS) {
+            indices = indices.parallel();
+        }
+        indices.filter(
+                i -> !requestExpectations.get(i).getRequestMatcher()
+                        .matches(actualRequests.get(i)))
+                .findFirst()
+                .ifPresent(
+                        i -> {
+                            Matcher<HttpRequest> requestMatcher =
+                                    requestExpectations.get(i).getRequestMatcher();
+                            MatcherAssert.assertThat(
+                                    IncrementalVerifier.requestMismatchReason(i),
+                                    actualRequests.get(i), requestMatcher);
+                        });
+    }
+
+    private void verifyIncrementally() {
+        try {
+            incrementalVerifier.awaitChecks();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for checks", e);
+        }
+        long violationsNumber = incrementalVerifier.getViolationsNumber();
+        if (violationsNumber > 0) {
+            List<String> violations = incrementalVerifier.getViolations();
+            throw new AssertionError(violationsNumber
+                    + " actual requests violate expectations, the first ones:\n"
+                    + StringUtils.join(violations, '\n'));
+        }
+        verifyRequestsNumber();
+    }
+
+    private void verifyRequestsNumber() {
         int actualRequestsNumber = actualRequests.size();
         if (requestExpectations.size() != actualRequestsNumber) {
             throw new AssertionError("Number of actually received requests "
@@ -119,15 +216,6 @@ public class SequencePlan implements TestPlan {
                     + " should equal the number of request expected "
                     + requestExpectations.size());
         }
-        int i = 0;
-        for (RequestExpectation requestExpectation : requestExpectations) {
-            Matcher<HttpRequest> requestMatcher =
-                    requestExpectation.getRequestMatcher();
-            HttpRequest actualRequest = actualRequests.get(i);
-            MatcherAssert.assertThat("Request #"
-                    + i + " should match expectation", actualRequest, requestMatcher);
-            i++;
-        }
     }
 
     @Override
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Profile of an emulated network link: time to first byte, throughput limit and
+ * jitter.
+ * <p>
+ * A response shaped with a profile sends nothing, not even the status line,
+ * until the first-byte latency passes; then the body is sent in small chunks
+ * not faster than the throughput limit. Each wait is extended by a random
+ * jitter between zero and the specified maximum. Start from {@link #NONE} and
+ * specify the properties needed:
+ * 
+ * <pre>
+ * ShapingProfile.NONE.withFirstByteLatency(TimeUnit.MILLISECONDS, 200)
+ *         .withBytesPerSecond(64 * 1024).withJitter(TimeUnit.MILLISECONDS, 20)
+ * </pre>
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+public final class ShapingProfile {
+
+    /**
+     * Profile without shaping: no latency, no throughput limit, no jitter.
+     */
+    public static final ShapingProfile NONE = new ShapingProfile(0, 0, 0);
+
+    private final long firstByteLatencyNanos;
+
+    private final long bytesPerSecond;
+
+    private final long jitterNanos;
+
+    private ShapingProfile(long firstByteLatencyNanos, long bytesPerSecond,
+            long jitterNanos) {
+        this.firstByteLatencyNanos = firstByteLatencyNanos;
+        this.bytesPerSecond = bytesPerSecond;
+        this.jitterNanos = jitterNanos;
+    }
+
+    /**
+     * Creates a profile with the specified time to first byte.
+     * 
+     * @param timeUnit Time unit for latency.
+     * @param latency Time from receiving the request to sending the first byte
+     * of the response.
+     * @return New profile.
+     * @throws NullPointerException timeUnit is null.
+     * @throws IllegalArgumentException latency is negative.
+     */
+    public ShapingProfile withFirstByteLatency(TimeUnit timeUnit, long latency) {
+        Validate.notNull(timeUnit, "timeUnit must not be null");
+        Validate.isTrue(latency >= 0, "latency must not be negative");
+        return new ShapingProfile(timeUnit.toNanos(latency), bytesPerSecond,
+                jitterNanos);
+    }
+
+    /**
+     * Creates a profile with the specified throughput limit.
+     * 
+     * @param bytesPerSecond Bytes per second, zero for no limit.
+     * @return New profile.
+     * @throws IllegalArgumentException bytesPerSecond is negative.
+     */
+    public ShapingProfile withBytesPerSecond(long bytesPerSecond) {
+        Validate.isTrue(bytesPerSecond >= 0, "bytesPerSecond must not be negative");
+        return new ShapingProfile(firstByteLatencyNanos, bytesPerSecond, jitterNanos);
+    }
+
+    /**
+     * Creates a profile with the specified jitter.
+     * 
+     * @param timeUnit Time unit for jitter.
+     * @param jitter Maximum random delay added to the first-byte latency and to
+     * each wait between chunks.
+     * @return New profile.
+     * @throws NullPointerException timeUnit is null.
+     * @throws IllegalArgumentException jitter is negative.
+     */
+    public ShapingProfile withJitter(TimeUnit timeUnit, long jitter) {
+        Validate.notNull(timeUnit, "timeUnit must not be null");
+        Validate.isTrue(jitter >= 0, "jitter must not be negative");
+        return new ShapingProfile(firstByteLatencyNanos, bytesPerSecond,
+                timeUnit.toNanos(jitter));
+    }
+
+    /**
+     * Gets the time to first byte.
+     * 
+     * @return Latency in nanoseconds, zero for no latency.
+     */
+    public long getFirstByteLatencyNanos() {
+        return firstByteLatencyNanos;
+    }
+
+    /**
+     * Gets the throughput limit.
+     * 
+     * @return Bytes per second, zero for no limit.
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Gets the maximum jitter.
+     * 
+     * @return Jitter in nanoseconds, zero for no jitter.
+     */
+    public long getJitterNanos() {
+        return jitterNanos;
+    }
+
+    /**
+     * Checks whether this profile shapes anything.
+     * 
+     * @return Whether any of the latency, throughput limit or jitter is set.
+     */
+    public boolean isShaping() {
+        return firstByteLatencyNanos > 0
+                || bytesPerSecond > 0 || jitterNanos > 0;
+    }
+
+    /**
+     * Draws a random jitter.
+     * 
+     * @return Jitter in nanoseconds, between zero and the maximum jitter.
+     */
+    long nextJitterNanos() {
+        return jitterNanos == 0
+                ? 0
+                : ThreadLocalRandom.current().nextLong(jitterNanos + 1);
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("firstByteLatencyNanos", firstByteLatencyNanos)
+                .append("bytesPerSecond", bytesPerSecond)
+                .append("jitterNanos", jitterNanos).toString();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.LongConsumer;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.camel.Exchange;
+import org.apache.camel.Message;
+import org.apache.camel.http.common.DefaultHttpBinding;
+import org.apache.camel.http.common.HttpMessage;
+import org.eclipse.jetty.server.HttpOutput;
+
+/**
+ * HTTP binding of the spy server endpoint.
+ * <p>
+ * By default, Camel consumes the body of a
+ * {@code application/x-www-form-urlencoded} request to map the form parameters
+ * to message headers, so the body is lost. This binding leaves the body intact:
+ * {@link CamelJettyHttpRequest} keeps it as is and parses form parameters from
+ * it, see {@link HttpRequest#getFormParameters }.
+ * <p>
+ * A binary response body, see {@link HttpResponse#getBodyBuffer }, is handed to
+ * Jetty as is: a direct or memory-mapped buffer is written to the network
+ * without copying it into the heap. A streaming response body, see
+ * {@link HttpResponse#getStreamingBody }, is written asynchronously by
+ * {@link StreamingBodyWriter}; so is a body shaped with a
+ * {@link ShapingProfile} or delayed, by a fixed delay or by a
+ * {@link LatencyDistribution}. A {@link HttpResponse#getFault() transport
+ * fault} is injected into the connection instead of writing the response, see
+ * {@link TransportFaults}.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe.
+ */
+@ThreadSafe
+class SpyHttpBinding extends DefaultHttpBinding {
+
+    /**
+     * Exchange property with the delay in nanoseconds before streaming a
+     * {@link StreamingBody} or injecting a {@link TransportFault}.
+     */
+    static final String DELAY_NANOS_PROPERTY = "HttpSpyDelayNanos";
+
+    /**
+     * Exchange property with the {@link TransportFault} to inject instead of
+     * writing the response.
+     */
+    static final String FAULT_PROPERTY = "HttpSpyFault";
+
+    /**
+     * Exchange property with the {@link LongConsumer} notified when the
+     * response is sent, with the nanoseconds waited before and while sending:
+     * the delay, the shaping waits. A response written in the calling thread
+     * leaves the property in the exchange; a response written asynchronously
+     * takes the property away, and the listener is notified by the writer.
+     */
+    static final String SENT_LISTENER_PROPERTY = "HttpSpySentListener";
+
+    @Override
+    protected void populateRequestParameters(HttpServletRequest request,
+            HttpMessage message) throws Exception {
+        message.setHeader(Exchange.SKIP_WWW_FORM_URLENCODED, Boolean.TRUE);
+        super.populateRequestParameters(request, message);
+        message.removeHeader(Exchange.SKIP_WWW_FORM_URLENCODED);
+    }
+
+    @Override
+    protected void doWriteDirectResponse(Message message,
+            HttpServletResponse response, Exchange exchange) throws IOException {
+        Object body = message.getBody();
+        TransportFault fault =
+                exchange.getProperty(FAULT_PROPERTY, TransportFault.class);
+        if (fault != null) {
+            TransportFaults.inject(fault, getFaultBody(message),
+                    exchange.getProperty(DELAY_NANOS_PROPERTY, 0L, Long.class),
+                    exchange.getIn(HttpMessage.class).getRequest(), response,
+                    takeSentListener(exchange));
+        } else if (body instanceof StreamingBody
+                && response.getOutputStream() instanceof HttpOutput) {
+            long contentLength = ((StreamingBody) body).getContentLength();
+            if (contentLength >= 0) {
+                setContentLength(response, contentLength);
+            }
+            StreamingBodyWriter.start((StreamingBody) body,
+                    exchange.getProperty(DELAY_NANOS_PROPERTY, 0L, Long.class),
+                    exchange.getIn(HttpMessage.class).getRequest(),
+                    (HttpOutput) response.getOutputStream(),
+                    takeSentListener(exchange));
+        } else if (body instanceof ByteBuffer) {
+            ByteBuffer buffer = (ByteBuffer) body;
+            response.setContentLength(buffer.remaining());
+            ServletOutputStream output = response.getOutputStream();
+            if (output instanceof HttpOutput) {
+                ((HttpOutput) output).sendContent(buffer);
+            } else {
+                WritableByteChannel channel = Channels.newChannel(output);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                output.flush();
+            }
+        } else {
+            super.doWriteDirectResponse(message, response, exchange);
+        }
+    }
+
+    /**
+     * Sets the content length of a response, which may exceed 2 GB.
+     * <p>
+     * {@code setContentLengthLong} is not a part of the Servlet 3.0 API, so the
+     * header is set instead; Jetty reads it as a long value.
+     * 
+     * @param response Response.
+     * @param contentLength Content length.
+     */
+    static void setContentLength(HttpServletResponse response, long contentLength) {
+        response.setHeader(Exchange.CONTENT_LENGTH, Long.toString(contentLength));
+    }
+
+    private static LongConsumer takeSentListener(Exchange exchange) {
+        Object listener = exchange.removeProperty(SENT_LISTENER_PROPERTY);
+        return listener instanceof LongConsumer
+                ? (LongConsumer) listener
+                : waitedNanos -> {
+                };
+    }
+
+    private static StreamingBody getFaultBody(Message message) {
+        Object body = message.getBody();
+        if (body instanceof StreamingBody) {
+            return (StreamingBody) body;
+        }
+        ByteBuffer buffer = message.getBody(ByteBuffer.class);
+        return buffer == null
+                ? null
+                : StreamingBody.of(buffer, ShapingProfile.NONE);
+    }
+}
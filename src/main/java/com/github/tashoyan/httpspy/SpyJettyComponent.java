@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import net.jcip.annotations.ThreadSafe;
+import org.apache.camel.CamelContext;
+import org.apache.camel.Endpoint;
+import org.apache.camel.component.jetty.JettyHttpEndpoint;
+import org.apache.camel.component.jetty9.JettyHttpComponent9;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Configuration of the Jetty component that runs the spy server.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe.
+ */
+@ThreadSafe
+final class SpyJettyComponent {
+
+    private SpyJettyComponent() {
+    }
+
+    /**
+     * Configures the Jetty component of a Camel context with the thread pool to
+     * service requests.
+     * 
+     * @param camelContext Camel context, must be started.
+     * @param threadPool Thread pool to service requests.
+     */
+    static void configure(CamelContext camelContext, ThreadPool threadPool) {
+        camelContext.getComponent("jetty", JettyHttpComponent9.class).setThreadPool(
+                threadPool);
+    }
+
+    /**
+     * Creates the endpoint of the spy server with {@link SpyHttpBinding the
+     * HTTP binding} that keeps request bodies intact.
+     * 
+     * @param camelContext Camel context.
+     * @param uri Endpoint URI.
+     * @return Endpoint.
+     */
+    static Endpoint createSpyEndpoint(CamelContext camelContext, String uri) {
+        JettyHttpEndpoint endpoint =
+                camelContext.getEndpoint(uri, JettyHttpEndpoint.class);
+        endpoint.setHttpBinding(new SpyHttpBinding());
+        return endpoint;
+    }
+}
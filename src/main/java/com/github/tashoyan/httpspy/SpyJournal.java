@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Journal of recent requests serviced by a spy server.
+ * <p>
+ * The journal is a ring buffer of fixed capacity: new entries overwrite the
+ * oldest ones. It keeps only a short summary of each request, see {@link Entry}.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe and lock free. Servicing
+ * threads record entries concurrently. A reader concurrent with recording may
+ * miss entries being recorded right now.
+ */
+@ThreadSafe
+public class SpyJournal {
+
+    /**
+     * Default number of entries kept in the journal.
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final AtomicReferenceArray<Entry> entries;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    /**
+     * Summary of a serviced request.
+     */
+    @Immutable
+    @ThreadSafe
+    public static final class Entry {
+
+        private final long sequence;
+
+        private final long timestampMillis;
+
+        private final String method;
+
+        private final String path;
+
+        private final int statusCode;
+
+        private final long latencyNanos;
+
+        Entry(long sequence, long timestampMillis, String method, String path,
+                int statusCode, long latencyNanos) {
+            this.sequence = sequence;
+            this.timestampMillis = timestampMillis;
+            this.method = method;
+            this.path = path;
+            this.statusCode = statusCode;
+            this.latencyNanos = latencyNanos;
+        }
+
+        /**
+         * Gets the sequence number of the request, starting from zero.
+         * 
+         * @return Sequence number.
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Gets the time when servicing of the request completed.
+         * 
+         * @return Milliseconds since the epoch.
+         */
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        /**
+         * Gets HTTP method of the request.
+         * 
+         * @return Method.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Gets HTTP path of the request.
+         * 
+         * @return Path.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the status code of the response.
+         * 
+         * @return Status code.
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * Gets the latency added by the spy server, see
+         * {@link SpyStatistics.Stage#TOTAL}.
+         * 
+         * @return Latency in nanoseconds.
+         */
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return ToStringBuilder.reflectionToString(this);
+        }
+    }
+
+    /**
+     * Creates new journal with default capacity {@link #DEFAULT_CAPACITY}.
+     */
+    public SpyJournal() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates new journal.
+     * 
+     * @param capacity Number of entries to keep.
+     * @throws IllegalArgumentException capacity is not positive.
+     */
+    public SpyJournal(int capacity) {
+        Validate.isTrue(capacity > 0, "capacity must be > 0");
+        this.entries = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Records a serviced request.
+     * 
+     * @param request Actual request.
+     * @param response Response sent.
+     * @param latencyNanos Latency added by the spy server.
+     * @throws NullPointerException request is null, response is null.
+     */
+    public void record(HttpRequest request, HttpResponse response, long latencyNanos) {
+        Validate.notNull(request, "request must not be null");
+        Validate.notNull(response, "response must not be null");
+        long sequence = nextSequence.getAndIncrement();
+        entries.set((int) (sequence % entries.length()),
+                new Entry(sequence, System.currentTimeMillis(), request.getMethod(),
+                        request.getPath(), response.getStatusCode(), latencyNanos));
+    }
+
+    /**
+     * Gets the number of requests recorded since the journal was created,
+     * including the ones already overwritten.
+     * 
+     * @return Number of recorded requests.
+     */
+    public long getRecordedNumber() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Gets the entries kept in the journal.
+     * 
+     * @return New list of entries, the most recent entry first.
+     */
+    public List<Entry> getEntries() {
+        long last = nextSequence.get() - 1;
+        int size = (int) Math.min(last + 1, entries.length());
+        List<Entry> result = new ArrayList<>(size);
+        for (long sequence = last; sequence > last
+                - size; sequence--) {
+            Entry entry = entries.get((int) (sequence % entries.length()));
+            if (entry != null
+                    && entry.getSequence() == sequence) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Statistics of a spy server: request counters, latencies collected per stage
+ * of request servicing and the {@link SpyJournal journal} of recent requests.
+ * <p>
+ * Counters are {@link LongAdder striped}, so servicing threads do not contend
+ * when updating them.
+ * <p>
+ * All latencies are in nanoseconds. The time waited before and while sending a
+ * response, for a fixed or sampled delay and for the {@link ShapingProfile
+ * shaping}, is not a part of any stage, so {@link Stage#TOTAL} reflects the
+ * time added by the spy itself. Latencies of a request are recorded when its
+ * response is sent, that is after the waits. Example:
+ * 
+ * <pre>
+ * LatencyHistogram total = spy.getStatistics().getLatency(Stage.TOTAL);
+ * assertTrue(total.getValueAtPercentile(99) &lt; 500_000);
+ * </pre>
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe: see
+ * {@link LatencyHistogram}.
+ */
+@ThreadSafe
+public class SpyStatistics {
+
+    /**
+     * Stage of request servicing.
+     */
+    public enum Stage {
+        /**
+         * Reading the actual request from the underlying server.
+         */
+        REQUEST_PARSING,
+        /**
+         * Finding the response in the test plan, including evaluation of
+         * matchers.
+         */
+        MATCHING,
+        /**
+         * Filling the response to the underlying server.
+         */
+        RESPONSE_BUILDING,
+        /**
+         * Writing the response to the network, excluding the delay and the
+         * shaping waits.
+         */
+        RESPONSE_SENDING,
+        /**
+         * All stages together, excluding the delay and the shaping waits of the
+         * response.
+         */
+        TOTAL
+    }
+
+    private final Map<Stage, LatencyHistogram> latencies = new EnumMap<>(Stage.class);
+
+    private final LongAdder requestsNumber = new LongAdder();
+
+    private final LongAdder inFlightRequestsNumber = new LongAdder();
+
+    private final SpyJournal journal = new SpyJournal();
+
+    /**
+     * Creates new empty statistics.
+     */
+    public SpyStatistics() {
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Records the latency of a stage.
+     * 
+     * @param stage Stage.
+     * @param nanos Latency in nanoseconds.
+     * @throws NullPointerException stage is null.
+     */
+    public void record(Stage stage, long nanos) {
+        getLatency(stage).record(nanos);
+    }
+
+    /**
+     * Gets the latency histogram of a stage.
+     * 
+     * @param stage Stage.
+     * @return Latency histogram in nanoseconds.
+     * @throws NullPointerException stage is null.
+     */
+    public LatencyHistogram getLatency(Stage stage) {
+        Validate.notNull(stage, "stage must not be null");
+        return latencies.get(stage);
+    }
+
+    /**
+     * Records the start of servicing of a request.
+     */
+    public void requestStarted() {
+        requestsNumber.increment();
+        inFlightRequestsNumber.increment();
+    }
+
+    /**
+     * Records the completion of servicing of a request, successful or not.
+     */
+    public void requestCompleted() {
+        inFlightRequestsNumber.decrement();
+    }
+
+    /**
+     * Gets the number of requests received by the spy server.
+     * 
+     * @return Number of requests.
+     */
+    public long getRequestsNumber() {
+        return requestsNumber.sum();
+    }
+
+    /**
+     * Gets the number of requests being serviced right now.
+     * 
+     * @return Number of requests in flight.
+     */
+    public long getInFlightRequestsNumber() {
+        return inFlightRequestsNumber.sum();
+    }
+
+    /**
+     * Gets the journal of recent requests.
+     * 
+     * @return Journal.
+     */
+    public SpyJournal getJournal() {
+        return journal;
+    }
+}
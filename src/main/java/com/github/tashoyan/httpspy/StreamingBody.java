@@ -0,0 +1,340 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Response body streamed in chunks with server-controlled pacing.
+ * <p>
+ * For each response, the chunks are taken from a new iterator. The first chunk
+ * is sent after the first-byte latency of the {@link ShapingProfile shaping
+ * profile}. A next chunk is sent not earlier than the chunk delay after the
+ * previous chunk, and not earlier than the target rate allows for the bytes
+ * already sent; each wait is extended by a random jitter. Unless the content
+ * length is known, the body is sent with chunked transfer encoding, so the
+ * client receives each chunk as soon as it is sent.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe, provided
+ * that the supplier of chunks is thread safe.
+ */
+@Immutable
+@ThreadSafe
+public final class StreamingBody {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int CHUNKS_PER_SECOND = 100;
+
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    private final Supplier<? extends Iterator<ByteBuffer>> chunks;
+
+    private final long chunkDelayNanos;
+
+    private final ShapingProfile shaping;
+
+    private final long contentLength;
+
+    /**
+     * Creates new streaming body.
+     * 
+     * @param chunks Supplier of a new iterator over chunks for each response.
+     * Chunks are not modified: the bytes from the position to the limit of each
+     * chunk are sent.
+     * @param chunkDelayNanos Delay in nanoseconds between chunks, zero for no
+     * delay.
+     * @param bytesPerSecond Target rate of sending bytes, zero for no limit.
+     * @throws NullPointerException chunks is null.
+     * @throws IllegalArgumentException chunkDelayNanos is negative,
+     * bytesPerSecond is negative.
+     */
+    public StreamingBody(Supplier<? extends Iterator<ByteBuffer>> chunks,
+            long chunkDelayNanos, long bytesPerSecond) {
+        this(chunks, chunkDelayNanos, ShapingProfile.NONE
+                .withBytesPerSecond(bytesPerSecond), -1);
+    }
+
+    /**
+     * Creates new streaming body shaped with a profile.
+     * 
+     * @param chunks Supplier of a new iterator over chunks for each response.
+     * Chunks are not modified: the bytes from the position to the limit of each
+     * chunk are sent.
+     * @param chunkDelayNanos Delay in nanoseconds between chunks, zero for no
+     * delay.
+     * @param shaping Shaping profile.
+     * @param contentLength Total number of bytes in chunks, negative if
+     * unknown.
+     * @throws NullPointerException chunks is null, shaping is null.
+     * @throws IllegalArgumentException chunkDelayNanos is negative.
+     */
+    public StreamingBody(Supplier<? extends Iterator<ByteBuffer>> chunks,
+            long chunkDelayNanos, ShapingProfile shaping, long contentLength) {
+        Validate.notNull(chunks, "chunks must not be null");
+        Validate.isTrue(chunkDelayNanos >= 0, "chunkDelayNanos must be >= 0");
+        Validate.notNull(shaping, "shaping must not be null");
+        this.chunks = chunks;
+        this.chunkDelayNanos = chunkDelayNanos;
+        this.shaping = shaping;
+        this.contentLength = contentLength < 0
+                ? -1
+                : contentLength;
+    }
+
+    /**
+     * Creates new streaming body that sends a buffer shaped with a profile.
+     * <p>
+     * The buffer is sent in slices small enough to follow the throughput limit
+     * smoothly; the content length is known.
+     * 
+     * @param body Body bytes from the position to the limit. The buffer is not
+     * copied: it must not be modified afterwards.
+     * @param shaping Shaping profile.
+     * @return Streaming body.
+     * @throws NullPointerException body is null, shaping is null.
+     */
+    public static StreamingBody of(ByteBuffer body, ShapingProfile shaping) {
+        Validate.notNull(body, "body must not be null");
+        return of(Collections.singletonList(body), shaping);
+    }
+
+    /**
+     * Creates new streaming body that sends buffers one after another, shaped
+     * with a profile.
+     * <p>
+     * This allows sending content larger than one buffer can hold, such as a
+     * file larger than 2 GB mapped into memory by regions. The buffers are sent
+     * in slices, as by {@link #of(ByteBuffer, ShapingProfile)}; the content
+     * length is known.
+     * 
+     * @param body Buffers with body bytes from the position to the limit. The
+     * buffers are not copied: they must not be modified afterwards.
+     * @param shaping Shaping profile.
+     * @return Streaming body.
+     * @throws NullPointerException body is null or contains null, shaping is
+     * null.
+     */
+    public static StreamingBody of(List<ByteBuffer> body, ShapingProfile shaping) {
+        Validate.noNullElements(body, "body must not be null or contain null");
+        Validate.notNull(shaping, "shaping must not be null");
+        List<ByteBuffer> content =
+                body.stream().map(ByteBuffer::asReadOnlyBuffer)
+                        .collect(Collectors.toList());
+        int chunkSize =
+                shaping.getBytesPerSecond() == 0
+                        ? MAX_CHUNK_SIZE
+                        : (int) Math.max(1,
+                                Math.min(MAX_CHUNK_SIZE, shaping.getBytesPerSecond()
+                                        / CHUNKS_PER_SECOND));
+        return new StreamingBody(
+                () -> new BufferChunks(content.iterator(), chunkSize), 0, shaping,
+                content.stream().mapToLong(ByteBuffer::remaining).sum());
+    }
+
+    /**
+     * Creates new streaming body that sends a string shaped with a profile.
+     * 
+     * @param body Body, encoded with the default character encoding. If null,
+     * then the body is empty.
+     * @param shaping Shaping profile.
+     * @return Streaming body.
+     * @throws NullPointerException shaping is null.
+     * @see #of(ByteBuffer, ShapingProfile)
+     */
+    public static StreamingBody of(String body, ShapingProfile shaping) {
+        return of(
+                ByteBuffer.wrap(StringUtils.defaultString(body).getBytes(
+                        Charset.defaultCharset())), shaping);
+    }
+
+    /**
+     * Gets the body of a response as a streaming body.
+     * 
+     * @param response Response.
+     * @return Streaming body of the response, or its binary or string body sent
+     * without shaping.
+     */
+    static StreamingBody of(HttpResponse response) {
+        if (response.getStreamingBody() != null) {
+            return response.getStreamingBody();
+        }
+        return response.getBodyBuffer() == null
+                ? of(response.getBody(), ShapingProfile.NONE)
+                : of(response.getBodyBuffer(), ShapingProfile.NONE);
+    }
+
+    /**
+     * Opens the chunks for a new response.
+     * 
+     * @return Iterator over chunks.
+     * @throws NullPointerException The supplier returned null.
+     */
+    public Iterator<ByteBuffer> openChunks() {
+        Iterator<ByteBuffer> iterator = chunks.get();
+        Validate.notNull(iterator, "chunks must not supply null");
+        return iterator;
+    }
+
+    /**
+     * Gets the delay between chunks.
+     * 
+     * @return Delay in nanoseconds, zero for no delay.
+     */
+    public long getChunkDelayNanos() {
+        return chunkDelayNanos;
+    }
+
+    /**
+     * Gets the target rate of sending bytes.
+     * 
+     * @return Bytes per second, zero for no limit.
+     */
+    public long getBytesPerSecond() {
+        return shaping.getBytesPerSecond();
+    }
+
+    /**
+     * Gets the shaping profile.
+     * 
+     * @return Shaping profile, never null.
+     */
+    public ShapingProfile getShaping() {
+        return shaping;
+    }
+
+    /**
+     * Gets the total number of bytes in chunks.
+     * 
+     * @return Content length, or -1 if unknown.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Reads the first bytes of a new response.
+     * 
+     * @param maxBytes Maximum number of bytes to read.
+     * @return Buffer with at most maxBytes first bytes of the body.
+     * @throws NullPointerException The supplier of chunks returned null.
+     */
+    ByteBuffer readHead(int maxBytes) {
+        ByteBuffer head = ByteBuffer.allocate(maxBytes);
+        Iterator<ByteBuffer> iterator = openChunks();
+        while (head.hasRemaining()
+                && iterator.hasNext()) {
+            ByteBuffer chunk = iterator.next().duplicate();
+            if (chunk.remaining() > head.remaining()) {
+                chunk.limit(chunk.position()
+                        + head.remaining());
+            }
+            head.put(chunk);
+        }
+        head.flip();
+        return head;
+    }
+
+    /**
+     * Calculates when the first chunk may be sent.
+     * 
+     * @param startNanos Time when streaming started, as of
+     * {@link System#nanoTime() }.
+     * @return Time of the first chunk, as of {@link System#nanoTime() }.
+     */
+    long getFirstChunkNanos(long startNanos) {
+        return startNanos
+                + shaping.getFirstByteLatencyNanos() + shaping.nextJitterNanos();
+    }
+
+    /**
+     * Calculates when the next chunk may be sent.
+     * 
+     * @param firstChunkNanos Time when the first chunk was sent, as of
+     * {@link System#nanoTime() }.
+     * @param previousChunkNanos Time when the previous chunk was sent.
+     * @param sentBytes Number of bytes already sent.
+     * @return Time of the next chunk, as of {@link System#nanoTime() }.
+     */
+    long getNextChunkNanos(long firstChunkNanos, long previousChunkNanos,
+            long sentBytes) {
+        long nextChunkNanos = previousChunkNanos
+                + chunkDelayNanos;
+        long bytesPerSecond = shaping.getBytesPerSecond();
+        if (bytesPerSecond > 0) {
+            nextChunkNanos = Math.max(nextChunkNanos, firstChunkNanos
+                    + (long) ((double) sentBytes
+                            * NANOS_PER_SECOND / bytesPerSecond));
+        }
+        return nextChunkNanos
+                + shaping.nextJitterNanos();
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("chunkDelayNanos", chunkDelayNanos)
+                .append("shaping", shaping).append("contentLength", contentLength)
+                .toString();
+    }
+
+    private static final class BufferChunks implements Iterator<ByteBuffer> {
+
+        private final Iterator<ByteBuffer> buffers;
+
+        private final int chunkSize;
+
+        private ByteBuffer content = ByteBuffer.allocate(0);
+
+        BufferChunks(Iterator<ByteBuffer> buffers, int chunkSize) {
+            this.buffers = buffers;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!content.hasRemaining()
+                    && buffers.hasNext()) {
+                content = buffers.next().duplicate();
+            }
+            return content.hasRemaining();
+        }
+
+        @Override
+        public ByteBuffer next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ByteBuffer chunk = content.slice();
+            chunk.limit(Math.min(chunkSize, chunk.remaining()));
+            content.position(content.position()
+                    + chunk.remaining());
+            return chunk;
+        }
+    }
+}
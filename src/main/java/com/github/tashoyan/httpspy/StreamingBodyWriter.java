@@ -0,0 +1,152 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.function.LongConsumer;
+import javax.servlet.AsyncContext;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import net.jcip.annotations.NotThreadSafe;
+import org.eclipse.jetty.server.HttpOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writer of a {@link StreamingBody} over the non-blocking output of Jetty.
+ * <p>
+ * The request is switched to asynchronous mode, so the servicing thread is
+ * released as soon as streaming starts. Chunks are written when the output is
+ * ready; when a chunk is not due yet, the shared {@link TimerWheel} resumes
+ * writing at the due time. Thousands of slow streams therefore take no thread
+ * each. Chunks are handed to Jetty as buffers, so a direct or memory-mapped
+ * body is written without copying it into the heap.
+ * <p>
+ * <b>Concurrency notes.</b> This class is not thread safe. An instance is
+ * driven by one thread at a time: either by Jetty calling
+ * {@link #onWritePossible() } or by the timer wheel, never by both, because the
+ * timer is scheduled only while the output is ready.
+ */
+@NotThreadSafe
+final class StreamingBodyWriter implements WriteListener {
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(StreamingBodyWriter.class);
+
+    private final StreamingBody body;
+
+    private final AsyncContext asyncContext;
+
+    private final HttpOutput output;
+
+    private final Iterator<ByteBuffer> chunks;
+
+    private final LongConsumer onSent;
+
+    private final long firstChunkNanos;
+
+    private long nextChunkNanos;
+
+    private long sentBytes;
+
+    private long waitedNanos;
+
+    private StreamingBodyWriter(StreamingBody body, long delayNanos,
+            AsyncContext asyncContext, HttpOutput output, LongConsumer onSent) {
+        this.body = body;
+        this.asyncContext = asyncContext;
+        this.output = output;
+        this.onSent = onSent;
+        this.chunks = body.openChunks();
+        this.firstChunkNanos = body.getFirstChunkNanos(System.nanoTime()
+                + delayNanos);
+        this.nextChunkNanos = firstChunkNanos;
+    }
+
+    /**
+     * Starts streaming a body. Returns immediately; the body is written
+     * asynchronously.
+     * 
+     * @param body Streaming body.
+     * @param delayNanos Delay in nanoseconds before streaming, in addition to
+     * the first-byte latency of the body.
+     * @param request Request to switch to asynchronous mode.
+     * @param output Output of the response.
+     * @param onSent Listener notified when streaming is over, successfully or
+     * not, with the nanoseconds waited for the delay and the pacing of chunks.
+     */
+    static void start(StreamingBody body, long delayNanos, HttpServletRequest request,
+            HttpOutput output, LongConsumer onSent) {
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        output.setWriteListener(new StreamingBodyWriter(body, delayNanos,
+                asyncContext, output, onSent));
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        boolean writing = true;
+        while (writing
+                && output.isReady()) {
+            writing = writeNextChunk();
+            if (writing
+                    && output.isReady()) {
+                output.flush();
+            }
+        }
+    }
+
+    private boolean writeNextChunk() throws IOException {
+        long nowNanos = System.nanoTime();
+        if (nextChunkNanos > nowNanos) {
+            waitedNanos += nextChunkNanos
+                    - nowNanos;
+            TimerWheel.SHARED.schedule(this::resume, nextChunkNanos
+                    - nowNanos);
+            return false;
+        }
+        if (!chunks.hasNext()) {
+            complete();
+            return false;
+        }
+        ByteBuffer chunk = chunks.next().duplicate();
+        sentBytes += chunk.remaining();
+        nextChunkNanos = body.getNextChunkNanos(firstChunkNanos, nowNanos, sentBytes);
+        output.write(chunk);
+        return true;
+    }
+
+    private void resume() {
+        try {
+            onWritePossible();
+        } catch (IOException | RuntimeException e) {
+            onError(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        LOGGER.debug("Streaming response body is interrupted", t);
+        complete();
+    }
+
+    private void complete() {
+        asyncContext.complete();
+        onSent.accept(waitedNanos);
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.json.JSONException;
+
+/**
+ * Index of request expectations by constant method, path and body.
+ * <p>
+ * For an actual request, the index provides the positions of request
+ * expectations that can possibly match the request: expectations with the same
+ * constant method and path as the request has, as well as expectations without
+ * constant method or path. The positions are in ascending order, so evaluating
+ * the expectations in the order of positions keeps the semantics of the first
+ * matching expectation.
+ * <p>
+ * Among the expectations with the same method and path, the ones with a
+ * constant body (see {@link AbstractTestPlanBuilder#equalTo }) are indexed by
+ * the {@link BodyHash hash} of the body, and the ones with a constant JSON body
+ * (see {@link AbstractTestPlanBuilder#equalToJson }) by the {@link JsonHash
+ * canonical hash} of the JSON. For an actual request, the index calculates each
+ * hash once and provides only the expectations with the same hash. If the body
+ * of the request is not a JSON object or array, then all expectations with a
+ * constant JSON body are provided, so their matchers decide.
+ * <p>
+ * The expectations requiring the body or the path to match a regular expression
+ * (see {@link AbstractTestPlanBuilder#matchingRegex }) are selected by a
+ * {@link RegexPrefilter}: one pass over the body or the path of a request
+ * determines the regular expressions that may match it. The remaining
+ * expectations with constant query parameters (see
+ * {@link RequestExpectationBuilder#withQueryParam }) are selected by a
+ * {@link QueryParameterIndex}.
+ * <p>
+ * Candidate positions are calculated lazily, once per combination of method and
+ * path known to the index. Methods and paths not known to the index share the
+ * same combination, so the number of combinations is bounded by the
+ * expectations, not by the actual requests.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe. Expectations are not
+ * modified after the index is created.
+ */
+@Immutable
+@ThreadSafe
+class StubIndex {
+
+    private static final int[] EMPTY_POSITIONS = new int[0];
+
+    private final List<RequestExpectation> requestExpectations;
+
+    private final Set<String> knownMethods = new HashSet<>();
+
+    private final Set<String> knownPaths = new HashSet<>();
+
+    private final ConcurrentMap<Key, Candidates> candidates =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Creates new index.
+     * 
+     * @param requestExpectations Request expectations in the order of
+     * evaluation.
+     * @throws NullPointerException requestExpectations is null.
+     */
+    StubIndex(List<RequestExpectation> requestExpectations) {
+        Validate.notNull(requestExpectations, "requestExpectations must not be null");
+        this.requestExpectations = requestExpectations;
+        requestExpectations.forEach(expectation -> {
+            if (expectation.getExpectedMethod() != null) {
+                knownMethods.add(expectation.getExpectedMethod());
+            }
+            if (expectation.getExpectedPath() != null) {
+                knownPaths.add(expectation.getExpectedPath());
+            }
+        });
+    }
+
+    /**
+     * Gets positions of request expectations that may match an actual request.
+     * 
+     * @param actualRequest Actual request.
+     * @return Positions of expectations in ascending order. The caller must not
+     * modify the array.
+     */
+    int[] getCandidates(HttpRequest actualRequest) {
+        return getMethodPathCandidates(actualRequest).select(actualRequest);
+    }
+
+    private Candidates getMethodPathCandidates(HttpRequest actualRequest) {
+        String method = actualRequest.getMethod();
+        String path = actualRequest.getPath();
+        Key key = new Key(knownMethods.contains(method)
+                ? method
+                : null, knownPaths.contains(path)
+                ? path
+                : null);
+        return candidates.computeIfAbsent(key, this::findCandidates);
+    }
+
+    private Candidates findCandidates(Key key) {
+        return new Candidates(IntStream.range(0, requestExpectations.size())
+                .filter(i -> {
+                    RequestExpectation expectation = requestExpectations.get(i);
+                    return isCompatible(expectation.getExpectedMethod(), key.method)
+                            && isCompatible(expectation.getExpectedPath(), key.path);
+                }).toArray());
+    }
+
+    private static boolean isCompatible(String expectedValue, String knownValue) {
+        return expectedValue == null
+                || expectedValue.equals(knownValue);
+    }
+
+    /**
+     * Positions of request expectations with the same method and path, indexed
+     * by body, by regular expressions of body and path and by query parameters.
+     */
+    @Immutable
+    private final class Candidates {
+
+        private final int[] bodyUnaware;
+
+        private final Map<Long, int[]> byBodyHash;
+
+        private final Map<Long, int[]> byJsonHash;
+
+        private final int[] jsonAware;
+
+        private final RegexPrefilter bodyPrefilter;
+
+        private final RegexPrefilter pathPrefilter;
+
+        private final QueryParameterIndex queryParameterIndex;
+
+        private final int positionsNumber;
+
+        Candidates(int[] positions) {
+            Map<Long, List<Integer>> bodyPositions = new HashMap<>();
+            Map<Long, List<Integer>> jsonPositions = new HashMap<>();
+            List<Integer> unaware = new ArrayList<>(positions.length);
+            List<Integer> aware = new ArrayList<>();
+            PatternPositions bodyPatterns = new PatternPositions();
+            PatternPositions pathPatterns = new PatternPositions();
+            QueryParameterIndex.Builder queryParameters =
+                    new QueryParameterIndex.Builder();
+            for (int position : positions) {
+                RequestExpectation expectation = requestExpectations.get(position);
+                Long jsonHash = expectation.getExpectedBody() == null
+                        ? getJsonHash(expectation.getExpectedJsonBody())
+                        : null;
+                if (expectation.getExpectedBody() != null) {
+                    bodyPositions.computeIfAbsent(
+                            BodyHash.of(expectation.getExpectedBody()),
+                            hash -> new ArrayList<>()).add(position);
+                } else if (jsonHash != null) {
+                    jsonPositions.computeIfAbsent(jsonHash, hash -> new ArrayList<>())
+                            .add(position);
+                    aware.add(position);
+                } else if (expectation.getExpectedBodyPattern() != null) {
+                    bodyPatterns.add(position, expectation.getExpectedBodyPattern());
+                } else if (expectation.getExpectedPathPattern() != null) {
+                    pathPatterns.add(position, expectation.getExpectedPathPattern());
+                } else if (!expectation.getExpectedQueryParameters().isEmpty()) {
+                    queryParameters.add(position,
+                            expectation.getExpectedQueryParameters());
+                } else {
+                    unaware.add(position);
+                }
+            }
+            this.bodyUnaware = toArray(unaware);
+            this.byBodyHash = toArrays(bodyPositions);
+            this.byJsonHash = toArrays(jsonPositions);
+            this.jsonAware = toArray(aware);
+            this.bodyPrefilter = bodyPatterns.toPrefilter();
+            this.pathPrefilter = pathPatterns.toPrefilter();
+            this.queryParameterIndex = queryParameters.build();
+            this.positionsNumber = positions.length;
+        }
+
+        /**
+         * Selects the positions that may match a request.
+         * 
+         * @param actualRequest Actual request.
+         * @return Positions in ascending order.
+         */
+        int[] select(HttpRequest actualRequest) {
+            if (bodyUnaware.length == positionsNumber) {
+                return bodyUnaware;
+            }
+            RequestBody requestBody = actualRequest.getRequestBody();
+            int[] bodySelected =
+                    byBodyHash.isEmpty()
+                            ? EMPTY_POSITIONS
+                            : byBodyHash.getOrDefault(BodyHash.of(requestBody),
+                                    EMPTY_POSITIONS);
+            int[] jsonSelected = byJsonHash.isEmpty()
+                    ? EMPTY_POSITIONS
+                    : selectJson(requestBody);
+            int[] bodyPatternSelected = bodyPrefilter == null
+                    ? EMPTY_POSITIONS
+                    : bodyPrefilter.select(requestBody);
+            int[] pathPatternSelected = pathPrefilter == null
+                    ? EMPTY_POSITIONS
+                    : pathPrefilter.select(actualRequest.getPath());
+            int[] queryParameterSelected = queryParameterIndex == null
+                    ? EMPTY_POSITIONS
+                    : queryParameterIndex.select(actualRequest.getQueryParameters());
+            return merge(bodyUnaware, bodySelected, jsonSelected, bodyPatternSelected,
+                    pathPatternSelected, queryParameterSelected);
+        }
+
+        private int[] selectJson(RequestBody body) {
+            Long hash = getJsonHash(body);
+            return hash == null
+                    ? jsonAware
+                    : byJsonHash.getOrDefault(hash, EMPTY_POSITIONS);
+        }
+    }
+
+    /**
+     * @return Canonical hash or null if the value is not a JSON object or
+     * array.
+     */
+    private static Long getJsonHash(RequestBody body) {
+        if (!body.isSpilled()) {
+            return getJsonHash(body.asString());
+        }
+        try (Reader reader = body.openReader()) {
+            return JsonHash.of(reader);
+        } catch (JSONException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Canonical hash or null if the value is not a JSON object or
+     * array.
+     */
+    private static Long getJsonHash(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return JsonHash.of(json);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static int[] toArray(List<Integer> positions) {
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static Map<Long, int[]> toArrays(Map<Long, List<Integer>> positions) {
+        Map<Long, int[]> arrays = new HashMap<>(positions.size());
+        positions.forEach((hash, hashPositions) -> arrays.put(hash,
+                toArray(hashPositions)));
+        return Collections.unmodifiableMap(arrays);
+    }
+
+    private static int[] merge(int[]... positions) {
+        int[] merged = new int[Arrays.stream(positions).mapToInt(p -> p.length).sum()];
+        int length = 0;
+        for (int[] part : positions) {
+            System.arraycopy(part, 0, merged, length, part.length);
+            length += part.length;
+        }
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    /**
+     * Positions of request expectations with their regular expressions.
+     */
+    private static final class PatternPositions {
+
+        private final List<Integer> positions = new ArrayList<>();
+
+        private final List<Pattern> patterns = new ArrayList<>();
+
+        void add(int position, Pattern pattern) {
+            positions.add(position);
+            patterns.add(pattern);
+        }
+
+        /**
+         * @return Prefilter or null if there are no regular expressions.
+         */
+        RegexPrefilter toPrefilter() {
+            return positions.isEmpty()
+                    ? null
+                    : new RegexPrefilter(positions, patterns);
+        }
+    }
+
+    @Immutable
+    private static final class Key {
+
+        private final String method;
+
+        private final String path;
+
+        Key(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(method, other.method)
+                    && Objects.equals(path, other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(method, path);
+        }
+    }
+}
@@ -18,14 +18,20 @@ package com.github.tashoyan.httpspy;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 import net.jcip.annotations.ThreadSafe;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.http.HttpStatus;
+import org.hamcrest.Matcher;
+import org.hamcrest.StringDescription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Test plan that allows to provide responses based on features of of requests.
@@ -42,18 +48,87 @@ import org.apache.http.HttpStatus;
  * words, the first specified request expectation has the highest priority and
  * evaluated first.
  * <p>
+ * Request expectations with constant method and path (see
+ * {@link AbstractTestPlanBuilder#equalTo }) are indexed. For an actual request,
+ * the test plan evaluates only the expectations with the same method and path
+ * as the request has, and the expectations that do not specify a constant
+ * method or path. This does not change the order of evaluation, so large plans,
+ * like the ones {@link ProxyRecorder recorded } from an upstream server, serve
+ * requests without evaluating all expectations. Among expectations with the
+ * same method and path, the ones with a constant body or a constant JSON body
+ * (see {@link AbstractTestPlanBuilder#equalToJson }) are indexed by a hash of
+ * the body.
+ * <p>
  * If none request expectations matched for a request, then the test plan
  * replies with a special response with {@code Internal server error} status
  * code. Verification in this case will fail and failure explanation will list
- * all unmatched requests.
+ * all unmatched requests. Servicing threads only record unmatched requests; the
+ * test plan explains why a request did not match (see {@link #getNearMisses })
+ * on demand, so a storm of unmatched requests does not slow down the spy
+ * server.
+ * <p>
+ * Optional features, like collection of matching latency, are configured with
+ * {@link StubPlanOptions}.
+ * <p>
+ * Request expectations can be added, replaced and removed while the test plan
+ * is in use, see {@link #update }. The test plan keeps request expectations and
+ * their index in an immutable snapshot and publishes a new snapshot for each
+ * batch of changes, so servicing threads never lock.
+ * <p>
+ * Request expectations with an expensive matcher, like a complex
+ * {@link AbstractTestPlanBuilder#matching } predicate, slow down every request
+ * evaluated against them. Set a matching budget to find such expectations, see
+ * {@link StubPlanOptions#withMatchingBudget }. Large plans of mutually exclusive
+ * expectations can be ordered by the number of hits, see
+ * {@link StubPlanOptions#withAdaptiveOrdering }. When few distinct requests
+ * repeat many times, matching results can be cached, see
+ * {@link StubPlanOptions#withMatchCache }.
  */
 @ThreadSafe
 public class StubPlan implements TestPlan {
 
-    private final List<Pair<RequestExpectation, HttpResponse>> expectationsAndResponses;
+    private static final Logger LOGGER = LoggerFactory.getLogger(StubPlan.class);
+
+    private static final double PERCENTILE_99 = 99.0;
+
+    /**
+     * Number of matched requests between reorderings in the adaptive ordering
+     * mode.
+     */
+    private static final int REORDER_INTERVAL = 256;
+
+    private static final String ACTUAL_REQUEST_NOT_NULL =
+            "actualRequest must not be null";
+
+    private static final String MATCHING_STATISTICS_DISABLED =
+            "Matching statistics is not enabled";
+
+    /**
+     * Maximum number of unmatched requests explained by {@link #verify }.
+     */
+    private static final int MAX_EXPLAINED_REQUESTS = 10;
+
+    /**
+     * Number of near misses per unmatched request explained by {@link #verify }.
+     */
+    private static final int EXPLAINED_NEAR_MISSES = 3;
+
+    private final AtomicReference<StubPlanSnapshot> snapshot;
 
     private final List<HttpRequest> unmatchedRequests;
 
+    private final boolean isMatchingStatisticsEnabled;
+
+    private final long matchingBudgetNanos;
+
+    private final boolean isSlowExpectationDemotionEnabled;
+
+    private final boolean isAdaptiveOrderingEnabled;
+
+    private final int matchCacheSize;
+
+    private final ReorderTrigger reorderTrigger = new ReorderTrigger(REORDER_INTERVAL);
+
     /**
      * Creates new test plan with request expectations and responses for them.
      * <p>
@@ -72,18 +147,77 @@ public class StubPlan implements TestPlan {
      */
     public StubPlan(Collection<RequestExpectation> requestExpectations,
             Collection<HttpResponse> responses) {
-        Validate.notEmpty(requestExpectations,
-                "requestExpectations must not be null or empty");
-        Validate.notEmpty(responses, "requestExpectations must not be null or empty");
+        this(requestExpectations, responses, new StubPlanOptions());
+    }
+
+    /**
+     * Creates new test plan with request expectations, responses for them and
+     * optional features.
+     * 
+     * @param requestExpectations The ordered collection of request
+     * expectations.
+     * @param responses The ordered collection of responses on actual requests.
+     * @param options Optional features of the test plan.
+     * @throws NullPointerException requestExpectations is null, responses is
+     * null, options is null.
+     * @throws IllegalArgumentException requestExpectations is empty, responses
+     * is empty, requestExpectations.size != responses.size, slow expectation
+     * demotion is enabled without a matching budget.
+     */
+    public StubPlan(Collection<RequestExpectation> requestExpectations,
+            Collection<HttpResponse> responses, StubPlanOptions options) {
+        this(requestExpectations, responses, options, false);
+    }
+
+    /**
+     * Creates new test plan with request expectations and responses for them,
+     * optionally allowing no expectations at all.
+     * <p>
+     * An empty plan makes sense for a subclass that handles unmatched requests
+     * on its own, see {@link #createUnmatchedRequestResponse }.
+     * 
+     * @param requestExpectations The ordered collection of request
+     * expectations.
+     * @param responses The ordered collection of responses on actual requests.
+     * @param options Optional features of the test plan.
+     * @param allowEmpty Whether requestExpectations and responses may be empty.
+     * @throws NullPointerException requestExpectations is null, responses is
+     * null, options is null.
+     * @throws IllegalArgumentException requestExpectations is empty and
+     * allowEmpty is false, responses is empty and allowEmpty is false,
+     * requestExpectations.size != responses.size, slow expectation demotion is
+     * enabled without a matching budget.
+     */
+    protected StubPlan(Collection<RequestExpectation> requestExpectations,
+            Collection<HttpResponse> responses, StubPlanOptions options,
+            boolean allowEmpty) {
+        Validate.notNull(requestExpectations, "requestExpectations must not be null");
+        Validate.notNull(responses, "responses must not be null");
+        Validate.notNull(options, "options must not be null");
+        Validate.isTrue(allowEmpty
+                || !requestExpectations.isEmpty(),
+                "requestExpectations must not be empty");
+        Validate.isTrue(allowEmpty
+                || !responses.isEmpty(), "responses must not be empty");
         Validate.isTrue(requestExpectations.size() == responses.size(),
                 "requestExpectations and responses must have the same size");
-        List<Pair<RequestExpectation, HttpResponse>> tmp =
+        Validate.isTrue(!options.isSlowExpectationDemotionEnabled()
+                || options.getMatchingBudgetNanos() != Long.MAX_VALUE,
+                "Slow expectation demotion requires a matching budget");
+        isMatchingStatisticsEnabled = options.isMatchingStatisticsEnabled();
+        matchingBudgetNanos = options.getMatchingBudgetNanos();
+        isSlowExpectationDemotionEnabled = options.isSlowExpectationDemotionEnabled();
+        isAdaptiveOrderingEnabled = options.isAdaptiveOrderingEnabled();
+        matchCacheSize = options.getMatchCacheSize();
+        List<StubPlanSnapshot.Entry> entries =
                 new ArrayList<>(requestExpectations.size());
         Iterator<HttpResponse> responseIt = responses.iterator();
-        requestExpectations.stream().forEachOrdered((expectation) -> {
-            tmp.add(new ImmutablePair<>(expectation, responseIt.next()));
-        });
-        expectationsAndResponses = Collections.unmodifiableList(tmp);
+        requestExpectations.stream().forEachOrdered(
+                expectation -> entries.add(new StubPlanSnapshot.Entry(String
+                        .valueOf(entries.size()), expectation, responseIt.next(),
+                        isMatchingStatisticsEnabled)));
+        snapshot =
+                new AtomicReference<>(new StubPlanSnapshot(entries, matchCacheSize));
         unmatchedRequests =
                 Collections.synchronizedList(new ArrayList<>(requestExpectations
                         .size()));
@@ -91,14 +225,361 @@ public class StubPlan implements TestPlan {
 
     @Override
     public HttpResponse getResponse(HttpRequest actualRequest) {
-        for (Pair<RequestExpectation, HttpResponse> p : expectationsAndResponses) {
-            RequestExpectation expectation = p.getLeft();
-            if (expectation.getRequestMatcher().matches(actualRequest)) {
-                return p.getRight();
+        StubPlanSnapshot.Entry entry = findEntry(snapshot.get(), actualRequest);
+        if (entry == null) {
+            recordUnmatchedRequest(actualRequest);
+            return createUnmatchedRequestResponse(actualRequest);
+        }
+        entry.getHitsNumber().increment();
+        if (isAdaptiveOrderingEnabled
+                && reorderTrigger.matched()) {
+            CompletableFuture.runAsync(this::reorder);
+        }
+        return entry.getResponse();
+    }
+
+    private StubPlanSnapshot.Entry findEntry(StubPlanSnapshot current,
+            HttpRequest actualRequest) {
+        MatchCache matchCache = current.getMatchCache();
+        if (matchCache == null) {
+            return evaluate(current, actualRequest);
+        }
+        MatchCache.Lookup lookup = matchCache.lookup(actualRequest);
+        Optional<StubPlanSnapshot.Entry> cached = lookup.get();
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        StubPlanSnapshot.Entry entry = evaluate(current, actualRequest);
+        lookup.put(entry);
+        return entry;
+    }
+
+    private StubPlanSnapshot.Entry evaluate(StubPlanSnapshot current,
+            HttpRequest actualRequest) {
+        List<StubPlanSnapshot.Entry> entries = current.getEntries();
+        HttpRequest preparedRequest = current.prepare(actualRequest);
+        for (int i : current.getIndex().getCandidates(actualRequest)) {
+            StubPlanSnapshot.Entry entry = entries.get(i);
+            if (matches(entry, preparedRequest)) {
+                return entry;
             }
         }
-        recordUnmatchedRequest(actualRequest);
-        return createUnmatchedRequestResponse(actualRequest);
+        return null;
+    }
+
+    private boolean matches(StubPlanSnapshot.Entry entry, HttpRequest actualRequest) {
+        Matcher<HttpRequest> matcher = entry.getExpectation().getRequestMatcher();
+        LatencyHistogram matchingLatency = entry.getMatchingLatency();
+        if (matchingLatency == null) {
+            return matcher.matches(actualRequest);
+        }
+        long start = System.nanoTime();
+        boolean matches = matcher.matches(actualRequest);
+        long latency = System.nanoTime()
+                - start;
+        matchingLatency.record(latency);
+        if (latency > matchingBudgetNanos
+                && entry.recordOverBudget()) {
+            reportSlowExpectation(entry);
+        }
+        return matches;
+    }
+
+    /**
+     * Orders mutually exclusive entries by hits, see
+     * {@link StubPlanSnapshot#reorderByHits }.
+     */
+    private synchronized void reorder() {
+        reorderTrigger.reordered();
+        StubPlanSnapshot reordered = snapshot.get().reorderByHits();
+        if (reordered != null) {
+            snapshot.set(reordered);
+        }
+    }
+
+    private void reportSlowExpectation(StubPlanSnapshot.Entry entry) {
+        if (LOGGER.isWarnEnabled()) {
+            LOGGER.warn("Request expectation {} exceeds matching budget of {} ns: "
+                    + "99th percentile is {} ns, matcher: {}", entry.getId(),
+                    matchingBudgetNanos, entry.getMatchingLatency()
+                            .getValueAtPercentile(PERCENTILE_99), StringDescription
+                            .toString(entry.getExpectation().getRequestMatcher()));
+        }
+        if (isSlowExpectationDemotionEnabled) {
+            CompletableFuture.runAsync(() -> demote(entry));
+        }
+    }
+
+    /**
+     * Moves a slow entry to the end of the order of evaluation, unless an
+     * update has already removed or replaced it. Runs asynchronously, as
+     * {@link #reorder() } does, so the servicing thread that found the slow
+     * entry does not build the new snapshot.
+     */
+    private synchronized void demote(StubPlanSnapshot.Entry entry) {
+        List<StubPlanSnapshot.Entry> entries =
+                new ArrayList<>(snapshot.get().getEntries());
+        if (entries.remove(entry)) {
+            entries.add(entry);
+            snapshot.set(new StubPlanSnapshot(entries, matchCacheSize));
+        }
+    }
+
+    /**
+     * Changes request expectations of this test plan.
+     * <p>
+     * All changes of the batch are applied atomically: servicing threads see
+     * either none or all of them and never wait for the update. Concurrent
+     * updates are applied one after another.
+     * 
+     * @param update Batch of changes.
+     * @throws NullPointerException update is null.
+     * @throws IllegalArgumentException A change refers to an unknown request
+     * expectation id, or adds a request expectation with an existing id. No
+     * changes are applied in this case.
+     */
+    public synchronized void update(AbstractStubPlanUpdate update) {
+        Validate.notNull(update, "update must not be null");
+        List<StubPlanSnapshot.Entry> entries =
+                new ArrayList<>(snapshot.get().getEntries());
+        for (AbstractStubPlanUpdate.Change change : update.build()) {
+            switch (change.getType()) {
+                case ADD:
+                    entries.add(0, createEntry(change));
+                    break;
+                case REPLACE:
+                    entries.set(StubPlanSnapshot.indexOf(entries, change.getId()),
+                            createEntry(change));
+                    break;
+                default:
+                    entries.remove(StubPlanSnapshot.indexOf(entries, change.getId()));
+                    break;
+            }
+        }
+        snapshot.set(new StubPlanSnapshot(entries, matchCacheSize));
+    }
+
+    private StubPlanSnapshot.Entry createEntry(AbstractStubPlanUpdate.Change change) {
+        return new StubPlanSnapshot.Entry(change.getId(), change.getExpectation(),
+                change.getResponse(), isMatchingStatisticsEnabled);
+    }
+
+    /**
+     * Gets ids of request expectations.
+     * <p>
+     * Request expectations specified when creating the test plan have ids equal
+     * to their index in the order of evaluation: {@code "0"}, {@code "1"} and
+     * so on. Request expectations added by {@link #update } have ids specified
+     * by user.
+     * 
+     * @return New list of ids in the order of evaluation.
+     */
+    public List<String> getExpectationIds() {
+        return snapshot.get().getEntries().stream().map(StubPlanSnapshot.Entry::getId)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets ids of slow request expectations: the ones whose 99th percentile of
+     * matching latency exceeds the budget, see
+     * {@link StubPlanOptions#withMatchingBudget }.
+     * 
+     * @return New list of ids in the order of evaluation; empty if the budget
+     * is not set.
+     */
+    public List<String> getSlowExpectationIds() {
+        return snapshot.get().getEntries().stream()
+                .filter(StubPlanSnapshot.Entry::isSlow)
+                .map(StubPlanSnapshot.Entry::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the number of request expectations.
+     * 
+     * @return Number of request expectations.
+     */
+    public int getExpectationsNumber() {
+        return snapshot.get().getEntries().size();
+    }
+
+    /**
+     * Gets the number of actual requests matched with a request expectation.
+     * 
+     * @param expectationIndex Index of the request expectation in the order of
+     * evaluation, see {@link #getMatchingLatency }.
+     * @return Number of hits.
+     * @throws IndexOutOfBoundsException expectationIndex is out of range.
+     */
+    public long getHitsNumber(int expectationIndex) {
+        return snapshot.get().getEntries().get(expectationIndex).getHitsNumber().sum();
+    }
+
+    /**
+     * Gets the number of actual requests matched with a request expectation.
+     * 
+     * @param expectationId Id of the request expectation, see
+     * {@link #getExpectationIds }.
+     * @return Number of hits.
+     * @throws IllegalArgumentException Unknown request expectation id.
+     */
+    public long getHitsNumber(String expectationId) {
+        return getEntry(expectationId).getHitsNumber().sum();
+    }
+
+    /**
+     * Gets the numbers of actual requests matched with all request
+     * expectations.
+     * <p>
+     * The numbers are taken from one version of the request expectations, so
+     * they are consistent even if the test plan is {@link #update updated}
+     * concurrently.
+     * 
+     * @return New array of hits of request expectations in the order of
+     * evaluation, see {@link #getHitsNumber }.
+     */
+    public long[] getHitsNumbers() {
+        return snapshot.get().getEntries().stream()
+                .mapToLong(entry -> entry.getHitsNumber().sum()).toArray();
+    }
+
+    /**
+     * Gets the number of actual requests recorded as unmatched with all request
+     * expectations.
+     * 
+     * @return Number of unmatched requests.
+     */
+    public long getUnmatchedRequestsNumber() {
+        return unmatchedRequests.size();
+    }
+
+    /**
+     * Gets the most recent actual requests recorded as unmatched with all
+     * request expectations.
+     * 
+     * @param maxNumber Maximum number of requests to get.
+     * @return New list of requests in the order of arrival.
+     * @throws IllegalArgumentException maxNumber is negative.
+     */
+    public List<HttpRequest> getRecentUnmatchedRequests(int maxNumber) {
+        Validate.isTrue(maxNumber >= 0, "maxNumber must be >= 0");
+        synchronized (unmatchedRequests) {
+            int size = unmatchedRequests.size();
+            return new ArrayList<>(unmatchedRequests.subList(Math.max(0, size
+                    - maxNumber), size));
+        }
+    }
+
+    /**
+     * Explains why a request does not match request expectations of this test
+     * plan.
+     * <p>
+     * Evaluates all matchers of each request expectation against the request,
+     * see {@link NearMiss}, and ranks the expectations by the number of passed
+     * matchers. Expectations with the same number keep the order of evaluation.
+     * This is much more expensive than matching the request, so the test plan
+     * never does it when servicing requests.
+     * 
+     * @param actualRequest Actual request, for example an unmatched one.
+     * @param maxNumber Maximum number of near misses to get.
+     * @return New list of near misses, the closest first.
+     * @throws NullPointerException actualRequest is null.
+     * @throws IllegalArgumentException maxNumber is negative.
+     */
+    public List<NearMiss> getNearMisses(HttpRequest actualRequest, int maxNumber) {
+        Validate.notNull(actualRequest, ACTUAL_REQUEST_NOT_NULL);
+        Validate.isTrue(maxNumber >= 0, "maxNumber must be >= 0");
+        return snapshot
+                .get()
+                .getEntries()
+                .stream()
+                .map(entry -> NearMiss.evaluate(entry.getId(), entry.getExpectation(),
+                        actualRequest))
+                .sorted(Comparator.comparingInt(NearMiss::getPassedNumber).reversed())
+                .limit(maxNumber).collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the latency of matching actual requests against a request
+     * expectation.
+     * <p>
+     * Each evaluation of the expectation is recorded, whether it matched or
+     * not.
+     * 
+     * @param expectationIndex Index of the request expectation in the order of
+     * evaluation, see {@link #StubPlan}. Note that
+     * {@link AbstractStubPlanBuilder} evaluates the expectation specified last
+     * first, so it has index {@code 0}. The order of evaluation changes when
+     * the test plan is {@link #update updated}, when expectations are
+     * {@link StubPlanOptions#withAdaptiveOrdering ordered by hits} and when a
+     * {@link StubPlanOptions#withSlowExpectationDemotion slow expectation} is
+     * demoted; then an index refers to another expectation. To follow an
+     * expectation, get it by id.
+     * @return Latency histogram in nanoseconds.
+     * @throws IllegalStateException Matching statistics is not enabled, see
+     * {@link StubPlanOptions#withMatchingStatistics }.
+     * @throws IndexOutOfBoundsException expectationIndex is out of range.
+     */
+    public LatencyHistogram getMatchingLatency(int expectationIndex) {
+        if (!isMatchingStatisticsEnabled) {
+            throw new IllegalStateException(MATCHING_STATISTICS_DISABLED);
+        }
+        return snapshot.get().getEntries().get(expectationIndex).getMatchingLatency();
+    }
+
+    /**
+     * Gets the latency of matching actual requests against a request
+     * expectation.
+     * 
+     * @param expectationId Id of the request expectation, see
+     * {@link #getExpectationIds }.
+     * @return Latency histogram in nanoseconds.
+     * @throws IllegalStateException Matching statistics is not enabled, see
+     * {@link StubPlanOptions#withMatchingStatistics }.
+     * @throws IllegalArgumentException Unknown request expectation id.
+     * @see #getMatchingLatency(int)
+     */
+    public LatencyHistogram getMatchingLatency(String expectationId) {
+        if (!isMatchingStatisticsEnabled) {
+            throw new IllegalStateException(MATCHING_STATISTICS_DISABLED);
+        }
+        return getEntry(expectationId).getMatchingLatency();
+    }
+
+    /**
+     * Gets the delays applied to responses of a request expectation.
+     * <p>
+     * Tests can compare the percentiles of the applied delays with the
+     * {@link ResponseBuilder#withDelay(LatencyDistribution) distribution} of
+     * the response.
+     * 
+     * @param expectationIndex Index of the request expectation in the order of
+     * evaluation, see {@link #getMatchingLatency }.
+     * @return Histogram of delays in nanoseconds, or null if the response has
+     * no distribution of delays.
+     * @throws IndexOutOfBoundsException expectationIndex is out of range.
+     */
+    public LatencyHistogram getAppliedDelays(int expectationIndex) {
+        return snapshot.get().getEntries().get(expectationIndex).getResponse()
+                .getAppliedDelays();
+    }
+
+    /**
+     * Gets the delays applied to responses of a request expectation.
+     * 
+     * @param expectationId Id of the request expectation, see
+     * {@link #getExpectationIds }.
+     * @return Histogram of delays in nanoseconds, or null if the response has
+     * no distribution of delays.
+     * @throws IllegalArgumentException Unknown request expectation id.
+     * @see #getAppliedDelays(int)
+     */
+    public LatencyHistogram getAppliedDelays(String expectationId) {
+        return getEntry(expectationId).getResponse().getAppliedDelays();
+    }
+
+    private StubPlanSnapshot.Entry getEntry(String expectationId) {
+        List<StubPlanSnapshot.Entry> entries = snapshot.get().getEntries();
+        return entries.get(StubPlanSnapshot.indexOf(entries, expectationId));
     }
 
     /**
@@ -110,7 +591,7 @@ public class StubPlan implements TestPlan {
      * @throws NullPointerException actualRequest is null.
      */
     protected void recordUnmatchedRequest(HttpRequest actualRequest) {
-        Validate.notNull(actualRequest, "actualRequest must not be null");
+        Validate.notNull(actualRequest, ACTUAL_REQUEST_NOT_NULL);
         unmatchedRequests.add(actualRequest);
     }
 
@@ -119,26 +600,47 @@ public class StubPlan implements TestPlan {
      * expectations.
      * <p>
      * This implementation responds with {@code Internal server error} status
-     * code.
+     * code and a short body with the method and path of the request. The body
+     * does not depend on the size of the request: details are reported by
+     * {@link #verify }.
      * 
      * @param actualRequest Actual request.
      * @return Response. Never returns null.
      * @throws NullPointerException actualRequest is null.
      */
     protected HttpResponse createUnmatchedRequestResponse(HttpRequest actualRequest) {
-        Validate.notNull(actualRequest, "actualRequest must not be null");
+        Validate.notNull(actualRequest, ACTUAL_REQUEST_NOT_NULL);
         return new CamelJettyHttpResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR,
-                "Unmatched request: "
-                        + actualRequest.toString(), Collections.emptyMap(), 0);
+                "Unmatched request: method="
+                        + actualRequest.getMethod() + ", path="
+                        + actualRequest.getPath(), Collections.emptyMap(), 0);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The failure explanation lists all unmatched requests. For the first ones
+     * it also lists the closest request expectations, see
+     * {@link #getNearMisses }.
+     */
     @Override
     public void verify() {
         if (unmatchedRequests.isEmpty()) {
             return;
         }
-        throw new AssertionError("Unmatched requests received:\n"
-                + StringUtils.join(unmatchedRequests, '\n'));
+        List<HttpRequest> requests;
+        synchronized (unmatchedRequests) {
+            requests = new ArrayList<>(unmatchedRequests);
+        }
+        StringBuilder message = new StringBuilder("Unmatched requests received:");
+        for (int i = 0; i < requests.size(); i++) {
+            message.append('\n').append(requests.get(i));
+            if (i < MAX_EXPLAINED_REQUESTS) {
+                getNearMisses(requests.get(i), EXPLAINED_NEAR_MISSES).forEach(
+                        nearMiss -> message.append("\n  closest ").append(nearMiss));
+            }
+        }
+        throw new AssertionError(message.toString());
     }
 
     @Override
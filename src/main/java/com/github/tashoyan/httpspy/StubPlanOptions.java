@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.concurrent.TimeUnit;
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Optional features of {@link StubPlan}.
+ * <p>
+ * All features are disabled by default, so a stub plan does nothing beyond
+ * matching requests. User enables features when composing the test plan:
+ * 
+ * <pre>
+ * public void compose() {
+ *     options().withMatchingStatistics();
+ *     expect(request()...);
+ * }
+ * </pre>
+ * <p>
+ * <b>Concurrency notes.</b> This class is not thread safe. The stub plan reads
+ * the options once when it is created.
+ */
+@NotThreadSafe
+public class StubPlanOptions {
+
+    private boolean isMatchingStatisticsEnabled;
+
+    private long matchingBudgetNanos = Long.MAX_VALUE;
+
+    private boolean isSlowExpectationDemotionEnabled;
+
+    private boolean isAdaptiveOrderingEnabled;
+
+    private int matchCacheSize;
+
+    /**
+     * Enables collection of matching latency for each request expectation.
+     * <p>
+     * The stub plan measures the evaluation of each matcher and records it in a
+     * {@link LatencyHistogram}, see {@link StubPlan#getMatchingLatency }. This
+     * costs two reads of the system timer per evaluated expectation.
+     * 
+     * @return This object.
+     */
+    public StubPlanOptions withMatchingStatistics() {
+        isMatchingStatisticsEnabled = true;
+        return this;
+    }
+
+    /**
+     * Whether the matching latency is collected for each request expectation.
+     * 
+     * @return True if collected.
+     */
+    public boolean isMatchingStatisticsEnabled() {
+        return isMatchingStatisticsEnabled;
+    }
+
+    /**
+     * Sets the time budget of evaluating a single request expectation.
+     * <p>
+     * A request expectation is slow when the 99th percentile of its matching
+     * latency exceeds the budget. The stub plan logs a warning with the
+     * description of the slow expectation once, after at least 100 evaluations,
+     * see {@link StubPlan#getSlowExpectationIds }. The budget requires matching
+     * statistics, so this method enables it as well.
+     * 
+     * @param unit Time unit of the budget.
+     * @param budget Budget in the time unit.
+     * @return This object.
+     * @throws NullPointerException unit is null.
+     * @throws IllegalArgumentException budget is not positive.
+     */
+    public StubPlanOptions withMatchingBudget(TimeUnit unit, long budget) {
+        Validate.notNull(unit, "unit must not be null");
+        Validate.isTrue(budget > 0, "budget must be > 0");
+        matchingBudgetNanos = unit.toNanos(budget);
+        isMatchingStatisticsEnabled = true;
+        return this;
+    }
+
+    /**
+     * Gets the time budget of evaluating a single request expectation.
+     * 
+     * @return Budget in nanoseconds; {@link Long#MAX_VALUE} if not set.
+     */
+    public long getMatchingBudgetNanos() {
+        return matchingBudgetNanos;
+    }
+
+    /**
+     * Enables demotion of slow request expectations to the end of the order of
+     * evaluation.
+     * <p>
+     * Other expectations are then evaluated before a slow one. Use it only when
+     * the expectations do not overlap: if a request matches both a demoted
+     * expectation and a later one, then the later one wins after the demotion.
+     * Requires the matching budget, see {@link #withMatchingBudget }.
+     * 
+     * @return This object.
+     */
+    public StubPlanOptions withSlowExpectationDemotion() {
+        isSlowExpectationDemotionEnabled = true;
+        return this;
+    }
+
+    /**
+     * Whether slow request expectations are demoted to the end of the order of
+     * evaluation.
+     * 
+     * @return True if demoted.
+     */
+    public boolean isSlowExpectationDemotionEnabled() {
+        return isSlowExpectationDemotionEnabled;
+    }
+
+    /**
+     * Enables ordering of mutually exclusive request expectations by the number
+     * of hits.
+     * <p>
+     * Request expectations with constant method, path and body (see
+     * {@link AbstractTestPlanBuilder#equalTo }) never match the same request if
+     * they differ in any of these constants. This is typical for a plan
+     * {@link RecordedStubPlanBuilder recorded} from an upstream server. The
+     * stub plan periodically reorders consecutive mutually exclusive
+     * expectations in the background, so the expectations hit most often are
+     * evaluated first. Other expectations keep their positions, so the first
+     * matching expectation is the same as without reordering.
+     * 
+     * @return This object.
+     */
+    public StubPlanOptions withAdaptiveOrdering() {
+        isAdaptiveOrderingEnabled = true;
+        return this;
+    }
+
+    /**
+     * Whether mutually exclusive request expectations are ordered by the number
+     * of hits.
+     * 
+     * @return True if ordered.
+     */
+    public boolean isAdaptiveOrderingEnabled() {
+        return isAdaptiveOrderingEnabled;
+    }
+
+    /**
+     * Enables caching of matching results.
+     * <p>
+     * The stub plan remembers which request expectation matched a request and
+     * responds on a request with the same method, path, body and the headers
+     * referenced by request expectations without evaluating the matchers again.
+     * This helps when few distinct requests repeat many times and the matchers
+     * are expensive, like JSON or XML comparison.
+     * <p>
+     * <b>All matchers must be deterministic.</b> By enabling the cache, user
+     * declares that every matcher depends only on the method, path, query
+     * string, body and headers of the request, and that its result does not
+     * change over time. A matcher depending on anything else, like a clock, a
+     * counter or a state changed by the test, is evaluated only for the first
+     * of the equal requests, and the later ones get the cached response even if
+     * the matcher would now decide otherwise.
+     * <p>
+     * The body is compared by its length and two independent 64-bit hashes, not
+     * kept in the cache. The cache is cleared when request expectations change,
+     * see {@link StubPlan#update }. Cached requests are not recorded in matching
+     * statistics.
+     * 
+     * @param maxSize Maximum number of cached requests. The least recently used
+     * requests are evicted first.
+     * @return This object.
+     * @throws IllegalArgumentException maxSize is not positive.
+     */
+    public StubPlanOptions withMatchCache(int maxSize) {
+        Validate.isTrue(maxSize > 0, "maxSize must be > 0");
+        matchCacheSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Gets the maximum number of requests in the match cache.
+     * 
+     * @return Maximum size or 0 if the matching results are not cached.
+     */
+    public int getMatchCacheSize() {
+        return matchCacheSize;
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Snapshot of request expectations of a {@link StubPlan} together with their
+ * index.
+ * <p>
+ * A snapshot is never modified: {@link StubPlan#update } creates a new one and
+ * publishes it atomically. Servicing threads read the current snapshot once per
+ * request and never lock.
+ */
+@Immutable
+@ThreadSafe
+final class StubPlanSnapshot {
+
+    private static final int MATCHING_LATENCY_PRECISION_BITS = 3;
+
+    /**
+     * Number of first evaluations of an entry not checked against the matching
+     * budget, so slow evaluations of a cold JVM do not flag it.
+     */
+    private static final int MIN_BUDGET_EVALUATIONS = 100;
+
+    /**
+     * An entry is slow when more than 1 of this number of evaluations exceeds
+     * the matching budget, in other words when its 99th percentile exceeds the
+     * budget.
+     */
+    private static final int BUDGET_PERCENTILE_DIVISOR = 100;
+
+    /**
+     * Minimum number of evaluations over the matching budget to consider an
+     * entry slow, so a single pause of the JVM does not flag it.
+     */
+    private static final int MIN_OVER_BUDGET_NUMBER = 5;
+
+    private final List<Entry> entries;
+
+    private final StubIndex index;
+
+    private final Set<JsonPath> jsonPaths;
+
+    private final MatchCache matchCache;
+
+    /**
+     * Request expectation with its response and statistics.
+     * <p>
+     * Statistics counters are the only mutable state; they are thread safe.
+     */
+    @Immutable
+    @ThreadSafe
+    static final class Entry {
+
+        private final String id;
+
+        private final RequestExpectation expectation;
+
+        private final HttpResponse response;
+
+        private final LongAdder hitsNumber = new LongAdder();
+
+        private final LatencyHistogram matchingLatency;
+
+        private final LongAdder overBudgetNumber = new LongAdder();
+
+        private final AtomicBoolean isSlow = new AtomicBoolean();
+
+        private final List<String> constants;
+
+        Entry(String id, RequestExpectation expectation, HttpResponse response,
+                boolean isMatchingStatisticsEnabled) {
+            Validate.notBlank(id, "id must not be blank");
+            Validate.notNull(expectation, "expectation must not be null");
+            Validate.notNull(response, "response must not be null");
+            this.id = id;
+            this.expectation = expectation;
+            this.response = response;
+            this.matchingLatency = isMatchingStatisticsEnabled
+                    ? new LatencyHistogram(MATCHING_LATENCY_PRECISION_BITS)
+                    : null;
+            this.constants =
+                    expectation.getExpectedMethod() == null
+                            || expectation.getExpectedPath() == null
+                            || expectation.getExpectedBody() == null
+                            ? null
+                            : Arrays.asList(expectation.getExpectedMethod(),
+                                    expectation.getExpectedPath(),
+                                    expectation.getExpectedBody());
+        }
+
+        String getId() {
+            return id;
+        }
+
+        RequestExpectation getExpectation() {
+            return expectation;
+        }
+
+        HttpResponse getResponse() {
+            return response;
+        }
+
+        LongAdder getHitsNumber() {
+            return hitsNumber;
+        }
+
+        /**
+         * @return Matching latency or null if not collected.
+         */
+        LatencyHistogram getMatchingLatency() {
+            return matchingLatency;
+        }
+
+        /**
+         * Records an evaluation that exceeded the matching budget.
+         * <p>
+         * The ratio of such evaluations is checked only here, so evaluations
+         * within the budget cost nothing beyond recording the latency.
+         * Evaluations during the warm-up are ignored.
+         * 
+         * @return True if the entry has just become slow: its 99th percentile
+         * of matching latency exceeds the budget. Returned only once per entry.
+         */
+        boolean recordOverBudget() {
+            long checkedNumber = matchingLatency.getCount()
+                    - MIN_BUDGET_EVALUATIONS;
+            if (checkedNumber > 0) {
+                overBudgetNumber.increment();
+            }
+            long overBudget = overBudgetNumber.sum();
+            return overBudget >= MIN_OVER_BUDGET_NUMBER
+                    && overBudget
+                            * BUDGET_PERCENTILE_DIVISOR > checkedNumber
+                    && isSlow.compareAndSet(false, true);
+        }
+
+        boolean isSlow() {
+            return isSlow.get();
+        }
+
+        /**
+         * Gets the constants that define requests matching this entry: method,
+         * path and body. Entries with different constants are mutually
+         * exclusive.
+         * 
+         * @return Constants or null if the entry is not exclusive with any
+         * other, including a slow entry that must stay in its position.
+         */
+        List<String> getExclusiveConstants() {
+            return isSlow()
+                    ? null
+                    : constants;
+        }
+    }
+
+    /**
+     * Creates new snapshot.
+     * 
+     * @param entries Entries in the order of evaluation.
+     * @param matchCacheSize Maximum size of the match cache, or 0 to not cache
+     * matching results.
+     * @throws IllegalArgumentException Entries have duplicate ids.
+     */
+    StubPlanSnapshot(List<Entry> entries, int matchCacheSize) {
+        this(entries, matchCacheSize > 0
+                ? new MatchCache(matchCacheSize, getReferencedHeaders(entries))
+                : null);
+    }
+
+    /**
+     * Creates new snapshot with an existing match cache. The entries must match
+     * the same requests as the entries the cache was filled for.
+     */
+    private StubPlanSnapshot(List<Entry> entries, MatchCache matchCache) {
+        this.matchCache = matchCache;
+        Set<String> ids = new HashSet<>();
+        entries.forEach(entry -> Validate.isTrue(ids.add(entry.getId()),
+                "Duplicate request expectation id: %s", entry.getId()));
+        this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+        this.index =
+                new StubIndex(entries.stream().map(Entry::getExpectation)
+                        .collect(Collectors.toList()));
+        this.jsonPaths =
+                Collections.unmodifiableSet(entries
+                        .stream()
+                        .flatMap(
+                                entry -> entry.getExpectation().getJsonPaths()
+                                        .stream()).map(JsonPath::new)
+                        .collect(Collectors.toSet()));
+    }
+
+    private static Set<String> getReferencedHeaders(List<Entry> entries) {
+        Set<String> headers = new HashSet<>();
+        for (Entry entry : entries) {
+            Set<String> entryHeaders = entry.getExpectation().getReferencedHeaders();
+            if (entryHeaders == null) {
+                return null;
+            }
+            headers.addAll(entryHeaders);
+        }
+        return headers;
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return Match cache or null if matching results are not cached.
+     */
+    MatchCache getMatchCache() {
+        return matchCache;
+    }
+
+    StubIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Prepares an actual request for evaluation of the entries.
+     * 
+     * @param actualRequest Actual request.
+     * @return Request that parses its body once for all entries.
+     */
+    HttpRequest prepare(HttpRequest actualRequest) {
+        return new PreparedRequest(actualRequest, jsonPaths);
+    }
+
+    /**
+     * Creates a snapshot with mutually exclusive entries ordered by hits.
+     * <p>
+     * Only runs of consecutive mutually exclusive entries are reordered, the
+     * most hit entry first. Any other entry separates the runs and keeps its
+     * position. As no request matches two entries of the same run, the first
+     * matching entry for any request is the same in both snapshots, so the new
+     * snapshot keeps the match cache.
+     * 
+     * @return New snapshot or null if the order does not change.
+     */
+    StubPlanSnapshot reorderByHits() {
+        List<Entry> reordered = new ArrayList<>(entries.size());
+        List<Entry> run = new ArrayList<>();
+        Set<List<String>> runConstants = new HashSet<>();
+        for (Entry entry : entries) {
+            List<String> constants = entry.getExclusiveConstants();
+            if (constants == null
+                    || !runConstants.add(constants)) {
+                appendByHits(run, reordered);
+                runConstants.clear();
+                if (constants == null) {
+                    reordered.add(entry);
+                } else {
+                    runConstants.add(constants);
+                    run.add(entry);
+                }
+            } else {
+                run.add(entry);
+            }
+        }
+        appendByHits(run, reordered);
+        return reordered.equals(entries)
+                ? null
+                : new StubPlanSnapshot(reordered, matchCache);
+    }
+
+    private static void appendByHits(List<Entry> run, List<Entry> target) {
+        Map<Entry, Long> hits = new IdentityHashMap<>(run.size());
+        run.forEach(entry -> hits.put(entry, entry.getHitsNumber().sum()));
+        run.sort(Comparator.comparingLong((Entry entry) -> hits.get(entry)).reversed());
+        target.addAll(run);
+        run.clear();
+    }
+
+    /**
+     * Finds the position of an entry.
+     * 
+     * @param entries Entries in the order of evaluation.
+     * @param id Request expectation id.
+     * @return Index of the entry.
+     * @throws IllegalArgumentException There is no entry with this id.
+     */
+    static int indexOf(List<Entry> entries, String id) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getId().equals(id)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown request expectation id: "
+                + id);
+    }
+}
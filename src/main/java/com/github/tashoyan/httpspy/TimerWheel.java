@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timer wheel that runs short tasks at their due time.
+ * <p>
+ * Timeouts are kept in a ring of buckets, one bucket per tick; scheduling and
+ * expiring a timeout take constant time regardless of how many timeouts are
+ * pending, so one wheel serves tens of thousands of paced responses. A task
+ * runs not earlier than its due time and at most one tick later. When no
+ * timeouts are pending, the wheel thread sleeps until a task is scheduled.
+ * <p>
+ * Tasks run in the wheel thread, so they must not block: they should only start
+ * non-blocking work, such as writing to a non-blocking output.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe. Any thread may schedule
+ * tasks; the buckets are accessed only by the wheel thread.
+ */
+@ThreadSafe
+final class TimerWheel {
+
+    /**
+     * Wheel shared by the spy servers, ticking each millisecond.
+     */
+    static final TimerWheel SHARED = new TimerWheel("httpspy-timer",
+            TimeUnit.MILLISECONDS.toNanos(1), 512);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimerWheel.class);
+
+    private final long tickNanos;
+
+    private final int mask;
+
+    private final Queue<Timeout>[] buckets;
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+
+    private long startNanos;
+
+    private long tick;
+
+    private int pending;
+
+    /**
+     * Creates new wheel and starts its daemon thread.
+     * 
+     * @param name Name of the wheel thread.
+     * @param tickNanos Duration of a tick in nanoseconds.
+     * @param bucketsNumber Number of buckets, a power of two.
+     * @throws IllegalArgumentException tickNanos is not positive, bucketsNumber
+     * is not a positive power of two.
+     */
+    @SuppressWarnings("unchecked")
+    TimerWheel(String name, long tickNanos, int bucketsNumber) {
+        Validate.isTrue(tickNanos > 0, "tickNanos must be positive");
+        Validate.isTrue(bucketsNumber > 0
+                && Integer.bitCount(bucketsNumber) == 1,
+                "bucketsNumber must be a positive power of two");
+        this.tickNanos = tickNanos;
+        this.mask = bucketsNumber - 1;
+        this.buckets = new Queue[bucketsNumber];
+        for (int i = 0; i < bucketsNumber; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules a task.
+     * 
+     * @param task Task to run in the wheel thread.
+     * @param delayNanos Delay in nanoseconds before running the task.
+     * @throws NullPointerException task is null.
+     */
+    void schedule(Runnable task, long delayNanos) {
+        Validate.notNull(task, "task must not be null");
+        scheduled.add(new Timeout(task, System.nanoTime()
+                + delayNanos));
+        LockSupport.unpark(worker);
+    }
+
+    private void run() {
+        startNanos = System.nanoTime();
+        while (true) {
+            if (pending == 0
+                    && scheduled.isEmpty()) {
+                LockSupport.park(this);
+                tick = (System.nanoTime() - startNanos)
+                        / tickNanos;
+            } else {
+                waitTick();
+            }
+            transferScheduled();
+            expireBucket();
+            tick++;
+        }
+    }
+
+    private void waitTick() {
+        long tickDeadline = startNanos
+                + tick * tickNanos;
+        long waitNanos = tickDeadline
+                - System.nanoTime();
+        while (waitNanos > 0) {
+            LockSupport.parkNanos(this, waitNanos);
+            waitNanos = tickDeadline
+                    - System.nanoTime();
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout = scheduled.poll();
+        while (timeout != null) {
+            long dueNanos = timeout.dueNanos
+                    - startNanos;
+            timeout.dueTick = Math.max(tick, (dueNanos
+                    + tickNanos - 1)
+                    / tickNanos);
+            buckets[(int) (timeout.dueTick & mask)].add(timeout);
+            pending++;
+            timeout = scheduled.poll();
+        }
+    }
+
+    private void expireBucket() {
+        Iterator<Timeout> iterator = buckets[(int) (tick & mask)].iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.dueTick <= tick) {
+                iterator.remove();
+                pending--;
+                timeout.expire();
+            }
+        }
+    }
+
+    private static final class Timeout {
+
+        private final Runnable task;
+
+        private final long dueNanos;
+
+        private long dueTick;
+
+        Timeout(Runnable task, long dueNanos) {
+            this.task = task;
+            this.dueNanos = dueNanos;
+        }
+
+        void expire() {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Timer task failed", e);
+            }
+        }
+    }
+}
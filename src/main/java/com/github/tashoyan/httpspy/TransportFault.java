@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+/**
+ * Fault of the transport injected instead of a well-formed response.
+ * <p>
+ * Faults emulate broken upstreams and networks for chaos-style tests. They are
+ * injected at the connection level, below HTTP: the client sees an I/O error
+ * rather than an HTTP status.
+ */
+public enum TransportFault {
+    /**
+     * Reset the connection: the client receives TCP RST without any response.
+     */
+    CONNECTION_RESET,
+    /**
+     * Close the connection gracefully without sending any response.
+     */
+    EMPTY_RESPONSE,
+    /**
+     * Send the status, the headers with the full content length and only the
+     * first half of the body, then close the connection.
+     */
+    TRUNCATED_BODY
+}
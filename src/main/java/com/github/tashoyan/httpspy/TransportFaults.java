@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.LongConsumer;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.jcip.annotations.ThreadSafe;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Injects {@link TransportFault transport faults} into Jetty connections.
+ * <p>
+ * A delayed fault is injected by the shared {@link TimerWheel}: the request is
+ * switched to asynchronous mode, so the servicing thread does not wait.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe: it has no state.
+ */
+@ThreadSafe
+final class TransportFaults {
+
+    /**
+     * Number of the first bytes of a streaming body of unknown length, half of
+     * which is sent before truncating the body.
+     */
+    private static final int UNKNOWN_LENGTH_HEAD_BYTES = 8192;
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(TransportFaults.class);
+
+    private TransportFaults() {
+    }
+
+    /**
+     * Injects a fault into the connection of a request.
+     * 
+     * @param fault Fault to inject.
+     * @param body Body of the response, may be null if empty. Only
+     * {@link TransportFault#TRUNCATED_BODY} sends a part of it: half of the
+     * content length, or, if the length is unknown, half of the first bytes
+     * sent with chunked transfer encoding.
+     * @param delayNanos Delay in nanoseconds before injecting the fault, zero
+     * to inject it at once.
+     * @param request Request.
+     * @param response Response.
+     * @param onSent Listener notified when the fault is injected, successfully
+     * or not, with the nanoseconds waited for the delay.
+     * @throws IOException Cannot write the response.
+     */
+    static void inject(TransportFault fault, StreamingBody body, long delayNanos,
+            HttpServletRequest request, HttpServletResponse response,
+            LongConsumer onSent) throws IOException {
+        if (delayNanos > 0) {
+            AsyncContext asyncContext = request.startAsync();
+            asyncContext.setTimeout(0);
+            TimerWheel.SHARED.schedule(
+                    () -> injectLater(fault, body, asyncContext, request, response,
+                            () -> onSent.accept(delayNanos)), delayNanos);
+        } else {
+            try {
+                inject(fault, body, request, response);
+            } finally {
+                onSent.accept(0);
+            }
+        }
+    }
+
+    private static void injectLater(TransportFault fault, StreamingBody body,
+            AsyncContext asyncContext, HttpServletRequest request,
+            HttpServletResponse response, Runnable onInjected) {
+        try {
+            inject(fault, body, request, response);
+        } catch (IOException e) {
+            LOGGER.debug("Cannot inject transport fault {}", fault, e);
+        } finally {
+            asyncContext.complete();
+            onInjected.run();
+        }
+    }
+
+    private static void inject(TransportFault fault, StreamingBody body,
+            HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        EndPoint endPoint = getEndPoint(request);
+        if (fault == TransportFault.CONNECTION_RESET
+                && endPoint.getTransport() instanceof SocketChannel) {
+            Socket socket = ((SocketChannel) endPoint.getTransport()).socket();
+            socket.setSoLinger(true, 0);
+        } else if (fault == TransportFault.TRUNCATED_BODY
+                && body != null) {
+            writeHalf(body, response);
+        }
+        endPoint.close();
+    }
+
+    private static EndPoint getEndPoint(HttpServletRequest request) {
+        HttpChannel<?> channel = request instanceof Request
+                ? ((Request) request).getHttpChannel()
+                : HttpChannel.getCurrentHttpChannel();
+        return channel.getEndPoint();
+    }
+
+    private static void writeHalf(StreamingBody body, HttpServletResponse response)
+            throws IOException {
+        long contentLength = body.getContentLength();
+        ByteBuffer head;
+        if (contentLength >= 0) {
+            SpyHttpBinding.setContentLength(response, contentLength);
+            head = body.readHead((int) Math.min(contentLength / 2, Integer.MAX_VALUE));
+        } else {
+            head = body.readHead(UNKNOWN_LENGTH_HEAD_BYTES);
+            head.limit(head.remaining() / 2);
+        }
+        write(head, response);
+    }
+
+    private static void write(ByteBuffer body, HttpServletResponse response)
+            throws IOException {
+        ServletOutputStream output = response.getOutputStream();
+        WritableByteChannel channel = Channels.newChannel(output);
+        while (body.hasRemaining()) {
+            channel.write(body);
+        }
+        output.flush();
+    }
+}
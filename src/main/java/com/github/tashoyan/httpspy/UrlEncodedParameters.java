@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Parser of URL encoded parameters, as in a query string or in a body of
+ * {@code application/x-www-form-urlencoded} content type.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe.
+ */
+@ThreadSafe
+final class UrlEncodedParameters {
+
+    /**
+     * Content type of HTML form bodies.
+     */
+    static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    /**
+     * Name of the content type header.
+     */
+    static final String CONTENT_TYPE_HEADER = "Content-Type";
+
+    private UrlEncodedParameters() {
+    }
+
+    /**
+     * Parses URL encoded parameters.
+     * 
+     * @param encoded Parameters like {@code a=1&b=2&a=3}, may be null. A
+     * parameter without {@code =} has empty value.
+     * @return Immutable map from parameter names to their values in the order
+     * of appearance. Empty map if the parameters are null or empty. Malformed
+     * escape sequences are kept as is.
+     */
+    static Map<String, List<String>> parse(String encoded) {
+        if (StringUtils.isEmpty(encoded)) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> parameters = new LinkedHashMap<>();
+        for (String pair : StringUtils.split(encoded, '&')) {
+            int separator = pair.indexOf('=');
+            String name = separator < 0
+                    ? pair
+                    : pair.substring(0, separator);
+            String value = separator < 0
+                    ? ""
+                    : pair.substring(separator + 1);
+            parameters.computeIfAbsent(decode(name), key -> new ArrayList<>(1)).add(
+                    decode(value));
+        }
+        for (Entry<String, List<String>> parameter : parameters.entrySet()) {
+            parameter.setValue(Collections.unmodifiableList(parameter.getValue()));
+        }
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * Parses the parameters in the body of a request with the content type of
+     * HTML forms.
+     * 
+     * @param request Request.
+     * @return Immutable map from parameter names to their values, empty map if
+     * the request has another content type.
+     */
+    static Map<String, List<String>> parseForm(HttpRequest request) {
+        return isForm(request.getHttpHeaders())
+                ? parse(request.getBody())
+                : Collections.emptyMap();
+    }
+
+    /**
+     * Checks whether request headers specify the content type of HTML forms.
+     * 
+     * @param headers Request headers.
+     * @return True if the content type is of HTML forms.
+     */
+    static boolean isForm(HttpHeaders headers) {
+        List<String> contentTypes = headers.getValues(CONTENT_TYPE_HEADER);
+        return contentTypes != null
+                && contentTypes.stream().anyMatch(
+                        value -> StringUtils.startsWithIgnoreCase(value,
+                                FORM_CONTENT_TYPE));
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+}
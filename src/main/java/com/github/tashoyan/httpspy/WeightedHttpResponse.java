@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Set of alternative responses selected at random by weight.
+ * <p>
+ * For each actual request, {@link #select } picks an alternative with
+ * probability proportional to its weight: with weights 97, 2 and 1, the first
+ * alternative is sent to 97% of requests. Selection takes a random number from
+ * {@link ThreadLocalRandom} and a binary search over cumulative weights, so it
+ * neither locks nor contends at high request rates.
+ * <p>
+ * The properties of the set are those of its first alternative.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+final class WeightedHttpResponse extends AbstractForwardingHttpResponse {
+
+    private final HttpResponse[] responses;
+
+    private final long[] cumulativeWeights;
+
+    /**
+     * Creates new set of alternative responses.
+     * 
+     * @param responses Alternative responses.
+     * @param weights Weights of the alternatives, in the same order.
+     * @throws NullPointerException responses is null, weights is null, a
+     * response or a weight is null.
+     * @throws IllegalArgumentException responses is empty, responses and
+     * weights have different sizes, a weight is not positive.
+     */
+    WeightedHttpResponse(List<HttpResponse> responses, List<Integer> weights) {
+        Validate.notEmpty(responses, "responses must not be null or empty");
+        Validate.noNullElements(responses, "responses must not contain null");
+        Validate.notNull(weights, "weights must not be null");
+        Validate.isTrue(responses.size() == weights.size(),
+                "responses and weights must have the same size");
+        this.responses = responses.toArray(new HttpResponse[responses.size()]);
+        this.cumulativeWeights = new long[weights.size()];
+        long total = 0;
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            Validate.notNull(weights.get(i), "weight must not be null");
+            Validate.isTrue(weights.get(i) > 0, "weight must be positive");
+            total += weights.get(i);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    @Override
+    public HttpResponse select(HttpRequest actualRequest) {
+        long random =
+                ThreadLocalRandom.current().nextLong(
+                        cumulativeWeights[cumulativeWeights.length - 1]);
+        int index = Arrays.binarySearch(cumulativeWeights, random + 1);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return responses[index].select(actualRequest);
+    }
+
+    @Override
+    protected HttpResponse delegate() {
+        return responses[0];
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("responses", responses)
+                .append("cumulativeWeights", cumulativeWeights).toString();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.lang3.Validate;
+import org.w3c.dom.Document;
+
+/**
+ * Compiled XPath expression to evaluate against XML documents.
+ * <p>
+ * The expression is compiled when the query is created, so an invalid
+ * expression fails the test plan build. As compiled expressions of JAXP are not
+ * thread safe, each thread evaluating the query reuses its own compiled copy,
+ * created from the {@link XPath} object of the thread on the first evaluation
+ * in that thread. No locks are taken during evaluation.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+final class XPathQuery {
+
+    private static final ThreadLocal<XPath> XPATH = ThreadLocal
+            .withInitial(() -> XPathFactory.newInstance().newXPath());
+
+    private final String expression;
+
+    private final ThreadLocal<XPathExpression> compiled;
+
+    /**
+     * Compiles an XPath expression.
+     * 
+     * @param expression XPath expression.
+     * @throws NullPointerException expression is null.
+     * @throws IllegalArgumentException expression is not a valid XPath
+     * expression.
+     */
+    XPathQuery(String expression) {
+        Validate.notNull(expression, "expression must not be null");
+        this.expression = expression;
+        XPathExpression first = compile(expression);
+        this.compiled = ThreadLocal.withInitial(() -> compile(expression));
+        this.compiled.set(first);
+    }
+
+    private static XPathExpression compile(String expression) {
+        try {
+            return XPATH.get().compile(expression);
+        } catch (XPathExpressionException e) {
+            throw new IllegalArgumentException("Invalid XPath expression: "
+                    + expression, e);
+        }
+    }
+
+    /**
+     * Evaluates the expression against a document.
+     * 
+     * @param document XML document.
+     * @return String value of the result, as of the XPath {@code string()}
+     * function: the text content of the first selected node, or empty string if
+     * no node is selected.
+     * @throws IllegalStateException Evaluation failed.
+     */
+    String evaluate(Document document) {
+        try {
+            return (String) compiled.get().evaluate(document, XPathConstants.STRING);
+        } catch (XPathExpressionException e) {
+            throw new IllegalStateException("Cannot evaluate XPath expression: "
+                    + expression, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
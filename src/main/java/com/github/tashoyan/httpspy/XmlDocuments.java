@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import net.jcip.annotations.ThreadSafe;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Parser of XML request bodies.
+ * <p>
+ * Documents are parsed namespace aware, with DOCTYPE declarations disallowed,
+ * so a request body cannot make the parser load external entities. Parse errors
+ * are not reported to the console.
+ * <p>
+ * <b>Concurrency notes.</b> This class is thread safe. Each thread reuses its
+ * own {@link DocumentBuilder}, so concurrent parsing takes no locks.
+ */
+@ThreadSafe
+final class XmlDocuments {
+
+    private static final String DISALLOW_DOCTYPE_FEATURE =
+            "http://apache.org/xml/features/disallow-doctype-decl";
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal
+            .withInitial(XmlDocuments::newDocumentBuilder);
+
+    private XmlDocuments() {
+    }
+
+    private static DocumentBuilder newDocumentBuilder() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setExpandEntityReferences(false);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature(DISALLOW_DOCTYPE_FEATURE, true);
+            DocumentBuilder documentBuilder = factory.newDocumentBuilder();
+            documentBuilder.setErrorHandler(new DefaultHandler());
+            return documentBuilder;
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("Cannot create XML document builder", e);
+        }
+    }
+
+    /**
+     * Parses an XML document.
+     * 
+     * @param xml XML document, may be null.
+     * @return Document or null if the value is null or not a well-formed XML
+     * document.
+     */
+    static Document parse(String xml) {
+        if (xml == null) {
+            return null;
+        }
+        try {
+            return DOCUMENT_BUILDER.get()
+                    .parse(new InputSource(new StringReader(xml)));
+        } catch (SAXException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an XML request body. A spilled body is parsed from its file
+     * without reading it into a string.
+     * 
+     * @param body Request body.
+     * @return Document or null if the body is missing or is not a well-formed
+     * XML document.
+     */
+    static Document parse(RequestBody body) {
+        if (!body.isSpilled()) {
+            return parse(body.asString());
+        }
+        try (InputStream input = body.openStream()) {
+            InputSource source = new InputSource(input);
+            source.setEncoding(body.getCharset().name());
+            return DOCUMENT_BUILDER.get().parse(source);
+        } catch (SAXException | IOException e) {
+            return null;
+        }
+    }
+}
@@ -18,7 +18,6 @@ package com.github.tashoyan.httpspy.matcher;
 import com.github.tashoyan.httpspy.HttpRequest;
 import com.github.tashoyan.httpspy.ValueExpectation;
 import java.util.List;
-import java.util.Map;
 import net.jcip.annotations.Immutable;
 import net.jcip.annotations.ThreadSafe;
 import org.apache.commons.collections4.CollectionUtils;
@@ -59,8 +58,7 @@ public class HttpRequestHeaderMatcher extends TypeSafeMatcher<HttpRequest> {
 
     @Override
     public boolean matchesSafely(HttpRequest httpRequest) {
-        Map<String, List<String>> actualHeaders = httpRequest.getHeaders();
-        List<String> headerValues = actualHeaders.get(headerName);
+        List<String> headerValues = httpRequest.getHttpHeaders().getValues(headerName);
         if (CollectionUtils.isEmpty(headerValues)) {
             return false;
         }
@@ -82,8 +80,7 @@ public class HttpRequestHeaderMatcher extends TypeSafeMatcher<HttpRequest> {
     @Override
     public void describeMismatchSafely(HttpRequest httpRequest, Description description) {
         description.appendText("was ");
-        Map<String, List<String>> actualHeaders = httpRequest.getHeaders();
-        List<String> headerValues = actualHeaders.get(headerName);
+        List<String> headerValues = httpRequest.getHttpHeaders().getValues(headerName);
         if (headerValues == null) {
             description.appendText("no such header: "
                     + headerName);
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy.matcher;
+
+import com.github.tashoyan.httpspy.HttpRequest;
+import com.github.tashoyan.httpspy.ValueExpectation;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.Validate;
+import org.hamcrest.Description;
+import org.hamcrest.TypeSafeMatcher;
+
+/**
+ * Matcher to verify that a request has a query or form parameter with a
+ * specified value.
+ * <p>
+ * The request matches if any value of the parameter matches.
+ * <p>
+ * <b>Concurrency notes.</b> This class is immutable and thread safe.
+ */
+@Immutable
+@ThreadSafe
+public class HttpRequestParameterMatcher extends TypeSafeMatcher<HttpRequest> {
+
+    private final Function<HttpRequest, Map<String, List<String>>> parametersProvider;
+
+    private final String kind;
+
+    private final String parameterName;
+
+    private final ValueExpectation valueExpectation;
+
+    /**
+     * Creates new matcher.
+     * 
+     * @param parametersProvider Provider of the parameters, for example
+     * {@link HttpRequest#getQueryParameters }, takes the request on input.
+     * @param kind Kind of the parameters to be used in a mismatch description,
+     * for example {@code query parameter}.
+     * @param parameterName Parameter name.
+     * @param valueExpectation Expected parameter value.
+     * @throws NullPointerException parametersProvider is null.
+     * @throws NullPointerException kind is null, parameterName is null.
+     * @throws IllegalArgumentException kind is empty or blank, parameterName is
+     * empty.
+     * @throws NullPointerException valueExpectation is null.
+     */
+    public HttpRequestParameterMatcher(
+            Function<HttpRequest, Map<String, List<String>>> parametersProvider,
+            String kind, String parameterName, ValueExpectation valueExpectation) {
+        Validate.notNull(parametersProvider, "parametersProvider must not be null");
+        Validate.notBlank(kind, "kind must not be blank");
+        Validate.notEmpty(parameterName, "parameterName must not be empty");
+        Validate.notNull(valueExpectation, "valueExpectation must not be null");
+        this.parametersProvider = parametersProvider;
+        this.kind = kind;
+        this.parameterName = parameterName;
+        this.valueExpectation = valueExpectation;
+    }
+
+    @Override
+    public boolean matchesSafely(HttpRequest httpRequest) {
+        List<String> values = parametersProvider.apply(httpRequest).get(parameterName);
+        return CollectionUtils.isNotEmpty(values)
+                && values.stream().anyMatch(
+                        value -> valueExpectation.getMatcher().matches(value));
+    }
+
+    @Override
+    public void describeTo(Description description) {
+        description.appendText("["
+                + kind + " " + parameterName + " : ");
+        description.appendDescriptionOf(valueExpectation.getMatcher());
+        description.appendText("]");
+    }
+
+    @Override
+    public void describeMismatchSafely(HttpRequest httpRequest, Description description) {
+        List<String> values = parametersProvider.apply(httpRequest).get(parameterName);
+        if (values == null) {
+            description.appendText("was no such "
+                    + kind + ": " + parameterName);
+        } else {
+            description.appendText("was ").appendValue(values);
+        }
+    }
+}
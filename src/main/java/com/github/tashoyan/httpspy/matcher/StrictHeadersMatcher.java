@@ -15,20 +15,26 @@
  */
 package com.github.tashoyan.httpspy.matcher;
 
+import com.github.tashoyan.httpspy.HeaderNameSet;
+import com.github.tashoyan.httpspy.HttpHeaders;
 import com.github.tashoyan.httpspy.HttpRequest;
 import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 import java.util.Set;
+import java.util.stream.Collectors;
 import net.jcip.annotations.Immutable;
 import net.jcip.annotations.ThreadSafe;
-import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.Validate;
 import org.hamcrest.Description;
 import org.hamcrest.TypeSafeMatcher;
 
 /**
  * Matcher to verify that a request has only headers with specified names.
+ * Header names are compared ignoring case.
+ * <p>
+ * Specified names are numbered when the matcher is created, so a request is
+ * checked by comparing bitsets of header names, see {@link HeaderNameSet}.
+ * Names are compared one by one only if too many distinct names are in use.
  * <p>
  * <b>Concurrency notes.</b> This class is immutable and thread safe.
  */
@@ -38,6 +44,10 @@ public class StrictHeadersMatcher extends TypeSafeMatcher<HttpRequest> {
 
     private final Set<String> specifiedHeaders;
 
+    private final Set<String> canonicalHeaders;
+
+    private final HeaderNameSet headerNameSet;
+
     /**
      * Creates new matcher.
      * 
@@ -49,16 +59,30 @@ public class StrictHeadersMatcher extends TypeSafeMatcher<HttpRequest> {
     public StrictHeadersMatcher(Set<String> specifiedHeaders) {
         Validate.notNull(specifiedHeaders, "specifiedHeaders must not be null");
         this.specifiedHeaders = Collections.unmodifiableSet(specifiedHeaders);
+        this.canonicalHeaders =
+                specifiedHeaders.stream().map(name -> name.toLowerCase(Locale.ROOT))
+                        .collect(Collectors.toSet());
+        this.headerNameSet = HeaderNameSet.of(specifiedHeaders);
     }
 
     @Override
     public boolean matchesSafely(HttpRequest httpRequest) {
-        Map<String, List<String>> actualHeaders = httpRequest.getHeaders();
-        if (MapUtils.isEmpty(actualHeaders)) {
-            return specifiedHeaders.isEmpty();
+        HttpHeaders actualHeaders = httpRequest.getHttpHeaders();
+        return headerNameSet.isComplete()
+                ? headerNameSet.sameNames(actualHeaders.getNameSet())
+                : hasCanonicalHeaders(actualHeaders);
+    }
+
+    private boolean hasCanonicalHeaders(HttpHeaders actualHeaders) {
+        if (canonicalHeaders.size() != actualHeaders.size()) {
+            return false;
+        }
+        for (int i = 0; i < actualHeaders.size(); i++) {
+            if (!canonicalHeaders.contains(actualHeaders.getName(i))) {
+                return false;
+            }
         }
-        return specifiedHeaders.size() == actualHeaders.keySet().size()
-                && specifiedHeaders.containsAll(actualHeaders.keySet());
+        return true;
     }
 
     @Override
@@ -70,7 +94,6 @@ public class StrictHeadersMatcher extends TypeSafeMatcher<HttpRequest> {
 
     @Override
     public void describeMismatchSafely(HttpRequest httpRequest, Description description) {
-        Map<String, List<String>> actualHeaders = httpRequest.getHeaders();
-        description.appendText("was ").appendValue(actualHeaders);
+        description.appendText("was ").appendValue(httpRequest.getHeaders());
     }
 }
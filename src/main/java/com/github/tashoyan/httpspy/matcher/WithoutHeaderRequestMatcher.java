@@ -17,10 +17,8 @@ package com.github.tashoyan.httpspy.matcher;
 
 import com.github.tashoyan.httpspy.HttpRequest;
 import java.util.List;
-import java.util.Map;
 import net.jcip.annotations.Immutable;
 import net.jcip.annotations.ThreadSafe;
-import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.Validate;
 import org.hamcrest.Description;
 import org.hamcrest.TypeSafeMatcher;
@@ -51,11 +49,7 @@ public class WithoutHeaderRequestMatcher extends TypeSafeMatcher<HttpRequest> {
 
     @Override
     public boolean matchesSafely(HttpRequest httpRequest) {
-        Map<String, List<String>> actualHeaders = httpRequest.getHeaders();
-        if (MapUtils.isEmpty(actualHeaders)) {
-            return true;
-        }
-        return !actualHeaders.containsKey(headerName);
+        return !httpRequest.getHttpHeaders().contains(headerName);
     }
 
     @Override
@@ -67,8 +61,7 @@ public class WithoutHeaderRequestMatcher extends TypeSafeMatcher<HttpRequest> {
 
     @Override
     public void describeMismatchSafely(HttpRequest httpRequest, Description description) {
-        Map<String, List<String>> actualHeaders = httpRequest.getHeaders();
-        List<String> headerValues = actualHeaders.get(headerName);
+        List<String> headerValues = httpRequest.getHttpHeaders().getValues(headerName);
         description.appendText("was ").appendText(headerName).appendText(": ")
                 .appendValue(headerValues);
     }
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import static com.jayway.restassured.RestAssured.with;
+import com.jayway.restassured.path.json.JsonPath;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class AdminEndpointTest extends TestHarness {
+
+    private static final int REQUESTS_NUMBER = 5;
+
+    private static final long SNAPSHOT_TIMEOUT_MILLIS = 5000;
+
+    private String getAdminUrl() {
+        return "http://"
+                + SPY_SERVER_HOST + ":" + SPY_SERVER_PORT + httpSpy.getAdminPath();
+    }
+
+    private JsonPath awaitMetrics(int requestsNumber) throws InterruptedException {
+        long deadline = System.currentTimeMillis()
+                + SNAPSHOT_TIMEOUT_MILLIS;
+        JsonPath metrics;
+        do {
+            Thread.sleep(100);
+            metrics = with().get(getAdminUrl()
+                    + "metrics").then().statusCode(200).extract().jsonPath();
+        } while (metrics.getInt("requestsNumber") < requestsNumber
+                && System.currentTimeMillis() < deadline);
+        return metrics;
+    }
+
+    private void sendRequests() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withMethod(equalTo("GET")).andResponse(
+                        response().withBody("Get")));
+            }
+        });
+        for (int i = 0; i < REQUESTS_NUMBER; i++) {
+            with().get(SPY_SERVER_URL).then().statusCode(200);
+        }
+        with().header("X-Unmatched", "yes").body("Unknown").put(SPY_SERVER_URL).then()
+                .statusCode(500);
+    }
+
+    @Test
+    public void metrics_CountersAndLatencies() throws InterruptedException {
+        sendRequests();
+        JsonPath metrics = awaitMetrics(REQUESTS_NUMBER + 1);
+        assertEquals(REQUESTS_NUMBER + 1, metrics.getInt("requestsNumber"));
+        assertEquals(1, metrics.getInt("unmatchedRequestsNumber"));
+        assertEquals(REQUESTS_NUMBER, metrics.getInt("expectationHits[0]"));
+        assertEquals(REQUESTS_NUMBER + 1, metrics.getInt("latencyNanos.TOTAL.count"));
+        assertTrue("p99 of total latency",
+                metrics.getLong("latencyNanos.TOTAL.percentiles.'99.0'") > 0);
+    }
+
+    @Test
+    public void unmatched_RecentUnmatchedRequests() throws InterruptedException {
+        sendRequests();
+        awaitMetrics(REQUESTS_NUMBER + 1);
+        JsonPath unmatched = with().get(getAdminUrl()
+                + "unmatched").then().statusCode(200).extract().jsonPath();
+        assertEquals(1, unmatched.getList("").size());
+        assertEquals("PUT", unmatched.getString("[0].method"));
+        assertEquals("Unknown", unmatched.getString("[0].body"));
+        assertEquals("yes", unmatched.getString("[0].headers.X-Unmatched[0]"));
+    }
+
+    @Test
+    public void unmatched_BodyTruncatedAndNearMissesExplained()
+            throws InterruptedException {
+        String body = StringUtils.repeat('x', AdminSnapshot.MAX_BODY_LENGTH * 2);
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withMethod(equalTo("PUT")).withBody(equalTo("Known"))
+                        .andResponse(response().withBody("Put")));
+            }
+        });
+        with().body(body).put(SPY_SERVER_URL).then().statusCode(500);
+        awaitMetrics(1);
+        JsonPath unmatched = with().get(getAdminUrl()
+                + "unmatched").then().statusCode(200).extract().jsonPath();
+        assertEquals("Body is truncated", AdminSnapshot.MAX_BODY_LENGTH, unmatched
+                .getString("[0].body").length());
+        assertEquals("Length of the whole body", body.length(),
+                unmatched.getInt("[0].bodyLength"));
+        assertEquals("Near miss is explained on demand", "0",
+                unmatched.getString("[0].nearMisses[0].id"));
+        assertEquals(1, unmatched.getInt("[0].nearMisses[0].passedNumber"));
+    }
+
+    @Test
+    public void journal_Paginated() throws InterruptedException {
+        sendRequests();
+        awaitMetrics(REQUESTS_NUMBER + 1);
+        JsonPath firstPage =
+                with().queryParam("page", 0).queryParam("pageSize", 4)
+                        .get(getAdminUrl()
+                                + "journal").then().statusCode(200).extract()
+                        .jsonPath();
+        assertEquals(REQUESTS_NUMBER + 1, firstPage.getInt("total"));
+        List<Integer> statusCodes = firstPage.getList("entries.statusCode");
+        assertEquals(4, statusCodes.size());
+        assertEquals("The most recent request first", 500, (int) statusCodes.get(0));
+        assertEquals("PUT", firstPage.getString("entries[0].method"));
+        JsonPath secondPage =
+                with().queryParam("page", 1).queryParam("pageSize", 4)
+                        .get(getAdminUrl()
+                                + "journal").then().statusCode(200).extract()
+                        .jsonPath();
+        assertEquals(2, secondPage.getList("entries").size());
+        assertEquals("The oldest request last", 0,
+                secondPage.getInt("entries[1].sequence"));
+    }
+
+    @Test
+    public void unknownResource_NotFound() {
+        with().get(getAdminUrl()
+                + "unknown").then().statusCode(404).body(containsString("metrics"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void adminPath_Reserved() {
+        new CamelJettyHttpSpy(SPY_SERVER_PORT, "/httpspy-admin/path");
+    }
+}
@@ -104,4 +104,276 @@ public class BodyExpectationsTest extends TestHarness {
                             containsString("value3")));
         }
     }
+
+    @Test
+    public void exactBodyStubs_OnlyMatchingBodyEvaluated() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                options().withMatchingStatistics();
+                expect(request().withMethod(equalTo("POST")).withBody(equalTo("one"))
+                        .andResponse(response().withBody("One")));
+                expect(request().withMethod(equalTo("POST")).withBody(equalTo("two"))
+                        .andResponse(response().withBody("Two")));
+                expect(request().withMethod(equalTo("POST"))
+                        .withBody(equalTo("three"))
+                        .andResponse(response().withBody("Three")));
+            }
+        });
+        with().body("two").post(SPY_SERVER_URL).then().statusCode(200).body(is("Two"));
+        with().body("four").post(SPY_SERVER_URL).then().statusCode(500);
+        StubPlan plan = (StubPlan) httpSpy.getTestPlan();
+        assertEquals(0, plan.getMatchingLatency(0).getCount());
+        assertEquals("Only the expectation with the same body is evaluated", 1, plan
+                .getMatchingLatency(1).getCount());
+        assertEquals(0, plan.getMatchingLatency(2).getCount());
+    }
+
+    @Test
+    public void jsonBodyStubs_OnlyEqualJsonEvaluated() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                options().withMatchingStatistics();
+                expect(request().withBody(
+                        equalToJson("{\"value1\":\"1\", \"values\":[1, 2]}"))
+                        .andResponse(response().withBody("First")));
+                expect(request().withBody(equalToJson("{\"value1\":\"2\"}"))
+                        .andResponse(response().withBody("Second")));
+                expect(request().withBody(matching(containsString("third")))
+                        .andResponse(response().withBody("Third")));
+            }
+        });
+        with().body("{\"values\":[2, 1], \"value1\":\"1\"}").post(SPY_SERVER_URL)
+                .then().statusCode(200).body(is("First"));
+        httpSpy.verify();
+        StubPlan plan = (StubPlan) httpSpy.getTestPlan();
+        assertEquals("Expectation without constant body is evaluated", 1, plan
+                .getMatchingLatency(0).getCount());
+        assertEquals(0, plan.getMatchingLatency(1).getCount());
+        assertEquals("Equal JSON is found regardless of the order", 1, plan
+                .getMatchingLatency(2).getCount());
+    }
+
+    @Test
+    public void regexBodyStubs_OnlyRegexWithFoundLiteralEvaluated() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                options().withMatchingStatistics();
+                expect(request().withBody(matchingRegex("order-\\d+")).andResponse(
+                        response().withBody("Order")));
+                expect(request().withBody(matchingRegex("invoice-\\d+")).andResponse(
+                        response().withBody("Invoice")));
+                expect(request().withBody(matchingRegex("\\d+")).andResponse(
+                        response().withBody("Number")));
+            }
+        });
+        with().body("order-7").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Order"));
+        with().body("invoice-x").post(SPY_SERVER_URL).then().statusCode(500);
+        StubPlan plan = (StubPlan) httpSpy.getTestPlan();
+        assertEquals("Regex without a required literal is always evaluated", 2, plan
+                .getMatchingLatency(0).getCount());
+        assertEquals("Regex is evaluated only when its literal is found", 1, plan
+                .getMatchingLatency(1).getCount());
+        assertEquals(1, plan.getMatchingLatency(2).getCount());
+    }
+
+    @Test
+    public void regexBodyStubs_EscapesNotTakenForLiterals() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withBody(matchingRegex("\\u0041BC-\\d+"))
+                        .andResponse(response().withBody("Unicode")));
+                expect(request().withBody(matchingRegex("\\x41pple")).andResponse(
+                        response().withBody("Hex")));
+                expect(request().withBody(matchingRegex("\\0101xyz")).andResponse(
+                        response().withBody("Octal")));
+                expect(request().withBody(matchingRegex("\\p{Lu}bc\\x{44}ef"))
+                        .andResponse(response().withBody("Braced")));
+            }
+        });
+        with().body("ABC-12").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Unicode"));
+        with().body("Apple").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Hex"));
+        with().body("Axyz").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Octal"));
+        with().body("AbcDef").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Braced"));
+        httpSpy.verify();
+    }
+
+    @Test
+    public void jsonPathStubs() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withJsonPath("$.order.id", equalTo("42"))
+                        .withJsonPath("$.order.items[1].sku", equalTo("b\"2"))
+                        .andResponse(response().withBody("Order 42")));
+                expect(request()
+                        .withJsonPath("$.order.id", equalTo("7"))
+                        .withJsonPath("$['order'].customer",
+                                equalToJson("{\"name\":\"Ann\"}"))
+                        .andResponse(response().withBody("Order 7")));
+            }
+        });
+        with().body("{\"order\":{\"id\":42,\"items\":[{\"sku\":\"a\"},"
+                + "{\"sku\":\"b\\\"2\"}]}}").post(SPY_SERVER_URL).then()
+                .statusCode(200).body(is("Order 42"));
+        with().body("{\"order\":{\"customer\":{\"name\":\"Ann\"},\"id\":7}}")
+                .post(SPY_SERVER_URL).then().statusCode(200).body(is("Order 7"));
+        httpSpy.verify();
+    }
+
+    private void assertJsonPathMatches(String path, String value, String body) {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withJsonPath(path, equalTo(value)).andResponse(
+                        response().withBody("Found")));
+            }
+        });
+        with().body(body).post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Found"));
+        httpSpy.verify();
+        httpSpy.reset();
+    }
+
+    @Test
+    public void jsonPathWithSiblingsAfterValue() {
+        assertJsonPathMatches("$.order.id", "42",
+                "{\"order\":{\"id\":42,\"total\":10},\"customer\":\"bob\"}");
+        assertJsonPathMatches("$.a[0]", "7", "{\"a\":[7,8]}");
+        assertJsonPathMatches("$.items[0].id", "7",
+                "{\"items\":[{\"id\":7},{\"id\":8}]}");
+    }
+
+    @Test
+    public void jsonPathNotMatching() {
+        httpSpy.testPlan(new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withJsonPath("$.order.id", equalTo("42")));
+            }
+        });
+        with().body("{\"order\":{\"id\":43}}").post(SPY_SERVER_URL);
+        try {
+            httpSpy.verify();
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            assertThat("Error message reports about JSON path value mismatch",
+                    e.getMessage(),
+                    both(containsString("$.order.id")).and(containsString("43")));
+        }
+    }
+
+    @Test
+    public void xpathStubs() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request()
+                        .withXPath("//*[local-name()='orderId']", equalTo("42"))
+                        .withXPath("count(//*[local-name()='item'])", equalTo("2"))
+                        .andResponse(response().withBody("Order 42")));
+                expect(request().withXPath("/order/@id", equalTo("7")).andResponse(
+                        response().withBody("Order 7")));
+            }
+        });
+        with().body(
+                "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                        + "<soap:Body><orderId>42</orderId><item/><item/></soap:Body>"
+                        + "</soap:Envelope>").post(SPY_SERVER_URL).then()
+                .statusCode(200).body(is("Order 42"));
+        with().body("<order id=\"7\"/>").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Order 7"));
+        with().body("not XML").post(SPY_SERVER_URL).then().statusCode(500);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void xpathInvalid() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withXPath("//order[", equalTo("42")));
+            }
+        });
+    }
+
+    @Test
+    public void largeBodiesSpilledToFile() {
+        httpSpy.setBodyMemoryThreshold(16);
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            items.append("<item/>");
+        }
+        String largeBody = "<order id=\"7\">"
+                + items + "</order>";
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withXPath("count(/order/item)", equalTo("1000"))
+                        .andResponse(response().withBody("Order")));
+                expect(request().withBody(equalTo("other")).andResponse(
+                        response().withBody("Other")));
+                expect(request().withBody(equalTo(largeBody)).andResponse(
+                        response().withBody("Exact")));
+            }
+        });
+        with().body(largeBody).post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Exact"));
+        with().body(largeBody.replace("order", "Order")).post(SPY_SERVER_URL).then()
+                .statusCode(500);
+        with().body("<order id=\"7\">"
+                + items + "<item/></order>").post(SPY_SERVER_URL).then()
+                .statusCode(500);
+        with().body(largeBody.replace("7", "8")).post(SPY_SERVER_URL).then()
+                .statusCode(200).body(is("Order"));
+        with().body("small").post(SPY_SERVER_URL).then().statusCode(500);
+    }
+
+    @Test
+    public void largeJsonAndRegexBodiesSpilledToFile() {
+        httpSpy.setBodyMemoryThreshold(16);
+        StringBuilder items = new StringBuilder("0");
+        for (int i = 1; i < 1000; i++) {
+            items.append(',').append(i);
+        }
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withBody(equalToJson("{\"id\":7,\"items\":["
+                        + items + "]}")).andResponse(response().withBody("Json")));
+                expect(request().withJsonPath("$.id", equalTo("8")).andResponse(
+                        response().withBody("Path")));
+                expect(request().withBody(matchingRegex("invoice-\\d+")).andResponse(
+                        response().withBody("Invoice")));
+            }
+        });
+        with().body("{\"items\":["
+                + items + "],\"id\":7}").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Json"));
+        with().body("invoice-"
+                + items.toString().replace(",", "")).post(SPY_SERVER_URL).then()
+                .statusCode(200).body(is("Invoice"));
+        with().body("{\"id\":8,\"items\":[1]}").post(SPY_SERVER_URL).then()
+                .statusCode(200).body(is("Path"));
+        with().body("{\"id\":7,\"items\":["
+                + items + ",1000]}").post(SPY_SERVER_URL).then().statusCode(500);
+    }
 }
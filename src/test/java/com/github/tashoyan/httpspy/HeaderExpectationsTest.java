@@ -19,6 +19,7 @@ import static com.jayway.restassured.RestAssured.with;
 import com.jayway.restassured.response.Response;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -80,6 +81,39 @@ public class HeaderExpectationsTest extends TestHarness {
         }
     }
 
+    @Test
+    public void headerNameCaseInsensitive() {
+        httpSpy.testPlan(new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withHeader("X-Order-Id", equalTo("42"))
+                        .withoutHeader("X-DEBUG")
+                        .andResponse(response().withStatus(200)));
+                expect(request().withoutHeader("x-order-id").andResponse(
+                        response().withStatus(200)));
+            }
+        });
+        Map<String, Object> headers = new HashMap<>(2);
+        headers.put("x-ORDER-id", "42");
+        headers.put("x-debug", "true");
+        with().body("<body>Hello</body>")
+                .headers(Collections.singletonMap("x-ORDER-id", "42"))
+                .post(SPY_SERVER_URL).then().statusCode(200);
+        with().body("<body>Hello 2</body>").headers(headers).post(SPY_SERVER_URL)
+                .then().statusCode(200);
+        try {
+            httpSpy.verify();
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            assertThat(
+                    "Error message reports about the header in another case",
+                    e.getMessage(),
+                    both(containsString("without header")).and(
+                            containsString("x-order-id")));
+        }
+    }
+
     @Test
     public void withoutHeader() {
         httpSpy.testPlan(new AbstractSequencePlanBuilder() {
@@ -134,6 +168,34 @@ public class HeaderExpectationsTest extends TestHarness {
         }
     }
 
+    @Test
+    public void strictHeadersNamesInAnyCase() {
+        SequencePlan plan = new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                for (int i = 0; i < 2; i++) {
+                    expect(request().withStrictHeaders().withHeader("Content-Type")
+                            .withHeader("X-Id"));
+                }
+            }
+        }.build();
+        Map<String, List<String>> headers = new HashMap<>(3);
+        headers.put("content-type", Collections.singletonList("text/plain"));
+        headers.put("X-ID", Collections.singletonList("1"));
+        plan.getResponse(new CamelJettyHttpRequest("POST", "/", "", headers));
+        headers.put("x-other", Collections.singletonList("2"));
+        plan.getResponse(new CamelJettyHttpRequest("POST", "/", "", headers));
+        try {
+            plan.verify();
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            assertThat("Only the request with an extra header is reported",
+                    e.getMessage(), both(containsString("Request #1 should match"))
+                            .and(containsString("x-other")));
+        }
+    }
+
     @Test
     public void responseHeaderMultipleValues() {
         httpSpy.testPlan(new AbstractSequencePlanBuilder() {
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import static com.jayway.restassured.RestAssured.with;
+import java.lang.management.ManagementFactory;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class JmxTest extends TestHarness {
+
+    private static final int REQUESTS_NUMBER = 5;
+
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    private HttpSpyMXBean getMXBean() {
+        ObjectName name = httpSpy.getMBeanName();
+        assertNotNull("MBean name", name);
+        assertTrue("MBean is registered", mBeanServer.isRegistered(name));
+        return JMX.newMXBeanProxy(mBeanServer, name, HttpSpyMXBean.class);
+    }
+
+    @Test
+    public void requestsServiced_CountersUpdated() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withMethod(equalTo("GET")).andResponse(
+                        response().withBody("Get")));
+                expect(request().withMethod(equalTo("POST")).andResponse(
+                        response().withBody("Post")));
+            }
+        });
+        for (int i = 0; i < REQUESTS_NUMBER; i++) {
+            with().get(SPY_SERVER_URL).then().statusCode(200);
+        }
+        with().post(SPY_SERVER_URL).then().statusCode(200);
+        with().put(SPY_SERVER_URL).then().statusCode(500);
+        HttpSpyMXBean mxBean = getMXBean();
+        assertEquals(SPY_SERVER_URL, mxBean.getUrl());
+        assertEquals("Requests number", REQUESTS_NUMBER + 2,
+                mxBean.getRequestsNumber());
+        assertArrayEquals("Hits in the order of evaluation", new long[]{1,
+                REQUESTS_NUMBER}, mxBean.getExpectationHits());
+        assertEquals("Unmatched requests number", 1,
+                mxBean.getUnmatchedRequestsNumber());
+        assertEquals("Configured threads number", 1, mxBean.getServiceThreadsNumber());
+        assertEquals("Server threads number", httpSpy.getRealJettyThreadsNumber(),
+                mxBean.getServerThreadsNumber());
+        assertTrue("Busy threads number", mxBean.getBusyThreadsNumber() >= 0);
+        assertTrue("Queue size", mxBean.getQueueSize() >= 0);
+        assertTrue("Requests per second", mxBean.getRequestsPerSecond() >= 0);
+    }
+
+    @Test
+    public void stopAndStart_MBeanUnregisteredAndRegistered() {
+        ObjectName name = httpSpy.getMBeanName();
+        assertTrue("MBean is registered", mBeanServer.isRegistered(name));
+        httpSpy.stop();
+        assertNull("MBean name after stop", httpSpy.getMBeanName());
+        assertFalse("MBean is unregistered on stop", mBeanServer.isRegistered(name));
+        httpSpy.start();
+        assertEquals("Same MBean name after restart", name, httpSpy.getMBeanName());
+        assertTrue("MBean is registered on start", mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void failedStart_StoppedWithoutMBean() {
+        CamelJettyHttpSpy failedSpy =
+                new CamelJettyHttpSpy("unresolvable.invalid", SPY_SERVER_PORT + 1,
+                        SPY_SERVER_PATH);
+        try {
+            failedSpy.start();
+            fail("Start fails on unresolvable host");
+        } catch (RuntimeException e) {
+            assertEquals("Exception while setting up Camel context", e.getMessage());
+        }
+        failedSpy.stop();
+        assertNull("MBean name after stop", failedSpy.getMBeanName());
+        assertTrue("MBean of another spy is intact",
+                mBeanServer.isRegistered(httpSpy.getMBeanName()));
+    }
+}
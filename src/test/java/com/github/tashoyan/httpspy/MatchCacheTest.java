@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import static com.github.tashoyan.httpspy.AbstractTestPlanBuilder.equalTo;
+import static com.jayway.restassured.RestAssured.with;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hamcrest.BaseMatcher;
+import static org.hamcrest.CoreMatchers.*;
+import org.hamcrest.Description;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MatchCacheTest extends TestHarness {
+
+    private static final int REPEATED_REQUESTS_NUMBER = 5;
+
+    private final AtomicInteger evaluationsNumber = new AtomicInteger();
+
+    private StubPlan stubPlan;
+
+    /**
+     * Body matcher that counts its evaluations.
+     */
+    private class CountingBodyMatcher extends BaseMatcher<String> {
+
+        @Override
+        public boolean matches(Object item) {
+            evaluationsNumber.incrementAndGet();
+            return "Hello".equals(item);
+        }
+
+        @Override
+        public void describeTo(Description description) {
+            description.appendText("counting body matcher");
+        }
+    }
+
+    @Before
+    public void setTestPlan() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                options().withMatchCache(100);
+                expect(request().withBody(matching(new CountingBodyMatcher()))
+                        .withHeader("h1", equalTo("v1"))
+                        .andResponse(response().withBody("Fine")));
+            }
+        });
+        stubPlan = (StubPlan) httpSpy.getTestPlan();
+    }
+
+    @Test
+    public void repeatedRequest_MatcherEvaluatedOnce() {
+        for (int i = 0; i < REPEATED_REQUESTS_NUMBER; i++) {
+            with().header("h1", "v1").body("Hello").post(SPY_SERVER_URL).then()
+                    .statusCode(200).body(is("Fine"));
+        }
+        assertEquals(1, evaluationsNumber.get());
+        assertEquals("Cached hits are counted", REPEATED_REQUESTS_NUMBER,
+                stubPlan.getHitsNumber(0));
+        with().header("h1", "v1").header("h2", "v2").body("Hello")
+                .post(SPY_SERVER_URL).then().body(is("Fine"));
+        assertEquals("Headers not referenced by expectations are ignored", 1,
+                evaluationsNumber.get());
+        with().header("h1", "v1").body("Hello").put(SPY_SERVER_URL).then()
+                .body(is("Fine"));
+        assertEquals("Other method is evaluated", 2, evaluationsNumber.get());
+        with().header("h1", "v2").body("Hello").post(SPY_SERVER_URL).then()
+                .statusCode(500);
+        assertEquals("Other value of a referenced header is evaluated", 3,
+                evaluationsNumber.get());
+        with().header("h1", "v1").body("Hello!").post(SPY_SERVER_URL).then()
+                .statusCode(500);
+        assertEquals("Other body is evaluated", 4, evaluationsNumber.get());
+    }
+
+    @Test
+    public void unmatchedRequest_CachedAndRecorded() {
+        for (int i = 0; i < REPEATED_REQUESTS_NUMBER; i++) {
+            with().header("h1", "v1").body("Unknown").post(SPY_SERVER_URL).then()
+                    .statusCode(500);
+        }
+        assertEquals(1, evaluationsNumber.get());
+        assertEquals("Each unmatched request is recorded", REPEATED_REQUESTS_NUMBER,
+                stubPlan.getUnmatchedRequestsNumber());
+    }
+
+    @Test
+    public void update_CacheInvalidated() {
+        with().header("h1", "v1").body("Hello").post(SPY_SERVER_URL).then()
+                .body(is("Fine"));
+        stubPlan.update(new AbstractStubPlanUpdate() {
+
+            @Override
+            public void compose() {
+                add("get",
+                        request().withMethod(equalTo("GET")).andResponse(
+                                response().withBody("Get")));
+            }
+        });
+        with().header("h1", "v1").body("Hello").post(SPY_SERVER_URL).then()
+                .body(is("Fine"));
+        assertEquals(2, evaluationsNumber.get());
+        httpSpy.verify();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import static com.jayway.restassured.RestAssured.with;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ParameterExpectationsTest extends TestHarness {
+
+    @Test
+    public void queryParamStubs_OnlyMatchingValueEvaluated() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                options().withMatchingStatistics();
+                expect(request().withQueryParam("id", equalTo("1")).andResponse(
+                        response().withBody("One")));
+                expect(request().withQueryParam("id", equalTo("2"))
+                        .withQueryParam("lang", equalTo("en"))
+                        .andResponse(response().withBody("Two")));
+                expect(request().withQueryParam("id", equalTo("3")).andResponse(
+                        response().withBody("Three")));
+            }
+        });
+        with().queryParam("lang", "en").queryParam("id", "2").get(SPY_SERVER_URL)
+                .then().statusCode(200).body(is("Two"));
+        with().queryParam("id", "4").get(SPY_SERVER_URL).then().statusCode(500);
+        StubPlan plan = (StubPlan) httpSpy.getTestPlan();
+        assertEquals(0, plan.getMatchingLatency(0).getCount());
+        assertEquals(
+                "Only the expectation with the same parameter value is evaluated", 1,
+                plan.getMatchingLatency(1).getCount());
+        assertEquals(0, plan.getMatchingLatency(2).getCount());
+    }
+
+    @Test
+    public void queryParamMultipleValues() {
+        httpSpy.testPlan(new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withQueryParam("tag", equalTo("b c")));
+            }
+        });
+        with().queryParam("tag", "a", "b c").get(SPY_SERVER_URL).then()
+                .statusCode(200);
+        httpSpy.verify();
+    }
+
+    @Test
+    public void unexpectedQueryParam() {
+        httpSpy.testPlan(new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withQueryParam("id", equalTo("1")));
+            }
+        });
+        with().queryParam("id", "unexpected_value").get(SPY_SERVER_URL);
+        try {
+            httpSpy.verify();
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            assertThat(
+                    "Error message reports about unexpected parameter value",
+                    e.getMessage(),
+                    both(containsString("query parameter id")).and(
+                            containsString("unexpected_value")));
+        }
+    }
+
+    @Test
+    public void formParamStubs() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withFormParam("user", equalTo("ann")).andResponse(
+                        response().withBody("Welcome")));
+            }
+        });
+        with().formParam("user", "ann").formParam("password", "secret")
+                .queryParam("lang", "en").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("Welcome"));
+        with().body("user=ann").contentType("text/plain").post(SPY_SERVER_URL).then()
+                .statusCode(500);
+    }
+}
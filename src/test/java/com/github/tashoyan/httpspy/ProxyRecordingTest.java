@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import static com.jayway.restassured.RestAssured.with;
+import com.jayway.restassured.response.Response;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.apache.commons.lang3.StringUtils;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProxyRecordingTest extends TestHarness {
+
+    private static final int UPSTREAM_PORT = 47605;
+
+    private static final byte[] BINARY_BODY = new byte[256];
+    static {
+        for (int i = 0; i < BINARY_BODY.length; i++) {
+            BINARY_BODY[i] = (byte) i;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private CamelJettyHttpSpy upstream;
+
+    private ProxyRecorder recorder;
+
+    @Before
+    public void startUpstream() {
+        upstream =
+                new CamelJettyHttpSpy(SPY_SERVER_HOST, UPSTREAM_PORT, SPY_SERVER_PATH);
+        upstream.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withBody(equalTo("ping")).andResponse(
+                        response().withStatus(201).withBody("pong")
+                                .withHeader("h1", "v1")));
+                expect(request().withBody(equalTo("hello")).andResponse(
+                        response().withBody("world")));
+                expect(request().withBody(equalTo("binary")).andResponse(
+                        response().withBody(ByteBuffer.wrap(BINARY_BODY))));
+            }
+        });
+        upstream.start();
+        recorder = new ProxyRecorder("http://localhost:"
+                + UPSTREAM_PORT);
+    }
+
+    @After
+    public void stopUpstream() throws IOException {
+        recorder.close();
+        upstream.stop();
+    }
+
+    private void recordTwoRequests() {
+        httpSpy.testPlan(new AbstractRecordingPlanBuilder(recorder) {
+
+            @Override
+            public void compose() {
+                expect(request().withBody(equalTo("stubbed")).andResponse(
+                        response().withBody("from stub")));
+            }
+        });
+        with().body("ping").post(SPY_SERVER_URL).then().statusCode(201)
+                .header("h1", "v1").body(is("pong"));
+        with().body("hello").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("world"));
+        with().body("stubbed").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("from stub"));
+        httpSpy.verify();
+        httpSpy.reset();
+        assertEquals("Only forwarded requests are recorded", 2, recorder
+                .getRecordings().size());
+    }
+
+    @Test
+    public void recordAndPlayback() {
+        recordTwoRequests();
+        upstream.stop();
+        httpSpy.testPlan(recorder.playbackPlan());
+        with().body("hello").post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("world"));
+        with().body("ping").post(SPY_SERVER_URL).then().statusCode(201)
+                .header("h1", "v1").body(is("pong"));
+        httpSpy.verify();
+        upstream.start();
+    }
+
+    @Test
+    public void recordAndPlaybackFromFile() throws IOException {
+        recordTwoRequests();
+        File stubFile = temporaryFolder.newFile("stubs.json");
+        recorder.save(stubFile.toPath());
+        httpSpy.testPlan(RecordedStubPlanBuilder.fromFile(stubFile.toPath()));
+        with().body("ping").post(SPY_SERVER_URL).then().statusCode(201)
+                .body(is("pong"));
+        Response response = with().body("unknown").post(SPY_SERVER_URL);
+        response.then().statusCode(500);
+        try {
+            httpSpy.verify();
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            assertThat("Played back plan does not forward requests", e.getMessage(),
+                    containsString("unknown"));
+        }
+    }
+
+    @Test
+    public void binaryBody_RecordedAndPlayedBackIntact() throws IOException {
+        httpSpy.testPlan(new AbstractRecordingPlanBuilder(recorder) {
+
+            @Override
+            public void compose() {
+            }
+        });
+        assertArrayEquals("Forwarded binary body", BINARY_BODY, with().body("binary")
+                .post(SPY_SERVER_URL).asByteArray());
+        httpSpy.reset();
+        httpSpy.testPlan(recorder.playbackPlan());
+        assertArrayEquals("Played back binary body", BINARY_BODY, with()
+                .body("binary").post(SPY_SERVER_URL).asByteArray());
+        httpSpy.reset();
+        File stubFile = temporaryFolder.newFile("stubs.json");
+        recorder.save(stubFile.toPath());
+        httpSpy.testPlan(RecordedStubPlanBuilder.fromFile(stubFile.toPath()));
+        assertArrayEquals("Binary body played back from file", BINARY_BODY, with()
+                .body("binary").post(SPY_SERVER_URL).asByteArray());
+    }
+
+    @Test
+    public void spilledBody_RecordedAndPlayedBackFromFile() throws IOException {
+        String largeBody = StringUtils.repeat("large ", 1000);
+        upstream.reset();
+        upstream.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withBody(equalTo(largeBody)).andResponse(
+                        response().withBody("spilled")));
+            }
+        });
+        httpSpy.setBodyMemoryThreshold(16);
+        httpSpy.testPlan(new AbstractRecordingPlanBuilder(recorder) {
+
+            @Override
+            public void compose() {
+            }
+        });
+        with().body(largeBody).post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("spilled"));
+        httpSpy.reset();
+        assertTrue("Recorded body is kept in a file", recorder.getRecordings().get(0)
+                .getLeft().getRequestBody().isSpilled());
+        httpSpy.testPlan(recorder.playbackPlan());
+        with().body(largeBody).post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("spilled"));
+        with().body(largeBody
+                + "!").post(SPY_SERVER_URL).then().statusCode(500);
+        httpSpy.reset();
+        File stubFile = temporaryFolder.newFile("stubs.json");
+        recorder.save(stubFile.toPath());
+        recorder.close();
+        assertThat("Spilled body is not inlined into the stub file",
+                new String(Files.readAllBytes(stubFile.toPath()),
+                        StandardCharsets.UTF_8), not(containsString(largeBody)));
+        httpSpy.testPlan(RecordedStubPlanBuilder.fromFile(stubFile.toPath()));
+        with().body(largeBody).post(SPY_SERVER_URL).then().statusCode(200)
+                .body(is("spilled"));
+    }
+
+    @Test
+    public void upstreamUnavailable() throws IOException {
+        recorder.close();
+        recorder = new ProxyRecorder("http://localhost:1");
+        httpSpy.testPlan(new AbstractRecordingPlanBuilder(recorder) {
+
+            @Override
+            public void compose() {
+            }
+        });
+        with().body("ping").post(SPY_SERVER_URL).then().statusCode(502);
+        try {
+            httpSpy.verify();
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            assertThat("Not forwarded request is reported", e.getMessage(),
+                    containsString("ping"));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import java.util.Collections;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SequencePlanVerificationTest {
+
+    private static final int REQUESTS_NUMBER = 5000;
+
+    private SequencePlan createPlan() {
+        return new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                for (int i = 0; i < REQUESTS_NUMBER; i++) {
+                    expect(request().withBody(equalToJson("{\"index\":"
+                            + i + "}")));
+                }
+            }
+        }.build();
+    }
+
+    private void sendRequest(SequencePlan plan, String body) {
+        plan.getResponse(new CamelJettyHttpRequest("POST", "/", body, Collections
+                .emptyMap()));
+    }
+
+    @Test
+    public void parallelVerification_Success() {
+        SequencePlan plan = createPlan();
+        for (int i = 0; i < REQUESTS_NUMBER; i++) {
+            sendRequest(plan, "{\"index\":"
+                    + i + "}");
+        }
+        plan.verify();
+    }
+
+    @Test
+    public void parallelVerification_ReportsLowestMismatch() {
+        SequencePlan plan = createPlan();
+        for (int i = 0; i < REQUESTS_NUMBER; i++) {
+            int index = i == 1200
+                    || i == 3000 || i == 4999
+                    ? -1
+                    : i;
+            sendRequest(plan, "{\"index\":"
+                    + index + "}");
+        }
+        try {
+            plan.verify();
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            assertThat("The first mismatching request is reported", e.getMessage(),
+                    both(containsString("Request #1200 should match expectation"))
+                            .and(containsString("Expected:")));
+        }
+    }
+}
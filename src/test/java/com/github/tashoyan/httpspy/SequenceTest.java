@@ -20,7 +20,10 @@ import com.jayway.restassured.response.Response;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.hamcrest.BaseMatcher;
 import static org.hamcrest.CoreMatchers.*;
+import org.hamcrest.Description;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -298,4 +301,116 @@ public class SequenceTest extends TestHarness {
             httpSpy.reset();
         }
     }
+
+    @Test
+    public void incrementalVerification_FailFast() throws InterruptedException {
+        IncrementalVerifier verifier = new IncrementalVerifier();
+        httpSpy.testPlan(new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                verifyIncrementally(verifier);
+                expect(request().withBody(equalTo("first")));
+                expect(request().withBody(equalTo("second")));
+                expect(request().withBody(equalTo("third")));
+            }
+        });
+        with().body("first").post(SPY_SERVER_URL).then().statusCode(200);
+        assertFalse("Matching request does not fail verifier",
+                verifier.awaitFailure(100, TimeUnit.MILLISECONDS));
+        with().body("wrong").post(SPY_SERVER_URL).then().statusCode(200);
+        assertTrue("Mismatch detected without waiting for verification",
+                verifier.awaitFailure(10, TimeUnit.SECONDS));
+        assertThat(
+                verifier.getViolations().get(0),
+                both(containsString("Request #1 should match expectation")).and(
+                        containsString("wrong")));
+        try {
+            httpSpy.verify();
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            assertThat("Error message reports the violation", e.getMessage(),
+                    containsString("Request #1 should match expectation"));
+        }
+    }
+
+    @Test
+    public void incrementalVerification_RecordsFirstViolations()
+            throws InterruptedException {
+        IncrementalVerifier verifier = new IncrementalVerifier(2, false);
+        httpSpy.testPlan(new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                verifyIncrementally(verifier);
+                expect(2, request().withBody(equalTo("expected")));
+            }
+        });
+        for (int i = 0; i < 4; i++) {
+            with().body("actual").post(SPY_SERVER_URL);
+        }
+        verifier.awaitChecks();
+        assertFalse("Verifier is not fail fast", verifier.isFailed());
+        assertEquals("All violations are counted", 4, verifier.getViolationsNumber());
+        assertEquals("Only first violations are recorded", 2, verifier.getViolations()
+                .size());
+        try {
+            httpSpy.verify();
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            assertThat(
+                    "Error message reports the first violations",
+                    e.getMessage(),
+                    both(containsString("Request #1 should match expectation")).and(
+                            not(containsString("Request #3"))));
+        }
+    }
+
+    @Test
+    public void incrementalVerification_MatcherFailureRecorded()
+            throws InterruptedException {
+        IncrementalVerifier verifier = new IncrementalVerifier();
+        httpSpy.testPlan(new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                verifyIncrementally(verifier);
+                expect(request().withBody(matching(new BaseMatcher<String>() {
+
+                    @Override
+                    public boolean matches(Object item) {
+                        throw new IllegalStateException("Broken matcher");
+                    }
+
+                    @Override
+                    public void describeTo(Description description) {
+                        description.appendText("broken matcher");
+                    }
+                })));
+            }
+        });
+        with().body("any").post(SPY_SERVER_URL);
+        assertTrue("Matcher failure detected as violation",
+                verifier.awaitFailure(10, TimeUnit.SECONDS));
+        assertThat(
+                verifier.getViolations().get(0),
+                both(containsString("Request #0 should match expectation")).and(
+                        containsString("Broken matcher")));
+    }
+
+    @Test
+    public void incrementalVerification_Success() {
+        httpSpy.testPlan(new AbstractSequencePlanBuilder() {
+
+            @Override
+            public void compose() {
+                verifyIncrementally(new IncrementalVerifier());
+                expect(3, request().withBody(equalTo("expected")));
+            }
+        });
+        for (int i = 0; i < 3; i++) {
+            with().body("expected").post(SPY_SERVER_URL).then().statusCode(200);
+        }
+        httpSpy.verify();
+    }
 }
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import static com.jayway.restassured.RestAssured.with;
+import com.github.tashoyan.httpspy.SpyStatistics.Stage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.hamcrest.BaseMatcher;
+import static org.hamcrest.CoreMatchers.*;
+import org.hamcrest.Description;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class StatisticsTest extends TestHarness {
+
+    private static final int REQUESTS_NUMBER = 20;
+
+    private static final int DELAYED_REQUESTS_NUMBER = 5;
+
+    private static final long DELAY_MILLIS = 200;
+
+    private static final long COMPLETION_TIMEOUT_MILLIS = 5000;
+
+    private static final int BUDGET_REQUESTS_NUMBER = 130;
+
+    private static final long MATCHING_BUDGET_MILLIS = 2;
+
+    private static final long SLOW_MATCHING_MILLIS = 5;
+
+    private static final long MIN_SAMPLED_DELAY_MILLIS = 50;
+
+    private static final long MAX_SAMPLED_DELAY_MILLIS = 150;
+
+    private static final int SAMPLES_NUMBER = 10000;
+
+    /**
+     * Body matcher that takes longer than the matching budget.
+     */
+    private static class SlowBodyMatcher extends BaseMatcher<String> {
+
+        @Override
+        public boolean matches(Object item) {
+            try {
+                Thread.sleep(SLOW_MATCHING_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "Slow".equals(item);
+        }
+
+        @Override
+        public void describeTo(Description description) {
+            description.appendText("slow body matcher");
+        }
+    }
+
+    private static final long MAX_SPY_LATENCY_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(DELAY_MILLIS / 2);
+
+    private void awaitCount(LatencyHistogram histogram, long count)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis()
+                + COMPLETION_TIMEOUT_MILLIS;
+        while (histogram.getCount() < count
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Number of recorded latencies", count, histogram.getCount());
+    }
+
+    @Test
+    public void stageLatencies_RecordedForEachRequest() throws InterruptedException {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withMethod(equalTo("GET")).andResponse(
+                        response().withBody("Fine")));
+            }
+        });
+        for (int i = 0; i < REQUESTS_NUMBER; i++) {
+            with().get(SPY_SERVER_URL).then().statusCode(200).body(is("Fine"));
+        }
+        httpSpy.verify();
+        SpyStatistics statistics = httpSpy.getStatistics();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram latency = statistics.getLatency(stage);
+            awaitCount(latency, REQUESTS_NUMBER);
+            assertTrue("Latency of "
+                    + stage + " is measured", latency.getMax() > 0);
+            assertTrue("p99 of "
+                    + stage + " is not greater than max",
+                    latency.getValueAtPercentile(99) <= latency.getMax());
+        }
+    }
+
+    private void sendDelayedRequests() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withMethod(equalTo("GET")).andResponse(
+                        response().withBody("Fine").withDelay(TimeUnit.MILLISECONDS,
+                                DELAY_MILLIS)));
+            }
+        });
+        for (int i = 0; i < DELAYED_REQUESTS_NUMBER; i++) {
+            with().get(SPY_SERVER_URL).then().statusCode(200);
+        }
+    }
+
+    @Test
+    public void totalLatency_ExcludesResponseDelay() throws InterruptedException {
+        // The first requests load the classes of the servicing path, which
+        // takes longer than the bound below; warm up with another spy server,
+        // so that its statistics keep these cold requests
+        sendDelayedRequests();
+        httpSpy.stop();
+        httpSpy =
+                new CamelJettyHttpSpy(SPY_SERVER_HOST, SPY_SERVER_PORT,
+                        SPY_SERVER_PATH);
+        httpSpy.start();
+        sendDelayedRequests();
+        LatencyHistogram total = httpSpy.getStatistics().getLatency(Stage.TOTAL);
+        awaitCount(total, DELAYED_REQUESTS_NUMBER);
+        assertTrue("Spy latency is measured", total.getValueAtPercentile(0) > 0);
+        assertTrue("Spy latency excludes the response delay",
+                total.getValueAtPercentile(99) < MAX_SPY_LATENCY_NANOS);
+    }
+
+    @Test
+    public void totalLatency_ExcludesSampledDelayAndShaping()
+            throws InterruptedException {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withMethod(equalTo("GET")).andResponse(
+                        response()
+                                .withBody("Fine")
+                                .withDelay(
+                                        LatencyDistribution.constant(
+                                                TimeUnit.MILLISECONDS, DELAY_MILLIS))
+                                .withShaping(
+                                        ShapingProfile.NONE.withFirstByteLatency(
+                                                TimeUnit.MILLISECONDS, DELAY_MILLIS))));
+            }
+        });
+        LatencyHistogram total = httpSpy.getStatistics().getLatency(Stage.TOTAL);
+        CompletableFuture<Void> inFlight =
+                CompletableFuture.runAsync(() -> with().get(SPY_SERVER_URL).then()
+                        .statusCode(200));
+        Thread.sleep(DELAY_MILLIS);
+        assertEquals("Request is in flight while waiting", 1, httpSpy.getStatistics()
+                .getInFlightRequestsNumber());
+        assertEquals("Latency is not recorded before sending", 0, total.getCount());
+        inFlight.join();
+        for (int i = 1; i < DELAYED_REQUESTS_NUMBER; i++) {
+            with().get(SPY_SERVER_URL).then().statusCode(200).body(is("Fine"));
+        }
+        awaitCount(total, DELAYED_REQUESTS_NUMBER);
+        assertTrue("Spy latency is measured after sending",
+                total.getValueAtPercentile(0) > 0);
+        assertTrue("Spy latency excludes the sampled delay and the shaping",
+                total.getValueAtPercentile(50) < MAX_SPY_LATENCY_NANOS);
+        assertTrue("Sending is measured after the waits", httpSpy.getStatistics()
+                .getLatency(Stage.RESPONSE_SENDING).getValueAtPercentile(0) > 0);
+    }
+
+    @Test
+    public void matchingStatisticsEnabled_LatencyPerExpectation() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                options().withMatchingStatistics();
+                expect(request().withPath(equalTo(SPY_SERVER_PATH)).andResponse(
+                        response().withBody("Path")));
+                expect(request().withMethod(equalToIgnoreCase("post")).andResponse(
+                        response().withBody("Post")));
+            }
+        });
+        for (int i = 0; i < REQUESTS_NUMBER; i++) {
+            with().get(SPY_SERVER_URL).then().body(is("Path"));
+        }
+        with().post(SPY_SERVER_URL).then().body(is("Post"));
+        httpSpy.verify();
+        StubPlan plan = (StubPlan) httpSpy.getTestPlan();
+        assertEquals("Expectation specified last is evaluated for each request",
+                REQUESTS_NUMBER + 1, plan.getMatchingLatency(0).getCount());
+        assertEquals("Expectation specified first is evaluated when others unmatched",
+                REQUESTS_NUMBER, plan.getMatchingLatency(1).getCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void matchingStatisticsDisabled_Exception() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withMethod(equalTo("GET")).andResponse(
+                        response().withBody("Fine")));
+            }
+        });
+        ((StubPlan) httpSpy.getTestPlan()).getMatchingLatency(0);
+    }
+
+    @Test
+    public void matchingBudgetExceeded_SlowExpectationDemoted()
+            throws InterruptedException {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                options().withMatchingBudget(TimeUnit.MILLISECONDS,
+                        MATCHING_BUDGET_MILLIS).withSlowExpectationDemotion();
+                expect(request().withMethod(equalToIgnoreCase("get")).andResponse(
+                        response().withBody("Get")));
+                expect(request().withBody(matching(new SlowBodyMatcher()))
+                        .andResponse(response().withBody("Slow")));
+            }
+        });
+        StubPlan plan = (StubPlan) httpSpy.getTestPlan();
+        assertEquals("Expectation specified last is evaluated first",
+                Arrays.asList("0", "1"), plan.getExpectationIds());
+        for (int i = 0; i < BUDGET_REQUESTS_NUMBER; i++) {
+            with().get(SPY_SERVER_URL).then().body(is("Get"));
+        }
+        with().body("Slow").post(SPY_SERVER_URL).then().body(is("Slow"));
+        httpSpy.verify();
+        assertEquals("Slow expectation is flagged", Collections.singletonList("0"),
+                plan.getSlowExpectationIds());
+        List<String> demotedIds = Arrays.asList("1", "0");
+        long deadline = System.currentTimeMillis()
+                + COMPLETION_TIMEOUT_MILLIS;
+        while (!demotedIds.equals(plan.getExpectationIds())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Slow expectation is evaluated last", demotedIds,
+                plan.getExpectationIds());
+        assertSame("Statistics of the demoted expectation is found by id",
+                plan.getMatchingLatency(1), plan.getMatchingLatency("0"));
+        assertEquals("Hits of the demoted expectation are found by id", 1,
+                plan.getHitsNumber("0"));
+    }
+
+    @Test
+    public void matchingBudgetNotExceeded_NoSlowExpectations() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                options().withMatchingBudget(TimeUnit.SECONDS, 1)
+                        .withSlowExpectationDemotion();
+                expect(request().withMethod(equalToIgnoreCase("get")).andResponse(
+                        response().withBody("Get")));
+                expect(request().withPath(matching(containsString(SPY_SERVER_PATH)))
+                        .andResponse(response().withBody("Path")));
+            }
+        });
+        for (int i = 0; i < BUDGET_REQUESTS_NUMBER; i++) {
+            with().get(SPY_SERVER_URL).then().body(is("Path"));
+        }
+        httpSpy.verify();
+        StubPlan plan = (StubPlan) httpSpy.getTestPlan();
+        assertTrue("No slow expectations", plan.getSlowExpectationIds().isEmpty());
+        assertEquals("Order of evaluation is kept", Arrays.asList("0", "1"),
+                plan.getExpectationIds());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slowExpectationDemotionWithoutBudget_Exception() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                options().withSlowExpectationDemotion();
+                expect(request().withMethod(equalTo("GET")).andResponse(
+                        response().withBody("Fine")));
+            }
+        });
+    }
+
+    @Test
+    public void histogram_PercentileWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(500_500, histogram.getMean(), 0.001);
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue("p50 is within 1/32 of 500000: "
+                + p50, p50 >= 500_000
+                && p50 <= 500_000 * 33 / 32);
+        assertEquals("p100 is max", 1_000_000, histogram.getValueAtPercentile(100));
+        assertEquals("Empty histogram", 0,
+                new LatencyHistogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void delayDistribution_AppliedDelaysRecorded() throws InterruptedException {
+        Map<Double, Long> delays = new HashMap<>();
+        delays.put(0.0, MIN_SAMPLED_DELAY_MILLIS);
+        delays.put(100.0, MAX_SAMPLED_DELAY_MILLIS);
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withMethod(equalTo("GET")).andResponse(
+                        response().withBody("Fine").withDelay(
+                                LatencyDistribution.percentiles(TimeUnit.MILLISECONDS,
+                                        delays))));
+            }
+        });
+        for (int i = 0; i < REQUESTS_NUMBER; i++) {
+            long startMillis = System.currentTimeMillis();
+            with().get(SPY_SERVER_URL).then().statusCode(200).body(is("Fine"));
+            assertTrue("Response is delayed", System.currentTimeMillis()
+                    - startMillis >= MIN_SAMPLED_DELAY_MILLIS);
+        }
+        httpSpy.verify();
+        LatencyHistogram applied =
+                ((StubPlan) httpSpy.getTestPlan()).getAppliedDelays(0);
+        assertEquals("Number of applied delays", REQUESTS_NUMBER, applied.getCount());
+        assertTrue(
+                "Applied delays are within the distribution",
+                applied.getValueAtPercentile(0) >= TimeUnit.MILLISECONDS
+                        .toNanos(MIN_SAMPLED_DELAY_MILLIS)
+                        && applied.getMax() <= TimeUnit.MILLISECONDS
+                                .toNanos(MAX_SAMPLED_DELAY_MILLIS));
+    }
+
+    @Test
+    public void delayDistribution_PercentilesReproduced() {
+        Map<Double, Long> delays = new HashMap<>();
+        delays.put(50.0, 10L);
+        delays.put(99.0, 200L);
+        delays.put(100.0, 1000L);
+        LatencyDistribution distribution =
+                LatencyDistribution.percentiles(TimeUnit.MILLISECONDS, delays);
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < SAMPLES_NUMBER; i++) {
+            histogram.record(distribution.sampleNanos());
+        }
+        long p25 = TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtPercentile(25));
+        long p90 = TimeUnit.NANOSECONDS.toMillis(histogram.getValueAtPercentile(90));
+        assertTrue("p25 is the lowest delay 10 ms: "
+                + p25, p25 >= 9
+                && p25 <= 11);
+        assertTrue("p90 is interpolated to about 165 ms: "
+                + p90, p90 >= 145
+                && p90 <= 185);
+        assertTrue("Max is not greater than 1 s",
+                histogram.getMax() <= TimeUnit.SECONDS.toNanos(1));
+        LatencyDistribution recorded = LatencyDistribution.of(histogram);
+        LatencyHistogram resampled = new LatencyHistogram();
+        for (int i = 0; i < SAMPLES_NUMBER; i++) {
+            resampled.record(recorded.sampleNanos());
+        }
+        long resampledP90 =
+                TimeUnit.NANOSECONDS.toMillis(resampled.getValueAtPercentile(90));
+        assertTrue("Recorded histogram is reproduced: "
+                + resampledP90, resampledP90 >= 135
+                && resampledP90 <= 195);
+    }
+}
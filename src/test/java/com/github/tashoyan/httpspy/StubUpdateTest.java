@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Arseniy Tashoyan
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.tashoyan.httpspy;
+
+import static com.github.tashoyan.httpspy.AbstractTestPlanBuilder.equalTo;
+import static com.jayway.restassured.RestAssured.with;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.management.JMX;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StubUpdateTest extends TestHarness {
+
+    private static final int UPDATES_NUMBER = 2000;
+
+    private StubPlan stubPlan;
+
+    private String getStubsUrl() {
+        return "http://"
+                + SPY_SERVER_HOST + ":" + SPY_SERVER_PORT + httpSpy.getAdminPath()
+                + "stubs";
+    }
+
+    @Before
+    public void setTestPlan() {
+        httpSpy.testPlan(new AbstractStubPlanBuilder() {
+
+            @Override
+            public void compose() {
+                expect(request().withMethod(equalTo("GET")).andResponse(
+                        response().withBody("Get")));
+                expect(request().withMethod(equalTo("POST")).andResponse(
+                        response().withBody("Post")));
+            }
+        });
+        stubPlan = (StubPlan) httpSpy.getTestPlan();
+    }
+
+    @Test
+    public void initialIds_InOrderOfEvaluation() {
+        assertEquals(Arrays.asList("0", "1"), stubPlan.getExpectationIds());
+        with().post(SPY_SERVER_URL).then().body(is("Post"));
+        assertEquals("Expectation specified last has id 0", 1,
+                stubPlan.getHitsNumber(0));
+    }
+
+    @Test
+    public void add_EvaluatedFirst() {
+        stubPlan.update(new AbstractStubPlanUpdate() {
+
+            @Override
+            public void compose() {
+                add("override",
+                        request().withMethod(equalTo("GET")).andResponse(
+                                response().withBody("Override")));
+            }
+        });
+        assertEquals(Arrays.asList("override", "0", "1"), stubPlan.getExpectationIds());
+        with().get(SPY_SERVER_URL).then().statusCode(200).body(is("Override"));
+        httpSpy.verify();
+    }
+
+    @Test
+    public void replaceAndRemove_AppliedAsBatch() {
+        stubPlan.update(new AbstractStubPlanUpdate() {
+
+            @Override
+            public void compose() {
+                replace("1",
+                        request().withMethod(equalTo("GET")).andResponse(
+                                response().withBody("Replaced")));
+                remove("0");
+            }
+        });
+        assertEquals(Arrays.asList("1"), stubPlan.getExpectationIds());
+        with().get(SPY_SERVER_URL).then().statusCode(200).body(is("Replaced"));
+        with().post(SPY_SERVER_URL).then().statusCode(500);
+    }
+
+    @Test
+    public void concurrentUpdates_HitsReadConsistently() throws Exception {
+        HttpSpyMXBean mxBean =
+                JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                        httpSpy.getMBeanName(), HttpSpyMXBean.class);
+        ExecutorService updater = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> updates = updater.submit(() -> {
+                for (int i = 0; i < UPDATES_NUMBER; i++) {
+                    stubPlan.update(new AbstractStubPlanUpdate() {
+
+                        @Override
+                        public void compose() {
+                            add("extra", request().withMethod(equalTo("PUT"))
+                                    .andResponse(response().withBody("Put")));
+                        }
+                    });
+                    stubPlan.update(new AbstractStubPlanUpdate() {
+
+                        @Override
+                        public void compose() {
+                            remove("extra");
+                        }
+                    });
+                }
+            });
+            while (!updates.isDone()) {
+                int hitsLength = mxBean.getExpectationHits().length;
+                assertTrue("Hits of 2 or 3 expectations: "
+                        + hitsLength, hitsLength == 2
+                        || hitsLength == 3);
+            }
+            updates.get();
+        } finally {
+            updater.shutdownNow();
+        }
+    }
+
+    @Test
+    public void invalidChange_NothingApplied() {
+        try {
+            stubPlan.update(new AbstractStubPlanUpdate() {
+
+                @Override
+                public void compose() {
+                    remove("0");
+                    remove("unknown");
+                }
+            });
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("unknown"));
+        }
+        assertEquals(Arrays.asList("0", "1"), stubPlan.getExpectationIds());
+        with().post(SPY_SERVER_URL).then().body(is("Post"));
+    }
+
+    @Test
+    public void duplicateId_NothingApplied() {
+        try {
+            stubPlan.update(new AbstractStubPlanUpdate() {
+
+                @Override
+                public void compose() {
+                    add("0",
+                            request().withMethod(equalTo("PUT")).andResponse(
+                                    response().withBody("Put")));
+                }
+            });
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("Duplicate"));
+        }
+        assertEquals(Arrays.asList("0", "1"), stubPlan.getExpectationIds());
+    }
+
+    @Test
+    public void httpUpdate_Applied() {
+        with().get(getStubsUrl()).then().statusCode(200)
+                .body(containsString("\"ids\":[\"0\",\"1\"]"));
+        String update =
+                "{\"remove\": [\"1\"], \"add\": [{\"id\": \"put\","
+                        + " \"request\": {\"method\": \"PUT\","
+                        + " \"headers\": {\"X-Test\": [\"yes\"]}},"
+                        + " \"response\": {\"status\": 201, \"body\": \"Put\","
+                        + " \"headers\": {\"X-Reply\": [\"done\"]}}}]}";
+        with().body(update).post(getStubsUrl()).then().statusCode(200)
+                .body(containsString("\"ids\":[\"put\",\"0\"]"));
+        with().header("X-Test", "yes").put(SPY_SERVER_URL).then().statusCode(201)
+                .header("X-Reply", "done").body(is("Put"));
+        with().get(SPY_SERVER_URL).then().statusCode(500);
+    }
+
+    @Test
+    public void httpUpdate_BinaryResponseBody() {
+        byte[] binary = {0, (byte) 0xff, (byte) 0xfe, 1};
+        String update =
+                "{\"add\": [{\"id\": \"binary\", \"request\": {\"method\": \"PUT\"},"
+                        + " \"response\": {\"status\": 200, \"bodyBase64\": \""
+                        + Base64.getEncoder().encodeToString(binary) + "\"}}]}";
+        with().body(update).post(getStubsUrl()).then().statusCode(200);
+        assertArrayEquals(binary, with().put(SPY_SERVER_URL).asByteArray());
+    }
+
+    @Test
+    public void httpUpdate_UnsupportedRequestBody_BadRequest() {
+        String update =
+                "{\"add\": [{\"id\": \"binary\", \"request\": {\"bodyBase64\": \"AA==\"},"
+                        + " \"response\": {\"status\": 200}}]}";
+        with().body(update).post(getStubsUrl()).then().statusCode(400)
+                .body(containsString("bodyBase64"));
+        assertEquals(Arrays.asList("0", "1"), stubPlan.getExpectationIds());
+    }
+
+    @Test
+    public void httpInvalidUpdate_BadRequest() {
+        with().body("{\"remove\": [\"unknown\"]}").post(getStubsUrl()).then()
+                .statusCode(400).body(containsString("unknown"));
+        with().body("not json").post(getStubsUrl()).then().statusCode(400);
+        assertEquals(Arrays.asList("0", "1"), stubPlan.getExpectationIds());
+    }
+}